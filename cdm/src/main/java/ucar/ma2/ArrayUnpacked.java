@@ -0,0 +1,291 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.ma2;
+
+/**
+ * A read-only view of packed data, that unpacks each element when it is accessed.
+ * Used when only some of the elements of a large packed array will be looked at.
+ * The element type is float or double. Use copy() to get an ordinary, writeable Array.
+ *
+ * @author caron
+ */
+public class ArrayUnpacked extends Array {
+
+  /**
+   * Converts a packed value to its unpacked value.
+   */
+  public interface Unpacker {
+    /**
+     * @param packed packed value; unsigned packed data has already been widened.
+     * @return the unpacked value, may be NaN for missing data
+     */
+    public double unpack(double packed);
+  }
+
+  private final Array packed;
+  private final DataType dataType;
+  private final boolean unsigned;
+  private final double unsignedRange; // added to negative packed values when unsigned
+  private final Unpacker unpacker;
+  private Object storage; // materialized lazily, only if someone asks for it
+
+  /**
+   * Constructor.
+   *
+   * @param packed   the packed data; it is not changed
+   * @param dataType unpacked type, FLOAT or DOUBLE
+   * @param unsigned treat packed byte, short or int values as unsigned, whatever the flag of the packed array
+   * @param unpacker converts each element
+   */
+  public ArrayUnpacked(Array packed, DataType dataType, boolean unsigned, Unpacker unpacker) {
+    super(packed.getIndexPrivate());
+    if ((dataType != DataType.FLOAT) && (dataType != DataType.DOUBLE))
+      throw new IllegalArgumentException("ArrayUnpacked must be FLOAT or DOUBLE, not " + dataType);
+    this.packed = packed;
+    this.dataType = dataType;
+    this.unsigned = unsigned;
+    this.unpacker = unpacker;
+
+    Class elemType = packed.getElementType();
+    if (!unsigned) unsignedRange = 0;
+    else if (elemType == byte.class) unsignedRange = 256.0;
+    else if (elemType == short.class) unsignedRange = 65536.0;
+    else if (elemType == int.class) unsignedRange = 4294967296.0;
+    else unsignedRange = 0;
+  }
+
+  // widen a packed value if unsigned
+  private double getPacked(double val) {
+    return (val < 0) ? val + unsignedRange : val;
+  }
+
+  public Class getElementType() {
+    return dataType.getPrimitiveClassType();
+  }
+
+  Array createView(Index index) {
+    Array view = packed.createView(index);
+    view.setUnsigned(packed.isUnsigned());
+    return new ArrayUnpacked(view, dataType, unsigned, unpacker);
+  }
+
+  /**
+   * Unpacks all of the backing store, in the same layout as the packed backing store.
+   * @return float[] or double[]
+   */
+  public synchronized Object getStorage() {
+    if (storage != null) return storage;
+
+    Object packedStorage = packed.getStorage();
+    int n = java.lang.reflect.Array.getLength(packedStorage);
+    Array flat = Array.factory(packed.getElementType(), new int[]{n}, packedStorage);
+    flat.setUnsigned(packed.isUnsigned());
+    if (dataType == DataType.FLOAT) {
+      float[] result = new float[n];
+      for (int i = 0; i < n; i++)
+        result[i] = (float) unpacker.unpack(getPacked(flat.getDouble(i)));
+      storage = result;
+    } else {
+      double[] result = new double[n];
+      for (int i = 0; i < n; i++)
+        result[i] = unpacker.unpack(getPacked(flat.getDouble(i)));
+      storage = result;
+    }
+    return storage;
+  }
+
+  void copyFrom1DJavaArray(IndexIterator iter, Object javaArray) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  void copyTo1DJavaArray(IndexIterator iter, Object javaArray) {
+    if (dataType == DataType.FLOAT) {
+      float[] ja = (float[]) javaArray;
+      for (int i = 0; i < ja.length; i++)
+        ja[i] = iter.getFloatNext();
+    } else {
+      double[] ja = (double[]) javaArray;
+      for (int i = 0; i < ja.length; i++)
+        ja[i] = iter.getDoubleNext();
+    }
+  }
+
+  // all getters go through getDouble()
+
+  public double getDouble(Index ima) {
+    return unpacker.unpack(getPacked(packed.getDouble(ima)));
+  }
+
+  public float getFloat(Index ima) {
+    return (float) getDouble(ima);
+  }
+
+  public long getLong(Index ima) {
+    return (long) getDouble(ima);
+  }
+
+  public int getInt(Index ima) {
+    return (int) getDouble(ima);
+  }
+
+  public short getShort(Index ima) {
+    return (short) getDouble(ima);
+  }
+
+  public byte getByte(Index ima) {
+    return (byte) getDouble(ima);
+  }
+
+  public char getChar(Index ima) {
+    return (char) getDouble(ima);
+  }
+
+  public boolean getBoolean(Index ima) {
+    throw new ForbiddenConversionException();
+  }
+
+  public Object getObject(Index ima) {
+    return getObject(ima.currentElement());
+  }
+
+  public double getDouble(int elem) {
+    return unpacker.unpack(getPacked(packed.getDouble(elem)));
+  }
+
+  public float getFloat(int elem) {
+    return (float) getDouble(elem);
+  }
+
+  public long getLong(int elem) {
+    return (long) getDouble(elem);
+  }
+
+  public int getInt(int elem) {
+    return (int) getDouble(elem);
+  }
+
+  public short getShort(int elem) {
+    return (short) getDouble(elem);
+  }
+
+  public byte getByte(int elem) {
+    return (byte) getDouble(elem);
+  }
+
+  public char getChar(int elem) {
+    return (char) getDouble(elem);
+  }
+
+  public boolean getBoolean(int elem) {
+    throw new ForbiddenConversionException();
+  }
+
+  public Object getObject(int elem) {
+    if (dataType == DataType.FLOAT) return getFloat(elem);
+    return getDouble(elem);
+  }
+
+  // read-only
+
+  public void setDouble(Index ima, double value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setFloat(Index ima, float value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setLong(Index ima, long value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setInt(Index ima, int value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setShort(Index ima, short value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setByte(Index ima, byte value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setChar(Index ima, char value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setBoolean(Index ima, boolean value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setObject(Index ima, Object value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setDouble(int elem, double val) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setFloat(int elem, float val) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setLong(int elem, long value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setInt(int elem, int value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setShort(int elem, short value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setByte(int elem, byte value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setChar(int elem, char value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setBoolean(int elem, boolean value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+
+  public void setObject(int elem, Object value) {
+    throw new UnsupportedOperationException("ArrayUnpacked is read-only");
+  }
+}
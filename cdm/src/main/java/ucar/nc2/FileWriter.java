@@ -33,13 +33,16 @@
 package ucar.nc2;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 import ucar.ma2.*;
+import ucar.nc2.iosp.netcdf3.N3channelWriter;
 import ucar.nc2.iosp.netcdf3.N3iosp;
 
 /**
@@ -242,8 +245,10 @@ public class FileWriter {
   }
 
   /**
-   * Write data from varList into new file. Read/Write a maximum of  maxSize bytes at a time.
-   * When theres a record variable, its much more efficient to use it.
+   * Write data from varList into new file. Read/Write a maximum of slabSize bytes at a time.
+   * When theres a record variable, its much more efficient to use it: as many records as fit into a slab are
+   * read and written at once. Unless setPipeline(false), the next slab is read in a background thread while the
+   * current one is written.
    *
    * @param ncfile            write tot this file
    * @param varlist           list of varibles from the original file, with data in them
@@ -254,74 +259,276 @@ public class FileWriter {
    */
   public static double copyVarData(NetcdfFileWriteable ncfile, List<Variable> varlist, Structure recordVar,
                                    List<FileWriterProgressListener> progressListeners) throws IOException {
+    return copyVarData(ncfile, varlist, recordVar, progressListeners, pipeline, slabSize);
+  }
+
+  /**
+   * Write data from varList into new file, as copyVarData(ncfile, varlist, recordVar, progressListeners),
+   * but with the given settings instead of the ones of setPipeline() and setSlabSize().
+   *
+   * @param ncfile            write tot this file
+   * @param varlist           list of varibles from the original file, with data in them
+   * @param recordVar         the record variable from the original file, or null means dont use record variables
+   * @param progressListeners List of progress event listeners, may be null
+   * @param pipeline          read the next slab in a background thread while the current one is written
+   * @param slabSize          max bytes of data held in memory at once, see setSlabSize()
+   * @return total number of bytes written
+   * @throws IOException if I/O error
+   */
+  public static double copyVarData(NetcdfFileWriteable ncfile, List<Variable> varlist, Structure recordVar,
+                                   List<FileWriterProgressListener> progressListeners, boolean pipeline, long slabSize) throws IOException {
+    // a pipeline holds up to 3 slabs: one being written, one in the queue, one being read
+    long size = pipeline ? Math.max(1, slabSize / 3) : slabSize;
+    Copier copier = new Copier(ncfile, varlist, recordVar, progressListeners, size);
+    return copier.copy(pipeline);
+  }
 
-    boolean useRecordDimension = (recordVar != null);
+  static private volatile boolean pipeline = true;
+  static private volatile long slabSize = 50 * 1000 * 1000; // 50 Mbytes
+  static private ExecutorService executor;
 
-    // write non-record data
-    double total = 0;
-    for (Variable oldVar : varlist) {
-      if (useRecordDimension && oldVar.isUnlimited())
-        continue; // skip record variables
-      if (oldVar == recordVar)
-        continue;
-
-      if (debug)
-        System.out.println("write var= " + oldVar.getName() + " size = " + oldVar.getSize() + " type=" + oldVar.getDataType());
-
-      long size = oldVar.getSize() * oldVar.getElementSize();
-      total += size;
-
-      long maxSize = 50 * 1000 * 1000; // 50 Mbytes
-      if (size <= maxSize) {
-        copyAll(ncfile, oldVar);
-      } else {
-        copySome(ncfile, oldVar, maxSize, progressListeners);
+  /**
+   * Read the next slab of data in a background thread while the current one is written. Default is true.
+   * The original file is only read from one thread, and the new file only written from one thread.
+   * Applies to copies started afterwards.
+   *
+   * @param b if false, read and write in the calling thread
+   */
+  static public void setPipeline(boolean b) {
+    pipeline = b;
+  }
+
+  /**
+   * Set the maximum number of bytes of data held in memory at once. Default is 50 Mbytes.
+   * Without the pipeline, this is the size of a slab. With the pipeline, up to 3 slabs are held
+   * at once, so each slab is a third of this. Applies to copies started afterwards.
+   *
+   * @param size max bytes of data in memory
+   */
+  static public void setSlabSize(long size) {
+    slabSize = size;
+  }
+
+  static private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "FileWriter");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  // a section of data read from the original file, to be written to the new one
+  static private class Slab {
+    Variable oldVar;
+    String newName;
+    int[] origin;
+    Array data;
+    long nbytes;
+
+    Slab(Variable oldVar, String newName, int[] origin, Array data, long nbytes) {
+      this.oldVar = oldVar;
+      this.newName = newName;
+      this.origin = origin;
+      this.data = data;
+      this.nbytes = nbytes;
+    }
+  }
+
+  static private final Slab END = new Slab(null, null, null, null, 0);
+
+  // read the data in slabs, in the order its written; optionally pass it to the writing thread through a queue
+  static private class Copier {
+    private NetcdfFileWriteable ncfile;
+    private List<Variable> varlist;
+    private Structure recordVar;
+    private List<FileWriterProgressListener> progressListeners;
+    private long slabSize; // bytes of one slab
+    private FileWriterProgressEvent event = new FileWriterProgressEvent();
+    private volatile boolean cancel = false;
+
+    private Variable current; // the Variable being written
+    private long bytesToWrite, bytesWritten, start;
+
+    Copier(NetcdfFileWriteable ncfile, List<Variable> varlist, Structure recordVar,
+           List<FileWriterProgressListener> progressListeners, long slabSize) {
+      this.ncfile = ncfile;
+      this.varlist = varlist;
+      this.recordVar = recordVar;
+      this.progressListeners = progressListeners;
+      this.slabSize = slabSize;
+    }
+
+    double copy(boolean pipeline) throws IOException {
+      for (Variable oldVar : varlist) {
+        if (isRecordData(oldVar)) continue;
+        bytesToWrite += oldVar.getSize() * oldVar.getElementSize();
+      }
+      if (recordVar != null)
+        bytesToWrite += recordVar.getSize() * recordVar.getElementSize();
+      event.setBytesToWrite(bytesToWrite);
+      start = System.currentTimeMillis();
+
+      if (!pipeline) {
+        try {
+          readAll(null);
+        } catch (InterruptedException e) { // cant happen without a queue
+          throw new InterruptedIOException("FileWriter interrupted");
+        }
+        return bytesWritten;
       }
+
+      final BlockingQueue<Slab> queue = new ArrayBlockingQueue<Slab>(1);
+      Future<Object> reader = getExecutor().submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          try {
+            readAll(queue);
+          } finally {
+            send(queue, END);
+          }
+          return null;
+        }
+      });
+
+      try {
+        while (true) {
+          Slab slab = queue.take();
+          if (slab == END) break;
+          write(slab);
+        }
+        reader.get(); // rethrows a read error
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("FileWriter interrupted");
+
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new IOException(cause.getMessage());
+
+      } finally {
+        if (!reader.isDone()) { // the write failed: stop the reader
+          cancel = true;
+          queue.clear();
+          try {
+            reader.get();
+          } catch (Exception e) {
+            log.debug("FileWriter reader stopped", e);
+          }
+        }
+      }
+
+      if (debug) System.out.println("FileWriter copied " + bytesWritten + " bytes at " + event.getBytesPerSecond() + " bytes/sec");
+      return bytesWritten;
     }
 
-    // write record data
-    if (useRecordDimension) {
-      int[] origin = new int[]{0};
-      int[] size = new int[]{1};
+    private boolean isRecordData(Variable oldVar) {
+      return (recordVar != null) && (oldVar.isUnlimited() || (oldVar == recordVar));
+    }
 
-      int nrecs = (int) recordVar.getSize();
-      int sdataSize = recordVar.getElementSize();
+    // if queue is null, write each slab as its read
+    private void readAll(BlockingQueue<Slab> queue) throws IOException, InterruptedException {
+      // write non-record data
+      for (Variable oldVar : varlist) {
+        if (isRecordData(oldVar)) continue; // skip record variables
+        if (cancel) return;
 
-      double totalRecordBytes = 0;
-      for (int count = 0; count < nrecs; count++) {
-        origin[0] = count;
+        if (debug)
+          System.out.println("write var= " + oldVar.getName() + " size = " + oldVar.getSize() + " type=" + oldVar.getDataType());
+
+        String newName = N3iosp.makeValidNetcdfObjectName(oldVar.getName());
+        long size = oldVar.getSize() * oldVar.getElementSize();
         try {
-          Array recordData = recordVar.read(origin, size);
-          ncfile.write("record", origin, recordData);  // rather magic here - only writes the ones in ncfile !!
-          if (debug && (count == 0)) System.out.println("write record size = " + sdataSize);
+          if ((size <= slabSize) || (oldVar.getDataType() == DataType.STRING)) {
+            Array data = oldVar.read();
+            if (oldVar.getDataType() == DataType.STRING)
+              data = convertToChar(ncfile.findVariable(newName), data);
+            send(queue, new Slab(oldVar, newName, new int[oldVar.getRank()], data, size));
+            continue;
+          }
+
+          // contiguous slabs no larger than slabSize
+          long maxChunkElems = slabSize / oldVar.getElementSize();
+          ChunkingIndex index = new ChunkingIndex(oldVar.getShape());
+          while (index.currentElement() < index.getSize()) {
+            if (cancel) return;
+            int[] chunkOrigin = index.getCurrentCounter();
+            int[] chunkShape = index.computeChunkShape(maxChunkElems);
+            Array data = oldVar.read(chunkOrigin, chunkShape);
+            send(queue, new Slab(oldVar, newName, chunkOrigin, data, data.getSize() * oldVar.getElementSize()));
+            index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
+          }
+
         } catch (InvalidRangeException e) {
-          e.printStackTrace();
-          break;
+          throw new IOException(e.getMessage() + " for Variable " + oldVar.getName());
         }
-        totalRecordBytes += sdataSize;
+      }
 
+      // write record data, as many records at a time as fit into a slab
+      if (recordVar != null) {
+        int nrecs = (int) recordVar.getSize();
+        int sdataSize = recordVar.getElementSize();
+        int readAtaTime = (int) Math.max(1, Math.min(nrecs, slabSize / Math.max(1, sdataSize)));
+
+        for (int count = 0; count < nrecs; count += readAtaTime) {
+          if (cancel) return;
+          int need = Math.min(readAtaTime, nrecs - count);
+          try {
+            Array recordData = recordVar.read(new int[]{count}, new int[]{need});
+            send(queue, new Slab(recordVar, "record", new int[]{count}, recordData, (long) need * sdataSize));
+          } catch (InvalidRangeException e) {
+            throw new IOException(e.getMessage() + " for record " + count);
+          }
+        }
+        if (debug) System.out.println("write record var; total = " + (nrecs * sdataSize / 1000 / 1000) + " Mbytes # recs=" + nrecs);
       }
-      total += totalRecordBytes;
-      totalRecordBytes /= 1000 * 1000;
-      if (debug) System.out.println("write record var; total = " + totalRecordBytes + " Mbytes # recs=" + nrecs);
     }
-    return total;
-  }
 
-  private static void copyAll(NetcdfFileWriteable ncfile, Variable oldVar) throws IOException {
-    String newName = N3iosp.makeValidNetcdfObjectName(oldVar.getName());
+    private void send(BlockingQueue<Slab> queue, Slab slab) throws IOException, InterruptedException {
+      if (queue == null) {
+        write(slab);
+        return;
+      }
+      while (!queue.offer(slab, 100, TimeUnit.MILLISECONDS)) {
+        if (cancel) return;
+      }
+    }
 
-    Array data = oldVar.read();
-    try {
-      if (oldVar.getDataType() == DataType.STRING) {
-        data = convertToChar(ncfile.findVariable(newName), data);
+    private void write(Slab slab) throws IOException {
+      if (slab.oldVar != current) {
+        current = slab.oldVar;
+        event.setStatus("Variable: " + current.getName());
+        if (progressListeners != null) {
+          for (FileWriterProgressListener listener : progressListeners)
+            listener.writeStatus(event);
+        }
       }
-      if (data.getSize() > 0)  // zero when record dimension = 0
-        ncfile.write(newName, data);
 
-    } catch (InvalidRangeException e) {
-      e.printStackTrace();
-      throw new IOException(e.getMessage() + " for Variable " + oldVar.getName());
+      try {
+        if (slab.data.getSize() > 0) // zero when record dimension = 0
+          ncfile.write(slab.newName, slab.origin, slab.data);  // "record": rather magic here - only writes the ones in ncfile !!
+      } catch (InvalidRangeException e) {
+        throw new IOException(e.getMessage() + " for Variable " + slab.oldVar.getName());
+      }
+      if (debugWrite)
+        System.out.println(" write " + slab.nbytes + " bytes of " + slab.newName + " at " + Arrays.toString(slab.origin));
+
+      bytesWritten += slab.nbytes;
+      long took = System.currentTimeMillis() - start;
+      event.setWriteStatus("Wrote chunk of variable: " + slab.oldVar.getName());
+      event.setBytesWritten(bytesWritten);
+      event.setProgressPercent((bytesToWrite == 0) ? 100.0 : 100.0 * bytesWritten / bytesToWrite);
+      event.setBytesPerSecond((took == 0) ? 0.0 : 1000.0 * bytesWritten / took);
+      if (progressListeners != null) {
+        for (FileWriterProgressListener listener : progressListeners)
+          listener.writeProgress(event);
+      }
     }
   }
 
@@ -358,79 +565,6 @@ public class FileWriter {
     }
   }
 
-  /**
-   * Copies data from {@code oldVar} to {@code ncfile}. The writes are done in a series of chunks no larger than
-   * {@code maxChunkSize} bytes.
-   *
-   * @param ncfile       the NetCDF file to write to.
-   * @param oldVar       a variable from the original file to copy data from.
-   * @param maxChunkSize the size, <b>in bytes</b>, of the largest chunk to write.
-   * @throws IOException if an I/O error occurs.
-   */
-  private static void copySome(NetcdfFileWriteable ncfile, Variable oldVar, long maxChunkSize, List<FileWriterProgressListener> progressListeners) throws IOException {
-    String newName = N3iosp.makeValidNetcdfObjectName(oldVar.getName());
-    long maxChunkElems = maxChunkSize / oldVar.getElementSize();
-    long byteWriteTotal = 0;
-
-    FileWriterProgressEvent writeProgressEvent = new FileWriterProgressEvent();
-    writeProgressEvent.setStatus("Variable: " + oldVar.getName());
-    if (progressListeners != null) {
-      for (FileWriterProgressListener listener : progressListeners) {
-        listener.writeStatus(writeProgressEvent);
-      }
-    }
-
-    ChunkingIndex index = new ChunkingIndex(oldVar.getShape());
-    while (index.currentElement() < index.getSize()) {
-      try {
-        int[] chunkOrigin = index.getCurrentCounter();
-        int[] chunkShape = index.computeChunkShape(maxChunkElems);
-
-        writeProgressEvent.setWriteStatus("Reading chunk from variable: " + oldVar.getName());
-        if (progressListeners != null) {
-          for (FileWriterProgressListener listener : progressListeners) {
-            listener.writeProgress(writeProgressEvent);
-          }
-        }
-
-        Array data = oldVar.read(chunkOrigin, chunkShape);
-        if (oldVar.getDataType() == DataType.STRING) {
-          data = convertToChar(ncfile.findVariable(newName), data);
-        }
-
-        if (data.getSize() > 0) {// zero when record dimension = 0
-          writeProgressEvent.setWriteStatus("Writing chunk of variable: " + oldVar.getName());
-          writeProgressEvent.setBytesToWrite(data.getSize());
-          if (progressListeners != null) {
-            for (FileWriterProgressListener listener : progressListeners) {
-              listener.writeProgress(writeProgressEvent);
-            }
-          }
-
-          ncfile.write(newName, chunkOrigin, data);
-          if (debugWrite) {
-            System.out.println(" write " + data.getSize() + " bytes at "+ new Section(chunkOrigin, chunkShape));
-          }
-          byteWriteTotal += data.getSize();
-
-          writeProgressEvent.setBytesWritten(byteWriteTotal);
-          writeProgressEvent.setProgressPercent(100.0 * byteWriteTotal / oldVar.getSize());
-          if (progressListeners != null) {
-            for (FileWriterProgressListener listener : progressListeners) {
-              listener.writeProgress(writeProgressEvent);
-            }
-          }
-
-        }
-
-        index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
-      } catch (InvalidRangeException e) {
-        e.printStackTrace();
-        throw new IOException(e.getMessage());
-      }
-    }
-  }
-
   private static Array convertToChar(Variable newVar, Array oldData) {
     ArrayChar newData = (ArrayChar) Array.factory(DataType.CHAR, newVar.getShape());
     Index ima = newData.getIndex();
@@ -627,6 +761,30 @@ public class FileWriter {
     if (debug) System.out.println("FileWriter finish total bytes = " + total);
   }
 
+  /**
+   * Alternative to finish(): dont create the file, but make a writer that streams it as netCDF-3 to a
+   * WritableByteChannel, reading the data from the original Variables one slab at a time.
+   * The header has been computed; call writeFile() on the returned writer.
+   * You cannot add any other attributes, dimensions, or variables after this call.
+   *
+   * @return writer, already prepared, so that getLength() is the length of the stream
+   * @throws IOException on error
+   */
+  public N3channelWriter makeStreamWriter() throws IOException {
+    Map<Variable, Variable> sources = new HashMap<Variable, Variable>();
+    int numrec = 0;
+    for (Variable oldVar : varList) {
+      Variable newVar = ncfile.findVariable(N3iosp.makeValidNetcdfObjectName(oldVar.getShortName()));
+      sources.put(newVar, oldVar);
+      if (newVar.isUnlimited())
+        numrec = oldVar.getShape()[0];
+    }
+
+    N3channelWriter writer = new N3channelWriter(ncfile, sources);
+    writer.prepare(numrec);
+    return writer;
+  }
+
   ////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   private static void usage() {
@@ -639,6 +797,7 @@ public class FileWriter {
     private long bytesToWrite;
     private String status;
     private String writeStatus;
+    private double bytesPerSecond;
 
     public void setProgressPercent(double progressPercent) {
       this.progressPercent = progressPercent;
@@ -680,6 +839,19 @@ public class FileWriter {
       return writeStatus;
     }
 
+    public void setBytesPerSecond(double bytesPerSecond) {
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Throughput of the copy so far.
+     *
+     * @return bytes written per second, since the copy started
+     */
+    public double getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
   }
 
   public interface FileWriterProgressListener {
@@ -35,12 +35,14 @@ package ucar.nc2;
 import ucar.ma2.*;
 import ucar.unidata.io.UncompressInputStream;
 import ucar.unidata.io.InMemoryRandomAccessFile;
+import ucar.unidata.io.FileChannelRandomAccessFile;
 import ucar.unidata.io.bzip2.CBZip2InputStream;
 import ucar.nc2.util.DiskCache;
 import ucar.nc2.util.CancelTask;
 import ucar.nc2.util.IO;
 import ucar.nc2.iosp.netcdf3.N3header;
 import ucar.nc2.iosp.netcdf3.N3iosp;
+import ucar.nc2.iosp.hdf5.H5iosp;
 import ucar.nc2.iosp.netcdf3.SPFactory;
 import ucar.nc2.iosp.IOServiceProvider;
 import ucar.nc2.iosp.IospHelper;
@@ -99,6 +101,7 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
   static boolean loadWarnings = false;
 
   static private boolean userLoads = false;
+  static private boolean shareFileChannels = false;
 
   // IOSPs are loaded by reflection
   static {
@@ -119,6 +122,7 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
     }
     try {
       NetcdfFile.class.getClassLoader().loadClass("ucar.grib.grib2.Grib2Input"); // only load if grib.jar is present
+      registerIOProvider("ucar.nc2.iosp.grib.GribCollectionServiceProvider");
       registerIOProvider("ucar.nc2.iosp.grib.GribGridServiceProvider");
     } catch (Throwable e) {
       if (loadWarnings) log.info("Cant load class: " + e);
@@ -330,12 +334,21 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
   /**
    * Set properties. Currently recognized:
    *   "syncExtendOnly", "true" or "false" (default).  if true, can only extend file on a sync.
+   *   "shareFileChannels", "true" or "false" (default).  if true, local files are opened with a
+   *     FileChannelRandomAccessFile, so all open NetcdfFiles on the same file share one file descriptor.
+   *   "memoryMap", "true" or "false" (default).  if true, local netCDF-3 and HDF5 files are read through a
+   *     MMapRandomAccessFile.
+   *   "chunkThreads", number of threads used to decompress HDF5 / netCDF-4 chunks (default is number of processors).
+   *   "chunkCacheSize", bytes of decompressed HDF5 / netCDF-4 chunks to keep in memory (default 0 = none).
    *
    * @param name name of property
    * @param value value of property
    */
   static public void setProperty( String name, String value) {
+    if (name.equalsIgnoreCase("shareFileChannels"))
+      shareFileChannels = value.equalsIgnoreCase("true");
     N3iosp.setProperty( name, value);
+    H5iosp.setProperty( name, value);
   }
 
   /**
@@ -524,12 +537,12 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
 
       if (uncompressedFileName != null) {
         // open uncompressed file as a RandomAccessFile.
-        raf = new ucar.unidata.io.RandomAccessFile(uncompressedFileName, "r", buffer_size);
+        raf = openLocalRaf(uncompressedFileName, buffer_size);
         //raf = new ucar.unidata.io.MMapRandomAccessFile(uncompressedFileName, "r");
 
       } else {
         // normal case - not compressed
-        raf = new ucar.unidata.io.RandomAccessFile(uriString, "r", buffer_size);
+        raf = openLocalRaf(uriString, buffer_size);
         //raf = new ucar.unidata.io.MMapRandomAccessFile(uriString, "r");
       }
     }
@@ -537,6 +550,12 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
     return raf;
   }
 
+  static private ucar.unidata.io.RandomAccessFile openLocalRaf(String filename, int buffer_size) throws IOException {
+    if (shareFileChannels)
+      return new FileChannelRandomAccessFile(filename, buffer_size);
+    return new ucar.unidata.io.RandomAccessFile(filename, "r", buffer_size);
+  }
+
   static private String makeUncompressed(String filename) throws Exception {
     // see if its a compressed file
     int pos = filename.lastIndexOf('.');
@@ -1224,6 +1243,20 @@ public class NetcdfFile implements ucar.nc2.util.cache.FileCacheable {
     return (spi != null) && spi.sync();
   }
 
+  /**
+   * The size of the Variable data cached in memory, used by the FileCache.
+   *
+   * @return bytes of cached Variable data
+   */
+  public long getCacheWeight() {
+    long weight = 0;
+    for (Variable v : getVariables()) {
+      if (v.hasCachedData())
+        weight += v.getSize() * v.getElementSize();
+    }
+    return weight;
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////
   // construction
 
@@ -35,7 +35,9 @@ package ucar.nc2.dataset;
 import ucar.ma2.*;
 import ucar.nc2.*;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 
 /**
  * Implementation of EnhanceScaleMissing for missing data, unsigned, and scale/offset packed data.
@@ -77,6 +79,7 @@ class EnhanceScaleMissingImpl implements EnhanceScaleMissing {
   private double[] missingValue;
 
   private boolean isUnsigned;
+  private boolean lazyUnpack = false;
 
 
   /**
@@ -111,6 +114,7 @@ class EnhanceScaleMissingImpl implements EnhanceScaleMissing {
     this.fillValueIsMissing = fillValueIsMissing;
     this.invalidDataIsMissing = invalidDataIsMissing;
     this.missingDataIsMissing = missingDataIsMissing;
+    this.lazyUnpack = NetcdfDataset.lazyUnpack;
 
     // see if underlying variable has scale/offset already applied
     Variable orgVar = forVar.getOriginalVariable();
@@ -262,6 +266,10 @@ class EnhanceScaleMissingImpl implements EnhanceScaleMissing {
         if (rank(scaleType) > rank(convertedDataType))
           convertedDataType = scaleType;
       }
+
+      // double scale/offset on byte or short data doesnt necessarily need double
+      if (NetcdfDataset.unpackToFloat && (convertedDataType == DataType.DOUBLE) && floatIsEnough(forVar.getDataType()))
+        convertedDataType = DataType.FLOAT;
       if (debug) System.out.println("assign dataType = " + convertedDataType);
 
       // validData may be external or internal
@@ -317,6 +325,15 @@ class EnhanceScaleMissingImpl implements EnhanceScaleMissing {
     return value;
   }
 
+  // float is enough if its rounding error is at most 1/4 of the packing resolution (scale)
+  private boolean floatIsEnough(DataType packedType) {
+    if ((packedType != DataType.BYTE) && (packedType != DataType.SHORT)) return false;
+    if (scale == 0.0) return false;
+    double maxPacked = (packedType == DataType.BYTE) ? 256 : 65536; // covers signed and unsigned
+    double maxValue = Math.abs(scale) * maxPacked + Math.abs(offset);
+    return Math.ulp((float) maxValue) <= Math.abs(scale) / 2;
+  }
+
   private int rank(DataType c) {
     if (c == DataType.BYTE)
       return 0;
@@ -628,15 +645,194 @@ class EnhanceScaleMissingImpl implements EnhanceScaleMissing {
     if (!hasScaleOffset) return in;
     if (debugRead) System.out.println("convertScaleOffset ");
 
+    boolean floatOut = (convertedDataType == DataType.FLOAT);
+    if ((!floatOut && (convertedDataType != DataType.DOUBLE)) || in.isConstant())
+      return convertScaleOffsetIterator(in);
+    boolean unsigned = isUnsigned(in);
+    final PackedMissing pm = (useNaNs && hasMissing()) ? new PackedMissing() : null;
+
+    if (lazyUnpack) {
+      return new ArrayUnpacked(in, convertedDataType, unsigned, new ArrayUnpacked.Unpacker() {
+        public double unpack(double packed) {
+          double val = scale * packed + offset;
+          return (pm != null) && pm.maybeMissing(packed) && isMissing_(val) ? Double.NaN : val;
+        }
+      });
+    }
+
+    // work directly on the java arrays; doesnt copy if its already in canonical order
+    Class elemType = in.getElementType();
+    Object packed = in.get1DJavaArray(elemType);
+    Array out = Array.factory(convertedDataType.getPrimitiveClassType(), in.getShape());
+    float[] fout = floatOut ? (float[]) out.getStorage() : null;
+    double[] dout = floatOut ? null : (double[]) out.getStorage();
+    boolean checkMissing = (pm != null);
+
+    if (elemType == byte.class) {
+      // only 256 possible values
+      double[] lookup = new double[256];
+      for (int i = 0; i < 256; i++) {
+        byte b = (byte) i;
+        double val = scale * (unsigned ? DataType.unsignedByteToShort(b) : b) + offset;
+        lookup[i] = checkMissing && isMissing_(val) ? Double.NaN : val;
+      }
+      byte[] pa = (byte[]) packed;
+      if (floatOut) {
+        for (int i = 0; i < pa.length; i++) fout[i] = (float) lookup[pa[i] & 0xff];
+      } else {
+        for (int i = 0; i < pa.length; i++) dout[i] = lookup[pa[i] & 0xff];
+      }
+
+    } else if (elemType == short.class) {
+      short[] pa = (short[]) packed;
+      int mask = unsigned ? 0xffff : -1;
+      if (floatOut) {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i] & mask;
+          double val = scale * p + offset;
+          fout[i] = (float) (checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val);
+        }
+      } else {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i] & mask;
+          double val = scale * p + offset;
+          dout[i] = checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val;
+        }
+      }
+
+    } else if (elemType == int.class) {
+      int[] pa = (int[]) packed;
+      long mask = unsigned ? 0xffffffffL : -1L;
+      if (floatOut) {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i] & mask;
+          double val = scale * p + offset;
+          fout[i] = (float) (checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val);
+        }
+      } else {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i] & mask;
+          double val = scale * p + offset;
+          dout[i] = checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val;
+        }
+      }
+
+    } else if (elemType == float.class) {
+      float[] pa = (float[]) packed;
+      if (floatOut) {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i];
+          double val = scale * p + offset;
+          fout[i] = (float) (checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val);
+        }
+      } else {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i];
+          double val = scale * p + offset;
+          dout[i] = checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val;
+        }
+      }
+
+    } else if (elemType == double.class) {
+      double[] pa = (double[]) packed;
+      if (floatOut) {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i];
+          double val = scale * p + offset;
+          fout[i] = (float) (checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val);
+        }
+      } else {
+        for (int i = 0; i < pa.length; i++) {
+          double p = pa[i];
+          double val = scale * p + offset;
+          dout[i] = checkMissing && pm.maybeMissing(p) && isMissing_(val) ? Double.NaN : val;
+        }
+      }
+
+    } else {
+      return convertScaleOffsetIterator(in);
+    }
+
+    return out;
+  }
+
+  /*
+   * A quick test on the packed value, so that most values dont need isMissing_() on the unpacked value.
+   * The valid range, missing values and _FillValue are put into packed units once; a packed value that is well inside
+   * the valid range, and not near a missing or fill value, cant be missing. The others still get the exact test.
+   */
+  private class PackedMissing {
+    private double lo = Double.NEGATIVE_INFINITY, hi = Double.POSITIVE_INFINITY; // packed values strictly inside are valid
+    private double[] near = new double[0]; // (min, max) pairs of packed values that might be a missing or fill value
+
+    PackedMissing() {
+      if ((scale == 0.0) || Double.isNaN(scale) || Double.isNaN(offset)) {
+        lo = Double.NaN; // all values get the exact test
+        return;
+      }
+      if (invalidDataIsMissing) {
+        if (hasValidRange || hasValidMin) limit(valid_min, true);
+        if (hasValidRange || hasValidMax) limit(valid_max, false);
+      }
+
+      List<Double> values = new ArrayList<Double>();
+      if (missingDataIsMissing && hasMissingValue)
+        for (double mv : missingValue) values.add(mv);
+      if (fillValueIsMissing && hasFillValue)
+        values.add(fillValue);
+      near = new double[2 * values.size()];
+      for (int i = 0; i < values.size(); i++) {
+        double v = values.get(i);
+        double w = 1.0e-5 * (Math.abs(v) + 1.0); // wider than isMissingValue() tolerance
+        double p1 = toPacked(v - w), p2 = toPacked(v + w);
+        near[2 * i] = Math.min(p1, p2) - margin(p1);
+        near[2 * i + 1] = Math.max(p1, p2) + margin(p2);
+      }
+    }
+
+    // unpacked values below valid_min (isMin) or above valid_max are invalid
+    private void limit(double limit, boolean isMin) {
+      double p = toPacked(limit);
+      if ((scale > 0) == isMin)
+        lo = Math.max(lo, p + margin(p));
+      else
+        hi = Math.min(hi, p - margin(p));
+    }
+
+    private double toPacked(double val) {
+      return (val - offset) / scale;
+    }
+
+    // allow for rounding in scale * packed + offset
+    private double margin(double p) {
+      return 1.0e-9 * (Math.abs(p) + Math.abs(offset / scale) + 1.0);
+    }
+
+    boolean maybeMissing(double packed) {
+      if (!((packed > lo) && (packed < hi))) return true; // also NaN
+      for (int i = 0; i < near.length; i += 2)
+        if ((packed >= near[i]) && (packed <= near[i + 1])) return true;
+      return false;
+    }
+  }
+
+  // the packed data is unsigned if the variable says so, or the array itself does
+  private boolean isUnsigned(Array in) {
+    return isUnsigned || in.isUnsigned();
+  }
+
+  // general case: use iterators
+  private Array convertScaleOffsetIterator(Array in) {
     Array out = Array.factory(convertedDataType.getPrimitiveClassType(), in.getShape());
     IndexIterator iterIn = in.getIndexIterator();
     IndexIterator iterOut = out.getIndexIterator();
+    boolean unsigned = isUnsigned(in);
 
-    if (isUnsigned && in.getElementType() == byte.class)
+    if (unsigned && in.getElementType() == byte.class)
       convertScaleOffsetUnsignedByte(iterIn, iterOut);
-    else if (isUnsigned && in.getElementType() == short.class)
+    else if (unsigned && in.getElementType() == short.class)
       convertScaleOffsetUnsignedShort(iterIn, iterOut);
-    else if (isUnsigned && in.getElementType() == int.class)
+    else if (unsigned && in.getElementType() == int.class)
       convertScaleOffsetUnsignedInt(iterIn, iterOut);
     else {
       boolean checkMissing = useNaNs && hasMissing();
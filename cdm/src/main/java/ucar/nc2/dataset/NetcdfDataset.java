@@ -284,6 +284,46 @@ public class NetcdfDataset extends ucar.nc2.NetcdfFile {
     return missingDataIsMissing;
   }
 
+  static protected boolean unpackToFloat = false, lazyUnpack = false;
+
+  /**
+   * Set if byte and short packed data is unpacked to float instead of double, when float has enough precision
+   * for the scale_factor and add_offset. Otherwise double scale_factor or add_offset always give double data.
+   *
+   * @param b true if want float when possible (default false)
+   */
+  static public void setUnpackToFloat(boolean b) {
+    unpackToFloat = b;
+  }
+
+  /**
+   * Get if byte and short packed data is unpacked to float when possible
+   *
+   * @return if byte and short packed data is unpacked to float when possible
+   */
+  static public boolean getUnpackToFloat() {
+    return unpackToFloat;
+  }
+
+  /**
+   * Set if packed data is unpacked lazily, only for the elements that are actually accessed.
+   * The data is then returned as a read-only ucar.ma2.ArrayUnpacked.
+   *
+   * @param b true if want lazy unpacking (default false)
+   */
+  static public void setLazyUnpack(boolean b) {
+    lazyUnpack = b;
+  }
+
+  /**
+   * Get if packed data is unpacked lazily
+   *
+   * @return if packed data is unpacked lazily
+   */
+  static public boolean getLazyUnpack() {
+    return lazyUnpack;
+  }
+
   ////////////////////////////////////////////////////////////////////////////////////
 
   static private ucar.nc2.util.cache.FileCache fileCache = null;
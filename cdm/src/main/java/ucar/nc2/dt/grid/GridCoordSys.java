@@ -833,10 +833,8 @@ public class GridCoordSys extends CoordinateSystem implements ucar.nc2.dt.GridCo
       return result;
 
     } else if ((horizXaxis instanceof CoordinateAxis2D) && (horizYaxis instanceof CoordinateAxis2D)) {
-      if (g2d == null)
-        g2d = new GridCoordinate2D((CoordinateAxis2D) horizYaxis, (CoordinateAxis2D) horizXaxis);
       int[] result2 = new int[2];
-      boolean found = g2d.findCoordElement(y_coord, x_coord, result2);
+      boolean found = getGridCoordinate2D().findCoordElement(y_coord, x_coord, result2);
       if (found) {
         result[0] = result2[1];
         result[1] = result2[0];
@@ -871,11 +869,8 @@ public class GridCoordSys extends CoordinateSystem implements ucar.nc2.dt.GridCo
       return result;
 
     } else if ((horizXaxis instanceof CoordinateAxis2D) && (horizYaxis instanceof CoordinateAxis2D)) {
-      if (g2d == null)
-        g2d = new GridCoordinate2D((CoordinateAxis2D) horizYaxis, (CoordinateAxis2D) horizXaxis);
-
       int[] result2 = new int[2];
-      g2d.findCoordElement(y_coord, x_coord, result2); // returns best guess
+      getGridCoordinate2D().findCoordElement(y_coord, x_coord, result2); // returns best guess
       result[0] = result2[1];
       result[1] = result2[0];
       return result;
@@ -900,6 +895,50 @@ public class GridCoordSys extends CoordinateSystem implements ucar.nc2.dt.GridCo
     return findXYindexFromCoord(pp.getX(), pp.getY(), result);
   }
 
+  /**
+   * Given many lat,lon points, find their x,y indices in the coordinate system.
+   * For 2D lat/lon axes this is much faster than calling findXYindexFromLatLon() for each point.
+   *
+   * @param lat    latitude positions.
+   * @param lon    longitude positions.
+   * @param xindex put x index of each point here, -1 if out of range
+   * @param yindex put y index of each point here, -1 if out of range
+   * @return number of points in range
+   */
+  public int findXYindexFromLatLon(double[] lat, double[] lon, int[] xindex, int[] yindex) {
+    Projection dataProjection = getProjection();
+    double[] x = new double[lat.length];
+    double[] y = new double[lat.length];
+    LatLonPointImpl llpt = new LatLonPointImpl();
+    ProjectionPointImpl pp = new ProjectionPointImpl();
+    for (int i = 0; i < lat.length; i++) {
+      llpt.set(lat[i], lon[i]);
+      dataProjection.latLonToProj(llpt, pp);
+      x[i] = pp.getX();
+      y[i] = pp.getY();
+    }
+
+    if ((horizXaxis instanceof CoordinateAxis2D) && (horizYaxis instanceof CoordinateAxis2D))
+      return getGridCoordinate2D().findCoordElements(y, x, yindex, xindex);
+
+    int count = 0;
+    int[] result = new int[2];
+    for (int i = 0; i < lat.length; i++) {
+      findXYindexFromCoord(x[i], y[i], result);
+      xindex[i] = result[0];
+      yindex[i] = result[1];
+      if ((result[0] >= 0) && (result[1] >= 0)) count++;
+    }
+    return count;
+  }
+
+  // the spatial index it builds is kept as long as this GridCoordSys
+  private synchronized GridCoordinate2D getGridCoordinate2D() {
+    if (g2d == null)
+      g2d = new GridCoordinate2D((CoordinateAxis2D) horizYaxis, (CoordinateAxis2D) horizXaxis);
+    return g2d;
+  }
+
   /**
    * Given a lat,lon point, find the x,y index in the coordinate system.
    * If outside the range, the closest point is returned
@@ -43,8 +43,11 @@ import java.io.IOException;
 /**
  * 2D Coordinate System has lat(x,y) and lon(x,y).
  * This class implements finding the index (i,j) from (lat, lon) coord.
- * This is for "one-off" computation, not a systematic lookup table for all points in a pixel array.
- * Hueristically searches the 2D space for the cell tha contains the point.
+ * The first lookup builds a spatial index: a grid of buckets over the lat/lon bounding box, each holding the
+ * cells that overlap it, so only a few cells are tested for each point. Use findCoordElements() for many points.
+ * Cells whose corners span more than 180 degrees of longitude, eg ones that cross the longitude seam of the
+ * coordinates, are left out of the spatial index, so a point in one of them is not found.
+ * When the point isnt in any cell, the 2D space is searched hueristically for a best guess.
  *
  * @author caron
  * @since Jul 10, 2009
@@ -58,6 +61,7 @@ public class GridCoordinate2D {
   private CoordinateAxis2D latCoord, lonCoord;
   private ArrayDouble.D2 latEdge, lonEdge;
   private MAMath.MinMax latMinMax, lonMinMax;
+  private volatile CellIndex index;
   int nrows, ncols;
 
   GridCoordinate2D(CoordinateAxis2D latCoord, CoordinateAxis2D lonCoord) {
@@ -72,7 +76,7 @@ public class GridCoordinate2D {
     ncols = shape[1];
   }
 
-  private void findBounds() {
+  private synchronized void findBounds() {
     if (lonMinMax != null) return;
 
     lonEdge = CoordinateAxis2D.makeXEdges(lonCoord.getMidpoints());
@@ -86,7 +90,14 @@ public class GridCoordinate2D {
       System.out.printf("Bounds (%d %d): lat= (%f,%f) lon = (%f,%f) %n", nrows, ncols, latMinMax.min, latMinMax.max, lonMinMax.min, lonMinMax.max);
   }
 
-  // brute force
+  /**
+   * Find the cell that contains the given lat,lon point, testing every cell that might contain it.
+   * @param wantLat   lat of point
+   * @param wantLon   lon of point
+   * @param rectIndex return (row,col) index here. may not be null
+   *
+   * @return false if not in the grid.
+   */
   public boolean findCoordElementForce(double wantLat, double wantLon, int[] rectIndex) {
     findBounds();
     if (wantLat < latMinMax.min) return false;
@@ -94,27 +105,181 @@ public class GridCoordinate2D {
     if (wantLon < lonMinMax.min) return false;
     if (wantLon > lonMinMax.max) return false;
 
-    boolean saveDebug = debug;
-    debug = false;
-    for (int row=0; row<nrows; row++) {
-      for (int col=0; col<ncols; col++) {
+    return getIndex().find(wantLat, wantLon, rectIndex);
+  }
+
+  /**
+   * Find the cell that contains the given lat,lon point.
+   * @param wantLat   lat of point
+   * @param wantLon   lon of point
+   * @param rectIndex return (row,col) index, or best guess here. may not be null
+   *
+   * @return false if not in the grid.
+   */
+  public boolean findCoordElement(double wantLat, double wantLon, int[] rectIndex) {
+    if (findCoordElementForce(wantLat, wantLon, rectIndex))
+      return true;
+
+    findCoordElementNoForce(wantLat, wantLon, rectIndex); // leave a best guess in rectIndex
+    return false;
+  }
 
-        rectIndex[0] = row;
-        rectIndex[1] = col;
+  /**
+   * Find the cells that contain many lat,lon points.
+   * Points near each other are found fastest, since the previous cell is tried first.
+   *
+   * @param wantLat lat of points
+   * @param wantLon lon of points
+   * @param rows    return row index here, or -1 if not in the grid
+   * @param cols    return col index here, or -1 if not in the grid
+   * @return number of points in the grid
+   */
+  public int findCoordElements(double[] wantLat, double[] wantLon, int[] rows, int[] cols) {
+    findBounds();
+    CellIndex cellIndex = getIndex();
+    int[] rectIndex = new int[2];
+    int[] last = null;
+    int count = 0;
 
-        if (contains(wantLat, wantLon, rectIndex)) {
-          debug = saveDebug;
-          return true;
+    for (int i = 0; i < wantLat.length; i++) {
+      boolean found = false;
+      if (!outOfBounds(wantLat[i], wantLon[i])) {
+        if (last != null) {
+          rectIndex[0] = last[0];
+          rectIndex[1] = last[1];
+          found = contains(wantLat[i], wantLon[i], rectIndex);
         }
+        if (!found)
+          found = cellIndex.find(wantLat[i], wantLon[i], rectIndex);
+      }
+
+      if (found) {
+        rows[i] = rectIndex[0];
+        cols[i] = rectIndex[1];
+        if (last == null) last = new int[2];
+        last[0] = rectIndex[0];
+        last[1] = rectIndex[1];
+        count++;
+      } else {
+        rows[i] = -1;
+        cols[i] = -1;
       }
     }
-    //debug = saveDebug;
-    return false;
+    return count;
   }
 
-  public boolean findCoordElement(double wantLat, double wantLon, int[] rectIndex) {
-    return findCoordElementNoForce(wantLat, wantLon,rectIndex);
-  }  
+  private boolean outOfBounds(double wantLat, double wantLon) {
+    return (wantLat < latMinMax.min) || (wantLat > latMinMax.max) || (wantLon < lonMinMax.min) || (wantLon > lonMinMax.max);
+  }
+
+  private CellIndex getIndex() {
+    CellIndex result = index;
+    if (result == null) {
+      synchronized (this) {
+        if (index == null) {
+          long start = System.currentTimeMillis();
+          index = new CellIndex();
+          if (debug) System.out.printf("CellIndex (%d %d) took %d msecs%n", nrows, ncols, System.currentTimeMillis() - start);
+        }
+        result = index;
+      }
+    }
+    return result;
+  }
+
+  // a grid of buckets over the lat/lon bounding box; each bucket holds the cells whose bounding box overlaps it
+  private class CellIndex {
+    private int nlat, nlon; // number of buckets
+    private double latMin, lonMin, latSize, lonSize; // bucket size in degrees
+    private int[] bucketStart; // the cells in bucket b are bucketCells[bucketStart[b] .. bucketStart[b+1])
+    private int[] bucketCells; // row * ncols + col
+
+    CellIndex() {
+      int nbuckets1D = Math.max(1, (int) Math.sqrt(nrows * ncols / 4)); // about 4 cells per bucket
+      nlat = nbuckets1D;
+      nlon = nbuckets1D;
+      latMin = latMinMax.min;
+      lonMin = lonMinMax.min;
+      latSize = (latMinMax.max - latMinMax.min) / nlat;
+      lonSize = (lonMinMax.max - lonMinMax.min) / nlon;
+      if (latSize <= 0) latSize = 1.0;
+      if (lonSize <= 0) lonSize = 1.0;
+
+      // count the cells in each bucket, then place them
+      bucketStart = new int[nlat * nlon + 1];
+      int[] range = new int[4];
+      for (int row = 0; row < nrows; row++) {
+        for (int col = 0; col < ncols; col++) {
+          if (!getBucketRange(row, col, range)) continue;
+          for (int i = range[0]; i <= range[1]; i++)
+            for (int j = range[2]; j <= range[3]; j++)
+              bucketStart[i * nlon + j + 1]++;
+        }
+      }
+      for (int b = 0; b < nlat * nlon; b++)
+        bucketStart[b + 1] += bucketStart[b];
+
+      bucketCells = new int[bucketStart[nlat * nlon]];
+      int[] next = new int[nlat * nlon];
+      System.arraycopy(bucketStart, 0, next, 0, next.length);
+      for (int row = 0; row < nrows; row++) {
+        for (int col = 0; col < ncols; col++) {
+          if (!getBucketRange(row, col, range)) continue;
+          for (int i = range[0]; i <= range[1]; i++)
+            for (int j = range[2]; j <= range[3]; j++)
+              bucketCells[next[i * nlon + j]++] = row * ncols + col;
+        }
+      }
+    }
+
+    // the buckets that the cell's bounding box overlaps: (minLat, maxLat, minLon, maxLon) bucket index
+    // false if the cell has missing corners, or straddles the longitude seam
+    private boolean getBucketRange(int row, int col, int[] range) {
+      double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+      double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+      for (int i = row; i <= row + 1; i++) {
+        for (int j = col; j <= col + 1; j++) {
+          double lat = latEdge.get(i, j);
+          double lon = lonEdge.get(i, j);
+          if (Double.isNaN(lat) || Double.isNaN(lon)) return false;
+          minLat = Math.min(minLat, lat);
+          maxLat = Math.max(maxLat, lat);
+          minLon = Math.min(minLon, lon);
+          maxLon = Math.max(maxLon, lon);
+        }
+      }
+      if (maxLon - minLon > 180.0) return false;
+
+      range[0] = latBucket(minLat);
+      range[1] = latBucket(maxLat);
+      range[2] = lonBucket(minLon);
+      range[3] = lonBucket(maxLon);
+      return true;
+    }
+
+    private int latBucket(double lat) {
+      int b = (int) ((lat - latMin) / latSize);
+      return Math.max(0, Math.min(b, nlat - 1));
+    }
+
+    private int lonBucket(double lon) {
+      int b = (int) ((lon - lonMin) / lonSize);
+      return Math.max(0, Math.min(b, nlon - 1));
+    }
+
+    // test the cells in the point's bucket, in row-major order
+    boolean find(double wantLat, double wantLon, int[] rectIndex) {
+      int b = latBucket(wantLat) * nlon + lonBucket(wantLon);
+      for (int i = bucketStart[b]; i < bucketStart[b + 1]; i++) {
+        int cell = bucketCells[i];
+        rectIndex[0] = cell / ncols;
+        rectIndex[1] = cell % ncols;
+        if (contains(wantLat, wantLon, rectIndex))
+          return true;
+      }
+      return false;
+    }
+  }
 
 
   /**
@@ -255,7 +420,7 @@ public class GridCoordinate2D {
 
   private boolean detIsPositive(double x0, double y0, double x1, double y1, double x2, double y2) {
     double det = (x1*y2 - y1*x2 -x0*y2 + y0*x2 + x0*y1 - y0*x1);
-    if (det == 0)
+    if (debug && (det == 0))
       System.out.printf("determinate = 0%n");
     return det > 0;
   }
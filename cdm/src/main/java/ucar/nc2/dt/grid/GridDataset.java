@@ -449,6 +449,10 @@ public class GridDataset implements ucar.nc2.dt.GridDataset, ucar.nc2.ft.Feature
     return (ds != null) ? ds.sync() : false;
   }
 
+  public long getCacheWeight() {
+    return (ds != null) ? ds.getCacheWeight() : 0;
+  }
+
   protected FileCache fileCache;
   public void setFileCache(FileCache fileCache) {
     this.fileCache = fileCache;
@@ -46,6 +46,7 @@ import ucar.nc2.dataset.*;
 import ucar.nc2.dataset.transform.AbstractCoordTransBuilder;
 import ucar.nc2.constants._Coordinate;
 import ucar.nc2.constants.AxisType;
+import ucar.nc2.iosp.netcdf3.N3channelWriter;
 import ucar.ma2.Range;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.DataType;
@@ -100,6 +101,44 @@ public class NetcdfCFWriter {
           boolean addLatLon)
           throws IOException, InvalidRangeException {
 
+    FileWriter writer = makeWriter(location, gds, gridList, llbb, horizStride, zRange, dateRange, stride_time, addLatLon);
+    writer.finish(); // this writes the data to the new file.
+  }
+
+  /**
+   * Prepare a CF compliant Netcdf-3 file from any gridded dataset, to be streamed instead of written to disk.
+   * The header is computed now; the data is read one slab at a time when writeFile() is called on the result.
+   *
+   * @param gds         A gridded dataset
+   * @param gridList    the list of grid names to be written, must not be empty. Full name (not short).
+   * @param llbb        optional lat/lon bounding box
+   * @param range       optional time range
+   * @param addLatLon   should 2D lat/lon variables be added, if its a projection coordinate system?
+   * @param horizStride x,y stride
+   * @param stride_z    not implemented yet
+   * @param stride_time not implemented yet
+   * @return writer whose getLength() is the size of the file, or null if its too large for the classic format.
+   * @throws IOException           if read error
+   * @throws InvalidRangeException if subset is illegal
+   */
+  public N3channelWriter makeStream(ucar.nc2.dt.GridDataset gds, List<String> gridList,
+          LatLonRect llbb, DateRange range,
+          boolean addLatLon,
+          int horizStride, int stride_z, int stride_time)
+          throws IOException, InvalidRangeException {
+
+    FileWriter writer = makeWriter(gds.getLocationURI(), gds, gridList, llbb, horizStride, null, range, stride_time, addLatLon);
+    N3channelWriter streamWriter = writer.makeStreamWriter();
+    return (streamWriter.getLength() > Integer.MAX_VALUE) ? null : streamWriter;
+  }
+
+  private FileWriter makeWriter(String location, ucar.nc2.dt.GridDataset gds, List<String> gridList,
+          LatLonRect llbb, int horizStride,
+          Range zRange,
+          DateRange dateRange, int stride_time,
+          boolean addLatLon)
+          throws IOException, InvalidRangeException {
+
     NetcdfDataset ncd = (NetcdfDataset) gds.getNetcdfFile();
 
     ArrayList<Variable> varList = new ArrayList<Variable>();
@@ -255,7 +294,7 @@ public class NetcdfCFWriter {
 
     // LOOK not dealing with crossing the seam
 
-    writer.finish(); // this writes the data to the new file.
+    return writer;
   }
 
   private void convertProjectionCTV(NetcdfDataset ds, Variable ctv) {
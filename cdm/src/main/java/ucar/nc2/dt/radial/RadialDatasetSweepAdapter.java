@@ -223,6 +223,10 @@ public abstract class RadialDatasetSweepAdapter extends TypedDatasetImpl impleme
     return false;
   }
 
+  public long getCacheWeight() {
+    return (ncfile != null) ? ncfile.getCacheWeight() : 0;
+  }
+
   protected FileCache fileCache;
   public void setFileCache(FileCache fileCache) {
     this.fileCache = fileCache;
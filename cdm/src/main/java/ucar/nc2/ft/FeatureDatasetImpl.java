@@ -204,6 +204,10 @@ public abstract class FeatureDatasetImpl implements FeatureDataset {
     return false;
   }
 
+  public long getCacheWeight() {
+    return (ncfile != null) ? ncfile.getCacheWeight() : 0;
+  }
+
   protected FileCache fileCache;
   public void setFileCache(FileCache fileCache) {
     this.fileCache = fileCache;
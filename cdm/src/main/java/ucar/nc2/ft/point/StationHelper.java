@@ -49,6 +49,7 @@ import java.io.IOException;
 public class StationHelper {
   private List<Station> stations;
   private Map<String, Station> stationHash;
+  private StationIndex index; // built on first bounding box query
   private boolean debug = false;
 
   public StationHelper() {
@@ -59,6 +60,7 @@ public class StationHelper {
   public void addStation( Station s) {
     stations.add(s);
     stationHash.put(s.getName(), s);
+    index = null;
   }
 
   public void setStations( List<Station> nstations) {
@@ -98,15 +100,13 @@ public class StationHelper {
 
   public List<Station> getStations(LatLonRect boundingBox) throws IOException {
     if (boundingBox == null) return stations;
-    
-    LatLonPointImpl latlonPt = new LatLonPointImpl();
-    List<Station> result = new ArrayList<Station>();
-    for (Station s : stations) {
-      latlonPt.set(s.getLatitude(), s.getLongitude());
-      if (boundingBox.contains(latlonPt))
-        result.add(s);
-    }
-    return result;
+    return getIndex().getStations(boundingBox);
+  }
+
+  private synchronized StationIndex getIndex() {
+    if (index == null)
+      index = new StationIndex(stations);
+    return index;
   }
 
   public Station getStation(String name) {
@@ -90,7 +90,10 @@ public class LayoutBBTiled implements LayoutBB {
   }
 
   private LayoutBBTiled.Chunk next;
+  private IOException error; // hasNext() cant throw it, so next() does
+
   public boolean hasNext() { // have to actually fetch the thing
+    if (error != null) return true;
     if (totalNelemsDone >= totalNelems) return false;
 
     if ((index == null) || !index.hasNext()) { // get new data node
@@ -105,13 +108,7 @@ public class LayoutBBTiled implements LayoutBB {
           }
 
           // get next dataChunk
-          try {
-            dataChunk = chunkIterator.next();
-          } catch (IOException e) {
-            e.printStackTrace();
-            next = null;
-            return false;
-          }
+          dataChunk = chunkIterator.next();
 
           // make the dataSection for this chunk
           dataSection = new Section(dataChunk.getOffset(), chunkSize);
@@ -131,7 +128,9 @@ public class LayoutBBTiled implements LayoutBB {
         throw new IllegalStateException(e);
 
       } catch (IOException e) {
-        throw new IllegalStateException(e);
+        error = e;
+        next = null;
+        return true;
       }
     }
 
@@ -143,6 +142,7 @@ public class LayoutBBTiled implements LayoutBB {
   }
 
   public LayoutBB.Chunk next() throws IOException {
+    if (error != null) throw error;
     return next;
   }
   
@@ -0,0 +1,184 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import thredds.inventory.CollectionManager;
+import thredds.inventory.DatasetCollectionManager;
+import thredds.inventory.MFile;
+import ucar.grib.GribCollectionIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a GribCollectionIndex up to date with the files of a collection.
+ * On each update, files that have not changed are copied from the current collection index,
+ * and only new or changed files are read, from their own index, which GribIndexingService first makes current.
+ * Register it with DatasetCollectionManager.addEventListener() to update when a rescan finds new files.
+ * The collection index is then opened with NetcdfFile.open(), see GribCollectionServiceProvider.
+ *
+ * @author caron
+ */
+public class GribCollectionIndexer implements DatasetCollectionManager.TriggerListener {
+  static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GribCollectionIndexer.class);
+
+  private final CollectionManager dcm;
+  private final File indexFile;
+
+  /**
+   * Constructor.
+   *
+   * @param dcm       the collection, must have been scanned
+   * @param indexFile the collection index, need not exist yet
+   */
+  public GribCollectionIndexer(CollectionManager dcm, File indexFile) {
+    this.dcm = dcm;
+    this.indexFile = indexFile;
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  public void handleCollectionEvent(DatasetCollectionManager.TriggerEvent event) {
+    if (!event.getMessage().equals(DatasetCollectionManager.RESCAN)) return;
+    try {
+      update();
+    } catch (IOException e) {
+      log.error("GribCollectionIndexer: failed to update " + indexFile.getPath(), e);
+    }
+  }
+
+  /**
+   * Make the collection index agree with the current files of the collection.
+   * The index is only rewritten if a file was added, removed or has changed.
+   *
+   * @return true if the index was rewritten
+   * @throws IOException on read or write error
+   */
+  public synchronized boolean update() throws IOException {
+    List<MFile> files = dcm.getFiles();
+    if (files == null) return false; // never scanned
+
+    GribCollectionIndex old = null;
+    if (indexFile.exists()) {
+      try {
+        old = GribCollectionIndex.open(indexFile.getPath());
+      } catch (IOException e) {
+        log.warn("GribCollectionIndexer: cant read " + indexFile.getPath() + ", will rewrite", e);
+      }
+    }
+
+    // the files whose own index has to be read, made current first, several at a time
+    boolean changed = (old == null) || (old.getFiles().size() != files.size());
+    List<File> current = new ArrayList<File>(files.size());
+    List<long[]> stats = new ArrayList<long[]>(files.size()); // lastModified, length before indexing
+    List<File> toIndex = new ArrayList<File>();
+    Map<File, Integer> toIndexPos = new HashMap<File, Integer>(); // position in toIndex
+    for (MFile mfile : files) {
+      File file = new File(mfile.getPath()); // the MFile may be from an earlier scan
+      if (!file.exists()) {
+        changed = true;
+        continue;
+      }
+      long[] stat = new long[]{file.lastModified(), file.length()};
+      current.add(file);
+      stats.add(stat);
+      GribCollectionIndex.FileEntry fe = (old == null) ? null : old.findFile(file.getPath());
+      if ((fe == null) || !fe.isCurrent(stat[0], stat[1])) {
+        toIndexPos.put(file, toIndex.size());
+        toIndex.add(file);
+      }
+    }
+    if (!changed && toIndex.isEmpty()) return false;
+    List<GribIndexingService.Action> actions = GribIndexingService.indexFiles(toIndex);
+
+    GribCollectionIndex.Builder builder = new GribCollectionIndex.Builder();
+    int nread = 0;
+    for (int i = 0; i < current.size(); i++) {
+      File file = current.get(i);
+      Integer pos = toIndexPos.get(file);
+      if (pos == null) {
+        builder.addFile(old, old.findFile(file.getPath()));
+        continue;
+      }
+
+      GribIndexingService.Action action = actions.get(pos);
+      if ((action == GribIndexingService.Action.failed) || (action == GribIndexingService.Action.notGrib)) {
+        log.warn("GribCollectionIndexer: skip " + file.getPath() + ", " + action);
+        continue;
+      }
+      try {
+        File gbx = GribGridServiceProvider.getIndexFile(file.getPath());
+        if (builder.addFile(file.getPath(), stats.get(i)[0], stats.get(i)[1], gbx))
+          nread++;
+      } catch (Exception e) {
+        log.warn("GribCollectionIndexer: skip " + file.getPath(), e);
+      }
+    }
+
+    builder.write(indexFile);
+    if (log.isInfoEnabled())
+      log.info("GribCollectionIndexer: wrote " + indexFile.getPath() + " files=" + builder.getFileCount() + " new or changed=" + nread
+          + " records=" + builder.getRecordCount());
+    return true;
+  }
+
+  /**
+   * Make or update a collection index.
+   *
+   * @param args collection specification, eg "/data/gfs/.*grib2$", and the collection index file
+   * @throws IOException on read or write error
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("usage: GribCollectionIndexer <collection spec> <collection index>");
+      return;
+    }
+    Formatter errlog = new Formatter();
+    DatasetCollectionManager dcm = DatasetCollectionManager.open(args[0], null, errlog);
+    if (dcm == null) {
+      System.out.println("Bad collection " + args[0] + ": " + errlog);
+      return;
+    }
+    dcm.scan(null);
+    long start = System.currentTimeMillis();
+    boolean changed = new GribCollectionIndexer(dcm, new File(args[1])).update();
+    System.out.println(args[1] + (changed ? " written" : " unchanged") + " in " + (System.currentTimeMillis() - start) + " msecs");
+  }
+}
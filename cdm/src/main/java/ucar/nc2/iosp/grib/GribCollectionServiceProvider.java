@@ -0,0 +1,273 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import ucar.grib.*;
+import ucar.grib.grib1.*;
+import ucar.grib.grib2.*;
+import ucar.grid.GridIndex;
+import ucar.grid.GridRecord;
+import ucar.grid.GridTableLookup;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.iosp.grid.GridIndexToNC;
+import ucar.nc2.iosp.grid.GridServiceProvider;
+import ucar.nc2.util.CancelTask;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens a GribCollectionIndex as one dataset, reading the data from the files of the collection.
+ * The index of each file is not read; the data files are opened only when their data is read,
+ * and only the most recently read ones are kept open, see setMaxOpenFiles().
+ *
+ * @author caron
+ * @see GribCollectionIndexer
+ */
+public class GribCollectionServiceProvider extends GridServiceProvider {
+  static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GribCollectionServiceProvider.class);
+  static private volatile int maxOpenFiles = 10;
+
+  /**
+   * Set how many data files each open collection keeps open; the least recently read one is closed first.
+   *
+   * @param n max open data files per collection, default 10
+   */
+  static public void setMaxOpenFiles(int n) {
+    maxOpenFiles = Math.max(1, n);
+  }
+
+  private GribCollectionIndex collection;
+  private long indexLastModified;
+  private DataFile[] dataFiles;
+  private final Map<Integer, DataFile> openFiles = new LinkedHashMap<Integer, DataFile>(16, 0.75f, true); // LRU order
+
+  // one file of the collection, open only while it is in openFiles
+  private static class DataFile {
+    String path;
+    float version;
+    RandomAccessFile raf;
+    Grib1Data reader1;
+    Grib2Data reader2;
+
+    void close() throws IOException {
+      if (raf != null) raf.close();
+      raf = null;
+      reader1 = null;
+      reader2 = null;
+    }
+  }
+
+  @Override
+  public boolean isValidFile(RandomAccessFile raf) {
+    try {
+      return GribCollectionIndex.isValidFile(raf);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  @Override
+  public String getFileTypeId() {
+    return (collection != null && collection.getEdition() == 2) ? "GRIB2" : "GRIB1";
+  }
+
+  @Override
+  public String getFileTypeDescription() {
+    return (collection != null && collection.getEdition() == 2) ? "WMO GRIB Edition 2 collection" : "WMO GRIB Edition 1 collection";
+  }
+
+  @Override
+  public void open(RandomAccessFile raf, NetcdfFile ncfile, CancelTask cancelTask) throws IOException {
+    super.open(raf, ncfile, cancelTask);
+    openCollection();
+    open(collection.makeGridIndex(), cancelTask);
+  }
+
+  private void openCollection() throws IOException {
+    String location = raf.getLocation();
+    indexLastModified = new File(location).lastModified();
+    collection = GribCollectionIndex.open(location);
+
+    List<GribCollectionIndex.FileEntry> files = collection.getFiles();
+    if (files.size() == 0)
+      throw new IOException("GRIB collection index " + location + " has no files");
+    dataFiles = new DataFile[files.size()];
+    for (int i = 0; i < files.size(); i++) {
+      GribCollectionIndex.FileEntry fe = files.get(i);
+      DataFile df = new DataFile();
+      df.path = fe.getPath();
+      String v = fe.getAttributes().get("index_version");
+      df.version = (v == null) ? 0 : Float.parseFloat(v);
+      dataFiles[i] = df;
+    }
+  }
+
+  @Override
+  protected void open(GridIndex index, CancelTask cancelTask) throws IOException {
+    long start = System.currentTimeMillis();
+    int edition = collection.getEdition();
+    GridTableLookup lookup;
+    synchronized (openFiles) {
+      lookup = getLookup(getDataFile(0).raf, edition);
+    }
+
+    // make it into netcdf objects
+    GridIndexToNC convert = new GridIndexToNC(index.filename);
+    convert.open(index, lookup, edition, ncfile, fmrcCoordSys, cancelTask);
+    ncfile.finish();
+
+    if (debugTiming) {
+      long took = System.currentTimeMillis() - start;
+      System.out.println(" open " + ncfile.getLocation() + " took=" + took + " msec ");
+    }
+    log.debug(" open() " + ncfile.getLocation() + " took " + (System.currentTimeMillis() - start));
+  }
+
+  // the tables of the first record of this file
+  private GridTableLookup getLookup(RandomAccessFile raf, int edition) throws IOException {
+    raf.seek(0);
+    try {
+      if (edition == 2) {
+        Grib2Input g2i = new Grib2Input(raf);
+        g2i.scan(false, true);
+        List<Grib2Record> records = g2i.getRecords();
+        return new Grib2GridTableLookup(records.get(0));
+      } else {
+        Grib1Input g1i = new Grib1Input(raf);
+        g1i.scan(false, true);
+        List<Grib1Record> records = g1i.getRecords();
+        return new Grib1GridTableLookup(records.get(0));
+      }
+    } catch (NotSupportedException e) {
+      throw new IOException(raf.getLocation() + ": " + e.getMessage());
+    } catch (NoValidGribException e) {
+      throw new IOException(raf.getLocation() + ": " + e.getMessage());
+    }
+  }
+
+  // open the file if needed, closing the least recently used ones over the limit; caller must hold openFiles
+  private DataFile getDataFile(int fileIndex) throws IOException {
+    DataFile df = openFiles.get(fileIndex);
+    if (df != null) return df;
+
+    Iterator<DataFile> iter = openFiles.values().iterator();
+    while (openFiles.size() >= maxOpenFiles) {
+      DataFile eldest = iter.next();
+      iter.remove();
+      eldest.close();
+    }
+
+    df = dataFiles[fileIndex];
+    df.raf = new RandomAccessFile(df.path, "r");
+    df.raf.order(RandomAccessFile.BIG_ENDIAN);
+    if (collection.getEdition() == 2)
+      df.reader2 = new Grib2Data(df.raf);
+    else
+      df.reader1 = new Grib1Data(df.raf);
+    openFiles.put(fileIndex, df);
+    return df;
+  }
+
+  private void closeDataFiles() throws IOException {
+    synchronized (openFiles) {
+      for (DataFile df : openFiles.values())
+        df.close();
+      openFiles.clear();
+    }
+  }
+
+  @Override
+  public boolean sync() throws IOException {
+    if (new File(raf.getLocation()).lastModified() == indexLastModified)
+      return false;
+
+    // the collection index was rewritten
+    closeDataFiles();
+    openCollection();
+    ncfile.empty();
+    open(collection.makeGridIndex(), null);
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeDataFiles();
+    super.close();
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  protected float[] _readData(GridRecord gr) throws IOException {
+    GribGridRecord ggr = (GribGridRecord) gr;
+    synchronized (openFiles) {
+      DataFile df = getDataFile(ggr.getFileIndex());
+      if (collection.getEdition() == 2) {
+        return df.reader2.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getReferenceTimeInMsecs());
+      } else if (df.version >= 8) {
+        return df.reader1.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
+      } else {
+        return df.reader1.getData(ggr.getGdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
+      }
+    }
+  }
+
+  @Override
+  protected float[] _readPoints(GridRecord gr, int[] points) throws IOException {
+    GribGridRecord ggr = (GribGridRecord) gr;
+    synchronized (openFiles) {
+      DataFile df = getDataFile(ggr.getFileIndex());
+      if (collection.getEdition() == 2) {
+        return df.reader2.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getReferenceTimeInMsecs(), points);
+      } else if (df.version >= 8) {
+        return df.reader1.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists(), points);
+      } else {
+        return null;
+      }
+    }
+  }
+
+  // the file number goes in the high bits, since the cache key is the collection index
+  @Override
+  protected long getRecordPos(GridRecord gr) {
+    GribGridRecord ggr = (GribGridRecord) gr;
+    long pos = ((collection.getEdition() == 2) || (dataFiles[ggr.getFileIndex()].version >= 8)) ? ggr.getPdsOffset() : ggr.getGdsOffset();
+    return ((long) ggr.getFileIndex() << 40) | pos;
+  }
+}
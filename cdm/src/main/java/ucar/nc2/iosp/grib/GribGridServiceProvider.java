@@ -305,7 +305,7 @@ public class GribGridServiceProvider extends GridServiceProvider {
    * @return Index as a File, may not exist.
    * @throws IOException on read error
    */
-  private File getIndexFile(String dataLocation) throws IOException {
+  static File getIndexFile(String dataLocation) throws IOException {
     String indexLocation = GribIndexName.getIndex( dataLocation, false );
     File indexFile = null;
 
@@ -425,13 +425,49 @@ public class GribGridServiceProvider extends GridServiceProvider {
   /////////////////////////////////////////////////////////////////////////////////////////////////
 
   protected float[] _readData(GridRecord gr) throws IOException {
+    return readData(gr, dataReaderGrib1, dataReaderGrib2);
+  }
+
+  @Override
+  protected boolean isConcurrentReadSupported() {
+    return true;
+  }
+
+  @Override
+  protected float[] _readData(GridRecord gr, RandomAccessFile raf) throws IOException {
+    raf.order(RandomAccessFile.BIG_ENDIAN);
+    if (saveEdition == 2)
+      return readData(gr, null, new Grib2Data(raf));
+    else
+      return readData(gr, new Grib1Data(raf), null);
+  }
+
+  @Override
+  protected float[] _readPoints(GridRecord gr, int[] points) throws IOException {
+    GribGridRecord ggr = (GribGridRecord) gr;
+    if (saveEdition == 2) {
+      return dataReaderGrib2.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getReferenceTimeInMsecs(), points);
+    } else if (version >= 8 ) {
+      return dataReaderGrib1.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists(), points);
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  protected long getRecordPos(GridRecord gr) {
+    GribGridRecord ggr = (GribGridRecord) gr;
+    return ((saveEdition == 2) || (version >= 8)) ? ggr.getPdsOffset() : ggr.getGdsOffset();
+  }
+
+  private float[] readData(GridRecord gr, Grib1Data reader1, Grib2Data reader2) throws IOException {
     GribGridRecord ggr = (GribGridRecord) gr;
     if (saveEdition == 2) {
-      return dataReaderGrib2.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getReferenceTimeInMsecs());
+      return reader2.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getReferenceTimeInMsecs());
     } else if (version >= 8 ) {
-      return dataReaderGrib1.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
+      return reader1.getData(ggr.getGdsOffset(), ggr.getPdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
     } else {  
-      return dataReaderGrib1.getData(ggr.getGdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
+      return reader1.getData(ggr.getGdsOffset(), ggr.getDecimalScale(), ggr.isBmsExists());
     }
   }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import ucar.grib.GribChecker;
+import ucar.grib.grib1.Grib1WriteIndex;
+import ucar.grib.grib2.Grib2WriteIndex;
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes the indexes of GRIB files, several files at a time.
+ * A file with no index is indexed, a file that has grown since it was indexed has only its new records read,
+ * and a file whose index is current is skipped. Indexes are written to a temporary file and renamed,
+ * so readers never see a partly written index.
+ * <p/>
+ * Can watch directories, checking them every so often, either in a server (see start() and stop())
+ * or standalone (see main()).
+ *
+ * @author caron
+ */
+public class GribIndexingService {
+  static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GribIndexingService.class);
+
+  /**
+   * What indexFile() did.
+   */
+  public enum Action {
+    none, write, extend, failed, notGrib
+  }
+
+  static private int threads = Runtime.getRuntime().availableProcessors();
+  static private ExecutorService executor;
+  static private int bufferSize = 256 * 1024;
+  static private final Set<String> inProgress = new HashSet<String>(); // paths being indexed, guarded by itself
+
+  /**
+   * Set the number of files indexed at the same time. Default is the number of processors.
+   *
+   * @param n number of threads; if <= 1, files are indexed in the calling thread.
+   */
+  static public synchronized void setThreads(int n) {
+    if (n == threads) return;
+    threads = n;
+    if (executor != null) executor.shutdown();
+    executor = null;
+  }
+
+  static private synchronized ExecutorService getExecutor() {
+    if (threads <= 1) return null;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "GribIndexingService");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Set the read buffer size of a GRIB file while it is indexed. Default is 256 Kb, so the file is read
+   * sequentially in large blocks, rather than with the small buffer of Grib2WriteIndex.indexRafBufferSize.
+   *
+   * @param size buffer size in bytes
+   */
+  static public void setBufferSize(int size) {
+    bufferSize = size;
+  }
+
+  /**
+   * Make the index of one GRIB file current.
+   * If another thread is indexing the same file, wait for it to finish, then check the index again.
+   *
+   * @param grib the GRIB file
+   * @return what was done
+   * @throws IOException on read or write error, or if interrupted while waiting
+   */
+  static public Action indexFile(File grib) throws IOException {
+    String path = grib.getPath();
+    synchronized (inProgress) {
+      while (!inProgress.add(path)) { // someone else is doing it
+        try {
+          inProgress.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted waiting for the index of " + path);
+        }
+      }
+    }
+    try {
+      return doIndexFile(grib);
+    } finally {
+      synchronized (inProgress) {
+        inProgress.remove(path);
+        inProgress.notifyAll();
+      }
+    }
+  }
+
+  static private Action doIndexFile(File grib) throws IOException {
+    long lastModified = grib.lastModified();
+    long length = grib.length();
+    if (length == 0) return Action.none;
+
+    File gbx = GribGridServiceProvider.getIndexFile(grib.getPath());
+    long indexedLength = getIndexedLength(gbx);
+    if ((indexedLength == length) && (gbx.lastModified() >= lastModified))
+      return Action.none;
+    Action action = ((indexedLength > 0) && (indexedLength < length)) ? Action.extend : Action.write;
+
+    long start = System.currentTimeMillis();
+    RandomAccessFile raf = new RandomAccessFile(grib.getPath(), "r", bufferSize);
+    File tmp = null;
+    try {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      int edition = GribChecker.getEdition(raf);
+      if ((edition != 1) && (edition != 2)) return Action.notGrib;
+
+      if (gbx.getParentFile() != null) gbx.getParentFile().mkdirs();
+      tmp = File.createTempFile(gbx.getName(), ".tmp", gbx.getParentFile());
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1000));
+      boolean ok;
+      try {
+        if (edition == 1) {
+          Grib1WriteIndex writer = new Grib1WriteIndex();
+          writer.setIndexBufferSize(bufferSize);
+          ok = (action == Action.extend) ? writer.extendGribIndex(gbx.getPath(), raf, lastModified, out)
+              : writer.writeGribIndex(raf, lastModified, out);
+        } else {
+          Grib2WriteIndex writer = new Grib2WriteIndex();
+          writer.setIndexBufferSize(bufferSize);
+          ok = (action == Action.extend) ? writer.extendGribIndex(gbx.getPath(), raf, lastModified, out)
+              : writer.writeGribIndex(raf, lastModified, out);
+        }
+      } finally {
+        out.close();
+      }
+
+      if (!ok) // extend returns false when there are no new records, eg the last one is still being written
+        return (action == Action.extend) ? Action.none : Action.failed;
+
+      if (!tmp.renameTo(gbx)) { // some systems wont rename over an existing file
+        gbx.delete();
+        if (!tmp.renameTo(gbx))
+          throw new IOException("Cant rename " + tmp.getPath() + " to " + gbx.getPath());
+      }
+      tmp = null;
+
+      if (log.isDebugEnabled())
+        log.debug(action + " " + gbx.getPath() + " took " + (System.currentTimeMillis() - start) + " msecs");
+      return action;
+
+    } finally {
+      raf.close();
+      if (tmp != null) tmp.delete();
+    }
+  }
+
+  // the length of the GRIB file when it was indexed, or -1 if no usable index
+  static private long getIndexedLength(File gbx) {
+    if (!gbx.exists() || (gbx.length() == 0)) return -1;
+    DataInputStream dis = null;
+    try {
+      dis = new DataInputStream(new BufferedInputStream(new FileInputStream(gbx), 1000));
+      dis.readLong(); // lastModified
+      String[] split = dis.readUTF().split("\\s");
+      long length = -1;
+      for (int i = 0; i + 1 < split.length; i += 2) {
+        if (split[i].equals("index_version") && split[i + 1].startsWith("7")) return -1; // rewrite old indexes
+        if (split[i].equals("length")) length = Long.parseLong(split[i + 1]);
+      }
+      return length;
+
+    } catch (Exception e) {
+      return -1;
+    } finally {
+      if (dis != null) try {
+        dis.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Make the indexes of these GRIB files current, several at a time. Failures are logged, not thrown.
+   *
+   * @param files the GRIB files
+   * @return what was done, for each file, in the order of files
+   */
+  static public List<Action> indexFiles(List<File> files) {
+    List<Action> result = new ArrayList<Action>(files.size());
+    ExecutorService exec = (files.size() > 1) ? getExecutor() : null;
+    if (exec == null) {
+      for (File f : files) result.add(indexFileLogged(f));
+      return result;
+    }
+
+    List<Future<Action>> futures = new ArrayList<Future<Action>>(files.size());
+    for (final File f : files) {
+      futures.add(exec.submit(new Callable<Action>() {
+        public Action call() {
+          return indexFileLogged(f);
+        }
+      }));
+    }
+    for (Future<Action> future : futures) {
+      try {
+        result.add(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Future<Action> f : futures) f.cancel(false);
+        break;
+      } catch (ExecutionException e) {
+        result.add(Action.failed);
+      }
+    }
+    return result;
+  }
+
+  static private Action indexFileLogged(File f) {
+    try {
+      return indexFile(f);
+    } catch (Throwable e) {
+      log.error("GribIndexingService: failed on " + f.getPath(), e);
+      return Action.failed;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+  // watch directories
+
+  private final List<File> dirs;
+  private final Map<String, Long> notGrib = new HashMap<String, Long>(); // dont check these again until they change; only files of the last scan
+  private Timer timer;
+
+  /**
+   * Watch these directories and their subdirectories.
+   *
+   * @param dirs top directories
+   */
+  public GribIndexingService(List<File> dirs) {
+    this.dirs = new ArrayList<File>(dirs);
+  }
+
+  /**
+   * Check the directories every so often, in a background thread.
+   *
+   * @param periodSecs seconds between checks
+   */
+  public synchronized void start(int periodSecs) {
+    if (timer != null) return;
+    timer = new Timer("GribIndexingService", true);
+    timer.schedule(new TimerTask() {
+      public void run() {
+        try {
+          scan();
+        } catch (Throwable e) {
+          log.error("GribIndexingService: scan failed", e);
+        }
+      }
+    }, 0, 1000L * periodSecs);
+  }
+
+  public synchronized void stop() {
+    if (timer != null) timer.cancel();
+    timer = null;
+  }
+
+  /**
+   * Check the directories once: index new files and the new records of files that have grown.
+   *
+   * @return number of indexes written or extended
+   */
+  public synchronized int scan() {
+    long start = System.currentTimeMillis();
+    List<File> files = new ArrayList<File>();
+    Set<String> seen = new HashSet<String>();
+    for (File dir : dirs)
+      addFiles(dir, files, seen);
+    notGrib.keySet().retainAll(seen); // forget files that are gone
+
+    int count = 0;
+    List<Action> actions = indexFiles(files);
+    for (int i = 0; i < actions.size(); i++) {
+      Action action = actions.get(i);
+      if (action == Action.notGrib)
+        notGrib.put(files.get(i).getPath(), files.get(i).lastModified());
+      else if ((action == Action.write) || (action == Action.extend))
+        count++;
+    }
+
+    if ((count > 0) && log.isInfoEnabled())
+      log.info("GribIndexingService: " + count + " of " + files.size() + " files indexed in " + (System.currentTimeMillis() - start) + " msecs");
+    return count;
+  }
+
+  // the files that might need indexing
+  private void addFiles(File dir, List<File> files, Set<String> seen) {
+    File[] children = dir.listFiles();
+    if (children == null) return;
+    for (File child : children) {
+      if (child.isDirectory()) {
+        addFiles(child, files, seen);
+        continue;
+      }
+      String name = child.getName();
+      if (name.endsWith(".tmp") || name.endsWith(".xml") || name.contains(".gbx") || name.equals("IndexLock"))
+        continue;
+      seen.add(child.getPath());
+      Long lastModified = notGrib.get(child.getPath());
+      if ((lastModified != null) && (lastModified == child.lastModified()))
+        continue;
+      files.add(child);
+    }
+  }
+
+  /**
+   * Index the GRIB files in directories, once or over and over.
+   *
+   * @param args [-threads n] [-watch secs] dir ...
+   * @throws Exception on error
+   */
+  public static void main(String[] args) throws Exception {
+    int watchSecs = 0;
+    List<File> dirs = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads") && (i + 1 < args.length))
+        setThreads(Integer.parseInt(args[++i]));
+      else if (args[i].equals("-watch") && (i + 1 < args.length))
+        watchSecs = Integer.parseInt(args[++i]);
+      else
+        dirs.add(new File(args[i]));
+    }
+    if (dirs.size() == 0) {
+      System.out.println("usage: GribIndexingService [-threads n] [-watch secs] dir ...");
+      return;
+    }
+
+    GribIndexingService service = new GribIndexingService(dirs);
+    do {
+      long start = System.currentTimeMillis();
+      int count = service.scan();
+      System.out.println(new Date() + " indexed " + count + " files in " + (System.currentTimeMillis() - start) + " msecs");
+      if (watchSecs > 0) Thread.sleep(1000L * watchSecs);
+    } while (watchSecs > 0);
+  }
+}
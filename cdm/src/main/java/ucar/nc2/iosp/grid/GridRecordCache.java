@@ -0,0 +1,123 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grid;
+
+import net.jcip.annotations.ThreadSafe;
+import ucar.unidata.util.LruCache;
+
+import java.util.Formatter;
+
+/**
+ * A process-wide cache of decoded grid records, so that overlapping requests (map tiles, time series at nearby points)
+ * dont unpack the same GRIB record again and again.
+ * Records are keyed by (file key, file position of the record); the file key includes the last modified date,
+ * so a rewritten file is never served stale data.
+ * Eviction is LRU, keeping the total size of the cached records under maxBytes.
+ * <pre>
+ * GridServiceProvider.setRecordCacheSize(100 * 1000 * 1000); // on application startup
+ * </pre>
+ * The cached arrays are shared, and must not be written to.
+ * All methods are thread safe.
+ *
+ * @author caron
+ */
+@ThreadSafe
+public class GridRecordCache {
+
+  private final LruCache<LruCache.FilePosKey, float[]> records;
+
+  /**
+   * Constructor.
+   *
+   * @param maxBytes keep the total size of the cached records under this number of bytes
+   */
+  public GridRecordCache(long maxBytes) {
+    records = new LruCache<LruCache.FilePosKey, float[]>("GridRecordCache", maxBytes);
+  }
+
+  public long getMaxBytes() {
+    return records.getMaxBytes();
+  }
+
+  /**
+   * Get a decoded record from the cache.
+   *
+   * @param fileKey   identifies the file contents
+   * @param recordPos file position of the record
+   * @return the cached data, which must not be modified, or null if not in the cache
+   */
+  public float[] get(Object fileKey, long recordPos) {
+    return records.get(new LruCache.FilePosKey(fileKey, recordPos));
+  }
+
+  /**
+   * Put a decoded record into the cache. The array must not be modified after this.
+   *
+   * @param fileKey   identifies the file contents
+   * @param recordPos file position of the record
+   * @param data      the decoded record
+   * @return true if it was added, false if its too big for the cache
+   */
+  public boolean put(Object fileKey, long recordPos, float[] data) {
+    return records.put(new LruCache.FilePosKey(fileKey, recordPos), data, 4L * data.length);
+  }
+
+  /**
+   * Remove all records from the cache.
+   */
+  public void clearCache() {
+    records.clearCache();
+  }
+
+  public long getHits() {
+    return records.getHits();
+  }
+
+  public long getMisses() {
+    return records.getMisses();
+  }
+
+  public long getEvictions() {
+    return records.getEvictions();
+  }
+
+  /**
+   * Add stat report (hits, misses, etc) to formatter.
+   *
+   * @param format add to this
+   */
+  public void showStats(Formatter format) {
+    records.showStats(format);
+  }
+
+}
@@ -44,10 +44,21 @@ import ucar.unidata.io.RandomAccessFile;
 import ucar.grid.GridIndex;
 import ucar.grid.GridRecord;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * Superclass for Gempak grid, MciDAS grid, and GRIB IOSPs
+ * <p/>
+ * When a read needs more than one record, and the subclass can decode records through its own RandomAccessFile,
+ * the records are decoded in a shared pool of threads. If there is a GridRecordCache, decoded records are
+ * taken from it and added to it.
+ * When only a small part of each record is wanted (a point or a few rows), the subclass may read just those values,
+ * see _readPoints().
  *
  * @author IDV Development Team
  */
@@ -79,6 +90,11 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
   static protected boolean forceNewIndex = false; // force that a new index file is written - for debugging
   static protected boolean alwaysInCache = false;
 
+  static private int readThreads = Runtime.getRuntime().availableProcessors(); // if <= 1, decode in the calling thread
+  static private ExecutorService executor;
+  static private volatile GridRecordCache recordCache = null;
+  static private final int pointReadFraction = 16; // use _readPoints() when less than 1/16 of the record is wanted
+
   /**
    * debug flags
    */
@@ -107,6 +123,50 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
     forceNewIndex = b;
   }
   
+  /**
+   * Set the number of threads used to decode records. Default is the number of processors.
+   *
+   * @param n number of threads; if <= 1, records are decoded in the calling thread.
+   */
+  static public synchronized void setReadThreads(int n) {
+    if (n == readThreads) return;
+    readThreads = n;
+    if (executor != null) executor.shutdown();
+    executor = null;
+  }
+
+  static private synchronized ExecutorService getExecutor() {
+    if (readThreads <= 1) return null;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(readThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "GridServiceProvider");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Keep decoded records in a shared GridRecordCache. Default is no cache.
+   *
+   * @param maxBytes keep up to this many bytes of decoded records; 0 means no cache.
+   */
+  static public void setRecordCacheSize(long maxBytes) {
+    recordCache = (maxBytes > 0) ? new GridRecordCache(maxBytes) : null;
+  }
+
+  /**
+   * Get the shared cache of decoded records.
+   *
+   * @return the record cache, or null if not enabled with setRecordCacheSize()
+   */
+  static public GridRecordCache getRecordCache() {
+    return recordCache;
+  }
+
   /**
    * Set the debug flags
    *
@@ -265,7 +325,10 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
     long start = System.currentTimeMillis();
 
     Array dataArray = Array.factory(DataType.FLOAT, section.getShape());
+    float[] storage = (float[]) dataArray.getStorage();
     GridVariable pv = (GridVariable) v2.getSPobject();
+    int nx = pv.getHorizCoordSys().getNx();
+    int ny = pv.getHorizCoordSys().getNy();
 
     // Canonical ordering is ens, time, level, lat, lon
     int rangeIdx = 0;
@@ -275,19 +338,63 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
     Range yRange = section.getRange(rangeIdx++);
     Range xRange = section.getRange(rangeIdx);
 
-    IndexIterator ii = dataArray.getIndexIterator();
-
+    // the records, in the order they go into the result
+    List<GridRecord> records = new ArrayList<GridRecord>();
     // loop over ens
     for (int ensIdx = ensRange.first(); ensIdx <= ensRange.last(); ensIdx += ensRange.stride()) {
       //loop over time
       for (int timeIdx = timeRange.first(); timeIdx <= timeRange.last(); timeIdx += timeRange.stride()) {
         //loop over level
         for (int levelIdx = levRange.first(); levelIdx <= levRange.last(); levelIdx += levRange.stride()) {
-          readXY(v2, ensIdx, timeIdx, levelIdx, yRange, xRange, ii);
+          records.add(pv.findRecord(ensIdx, timeIdx, levelIdx));
         }
       }
     }
 
+    // missing records and cache hits are done here, the rest are decoded below
+    int xyCount = yRange.length() * xRange.length();
+    GridRecordCache cache = recordCache; // read once, setRecordCacheSize() may replace it at any time
+    Object fileKey = (cache == null) ? null : getFileKey();
+    List<Integer> toRead = new ArrayList<Integer>();
+    for (int i = 0; i < records.size(); i++) {
+      GridRecord record = records.get(i);
+      float[] data = null;
+      if (record == null) {
+        fillMissing(v2, storage, i * xyCount, xyCount);
+        continue;
+      }
+      if (fileKey != null) {
+        long recordPos = getRecordPos(record);
+        if (recordPos >= 0) data = cache.get(fileKey, recordPos);
+      }
+      if (data != null)
+        readXY(data, nx, yRange, xRange, storage, i * xyCount);
+      else
+        toRead.add(i);
+    }
+
+    // just a few points from each record: read only those values, if the subclass can
+    if ((toRead.size() > 0) && ((long) xyCount * pointReadFraction <= (long) nx * ny)) {
+      int[] points = makePoints(nx, yRange, xRange);
+      List<Integer> needFullRead = new ArrayList<Integer>();
+      for (int i : toRead) {
+        float[] values = _readPoints(records.get(i), points);
+        if (values != null)
+          System.arraycopy(values, 0, storage, i * xyCount, xyCount);
+        else
+          needFullRead.add(i);
+      }
+      toRead = needFullRead;
+    }
+
+    ExecutorService exec = (toRead.size() > 1) && canReadConcurrently() ? getExecutor() : null;
+    if (exec == null) {
+      for (int i : toRead)
+        readRecord(v2, records.get(i), null, cache, fileKey, nx, yRange, xRange, storage, i * xyCount);
+    } else {
+      readConcurrently(exec, v2, records, toRead, cache, fileKey, nx, yRange, xRange, storage, xyCount);
+    }
+
     if (debugTiming) {
       long took = System.currentTimeMillis() - start;
       System.out.println("  read data took=" + took + " msec ");
@@ -296,50 +403,135 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
     return dataArray;
   }
 
-  /**
-   * read one YX array
-   *
-   * @param v2      variable to put the data into
-   * @param ensIdx  ensemble index
-   * @param timeIdx time index
-   * @param levIdx  level index
-   * @param yRange  x range
-   * @param xRange  y range
-   * @param ii      index iterator
-   * @throws IOException           problem reading the file
-   * @throws InvalidRangeException invalid range
-   */
-  private void readXY(Variable v2, int ensIdx, int timeIdx, int levIdx, Range yRange, Range xRange, IndexIterator ii)
-          throws IOException, InvalidRangeException {
-
-    GridVariable pv = (GridVariable) v2.getSPobject();
-    GridHorizCoordSys hsys = pv.getHorizCoordSys();
-    int nx = hsys.getNx();
-    GridRecord record = pv.findRecord(ensIdx, timeIdx, levIdx);
-
-    if (record == null) {
-      Attribute att = v2.findAttribute("missing_value");
-      float missing_value = (att == null) ? -9999.0f : att.getNumericValue().floatValue();
+  // decode the records in the pool, each task using a RandomAccessFile of its own; each record goes to its own part of storage
+  private void readConcurrently(ExecutorService exec, final Variable v2, List<GridRecord> records, List<Integer> toRead,
+                                final GridRecordCache cache, final Object fileKey, final int nx,
+                                final Range yRange, final Range xRange, final float[] storage, int xyCount) throws IOException {
+    final String location = raf.getLocation();
+    final ConcurrentLinkedQueue<RandomAccessFile> rafs = new ConcurrentLinkedQueue<RandomAccessFile>();
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(toRead.size());
+    boolean ok = false;
+    try {
+      for (int i : toRead) {
+        final GridRecord record = records.get(i);
+        final int destPos = i * xyCount;
+        futures.add(exec.submit(new Callable<Object>() {
+          public Object call() throws Exception {
+            RandomAccessFile myRaf = rafs.poll();
+            if (myRaf == null) myRaf = new RandomAccessFile(location, "r");
+            try {
+              readRecord(v2, record, myRaf, cache, fileKey, nx, yRange, xRange, storage, destPos);
+            } finally {
+              rafs.add(myRaf);
+            }
+            return null;
+          }
+        }));
+      }
 
-      int xyCount = yRange.length() * xRange.length();
-      for (int j = 0; j < xyCount; j++) {
-        ii.setFloatNext(missing_value);
+      for (Future<Object> f : futures) {
+        try {
+          f.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted reading " + location);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          IOException ioe = new IOException(cause.getMessage());
+          ioe.initCause(cause);
+          throw ioe;
+        }
       }
+      ok = true;
+
+    } finally {
+      if (!ok) { // stop the rest, and wait for the running ones to give back their file
+        for (Future<Object> f : futures) f.cancel(false);
+        for (Future<Object> f : futures) {
+          try {
+            f.get();
+          } catch (Exception e) {
+            // already failed
+          }
+        }
+      }
+      for (RandomAccessFile r : rafs) r.close();
+    }
+  }
+
+  // decode one record, add it to the cache, and copy the wanted part into storage
+  private void readRecord(Variable v2, GridRecord record, RandomAccessFile myRaf, GridRecordCache cache, Object fileKey,
+                          int nx, Range yRange, Range xRange, float[] storage, int destPos) throws IOException {
+    float[] data = (myRaf == null) ? _readData(record) : _readData(record, myRaf);
+    if (data == null) {
+      fillMissing(v2, storage, destPos, yRange.length() * xRange.length());
       return;
     }
+    if (fileKey != null) {
+      long recordPos = getRecordPos(record);
+      if (recordPos >= 0) cache.put(fileKey, recordPos, data);
+    }
+    readXY(data, nx, yRange, xRange, storage, destPos);
+  }
 
-    // otherwise read it
-    float[] data = _readData(record);
+  private void fillMissing(Variable v2, float[] storage, int destPos, int count) {
+    Attribute att = v2.findAttribute("missing_value");
+    float missing_value = (att == null) ? -9999.0f : att.getNumericValue().floatValue();
+    Arrays.fill(storage, destPos, destPos + count, missing_value);
+  }
 
-    // LOOK can improve with System.copy ??
+  /**
+   * copy one YX subset of a record
+   *
+   * @param data    the decoded record
+   * @param nx      number of x points in the record
+   * @param yRange  y range
+   * @param xRange  x range
+   * @param dest    copy into here
+   * @param destPos starting here
+   */
+  private void readXY(float[] data, int nx, Range yRange, Range xRange, float[] dest, int destPos) {
+    int xlen = xRange.length();
     for (int y = yRange.first(); y <= yRange.last(); y += yRange.stride()) {
-      for (int x = xRange.first(); x <= xRange.last(); x += xRange.stride()) {
-        int index = y * nx + x;
-        ii.setFloatNext(data[index]);
+      int rowStart = y * nx;
+      if (xRange.stride() == 1) {
+        System.arraycopy(data, rowStart + xRange.first(), dest, destPos, xlen);
+        destPos += xlen;
+      } else {
+        for (int x = xRange.first(); x <= xRange.last(); x += xRange.stride())
+          dest[destPos++] = data[rowStart + x];
       }
     }
   }
 
+  // grid indices of the wanted points, in the order they go into the result
+  private int[] makePoints(int nx, Range yRange, Range xRange) {
+    int[] points = new int[yRange.length() * xRange.length()];
+    int count = 0;
+    for (int y = yRange.first(); y <= yRange.last(); y += yRange.stride())
+      for (int x = xRange.first(); x <= xRange.last(); x += xRange.stride())
+        points[count++] = y * nx + x;
+    return points;
+  }
+
+  // identifies the contents of a local file, or null if not a local file
+  private Object getFileKey() {
+    File file = new File(raf.getLocation());
+    if (!file.exists()) return null;
+    try {
+      return file.getCanonicalPath() + "@" + file.lastModified();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  // only local files, since each thread opens its own RandomAccessFile
+  private boolean canReadConcurrently() {
+    return isConcurrentReadSupported() && new File(raf.getLocation()).exists();
+  }
+
   /**
    * Is this XY level missing?
    *
@@ -391,6 +583,56 @@ public abstract class GridServiceProvider extends AbstractIOServiceProvider {
     return ensInfo;
   } */
 
+  /**
+   * Whether _readData(GridRecord gr, RandomAccessFile raf) can be called from several threads at once,
+   * each with its own RandomAccessFile. Default is false.
+   *
+   * @return true if records can be decoded concurrently
+   */
+  protected boolean isConcurrentReadSupported() {
+    return false;
+  }
+
+  /**
+   * Read the data for this GridRecord through the given RandomAccessFile, rather than the one the iosp was opened with.
+   * Only called when isConcurrentReadSupported() is true, and must not change the state of this object.
+   * Default ignores raf and calls _readData(gr), which is only right for an iosp that does not read concurrently,
+   * so an iosp that returns true from isConcurrentReadSupported() must override this.
+   *
+   * @param gr  grid identifier
+   * @param raf read from this, opened on the same file
+   * @return the data (or null)
+   * @throws IOException problem reading the data
+   */
+  protected float[] _readData(GridRecord gr, RandomAccessFile raf) throws IOException {
+    return _readData(gr);
+  }
+
+  /**
+   * Read only the values at the given points of this GridRecord, without decoding the whole record.
+   * Used when a read wants only a small part of each record, like a time series at a point.
+   * Default is null, meaning the record has to be decoded with _readData().
+   *
+   * @param gr     grid identifier
+   * @param points grid indices (y * nx + x) of the wanted values, as in the array returned by _readData()
+   * @return the values at the points, or null if not possible for this record
+   * @throws IOException problem reading the data
+   */
+  protected float[] _readPoints(GridRecord gr, int[] points) throws IOException {
+    return null;
+  }
+
+  /**
+   * The file position that identifies this GridRecord, used as the key in the GridRecordCache.
+   * Default is -1, meaning dont cache the record.
+   *
+   * @param gr grid identifier
+   * @return file position of the record, or -1
+   */
+  protected long getRecordPos(GridRecord gr) {
+    return -1;
+  }
+
   /**
    * Read the data for this GridRecord
    *
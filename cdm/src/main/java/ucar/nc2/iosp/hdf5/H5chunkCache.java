@@ -0,0 +1,127 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.hdf5;
+
+import net.jcip.annotations.ThreadSafe;
+import ucar.unidata.util.LruCache;
+
+import java.nio.ByteBuffer;
+import java.util.Formatter;
+
+/**
+ * A process-wide cache of decompressed HDF5 chunks, so that overlapping subset requests
+ * (map tiles, point time series) dont read and inflate the same chunk again and again.
+ * Chunks are keyed by (file key, file position of the chunk); the file position identifies both the variable and the
+ * chunk within the file, and the file key includes the last modified date, so a rewritten file is never served stale data.
+ * Eviction is LRU, keeping the total size of the cached chunks under maxBytes.
+ * A chunk is counted by the size of the array backing its ByteBuffer, since that is what the cache keeps alive.
+ * <pre>
+ * H5iosp.setProperty("chunkCacheSize", "100000000"); // on application startup
+ * </pre>
+ * The cached ByteBuffers are shared; get() returns a duplicate, which must not be written to.
+ * All methods are thread safe.
+ *
+ * @author caron
+ */
+@ThreadSafe
+public class H5chunkCache {
+
+  private final LruCache<LruCache.FilePosKey, ByteBuffer> chunks;
+
+  /**
+   * Constructor.
+   *
+   * @param maxBytes keep the total size of the cached chunks under this number of bytes
+   */
+  public H5chunkCache(long maxBytes) {
+    chunks = new LruCache<LruCache.FilePosKey, ByteBuffer>("H5chunkCache", maxBytes);
+  }
+
+  public long getMaxBytes() {
+    return chunks.getMaxBytes();
+  }
+
+  /**
+   * Get a decompressed chunk from the cache.
+   *
+   * @param fileKey identifies the file contents
+   * @param filePos file position of the (compressed) chunk
+   * @return a duplicate of the cached ByteBuffer, positioned at 0, or null if not in the cache
+   */
+  public ByteBuffer get(Object fileKey, long filePos) {
+    ByteBuffer bb = chunks.get(new LruCache.FilePosKey(fileKey, filePos));
+    return (bb == null) ? null : bb.duplicate();
+  }
+
+  /**
+   * Put a decompressed chunk into the cache. The ByteBuffer must not be modified after this.
+   *
+   * @param fileKey identifies the file contents
+   * @param filePos file position of the (compressed) chunk
+   * @param bb      the decompressed chunk, positioned at 0
+   * @return true if it was added, false if its too big for the cache
+   */
+  public boolean put(Object fileKey, long filePos, ByteBuffer bb) {
+    long size = bb.hasArray() ? bb.array().length : bb.capacity();
+    return chunks.put(new LruCache.FilePosKey(fileKey, filePos), bb, size);
+  }
+
+  /**
+   * Remove all chunks from the cache.
+   */
+  public void clearCache() {
+    chunks.clearCache();
+  }
+
+  public long getHits() {
+    return chunks.getHits();
+  }
+
+  public long getMisses() {
+    return chunks.getMisses();
+  }
+
+  public long getEvictions() {
+    return chunks.getEvictions();
+  }
+
+  /**
+   * Add stat report (hits, misses, etc) to formatter.
+   *
+   * @param format add to this
+   */
+  public void showStats(Formatter format) {
+    chunks.showStats(format);
+  }
+
+}
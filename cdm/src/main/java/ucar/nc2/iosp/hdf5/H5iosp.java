@@ -35,6 +35,8 @@ package ucar.nc2.iosp.hdf5;
 import ucar.ma2.*;
 
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.MMapRandomAccessFile;
+import ucar.unidata.io.http.HTTPRandomAccessFile;
 import ucar.nc2.iosp.*;
 import ucar.nc2.iosp.hdf4.HdfEos;
 import ucar.nc2.iosp.hdf4.H4header;
@@ -43,7 +45,9 @@ import ucar.nc2.*;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -67,6 +71,39 @@ public class H5iosp extends AbstractIOServiceProvider {
 
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(H5iosp.class);
 
+  static private boolean memoryMap = false;
+  static private H5chunkCache chunkCache = null;
+
+  /**
+   * Set a static property.
+   * Supported static properties: <ul>
+   * <li> memoryMap = "true" : read local files through a MMapRandomAccessFile.
+   * <li> chunkThreads = n : number of threads used to decompress chunked data; default is number of processors, 1 means no threads.
+   * <li> chunkCacheSize = n : keep up to n bytes of decompressed chunks in a shared H5chunkCache; 0 (default) means no cache.
+   * </ul>
+   *
+   * @param name  property name
+   * @param value property value
+   */
+  static public void setProperty(String name, String value) {
+    if (name.equalsIgnoreCase("memoryMap"))
+      memoryMap = value.equalsIgnoreCase("true");
+    else if (name.equalsIgnoreCase("chunkThreads"))
+      H5tiledLayoutBB.setThreads(Integer.parseInt(value));
+    else if (name.equalsIgnoreCase("chunkCacheSize")) {
+      long size = Long.parseLong(value);
+      chunkCache = (size > 0) ? new H5chunkCache(size) : null;
+    }
+  }
+
+  /**
+   * Get the shared cache of decompressed chunks.
+   * @return the chunk cache, or null if not enabled with setProperty("chunkCacheSize", ...)
+   */
+  static public H5chunkCache getChunkCache() {
+    return chunkCache;
+  }
+
   static public void setDebugFlags(ucar.nc2.util.DebugFlags debugFlag) {
     debug = debugFlag.isSet("H5iosp/read");
     debugPos = debugFlag.isSet("H5iosp/filePos");
@@ -103,6 +140,8 @@ public class H5iosp extends AbstractIOServiceProvider {
   public void open(RandomAccessFile raf, ucar.nc2.NetcdfFile ncfile,
                    ucar.nc2.util.CancelTask cancelTask) throws IOException {
 
+    if (memoryMap)
+      raf = MMapRandomAccessFile.map(raf);
     this.myRaf = raf;
     headerParser = new H5header(myRaf, ncfile, this);
     headerParser.read(null);
@@ -116,6 +155,44 @@ public class H5iosp extends AbstractIOServiceProvider {
     ncfile.finish();
   }
 
+  // find the chunks that intersect the wanted section, the same way the tiled layouts do, and prefetch them
+  private void prefetchChunks(HTTPRandomAccessFile hraf, Variable v2, H5header.Vinfo vinfo, Section wantSection) throws IOException, InvalidRangeException {
+    Section want = Section.fill(wantSection, v2.getShape());
+    if ((v2.getDataType() == DataType.CHAR) && (want.getRank() < vinfo.storageSize.length))
+      want = new Section(want).appendRange(1);
+
+    int nChunkDims = (v2.getDataType() == DataType.CHAR) ? vinfo.storageSize.length : vinfo.storageSize.length - 1;
+    int[] chunkSize = new int[nChunkDims];
+    System.arraycopy(vinfo.storageSize, 0, chunkSize, 0, nChunkDims);
+    if (want.getRank() != nChunkDims) return;
+
+    long totalNelems = want.computeSize();
+    long nelems = 0;
+    List<H5header.DataBTree.DataChunk> chunks = new ArrayList<H5header.DataBTree.DataChunk>();
+    H5header.DataBTree.DataChunkIterator iter = vinfo.btree.getDataChunkIterator(want);
+    while ((nelems < totalNelems) && iter.hasNext()) {
+      H5header.DataBTree.DataChunk dc = iter.next();
+      int[] offset = dc.offset;
+      if (offset.length > nChunkDims) {
+        offset = new int[nChunkDims];
+        System.arraycopy(dc.offset, 0, offset, 0, nChunkDims);
+      }
+      Section dataSection = new Section(offset, chunkSize);
+      if (!dataSection.intersects(want)) continue;
+      nelems += dataSection.intersect(want).computeSize();
+      chunks.add(dc);
+    }
+    if (chunks.size() < 2) return;
+
+    long[] pos = new long[chunks.size()];
+    int[] size = new int[chunks.size()];
+    for (int i = 0; i < chunks.size(); i++) {
+      pos[i] = chunks.get(i).filePos;
+      size[i] = chunks.get(i).size;
+    }
+    hraf.prefetch(pos, size);
+  }
+
   public Array readData(ucar.nc2.Variable v2, Section section) throws IOException, InvalidRangeException {
     H5header.Vinfo vinfo = (H5header.Vinfo) v2.getSPobject();
     return readData(v2, vinfo.dataPos, section);
@@ -135,12 +212,21 @@ public class H5iosp extends AbstractIOServiceProvider {
       return Array.factory(dataType.getPrimitiveClassType(), wantSection.getShape(), pa);
     }
 
+    // a remote file can fetch all the chunks together, instead of one request at a time
+    if (vinfo.isChunked && (myRaf instanceof HTTPRandomAccessFile) && (vinfo.typeInfo.hdfType != 9))
+      prefetchChunks((HTTPRandomAccessFile) myRaf, v2, vinfo, wantSection);
+
     if (vinfo.mfp != null) { // filtered
       if (debugFilter) System.out.println("read variable filtered " + v2.getName() + " vinfo = " + vinfo);
       assert vinfo.isChunked;
       ByteOrder bo = (vinfo.typeInfo.endian == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-      layout = new H5tiledLayoutBB(v2, wantSection, myRaf, vinfo.mfp.getFilters(), bo);
-      data = IospHelper.readDataFill((LayoutBB) layout, v2.getDataType(), vinfo.getFillValue());
+      H5tiledLayoutBB tiled = new H5tiledLayoutBB(v2, wantSection, myRaf, vinfo.mfp.getFilters(), bo);
+      layout = tiled;
+      try {
+        data = IospHelper.readDataFill(tiled, v2.getDataType(), vinfo.getFillValue());
+      } finally {
+        tiled.close();
+      }
 
     } else { // normal case
       if (debug) System.out.println("read variable " + v2.getName() + " vinfo = " + vinfo);
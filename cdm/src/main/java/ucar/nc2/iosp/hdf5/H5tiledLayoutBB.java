@@ -38,25 +38,79 @@ import ucar.ma2.Section;
 import ucar.nc2.iosp.LayoutBB;
 import ucar.nc2.iosp.LayoutBBTiled;
 import ucar.nc2.Variable;
-import ucar.nc2.util.IO;
 import ucar.unidata.io.RandomAccessFile;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.LinkedList;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Iterator to read/write subsets of an array.
  * This calculates byte offsets for HD5 chunked datasets.
  * Assumes that the data is stored in chunks, indexed by a Btree.
- * for unfiltered data only
+ * for filtered data
+ * <p/>
+ * The chunk bytes are read in the calling thread, since the RandomAccessFile is not thread safe.
+ * The filters (inflate, unshuffle) are run in a shared pool of threads, several chunks ahead of the reader.
+ * Inflaters and chunk buffers are reused.
+ * If H5iosp has a chunk cache, decompressed chunks are taken from it and added to it.
+ * Call close() when done, so that chunks still being filtered are cancelled if the read stops early.
  *
  * @author caron
  */
 class H5tiledLayoutBB implements LayoutBB {
+  static private volatile int nthreads = Runtime.getRuntime().availableProcessors(); // if <= 1, filter in the calling thread
+  static private ExecutorService executor;
+  static private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+  static private final int maxInflaters = 64;
+
+  /**
+   * Set the number of threads used to run the chunk filters. Default is the number of processors.
+   * @param n number of threads; if <= 1, chunks are filtered in the calling thread.
+   */
+  static synchronized void setThreads(int n) {
+    if (n == nthreads) return;
+    nthreads = n;
+    if (executor != null) executor.shutdown();
+    executor = null;
+  }
+
+  static private synchronized ExecutorService getExecutor() {
+    if (nthreads <= 1) return null;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "H5tiledLayoutBB");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  static private Inflater getInflater() {
+    Inflater inflater = inflaters.poll();
+    return (inflater != null) ? inflater : new Inflater();
+  }
+
+  static private void releaseInflater(Inflater inflater) {
+    inflater.reset();
+    if (inflaters.size() < maxInflaters)
+      inflaters.offer(inflater);
+    else
+      inflater.end();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////
+
   private LayoutBBTiled delegate;
+  private DataChunkIterator dcIter;
 
   private RandomAccessFile raf;
   private H5header.Filter[] filters;
@@ -67,6 +121,13 @@ class H5tiledLayoutBB implements LayoutBB {
   private int elemSize; // last dimension of the StorageLayout message
   private int nChunkDims;
 
+  private ExecutorService exec; // null means filter in the calling thread
+  private int outSize; // size of the buffers holding a filtered chunk; one more than the chunk, so inflate can see the end of the stream
+  private final ConcurrentLinkedQueue<byte[]> outBuffers = new ConcurrentLinkedQueue<byte[]>(); // length == outSize
+  private final ConcurrentLinkedQueue<byte[]> inBuffers = new ConcurrentLinkedQueue<byte[]>();  // any length
+  private H5chunkCache chunkCache; // null means dont cache
+  private String fileKey; // identifies the file contents in the chunkCache
+
   private boolean debug = false;
 
   /**
@@ -106,9 +167,26 @@ class H5tiledLayoutBB implements LayoutBB {
     System.arraycopy(vinfo.storageSize, 0, chunkSize, 0, nChunkDims);
     this.elemSize = vinfo.storageSize[vinfo.storageSize.length - 1]; // last one is always the elements size
 
+    long chunkBytes = elemSize;
+    for (int size : chunkSize) chunkBytes *= size;
+    this.outSize = (int) Math.min(chunkBytes + 1, Integer.MAX_VALUE);
+
+    // only local files are cached, since we need the last modified date
+    this.chunkCache = H5iosp.getChunkCache();
+    if (chunkCache != null) {
+      File file = new File(raf.getLocation());
+      if (file.exists())
+        fileKey = file.getCanonicalPath() + "@" + file.lastModified(); // same file under another path shares the entries
+      else
+        chunkCache = null;
+    }
+
+    // only worth going parallel if theres more than one chunk to read
+    this.exec = (this.want.computeSize() * elemSize > chunkBytes) ? getExecutor() : null;
+
     // create the data chunk iterator
     H5header.DataBTree.DataChunkIterator iter = vinfo.btree.getDataChunkIterator(this.want);
-    DataChunkIterator dcIter = new DataChunkIterator(iter);
+    dcIter = new DataChunkIterator(iter);
     delegate = new LayoutBBTiled(dcIter, chunkSize, elemSize, this.want);
     
     if (debug) System.out.println(" H5tiledLayout: " + this);
@@ -130,6 +208,13 @@ class H5tiledLayoutBB implements LayoutBB {
     return delegate.next();
   }
 
+  /**
+   * Cancel the chunks that have been read ahead but not returned. Call when done, whether or not all chunks were used.
+   */
+  void close() {
+    dcIter.close();
+  }
+
   public String toString() {
     StringBuilder sbuff = new StringBuilder();
     sbuff.append("want=").append(want).append("; ");
@@ -143,25 +228,101 @@ class H5tiledLayoutBB implements LayoutBB {
     return sbuff.toString();
   }
 
+  private byte[] getOutBuffer(int size) {
+    if (size > outSize) return new byte[size];
+    byte[] b = outBuffers.poll();
+    return (b != null) ? b : new byte[outSize];
+  }
+
+  private byte[] getInBuffer(int size) {
+    byte[] b = inBuffers.poll();
+    return (b != null) && (b.length >= size) ? b : new byte[size];
+  }
+
+  private void releaseBuffer(byte[] b) {
+    if (b.length == outSize)
+      outBuffers.offer(b);
+    else
+      inBuffers.offer(b);
+  }
+
+  // Returns only the chunks that intersect the wanted section, and stops when the wanted section is covered.
+  // Reads up to window chunks ahead, so their filters can run while the earlier ones are being used.
   private class DataChunkIterator implements LayoutBBTiled.DataChunkIterator {
     H5header.DataBTree.DataChunkIterator delegate;
+    private final LinkedList<DataChunk> pending = new LinkedList<DataChunk>();
+    private final int window;
+    private final long totalNelems;
+    private long nelemsRead = 0; // wanted elements in the chunks read so far
+    private DataChunk last; // the chunk last returned; done with when next() is called again
+    private IOException error; // from reading ahead in hasNext(), thrown by next()
 
     DataChunkIterator(H5header.DataBTree.DataChunkIterator delegate) {
       this.delegate = delegate;
+      this.window = (exec == null) ? 1 : 2 * nthreads;
+      this.totalNelems = want.computeSize();
     }
 
     public boolean hasNext() {
-      return delegate.hasNext();
+      if (error != null) return true;
+      try {
+        readAhead();
+      } catch (IOException e) {
+        error = e; // let next() throw it
+        return true;
+      }
+      return !pending.isEmpty();
     }
 
     public LayoutBBTiled.DataChunk next() throws IOException {
-      return new DataChunk(delegate.next());
+      if (error == null) {
+        try {
+          readAhead();
+        } catch (IOException e) {
+          error = e;
+        }
+      }
+      if (error != null) {
+        close();
+        throw error;
+      }
+      if (last != null) last.release();
+      last = pending.removeFirst();
+      return last;
+    }
+
+    // stop filtering the chunks read ahead; their buffers are not recycled, since a filter may still be running
+    void close() {
+      for (DataChunk dc : pending)
+        dc.cancel();
+      pending.clear();
+    }
+
+    private void readAhead() throws IOException {
+      while ((pending.size() < window) && (nelemsRead < totalNelems) && delegate.hasNext()) {
+        DataChunk dc = new DataChunk(delegate.next());
+        try {
+          Section dataSection = new Section(dc.getOffset(), chunkSize);
+          if (!dataSection.intersects(want)) continue;
+          nelemsRead += dataSection.intersect(want).computeSize();
+        } catch (InvalidRangeException e) {
+          throw new IllegalStateException(e);
+        }
+        dc.start();
+        pending.add(dc);
+      }
     }
   }
 
-  private class DataChunk implements ucar.nc2.iosp.LayoutBBTiled.DataChunk {
+  private class DataChunk implements ucar.nc2.iosp.LayoutBBTiled.DataChunk, Callable<ByteBuffer> {
     H5header.DataBTree.DataChunk delegate;
 
+    private byte[] data; // the current bytes, as the filters are applied
+    private int size;    // number of valid bytes in data
+    private ByteBuffer result;
+    private Future<ByteBuffer> future;
+    private boolean cached; // data is held by the chunkCache, dont recycle it
+
     DataChunk(H5header.DataBTree.DataChunk delegate) {
       this.delegate = delegate;
     }
@@ -175,12 +336,57 @@ class H5tiledLayoutBB implements LayoutBB {
       return offset;
     }
 
-    public ByteBuffer getByteBuffer() throws IOException {
-      // read the data
-      byte[] data = new byte[delegate.size];
+    // read the data in the calling thread, then apply the filters, in the pool if there is one
+    void start() throws IOException {
+      if (chunkCache != null) {
+        ByteBuffer bb = chunkCache.get(fileKey, delegate.filePos);
+        if (bb != null) {
+          bb.order(byteOrder);
+          result = bb;
+          return;
+        }
+      }
+
+      size = delegate.size;
+      data = getInBuffer(size);
       raf.seek(delegate.filePos);
-      raf.readFully(data);
+      raf.readFully(data, 0, size);
+
+      if (exec == null)
+        result = call();
+      else
+        future = exec.submit(this);
+    }
+
+    public ByteBuffer getByteBuffer() throws IOException {
+      if (result != null) return result;
+
+      try {
+        result = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("H5tiledLayoutBB interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new IOException(cause.getMessage());
+      }
+      return result;
+    }
+
+    void cancel() {
+      if (future != null) future.cancel(false);
+    }
+
+    // done with this chunk, recycle its buffer
+    void release() {
+      if ((result != null) && (data != null) && !cached)
+        releaseBuffer(data);
+      data = null;
+    }
 
+    public ByteBuffer call() throws IOException {
       // apply filters backwards
       for (int i = filters.length - 1; i >= 0; i--) {
         H5header.Filter f = filters[i];
@@ -189,71 +395,87 @@ class H5tiledLayoutBB implements LayoutBB {
           continue;
         }
         if (f.id == 1) {
-          data = inflate(data);
+          inflate();
         } else if (f.id == 2) {
-          data = shuffle(data, f.data[0]);
+          shuffle(f.data[0]);
         } else if (f.id == 3) {
-          data = checkfletcher32(data);
+          checkfletcher32();
         } else
           throw new RuntimeException("Unknown filter type="+f.id);
       }
 
-      ByteBuffer result = ByteBuffer.wrap(data);
-      result.order(byteOrder);
-      return result;
+      ByteBuffer bb = ByteBuffer.wrap(data, 0, size).slice();
+      if ((chunkCache != null) && chunkCache.put(fileKey, delegate.filePos, bb)) {
+        cached = true;
+        bb = bb.duplicate(); // the cached one stays at position 0
+      }
+      bb.order(byteOrder);
+      return bb;
     }
 
     /**
-     * inflate data
+     * inflate data, into a buffer sized for the uncompressed chunk
      *
-     * @param compressed compressed data
-     * @return ucompressed data
      * @throws IOException on I/O error
      */
-    private byte[] inflate(byte[] compressed) throws IOException {
-      // run it through the Inflator
-      ByteArrayInputStream in = new ByteArrayInputStream(compressed);
-      java.util.zip.InflaterInputStream inflater = new java.util.zip.InflaterInputStream(in);
-      ByteArrayOutputStream out = new ByteArrayOutputStream(8 * compressed.length);
-      IO.copy(inflater, out);
-
-      byte[] uncomp = out.toByteArray();
-      if (debug) System.out.println(" inflate bytes in= " + compressed.length + " bytes out= " + uncomp.length);
-      return uncomp;
+    private void inflate() throws IOException {
+      byte[] out = getOutBuffer(outSize);
+      int n = 0;
+      Inflater inflater = getInflater();
+      try {
+        inflater.setInput(data, 0, size);
+        while (!inflater.finished()) {
+          if (n == out.length) { // larger than the chunk size, should not happen
+            byte[] bigger = new byte[2 * out.length];
+            System.arraycopy(out, 0, bigger, 0, n);
+            releaseBuffer(out);
+            out = bigger;
+          }
+          int count = inflater.inflate(out, n, out.length - n);
+          if ((count == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+            break; // no more input, checked below
+          n += count;
+        }
+        if (!inflater.finished()) {
+          releaseBuffer(out);
+          throw new IOException("H5tiledLayoutBB: truncated deflate chunk at filePos " + delegate.filePos + ", " + size + " bytes in, " + n + " bytes out");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("H5tiledLayoutBB inflate failed: " + e.getMessage());
+      } finally {
+        releaseInflater(inflater);
+      }
+
+      if (debug) System.out.println(" inflate bytes in= " + size + " bytes out= " + n);
+      releaseBuffer(data);
+      data = out;
+      size = n;
     }
 
     // LOOK fake
-    private byte[] checkfletcher32(byte[] org) throws IOException {
-      byte[] result = new byte[org.length-4];
-      System.arraycopy(org, 0, result, 0, result.length);
-      if (debug) System.out.println(" checkfletcher32 bytes in= " + org.length + " bytes out= " + result.length);
-      return result;
+    private void checkfletcher32() throws IOException {
+      if (debug) System.out.println(" checkfletcher32 bytes in= " + size + " bytes out= " + (size - 4));
+      size -= 4;
     }
 
-    private byte[] shuffle(byte[] data, int n) throws IOException {
-      if (debug) System.out.println(" shuffle bytes in= " + data.length + " n= " + n);
-
-      assert data.length % n == 0;
-      if (n <= 1) return data;
+    private void shuffle(int n) throws IOException {
+      if (debug) System.out.println(" shuffle bytes in= " + size + " n= " + n);
 
-      int m = data.length / n;
-      int[] count = new int[n];
-      for (int k = 0; k < n; k++) count[k] = k * m;
+      if (n <= 1) return;
 
-      byte[] result = new byte[data.length];
-      /* for (int i = 0; i < data.length; i += n) {
-        for (int k = 0; k < n; k++) {
-          result[count[k]++] = data[i + k];
-        }
-      } */
-
-      for (int i = 0; i < m; i++) {
-        for (int j = 0; j < n; j++) {
-          result[i*n+j] = data[i + count[j]];
-        }
+      byte[] result = getOutBuffer(size);
+      int m = size / n;
+      for (int j = 0; j < n; j++) {
+        int start = j * m;
+        for (int i = 0; i < m; i++)
+          result[i*n+j] = data[start + i];
       }
+      // leftover bytes are not shuffled
+      int done = m * n;
+      if (done < size) System.arraycopy(data, done, result, done, size - done);
 
-      return result;
+      releaseBuffer(data);
+      data = result;
     }
 
     boolean isBitSet(int val, int bitno) {
@@ -263,4 +485,4 @@ class H5tiledLayoutBB implements LayoutBB {
   }
 
 
-}
\ No newline at end of file
+}
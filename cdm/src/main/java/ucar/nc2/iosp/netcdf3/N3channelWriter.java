@@ -40,6 +40,9 @@ import java.io.*;
 import java.nio.channels.WritableByteChannel;
 import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  *  Experimental
@@ -125,6 +128,206 @@ public class N3channelWriter extends N3streamWriter {
     return pad;
   }
 
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // streaming a file whose data lives in other Variables
+
+  private Map<Variable, Variable> sources; // ncfile Variable -> Variable holding its data
+  private byte[] header;
+  private int numrec;
+  private long length = -1;
+
+  /**
+   * Write ncfile as a netCDF-3 stream, reading the data of its Variables from other Variables.
+   * Use this when ncfile only describes the output, eg a NetcdfFileWriteable still in define mode.
+   * Call prepare(), then writeFile().
+   *
+   * @param ncfile  describes the file to write
+   * @param sources maps a Variable of ncfile to the Variable to read its data from, which has the same shape
+   *   except for the record dimension. A Variable not in the Map is read itself.
+   */
+  public N3channelWriter(ucar.nc2.NetcdfFile ncfile, Map<Variable, Variable> sources) {
+    super(ncfile);
+    this.sources = sources;
+  }
+
+  /**
+   * Compute the header and the position of all the data, before anything is written.
+   *
+   * @param numrec number of records
+   * @return the length of the file in bytes
+   * @throws IOException on error
+   */
+  public long prepare(int numrec) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(8000);
+    DataOutputStream stream = new DataOutputStream(bos);
+    writeHeader(stream, numrec);
+    stream.flush();
+    header = bos.toByteArray();
+    this.numrec = numrec;
+
+    // the offsets in the header are ints; add up as longs to see if they overflowed
+    length = header.length;
+    long recLength = 0;
+    for (Vinfo vinfo : vinfoList) {
+      long size = vinfo.v.getDataType().getSize();
+      for (Dimension dim : vinfo.v.getDimensions())
+        if (!dim.isUnlimited()) size *= dim.getLength();
+      if (vinfo.pad > 0) size += vinfo.pad;
+      if (vinfo.isRecord)
+        recLength += size;
+      else
+        length += size;
+    }
+    length += recLength * numrec;
+    return length;
+  }
+
+  /**
+   * The length of the file in bytes, computed by prepare().
+   *
+   * @return length of the file in bytes, or -1 if prepare() has not been called
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Write the file to a channel: the header, then the data of each Variable, reading no more than
+   * maxSlabSize bytes from a source Variable at a time.
+   *
+   * @param channel     write to this channel
+   * @param maxSlabSize maximum number of bytes to read at once
+   * @return number of bytes written
+   * @throws IOException           on read or write error
+   * @throws InvalidRangeException if a source Variable has the wrong shape
+   */
+  public long writeFile(WritableByteChannel channel, long maxSlabSize) throws IOException, InvalidRangeException {
+    if (header == null)
+      throw new IllegalStateException("must call prepare() first");
+    if (length > Integer.MAX_VALUE)
+      throw new IllegalStateException("file of " + length + " bytes is too large for the netCDF-3 classic format");
+
+    filePos = write(channel, ByteBuffer.wrap(header));
+
+    List<Vinfo> recordList = new ArrayList<Vinfo>();
+    for (Vinfo vinfo : vinfoList) {
+      if (vinfo.isRecord) {
+        recordList.add(vinfo);
+        continue;
+      }
+      if (debugPos) System.out.println(" writing at "+filePos+" should be "+vinfo.offset+" "+vinfo.v.getName());
+      assert filePos == vinfo.offset;
+      Variable source = getSource(vinfo);
+      int[] shape = source.getShape();
+      writeSlabs(channel, vinfo, source, new int[shape.length], shape, maxSlabSize);
+      filePos += writePadding(channel, vinfo.pad);
+    }
+
+    if ((numrec == 0) || (recordList.size() == 0))
+      return filePos;
+
+    // read as many records as fit into a slab, then write them out interleaved
+    int readAtaTime = (recSize == 0) ? numrec : (int) Math.max(1, Math.min(numrec, maxSlabSize / recSize));
+    for (int rec = 0; rec < numrec; rec += readAtaTime) {
+      int need = Math.min(readAtaTime, numrec - rec);
+
+      if (need == 1) {
+        for (Vinfo vinfo : recordList) {
+          Variable source = getSource(vinfo);
+          int[] origin = new int[source.getRank()];
+          int[] shape = source.getShape();
+          origin[0] = rec;
+          shape[0] = 1;
+          writeSlabs(channel, vinfo, source, origin, shape, maxSlabSize);
+          filePos += writePadding(channel, vinfo.pad);
+        }
+        continue;
+      }
+
+      ByteBuffer[] data = new ByteBuffer[recordList.size()];
+      for (int i = 0; i < recordList.size(); i++) {
+        Vinfo vinfo = recordList.get(i);
+        Variable source = getSource(vinfo);
+        int[] origin = new int[source.getRank()];
+        int[] shape = source.getShape();
+        origin[0] = rec;
+        shape[0] = need;
+        data[i] = getBytes(vinfo, source.read(origin, shape));
+      }
+
+      for (int r = 0; r < need; r++) {
+        for (int i = 0; i < recordList.size(); i++) {
+          Vinfo vinfo = recordList.get(i);
+          int size = vinfo.vsize - vinfo.pad;
+          ByteBuffer bb = data[i];
+          bb.limit((r + 1) * size);
+          bb.position(r * size);
+          filePos += write(channel, bb);
+          filePos += writePadding(channel, vinfo.pad);
+        }
+      }
+    }
+
+    if (debugWrite) System.out.println("wrote "+filePos+" bytes, # recs=" + numrec);
+    return filePos;
+  }
+
+  private Variable getSource(Vinfo vinfo) {
+    Variable source = (sources == null) ? null : sources.get(vinfo.v);
+    return (source == null) ? vinfo.v : source;
+  }
+
+  // write the section (origin, shape) of source in contiguous slabs of no more than maxSlabSize bytes
+  private void writeSlabs(WritableByteChannel channel, Vinfo vinfo, Variable source, int[] origin, int[] shape,
+                          long maxSlabSize) throws IOException, InvalidRangeException {
+
+    if (source.getDataType() == DataType.STRING) { // strings are small: read them all, then convert to char
+      filePos += write(channel, getBytes(vinfo, source.read(origin, shape)));
+      return;
+    }
+
+    long maxSlabElems = Math.max(1, maxSlabSize / source.getElementSize());
+    ucar.nc2.FileWriter.ChunkingIndex index = new ucar.nc2.FileWriter.ChunkingIndex(shape);
+    while (index.currentElement() < index.getSize()) {
+      int[] slabOrigin = index.getCurrentCounter();
+      int[] slabShape = index.computeChunkShape(maxSlabElems);
+      for (int i = 0; i < origin.length; i++)
+        slabOrigin[i] += origin[i];
+
+      Array data = source.read(slabOrigin, slabShape);
+      filePos += write(channel, getBytes(vinfo, data));
+      if (debugWrite) System.out.println(" write " + data.getSize() + " elems at "+ new Section(slabOrigin, slabShape));
+
+      index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(slabShape));
+    }
+  }
+
+  // data in the netCDF-3 (big endian) encoding
+  private ByteBuffer getBytes(Vinfo vinfo, Array data) {
+    if (data instanceof ArrayObject) {
+      int[] shape = vinfo.v.getShape();
+      data = ArrayChar.makeFromStringArray((ArrayObject) data, shape[shape.length - 1]);
+    }
+    ByteBuffer bb = data.getDataAsByteBuffer();
+    bb.rewind();
+    return bb;
+  }
+
+  private int write(WritableByteChannel channel, ByteBuffer bb) throws IOException {
+    int nbytes = bb.remaining();
+    while (bb.hasRemaining())
+      channel.write(bb);
+    return nbytes;
+  }
+
+  private int writePadding(WritableByteChannel channel, int pad) throws IOException {
+    if (pad == 0) return 0;
+    if (padddingBB == null) padddingBB = ByteBuffer.allocate(4); // just 4 zero bytes
+    padddingBB.position(0);
+    padddingBB.limit(pad);
+    return write(channel, padddingBB);
+  }
+
   ////////////////////////////////////////
 
   public static void writeFromFile(NetcdfFile fileIn, String fileOutName) throws IOException, InvalidRangeException {
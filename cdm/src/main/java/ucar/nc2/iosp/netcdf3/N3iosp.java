@@ -34,6 +34,7 @@ package ucar.nc2.iosp.netcdf3;
 
 import ucar.ma2.*;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.MMapRandomAccessFile;
 import ucar.nc2.*;
 import ucar.nc2.iosp.*;
 import ucar.unidata.util.Format;
@@ -115,11 +116,13 @@ public abstract class N3iosp extends AbstractIOServiceProvider implements IOServ
   static public final int MAX_NUMRECS = Integer.MAX_VALUE;
 
   static private boolean syncExtendOnly = false;
+  static private boolean memoryMap = false;
 
   /**
    * Set a static property.
    * Supported static properties: <ul>
    * <li> syncExtendOnly = "true" : assume all file changes are syncExtend only.
+   * <li> memoryMap = "true" : read local files through a MMapRandomAccessFile.
    * </ul>
    *
    * @param name  property name
@@ -128,6 +131,8 @@ public abstract class N3iosp extends AbstractIOServiceProvider implements IOServ
   static public void setProperty(String name, String value) {
     if (name.equalsIgnoreCase("syncExtendOnly"))
       syncExtendOnly = value.equalsIgnoreCase("true");
+    else if (name.equalsIgnoreCase("memoryMap"))
+      memoryMap = value.equalsIgnoreCase("true");
   }
 
 /*
@@ -381,6 +386,8 @@ public String NC_check_name(String name) {
 
   public void open(ucar.unidata.io.RandomAccessFile raf, ucar.nc2.NetcdfFile ncfile,
                    ucar.nc2.util.CancelTask cancelTask) throws IOException {
+    if (memoryMap)
+      raf = MMapRandomAccessFile.map(raf);
     this.raf = raf;
     this.ncfile = ncfile;
 
@@ -58,6 +58,7 @@ public abstract class N3streamWriter {
   protected int recStart, recSize;
   protected boolean usePadding = true;
   protected long filePos = 0;
+  private Variable unpaddedRecordVar;
 
   protected N3streamWriter(ucar.nc2.NetcdfFile ncfile) {
     this.ncfile = ncfile;
@@ -123,14 +124,21 @@ public abstract class N3streamWriter {
     }
     count += 8;
 
-    /* Note on padding: In the special case of only a single record variable of character, byte, or short
-    // type, no padding is used between data values.
-    if (nvars == 1) {
-      Variable var = vars.get(0);
+    // Note on padding: In the special case of only a single record variable of character, byte, or short
+    // type, no padding is used between data values. As in N3header, the padded size still goes into the header.
+    unpaddedRecordVar = null;
+    for (Variable var : vars) {
+      if (!var.isUnlimited() || (var instanceof Structure)) continue;
+      if (unpaddedRecordVar != null) { // more than one
+        unpaddedRecordVar = null;
+        break;
+      }
       DataType dtype = var.getDataType();
       if ((dtype == DataType.CHAR) || (dtype == DataType.BYTE) || (dtype == DataType.SHORT))
-        usePadding = false;
-    }  */
+        unpaddedRecordVar = var;
+      else
+        break;
+    }
 
     // we have to calculate how big the header is before we can actually write it
     // so we set stream = null
@@ -207,6 +215,8 @@ public abstract class N3streamWriter {
         vsize *= dim.getLength();
     }
     int pad =  (usePadding) ? N3header.padding(vsize) : 0;
+    int vsizeHeader = vsize + pad;
+    if (var == unpaddedRecordVar) pad = 0;
     vsize += pad;
 
     // variable attributes
@@ -216,7 +226,7 @@ public abstract class N3streamWriter {
     int type = N3header.getType(var.getDataType());
     if (null != stream) {
       stream.writeInt(type);
-      stream.writeInt(vsize);
+      stream.writeInt(vsizeHeader);
       stream.writeInt(offset);
     }
     hsize += 12;
@@ -121,10 +121,21 @@ public abstract class Aggregation {
 
   // experimental multithreading
   static protected Executor executor;
+  static protected int maxParallelReads = 8; // max nested datasets one section read will read at the same time
   static public void setExecutor(Executor exec) {
     executor = exec;
   }
 
+  /**
+   * Read nested datasets in parallel, using this Executor.
+   * @param exec use this Executor, null means read serially
+   * @param maxParallel the maximum number of nested datasets read at the same time by one section read
+   */
+  static public void setExecutor(Executor exec, int maxParallel) {
+    executor = exec;
+    maxParallelReads = maxParallel;
+  }
+
   static public void setTypicalDatasetMode(String mode) {
     if (mode.equalsIgnoreCase("random"))
       typicalDatasetMode = TypicalDataset.RANDOM;
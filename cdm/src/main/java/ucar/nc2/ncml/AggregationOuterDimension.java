@@ -265,17 +265,26 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
     //if (mainv.getShortName().equals(dimName))
     //  return readAggCoord(mainv, section, cancelTask);
 
+    return readNested(mainv, section, dtype, false, cancelTask);
+  }
+
+  // Read the nested datasets' parts of section, and copy each into the result as soon as it is read.
+  // If wholeVar, each nested variable is read completely, so that its data gets cached.
+  private Array readNested(Variable mainv, Section section, DataType dtype, boolean wholeVar, CancelTask cancelTask)
+          throws IOException, InvalidRangeException {
+
     Array sectionData = Array.factory(dtype, section.getShape());
     int destPos = 0;
 
     List<Range> ranges = section.getRanges();
     Range joinRange = section.getRange(0);
-    List<Range> nestedSection = new ArrayList<Range>(ranges); // get copy
     List<Range> innerSection = ranges.subList(1, ranges.size());
+    long innerSize = new Section(innerSection).computeSize();
 
     if (debug) System.out.println("   agg wants range=" + mainv.getName() + "(" + joinRange + ")");
 
-    // LOOK: could multithread here
+    // find the nested datasets that are needed, and where their data goes in the result
+    List<SectionReader> readers = new ArrayList<SectionReader>();
     List<Dataset> nestedDatasets = getDatasets();
     for (Dataset nested : nestedDatasets) {
       DatasetOuterDimension dod = (DatasetOuterDimension) nested;
@@ -285,25 +294,108 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
       //if (debug)
       //  System.out.println("   agg use " + nested.aggStart + ":" + nested.aggEnd + " range= " + nestedJoinRange + " file " + nested.getLocation());
 
-      Array varData;
+      List<Range> nestedSection;
       if ((type == Type.joinNew) || (type == Type.forecastModelRunCollection)) {
-        varData = dod.read(mainv, cancelTask, innerSection);
+        nestedSection = innerSection;
       } else {
+        nestedSection = new ArrayList<Range>(ranges); // get copy
         nestedSection.set(0, nestedJoinRange);
-        varData = dod.read(mainv, cancelTask, nestedSection);
       }
 
-      if ((cancelTask != null) && cancelTask.isCancel())
-        return null;
-      varData = MAMath.convert(varData, dtype); // just in case it need to be converted
+      int nestedSize = (int) (nestedJoinRange.length() * innerSize);
+      readers.add(new SectionReader(dod, mainv, wholeVar ? null : nestedSection, dtype, sectionData, destPos, nestedSize, cancelTask));
+      destPos += nestedSize;
+    }
+
+    // open and read the nested datasets concurrently, at most maxParallelReads at a time
+    if ((executor != null) && (readers.size() > 1) && (maxParallelReads > 1) && !inSectionReader.get()) {
+      CompletionService<SectionReader> completionService = new ExecutorCompletionService<SectionReader>(executor);
+      List<Future<SectionReader>> futures = new ArrayList<Future<SectionReader>>(readers.size());
+      int next = 0;
+      try {
+        for (int done = 0; done < readers.size(); done++) {
+          while ((next < readers.size()) && (next - done < maxParallelReads))
+            futures.add(completionService.submit(readers.get(next++)));
+          completionService.take().get();
+          if ((cancelTask != null) && cancelTask.isCancel())
+            return null;
+        }
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("readAgg interrupted " + getLocation());
+
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof InvalidRangeException) throw (InvalidRangeException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        throw new IOException(cause);
 
-      Array.arraycopy(varData, 0, sectionData, destPos, (int) varData.getSize());
-      destPos += varData.getSize();
+      } finally {
+        for (Future<SectionReader> f : futures)
+          f.cancel(false); // no-op on the ones that are done
+      }
+
+    } else {
+      for (SectionReader reader : readers) {
+        reader.call();
+        if ((cancelTask != null) && cancelTask.isCancel())
+          return null;
+      }
     }
 
     return sectionData;
   }
 
+  // set while a thread is running a SectionReader, so a nested aggregation wont wait on the same executor
+  static private final ThreadLocal<Boolean> inSectionReader = new ThreadLocal<Boolean>() {
+    protected Boolean initialValue() {
+      return Boolean.FALSE;
+    }
+  };
+
+  // read one nested dataset's part of a section, and copy it into the result at destPos; null nestedSection means all of it
+  private class SectionReader implements Callable<SectionReader> {
+    DatasetOuterDimension dod;
+    Variable mainv;
+    List<Range> nestedSection;
+    DataType dtype;
+    Array sectionData;
+    int destPos, size;
+    CancelTask cancelTask;
+
+    SectionReader(DatasetOuterDimension dod, Variable mainv, List<Range> nestedSection, DataType dtype,
+                  Array sectionData, int destPos, int size, CancelTask cancelTask) {
+      this.dod = dod;
+      this.mainv = mainv;
+      this.nestedSection = nestedSection;
+      this.dtype = dtype;
+      this.sectionData = sectionData;
+      this.destPos = destPos;
+      this.size = size;
+      this.cancelTask = cancelTask;
+    }
+
+    public SectionReader call() throws IOException, InvalidRangeException {
+      boolean wasInReader = inSectionReader.get();
+      inSectionReader.set(Boolean.TRUE);
+      try {
+        Array varData = (nestedSection == null) ? dod.read(mainv, cancelTask) : dod.read(mainv, cancelTask, nestedSection);
+        if ((varData == null) || ((cancelTask != null) && cancelTask.isCancel()))
+          return this;
+        varData = MAMath.convert(varData, dtype); // just in case it need to be converted
+
+        // fmrc ragged time may return less than asked for; the rest stays missing (zero)
+        Array.arraycopy(varData, 0, sectionData, destPos, (int) Math.min(size, varData.getSize()));
+        return this;
+
+      } finally {
+        inSectionReader.set(wasInReader);
+      }
+    }
+  }
+
   /**
    * Read an aggregation variable: A variable whose data spans multiple files.
    * This is an implementation of ProxyReader, so must fulfill that contract.
@@ -341,75 +433,12 @@ public abstract class AggregationOuterDimension extends Aggregation implements P
     //if (mainv.getShortName().equals(dimName))
     //  return readAggCoord(mainv, cancelTask);
 
-    Array allData = Array.factory(dtype, mainv.getShape());
-    int destPos = 0;
-
-    List<Dataset> nestedDatasets = getDatasets();
-    if (executor != null) {
-      CompletionService<Result> completionService = new ExecutorCompletionService<Result>(executor);
-
-      int count = 0;
-      for (Dataset vnested : nestedDatasets)
-        completionService.submit(new ReaderTask(vnested, mainv, cancelTask, count++));
-
-      try {
-        int n = nestedDatasets.size();
-        for (int i = 0; i < n; ++i) {
-          Result r = completionService.take().get();
-          r.data = MAMath.convert(r.data, dtype); // just in case it need to be converted
-          if (r != null) {
-            int size = (int) r.data.getSize();
-            Array.arraycopy(r.data, 0, allData, size * r.index, size);
-          }
-        }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-      } catch (ExecutionException e) {
-        throw new IOException(e.getMessage());
-      }
-
-    } else {
-
-      for (Dataset vnested : nestedDatasets) {
-        Array varData = vnested.read(mainv, cancelTask);
-        if ((cancelTask != null) && cancelTask.isCancel())
-          return null;
-        varData = MAMath.convert(varData, dtype); // just in case it need to be converted
-
-        Array.arraycopy(varData, 0, allData, destPos, (int) varData.getSize());
-        destPos += varData.getSize();
-      }
-    }
-
-    return allData;
-  }
-
-  private class ReaderTask implements Callable<Result> {
-    Dataset ds;
-    Variable mainv;
-    CancelTask cancelTask;
-    int index;
-
-    ReaderTask(Dataset ds, Variable mainv, CancelTask cancelTask, int index) {
-      this.ds = ds;
-      this.mainv = mainv;
-      this.cancelTask = cancelTask;
-      this.index = index;
-    }
-
-    public Result call() throws Exception {
-      Array data = ds.read(mainv, cancelTask);
-      return new Result(data, index);
-    }
-  }
-
-  private class Result {
-    Array data;
-    int index;
+    try {
+      return readNested(mainv, mainv.getShapeAsSection(), dtype, true, cancelTask);
 
-    Result(Array data, int index) {
-      this.data = data;
-      this.index = index;
+    } catch (InvalidRangeException e) {
+      logger.error("readAgg " + getLocation(), e);
+      throw new IllegalArgumentException("readAgg " + getLocation(), e);
     }
   }
 
@@ -58,6 +58,20 @@ public class CdmRemote extends ucar.nc2.NetcdfFile {
 
   static private org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CdmRemote.class);
   static private boolean showRequest = true;
+  static private int deflateLevel = 0;
+  static private boolean shuffle = false;
+
+  /**
+   * Ask the server to deflate large data responses.
+   * Servers that dont support compression ignore the request and send uncompressed data.
+   *
+   * @param level deflate level 1-9, or 0 for no compression (default)
+   * @param doShuffle if true, byte-shuffle floating point data before compressing; usually compresses better
+   */
+  static public void setCompression(int level, boolean doShuffle) {
+    deflateLevel = level;
+    shuffle = doShuffle;
+  }
 
   /**
    * Create the canonical form of the URL.
@@ -152,6 +166,11 @@ public class CdmRemote extends ucar.nc2.NetcdfFile {
       sbuff.append(section.toString());
       sbuff.append(")");
     }
+    if (deflateLevel > 0) {
+      sbuff.append("&deflate=");
+      sbuff.append(deflateLevel);
+      if (shuffle) sbuff.append("&shuffle=true");
+    }
 
     if (showRequest)
       System.out.println(" CdmRemote data request for variable: " + v.getName() + " section= " + section + " url=" + sbuff);
@@ -173,7 +192,7 @@ public class CdmRemote extends ucar.nc2.NetcdfFile {
         int readLen = Integer.parseInt(s);
         if (showRequest)
           System.out.printf(" content-length = %d%n", readLen);
-        if (v.getDataType() != DataType.SEQUENCE) {
+        if ((v.getDataType() != DataType.SEQUENCE) && (deflateLevel == 0)) {
           int wantSize = (int) (v.getElementSize() * (section == null ? v.getSize() : section.computeSize()));
           if (readLen != wantSize)
             throw new IOException("content-length= " + readLen + " not equal expected Size= " + wantSize); // LOOK
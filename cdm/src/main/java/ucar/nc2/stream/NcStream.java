@@ -173,14 +173,39 @@ public class NcStream {
   }
 
   static NcStreamProto.Data encodeDataProto(Variable var, Section section) {
+    return encodeDataProto(var, section, NcStreamProto.Compress.NONE);
+  }
+
+  static NcStreamProto.Data encodeDataProto(Variable var, Section section, NcStreamProto.Compress compress) {
     NcStreamProto.Data.Builder builder = NcStreamProto.Data.newBuilder();
     builder.setVarName(var.getName());
     builder.setDataType(encodeDataType(var.getDataType()));
     builder.setSection(encodeSection(section));
     builder.setVersion(1);
+    if (compress != NcStreamProto.Compress.NONE)
+      builder.setCompress(compress);
     return builder.build();
   }
 
+  // byte-shuffle: byte j of element i goes to out[j * nelems + i]
+  static void shuffle(byte[] in, int len, int elemSize, byte[] out) {
+    int nelems = len / elemSize;
+    for (int i = 0; i < nelems; i++) {
+      int pos = i * elemSize;
+      for (int j = 0; j < elemSize; j++)
+        out[j * nelems + i] = in[pos + j];
+    }
+  }
+
+  static void unshuffle(byte[] in, int len, int elemSize, byte[] out, int outPos) {
+    int nelems = len / elemSize;
+    for (int j = 0; j < elemSize; j++) {
+      int pos = j * nelems;
+      for (int i = 0; i < nelems; i++)
+        out[outPos + i * elemSize + j] = in[pos + i];
+    }
+  }
+
   static public NcStreamProto.Section encodeSection(Section section) {
     NcStreamProto.Section.Builder sbuilder = NcStreamProto.Section.newBuilder();
     for (Range r : section.getRanges()) {
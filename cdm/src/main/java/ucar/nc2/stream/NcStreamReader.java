@@ -40,6 +40,8 @@ import ucar.ma2.*;
 import java.io.InputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -156,8 +158,13 @@ public class NcStreamReader {
     // otherwise read data message
     int dsize = NcStream.readVInt(is);
     if (debug) System.out.println("  readData data len= " + dsize);
-    byte[] datab = new byte[dsize];
-    NcStream.readFully(is, datab);
+    byte[] datab;
+    if (dproto.getCompress() == NcStreamProto.Compress.DEFLATE) {
+      datab = readDeflate(is, dsize);
+    } else {
+      datab = new byte[dsize];
+      NcStream.readFully(is, datab);
+    }
 
     if (dataType == DataType.STRUCTURE) {
       Structure s = (Structure) ncfile.findVariable(dproto.getVarName());
@@ -179,6 +186,61 @@ public class NcStreamReader {
     }
   }
 
+  // see NcStreamWriter.sendDeflate() for the layout
+  private byte[] readDeflate(InputStream is, int dsize) throws IOException {
+    byte[] datab = new byte[dsize];
+    int shuffleSize = NcStream.readVInt(is);
+    byte[] shuffled = (shuffleSize > 1) ? new byte[dsize] : null;
+    byte[] block = null;
+
+    Inflater inflater = new Inflater();
+    try {
+      int pos = 0;
+      while (true) {
+        int clen = NcStream.readVInt(is);
+        if (clen == 0) break;
+        if (clen < 0) throw new IOException("Compressed data transfer truncated");
+        if (block == null || block.length < clen) block = new byte[clen];
+        if (readFully(is, block, clen) != clen) throw new IOException("Compressed data transfer truncated");
+
+        inflater.reset();
+        inflater.setInput(block, 0, clen);
+        byte[] out = (shuffled != null) ? shuffled : datab;
+        int start = (shuffled != null) ? 0 : pos;
+        int n = 0;
+        while (!inflater.finished()) {
+          int count = inflater.inflate(out, start + n, dsize - pos - n);
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary() || pos + n == dsize))
+            throw new IOException("Compressed data transfer corrupted");
+          n += count;
+        }
+        if (shuffled != null)
+          NcStream.unshuffle(shuffled, n, shuffleSize, datab, pos);
+        pos += n;
+        if (debug) System.out.printf("  readData inflate %d -> %d%n", clen, n);
+      }
+
+      if (pos != dsize)
+        throw new IOException("Compressed data transfer size= " + pos + " expected= " + dsize);
+    } catch (DataFormatException e) {
+      throw new IOException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+    return datab;
+  }
+
+  private int readFully(InputStream is, byte[] b, int want) throws IOException {
+    int done = 0;
+    while (want > 0) {
+      int bytesRead = is.read(b, done, want);
+      if (bytesRead == -1) break;
+      done += bytesRead;
+      want -= bytesRead;
+    }
+    return done;
+  }
+
   public StructureDataIterator getStructureIterator(InputStream is, NetcdfFile ncfile) throws IOException {
     if (!readAndTest(is, NcStream.MAGIC_DATA))
       throw new IOException("Data transfer corrupted on "+ncfile.getLocation());
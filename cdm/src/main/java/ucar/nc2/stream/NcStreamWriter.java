@@ -38,6 +38,7 @@ import ucar.nc2.iosp.IospHelper;
 
 import java.io.DataOutputStream;
 import java.nio.channels.Channels;
+import java.util.zip.Deflater;
 import java.nio.channels.WritableByteChannel;
 import java.nio.ByteBuffer;
 import java.io.IOException;
@@ -52,11 +53,15 @@ import java.io.OutputStream;
 public class NcStreamWriter {
   static private long maxChunk = 1 * 1000 * 1000; // 1 MByte
   static private int sizeToCache = 100; // when to store a variable's data in the header, ie "immediate" mode
+  static private int minCompress = 10 * 1000; // dont bother compressing data messages smaller than this
 
   private NetcdfFile ncfile;
   private NcStreamProto.Header header;
   private boolean show = false;
 
+  private int deflateLevel = 0; // 0 = no compression
+  private boolean shuffle = false;
+
   public NcStreamWriter(NetcdfFile ncfile, String location) throws IOException {
     this.ncfile = ncfile;
     NcStreamProto.Group.Builder rootBuilder = NcStream.encodeGroup(ncfile.getRootGroup(), sizeToCache);
@@ -70,6 +75,18 @@ public class NcStreamWriter {
     header = headerBuilder.build();
   }
 
+  /**
+   * Compress data messages larger than 10K bytes with deflate.
+   * Only numeric and char data is compressed; the reader sees it in the Data message's compress field.
+   *
+   * @param deflateLevel deflate level 1-9, or 0 for no compression (default)
+   * @param shuffle if true, byte-shuffle floating point data before compressing
+   */
+  public void setCompression(int deflateLevel, boolean shuffle) {
+    this.deflateLevel = Math.max(0, Math.min(deflateLevel, 9));
+    this.shuffle = shuffle;
+  }
+
   public long sendStart(WritableByteChannel wbc) throws IOException {
     return writeBytes(wbc, NcStream.MAGIC_START);
   }
@@ -97,9 +114,13 @@ public class NcStreamWriter {
   public long sendData(Variable v, Section section, WritableByteChannel wbc) throws IOException, InvalidRangeException {
     if (show) System.out.printf(" %s section=%s%n", v.getName(), section);
 
+    DataType dataType = v.getDataType();
+    boolean deflate = (deflateLevel > 0) && (dataType.isNumeric() || dataType.isEnum() || (dataType == DataType.CHAR))
+            && (section.computeSize() * v.getElementSize() >= minCompress);
+
     long size = 0;
     size += writeBytes(wbc, NcStream.MAGIC_DATA); // magic
-    NcStreamProto.Data dataProto = NcStream.encodeDataProto(v, section);
+    NcStreamProto.Data dataProto = NcStream.encodeDataProto(v, section, deflate ? NcStreamProto.Compress.DEFLATE : NcStreamProto.Compress.NONE);
     byte[] datab = dataProto.toByteArray();
     size += NcStream.writeVInt(wbc, datab.length); // dataProto len
     size += writeBytes(wbc, datab); // dataProto
@@ -126,8 +147,69 @@ public class NcStreamWriter {
     size += NcStream.writeVInt(wbc, (int) len); // data len or number of objects
     if (show) System.out.printf("  %s proto=%d data=%d%n", v.getName(), datab.length, len);
 
-    size += v.readToByteChannel(section, wbc); // try to do a direct transfer
+    if (deflate)
+      size += sendDeflate(v, section, wbc);
+    else
+      size += v.readToByteChannel(section, wbc); // try to do a direct transfer
+
+    return size;
+  }
+
+  /*
+   * Compressed data follows the uncompressed length:
+   *   vint shuffle (element size if byte-shuffled, else 0)
+   *   (vint blockLen, block)* where each block is an independent deflate stream of at most maxChunk uncompressed bytes
+   *   vint 0
+   * The section is read one block at a time, so only one block is ever in memory.
+   */
+  private long sendDeflate(Variable v, Section section, WritableByteChannel wbc) throws IOException, InvalidRangeException {
+    int elemSize = v.getElementSize();
+    int shuffleSize = (shuffle && v.getDataType().isFloatingPoint()) ? elemSize : 0;
+    long size = NcStream.writeVInt(wbc, shuffleSize);
+
+    Deflater deflater = new Deflater(deflateLevel);
+    byte[] shuffled = null;
+    byte[] out = new byte[64 * 1000];
+    try {
+      FileWriter.ChunkingIndex index = new FileWriter.ChunkingIndex(section.getShape());
+      while (index.currentElement() < index.getSize()) {
+        int[] chunkOrigin = index.getCurrentCounter();
+        int[] chunkShape = index.computeChunkShape(maxChunk / elemSize);
+        Section slab = section.compose(new Section(chunkOrigin, chunkShape));
+        Array data = v.read(slab);
+
+        ByteBuffer bb = data.getDataAsByteBuffer();
+        byte[] raw = bb.array();
+        int rawLen = (int) data.getSize() * elemSize;
+        if (shuffleSize > 1) {
+          if (shuffled == null || shuffled.length < rawLen) shuffled = new byte[rawLen];
+          NcStream.shuffle(raw, rawLen, shuffleSize, shuffled);
+          raw = shuffled;
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLen);
+        deflater.finish();
+        int clen = 0;
+        while (!deflater.finished()) {
+          if (clen == out.length) {
+            byte[] grow = new byte[2 * out.length];
+            System.arraycopy(out, 0, grow, 0, clen);
+            out = grow;
+          }
+          clen += deflater.deflate(out, clen, out.length - clen);
+        }
+        size += NcStream.writeVInt(wbc, clen);
+        size += wbc.write(ByteBuffer.wrap(out, 0, clen));
+        if (show) System.out.printf("   deflate %s %d -> %d%n", slab, rawLen, clen);
+
+        index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
+      }
+    } finally {
+      deflater.end();
+    }
 
+    size += NcStream.writeVInt(wbc, 0);
     return size;
   }
 
@@ -39,6 +39,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.IOException;
 
 import ucar.nc2.util.CancelTask;
@@ -71,7 +73,15 @@ import ucar.nc2.util.CancelTask;
  * NetcdfDataset.shutdown();  // when terminating the application
  * </pre>
  * All methods are thread safe.
- * Cleanup is done automatically in a background thread, using LRU algorithm.
+ * Cleanup is done automatically in a background thread. Acquire and release never wait for a cleanup in progress.
+ * <p/>
+ * Eviction is frequency aware: the cache keeps an approximate count of recent acquires for each hashKey,
+ * and cleanup closes the least frequently used files first, oldest first among equals.
+ * When the cache is over its soft limit, a released file whose hashKey has not been seen recently is closed
+ * instead of being kept, so that a one-time scan over many files does not push out the frequently used ones.
+ * <p/>
+ * Each file is weighted by FileCacheable.getCacheWeight(), for a NetcdfFile the size of the Variable data it has cached.
+ * If setMaxWeight() is set, cleanup also closes files until the total weight is under that limit.
  *
  * @author caron
  * @since May 30, 2008
@@ -86,6 +96,9 @@ public class FileCache {
   static boolean debugPrint = false;
   static boolean debugCleanup = false;
 
+  // a released file must have been acquired this many times recently to stay in a cache that is over its soft limit
+  static private final int admitFrequency = 2;
+
   /**
    * You must call shutdown() to shut down the background threads in order to get a clean process shutdown.
    */
@@ -99,10 +112,13 @@ public class FileCache {
 
   private String name;
   private final int softLimit, minElements, hardLimit;
+  private volatile long maxWeight = 0; // if > 0, max bytes of cached data held by unlocked files
 
   private final ConcurrentHashMap<Object, CacheElement> cache; // unique files (by key, often = filename)
   private final ConcurrentHashMap<Object, CacheElement.CacheFile> files; // list of all files in the cache
-  //private final AtomicInteger counter = new AtomicInteger(); // how many files in the cache
+  private final FrequencySketch frequency; // approximate recent acquire counts, by hashKey
+  private final AtomicLong totalWeight = new AtomicLong(); // sum of CacheFile.weight
+  private final ReentrantLock cleanupLock = new ReentrantLock(); // only one cleanup or clearCache at a time
   private final AtomicBoolean hasScheduled = new AtomicBoolean(false); // a cleanup is scheduled
   private final AtomicBoolean disabled = new AtomicBoolean(false);  // cache is disabled
 
@@ -110,6 +126,11 @@ public class FileCache {
   private final AtomicInteger cleanups = new AtomicInteger();  // how many cleanups
   private final AtomicInteger hits = new AtomicInteger();
   private final AtomicInteger miss = new AtomicInteger();
+  private final AtomicInteger evictions = new AtomicInteger(); // closed by cleanup
+  private final AtomicInteger rejects = new AtomicInteger();   // closed on release by the admission policy
+  private final AtomicLong openNanos = new AtomicLong();       // total time spent opening files on a miss
+  private final AtomicLong cleanupNanos = new AtomicLong();    // total time spent in cleanup
+  private final AtomicLong maxCleanupNanos = new AtomicLong(); // longest cleanup
 
   /**
    * Constructor.
@@ -149,8 +170,9 @@ public class FileCache {
     this.softLimit = softLimit;
     this.hardLimit = hardLimit;
 
-    cache = new ConcurrentHashMap<Object, CacheElement>(2 * softLimit, 0.75f, 8);
-    files = new ConcurrentHashMap<Object, CacheElement.CacheFile>(4 * softLimit, 0.75f, 8);
+    cache = new ConcurrentHashMap<Object, CacheElement>(2 * softLimit, 0.75f, 16);
+    files = new ConcurrentHashMap<Object, CacheElement.CacheFile>(4 * softLimit, 0.75f, 16);
+    frequency = new FrequencySketch(Math.max(softLimit, hardLimit));
 
     if (period > 0) {
       if (exec == null)
@@ -176,6 +198,17 @@ public class FileCache {
     this.disabled.set(false);
   }
 
+  /**
+   * Limit the memory held by files in the cache.
+   * The weight of a file is FileCacheable.getCacheWeight(); it is measured each time the file is released.
+   * When the total goes over this limit, a cleanup is scheduled which closes files until it is under the limit again.
+   *
+   * @param maxWeight max bytes of cached data; if <= 0, there is no limit.
+   */
+  public void setMaxWeight(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
   /**
    * Acquire a FileCacheable, and lock it so no one else can use it.
    * call FileCacheable.close() when done.
@@ -212,6 +245,7 @@ public class FileCache {
                                String location, int buffer_size, CancelTask cancelTask, Object spiObject) throws IOException {
 
     if (null == hashKey) hashKey = location;
+    frequency.increment(hashKey);
     FileCacheable ncfile = acquireCacheOnly(hashKey);
     if (ncfile != null) {
       hits.incrementAndGet();
@@ -220,7 +254,9 @@ public class FileCache {
     miss.incrementAndGet();
 
     // open the file
+    long start = System.nanoTime();
     ncfile = factory.open(location, buffer_size, cancelTask, spiObject);
+    openNanos.addAndGet(System.nanoTime() - start);
     if (cacheLog.isDebugEnabled()) cacheLog.debug("FileCache " + name + " acquire " + hashKey + " " + ncfile.getLocation());
     if (debugPrint) System.out.println("  FileCache " + name + " acquire " + hashKey + " " + ncfile.getLocation());
 
@@ -232,24 +268,18 @@ public class FileCache {
 
     if (disabled.get()) return ncfile;
 
-    // see if cache element already exists
-    // must synchronize to avoid race condition with other puts; gets are ok
-    CacheElement elem;
-    synchronized (cache) {
-      elem = cache.get(hashKey);
-      if (elem == null) cache.put(hashKey, new CacheElement(ncfile, hashKey)); // new element
-    }
-
-    // already exists, add to list
-    if (elem != null) {
-      synchronized (elem) {
-        elem.addFile(ncfile); // add to existing list
+    // find or create the cache element and add to its list.
+    // if a cleanup removes the element between the get and the add, try again with a new one
+    while (true) {
+      CacheElement elem = cache.get(hashKey);
+      if (elem == null) {
+        CacheElement newElem = new CacheElement(hashKey);
+        elem = cache.putIfAbsent(hashKey, newElem);
+        if (elem == null) elem = newElem;
       }
+      if (elem.addFile(ncfile) != null) break;
     }
 
-    // increment the number of files in the cache
-    //int count = counter.incrementAndGet();
-
     // do we need a cleanup ??
     boolean needHard = false;
     boolean needSoft = false;
@@ -343,14 +373,41 @@ public class FileCache {
         cacheLog.warn("FileCache " + name + " release " + ncfile.getLocation() + " not locked");
       file.lastAccessed = System.currentTimeMillis();
       file.countAccessed++;
+      long weight = ncfile.getCacheWeight();
+      totalWeight.addAndGet(weight - file.weight);
+      file.weight = weight;
+
+      // admission: dont let a file nobody has asked for recently displace the others in a full cache
+      if ((files.size() > softLimit) && (frequency.estimate(file.getHashKey()) < admitFrequency)) {
+        if (cacheLog.isDebugEnabled()) cacheLog.debug("FileCache " + name + " release not admitted " + ncfile.getLocation());
+        if (debugPrint) System.out.println("  FileCache " + name + " release not admitted " + ncfile.getLocation());
+        rejects.incrementAndGet();
+        remove(file);
+        ncfile.setFileCache(null); // prevent infinite loops
+        ncfile.close();
+        return;
+      }
+
       file.isLocked.set(false);
       if (cacheLog.isDebugEnabled()) cacheLog.debug("FileCache " + name + " release " + ncfile.getLocation());
       if (debugPrint) System.out.println("  FileCache " + name + " release " + ncfile.getLocation());
+
+      if ((maxWeight > 0) && (totalWeight.get() > maxWeight) && (exec != null) && hasScheduled.compareAndSet(false, true)) {
+        exec.schedule(new CleanupTask(), 100, TimeUnit.MILLISECONDS);
+        if (debugCleanup) System.out.println("CleanupTask scheduled due to max weight time=" + new Date());
+      }
       return;
     }
     throw new IOException("FileCache " + name + " release does not have file in cache = " + ncfile.getLocation());
   }
 
+  // take a locked file out of the cache; the caller must close it
+  private void remove(CacheElement.CacheFile file) {
+    files.remove(file.ncfile);
+    totalWeight.addAndGet(-file.weight);
+    file.remove();
+  }
+
   // debug
   public String getInfo(FileCacheable ncfile) throws IOException {
     if (ncfile == null) return "";
@@ -373,44 +430,40 @@ public class FileCache {
    *
    * @param force if true, remove them even if they are currently locked.
    */
-  public synchronized void clearCache(boolean force) {
+  public void clearCache(boolean force) {
     List<CacheElement.CacheFile> deleteList = new ArrayList<CacheElement.CacheFile>(2 * cache.size());
 
-    if (force) {
-      cache.clear(); // deletes everything from the cache
-      deleteList.addAll(files.values());  // add everything to the delete list
-      files.clear();
-      // counter.set(0);
-
-    } else {
-
-      // add unlocked files to the delete list, remove from files hash
-      Iterator<CacheElement.CacheFile> iter = files.values().iterator();
-      while (iter.hasNext()) {
-        CacheElement.CacheFile file = iter.next();
-        if (file.isLocked.compareAndSet(false, true)) {
-          file.remove(); // remove from the containing CacheElement
-          deleteList.add(file);
-          iter.remove();
-        }
-      }
-
-      // remove empty cache elements
-      synchronized (cache) {
+    cleanupLock.lock();
+    try {
+      if (force) {
         for (CacheElement elem : cache.values()) {
           synchronized (elem) {
-            if (elem.list.size() == 0)
-              cache.remove(elem.hashKey);
+            elem.removed = true; // any acquire still holding this element must make a new one
+          }
+        }
+        cache.clear(); // deletes everything from the cache
+        deleteList.addAll(files.values());  // add everything to the delete list
+        files.clear();
+        totalWeight.set(0);
+
+      } else {
+
+        // add unlocked files to the delete list, remove from files hash
+        for (CacheElement.CacheFile file : files.values()) {
+          if (file.isLocked.compareAndSet(false, true)) {
+            remove(file); // also removes the containing CacheElement if now empty
+            deleteList.add(file);
           }
         }
       }
+    } finally {
+      cleanupLock.unlock();
     }
 
     // close all files in deleteList
     for (CacheElement.CacheFile file : deleteList) {
       if (force && file.isLocked.get())
         cacheLog.warn("FileCache " + name + " force close locked file= " + file);
-      //counter.decrementAndGet();
 
       try {
         file.ncfile.setFileCache(null);
@@ -439,10 +492,11 @@ public class FileCache {
     Collections.sort(allFiles); // sort so oldest are on top
 
     format.format("FileCache %s (%d):%n", name, allFiles.size());
-    format.format("isLocked  accesses lastAccess                   location %n");
+    format.format("isLocked  accesses frequency    weight lastAccess                   location %n");
     for (CacheElement.CacheFile file : allFiles) {
       String loc = file.ncfile != null ? file.ncfile.getLocation() : "null";
-      format.format("%8s %9d %s %s %n", file.isLocked, file.countAccessed, new Date(file.lastAccessed), loc);
+      format.format("%8s %9d %9d %9d %s %s %n", file.isLocked, file.countAccessed, frequency.estimate(file.getHashKey()),
+              file.weight, new Date(file.lastAccessed), loc);
     }
   }
 
@@ -469,28 +523,37 @@ public class FileCache {
    * @param format add to this
    */
   public void showStats(Formatter format) {
-    format.format("  hits= %d miss= %d nfiles= %d elems= %d\n", hits.get(), miss.get(), files.size(), cache.values().size());
+    int nmiss = miss.get();
+    int ncleanups = cleanups.get();
+    double avgOpen = (nmiss == 0) ? 0.0 : openNanos.get() / 1.0e6 / nmiss;
+    double avgCleanup = (ncleanups == 0) ? 0.0 : cleanupNanos.get() / 1.0e6 / ncleanups;
+    format.format("  hits= %d miss= %d nfiles= %d elems= %d weight= %d evictions= %d rejects= %d" +
+            " avgOpen= %.2f msecs cleanups= %d avgCleanup= %.2f maxCleanup= %.2f msecs\n",
+            hits.get(), nmiss, files.size(), cache.values().size(), totalWeight.get(), evictions.get(), rejects.get(),
+            avgOpen, ncleanups, avgCleanup, maxCleanupNanos.get() / 1.0e6);
   }
 
   /**
-   * Cleanup the cache, bringing it down to minimum number.
-   * Will close the LRU (least recently used) ones first. Will not close locked files.
+   * Cleanup the cache, bringing it down to minimum number, and under the max weight if set.
+   * Will close the least frequently used ones first, and the LRU (least recently used) among those. Will not close locked files.
    * Normally this is done in a background thread, you dont need to call.
    * <p/>
-   * We have to synchronize because of clearCache()
+   * If another cleanup or clearCache() is in progress, this returns immediately.
    */
-  synchronized void cleanup(int maxElements) {
+  void cleanup(int maxElements) {
     if (disabled.get()) return;
+    if (!cleanupLock.tryLock()) {
+      hasScheduled.set(false); // the one in progress will do the work
+      return;
+    }
 
+    long start = System.nanoTime();
+    ArrayList<CacheElement.CacheFile> deleteList = null;
+    int size = files.size();
     try {
-      /* int size = counter.get();
-      int fsize = files.size();
-      if (debug && (size != fsize)) {
-        log.warn("FileCache " + name + " counter " + size + " doesnt match files().size=" + fsize);
-      } */
-
-      int size = files.size();
-      if (size <= minElements) return;
+      long weight = totalWeight.get();
+      boolean overWeight = (maxWeight > 0) && (weight > maxWeight);
+      if ((size <= minElements) && !overWeight) return;
 
       cacheLog.debug(" FileCache " + name + " cleanup started at " + new Date() + " for cleanup maxElements=" + maxElements);
       if (debugCleanup)
@@ -501,21 +564,25 @@ public class FileCache {
       // add unlocked files to the all list
       ArrayList<CacheElement.CacheFile> allFiles = new ArrayList<CacheElement.CacheFile>(size + 10);
       for (CacheElement.CacheFile file : files.values()) {
-        if (!file.isLocked.get()) allFiles.add(file);
+        if (!file.isLocked.get()) {
+          file.frequency = frequency.estimate(file.getHashKey()); // snapshot so the sort is consistent
+          allFiles.add(file);
+        }
       }
-      Collections.sort(allFiles); // sort so oldest are on top
+      Collections.sort(allFiles, evictionOrder); // sort so least frequent, then oldest are on top
 
-      // take oldest ones and put on delete list
+      // take them in eviction order and put on delete list
       int need2delete = size - minElements;
       int minDelete = size - maxElements;
-      ArrayList<CacheElement.CacheFile> deleteList = new ArrayList<CacheElement.CacheFile>(need2delete);
+      deleteList = new ArrayList<CacheElement.CacheFile>(Math.max(need2delete, 10));
 
       int count = 0;
       Iterator<CacheElement.CacheFile> iter = allFiles.iterator();
-      while (iter.hasNext() && (count < need2delete)) {
+      while (iter.hasNext() && ((count < need2delete) || ((maxWeight > 0) && (weight > maxWeight)))) {
         CacheElement.CacheFile file = iter.next();
         if (file.isLocked.compareAndSet(false, true)) { // lock it so it isnt used anywhere else
-          file.remove(); // remove from the containing element
+          weight -= file.weight;
+          remove(file); // also removes the containing CacheElement if now empty
           deleteList.add(file);
           count++;
         }
@@ -526,66 +593,72 @@ public class FileCache {
           System.out.println("FileCache " + name + "cleanup couldnt remove enough to keep under the maximum= " + maxElements + " due to locked files; currently at = " + (size - count));
       }
 
-      // remove empty cache elements
-      synchronized (cache) {
-        for (CacheElement elem : cache.values()) {
-          synchronized (elem) {
-            if (elem.list.size() == 0)
-              cache.remove(elem.hashKey);
-          }
-        }
-      }
-
-      // now actually close the files
-      long start = System.currentTimeMillis();
-      for (CacheElement.CacheFile file : deleteList) {
-        //counter.decrementAndGet();
-        files.remove(file.ncfile);
-        try {
-          file.ncfile.setFileCache(null);
-          file.ncfile.close();
-          file.ncfile = null; // help the gc
-        } catch (IOException e) {
-          log.error("FileCache " + name + " close failed on " + file.getCacheName());
-        }
-      }
-
-      long took = System.currentTimeMillis() - start;
-      cacheLog.debug(" FileCache " + name + " cleanup had= " + size + " removed= " + deleteList.size() + " took=" + took + " msec");
-      if (debugCleanup)
-        System.out.println(" FileCache " + name + "cleanup had= " + size + " removed= " + deleteList.size() + " took=" + took + " msec");
-
     } finally {
+      cleanupLock.unlock();
       // allow scheduling again
       hasScheduled.set(false);
     }
+
+    // now actually close the files, outside the lock
+    long startClose = System.currentTimeMillis();
+    for (CacheElement.CacheFile file : deleteList) {
+      try {
+        file.ncfile.setFileCache(null);
+        file.ncfile.close();
+        file.ncfile = null; // help the gc
+      } catch (IOException e) {
+        log.error("FileCache " + name + " close failed on " + file.getCacheName());
+      }
+    }
+    evictions.addAndGet(deleteList.size());
+
+    long took = System.nanoTime() - start;
+    cleanupNanos.addAndGet(took);
+    long max = maxCleanupNanos.get();
+    while ((took > max) && !maxCleanupNanos.compareAndSet(max, took))
+      max = maxCleanupNanos.get();
+
+    long tookClose = System.currentTimeMillis() - startClose;
+    cacheLog.debug(" FileCache " + name + " cleanup had= " + size + " removed= " + deleteList.size() + " took=" + tookClose + " msec");
+    if (debugCleanup)
+      System.out.println(" FileCache " + name + "cleanup had= " + size + " removed= " + deleteList.size() + " took=" + tookClose + " msec");
   }
 
+  // least frequently acquired first, then least recently used
+  static private final Comparator<CacheElement.CacheFile> evictionOrder = new Comparator<CacheElement.CacheFile>() {
+    public int compare(CacheElement.CacheFile f1, CacheElement.CacheFile f2) {
+      if (f1.frequency != f2.frequency) return f1.frequency - f2.frequency;
+      return f1.compareTo(f2);
+    }
+  };
+
   class CacheElement {
     @GuardedBy("this")
     List<CacheFile> list = new LinkedList<CacheFile>(); // may have multiple copies of the same file opened
+    @GuardedBy("this")
+    boolean removed = false; // no longer in the cache map, dont add to it
     final Object hashKey;
 
-    CacheElement(FileCacheable ncfile, Object hashKey) {
+    CacheElement(Object hashKey) {
       this.hashKey = hashKey;
-      CacheFile file = new CacheFile(ncfile);
-      list.add(file);
-      if (debug) {
-        if (files.get(ncfile) != null)
-          cacheLog.error("files already has " + hashKey + " " + name);
-      }
-      files.put(ncfile, file);
       if (cacheLog.isDebugEnabled()) cacheLog.debug("CacheElement add to cache " + hashKey + " " + name);
     }
 
+    /**
+     * Add a newly opened file to this element.
+     * @param ncfile the file, locked for the caller
+     * @return the CacheFile, or null if this element has already been removed from the cache
+     */
     CacheFile addFile(FileCacheable ncfile) {
-      CacheFile file = new CacheFile(ncfile);
+      CacheFile file;
       synchronized (this) {
+        if (removed) return null;
+        file = new CacheFile(ncfile);
         list.add(file);
       }
       if (debug) {
         if (files.get(ncfile) != null)
-          cacheLog.error("files (2) already has " + hashKey + " " + name);
+          cacheLog.error("files already has " + hashKey + " " + name);
       }
       files.put(ncfile, file);
       return file;
@@ -600,6 +673,8 @@ public class FileCache {
       final AtomicBoolean isLocked = new AtomicBoolean(true);
       int countAccessed = 1;
       long lastAccessed = 0;
+      long weight = 0;   // bytes of cached data, as of the last release
+      int frequency = 0; // snapshot used by cleanup
 
       private CacheFile(FileCacheable ncfile) {
         this.ncfile = ncfile;
@@ -615,10 +690,19 @@ public class FileCache {
         return ncfile.getLocation();
       }
 
+      Object getHashKey() {
+        return hashKey;
+      }
+
+      // remove from the containing element, and remove the element from the cache if its now empty
       void remove() {
         synchronized (CacheElement.this) {
           if (!list.remove(this))
             cacheLog.warn("FileCache " + name + " could not remove " + ncfile.getLocation());
+          if (list.size() == 0) {
+            removed = true;
+            cache.remove(hashKey, CacheElement.this);
+          }
         }
         if (cacheLog.isDebugEnabled()) cacheLog.debug("FileCache " + name + " remove " + ncfile.getLocation());
         if (debugPrint) System.out.println("  FileCache " + name + " remove " + ncfile.getLocation());
@@ -639,5 +723,87 @@ public class FileCache {
       cleanup(softLimit);
     }
   }
- 
-}
\ No newline at end of file
+
+  /**
+   * Approximate counts of recent acquires by hashKey, in a fixed amount of memory (a count-min sketch).
+   * Counts saturate at 15 and are all halved periodically, so old popularity fades away.
+   * The sketch is split into stripes chosen by key hash, each with its own lock, so that acquires of
+   * different files rarely wait on each other.
+   */
+  @ThreadSafe
+  static private class FrequencySketch {
+    static private final int nstripes = 16; // power of 2
+    static private final int depth = 4;
+    static private final int maxCount = 15;
+    static private final int[] seeds = {0x97cb3127, 0x5c6fe6b5, 0x2f0f6c25, 0x1b873593};
+
+    private final Stripe[] stripes;
+
+    FrequencySketch(int maxEntries) {
+      int width = 256;
+      while (width * nstripes < 16 * maxEntries) width <<= 1;
+      stripes = new Stripe[nstripes];
+      for (int i = 0; i < nstripes; i++)
+        stripes[i] = new Stripe(width);
+    }
+
+    void increment(Object key) {
+      int hash = key.hashCode();
+      stripeOf(hash).increment(hash);
+    }
+
+    int estimate(Object key) {
+      int hash = key.hashCode();
+      return stripeOf(hash).estimate(hash);
+    }
+
+    private Stripe stripeOf(int hash) {
+      int h = hash * 0x9e3779b9;
+      return stripes[(h ^ (h >>> 16)) & (nstripes - 1)];
+    }
+
+    @ThreadSafe
+    static private class Stripe {
+      @GuardedBy("this")
+      private final int[] table;
+      private final int mask;
+      private final int sampleSize;
+      @GuardedBy("this")
+      private int additions = 0;
+
+      Stripe(int width) {
+        table = new int[width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+      }
+
+      synchronized void increment(int hash) {
+        for (int i = 0; i < depth; i++) {
+          int index = indexOf(hash, i);
+          if (table[index] < maxCount) table[index]++;
+        }
+        if (++additions >= sampleSize) {
+          for (int i = 0; i < table.length; i++)
+            table[i] >>>= 1;
+          additions /= 2;
+        }
+      }
+
+      synchronized int estimate(int hash) {
+        int min = maxCount;
+        for (int i = 0; i < depth; i++)
+          min = Math.min(min, table[indexOf(hash, i)]);
+        return min;
+      }
+
+      private int indexOf(int hash, int i) {
+        int h = hash * seeds[i];
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mask;
+      }
+    }
+  }
+
+}
@@ -34,6 +34,7 @@
 package ucar.nc2.util.cache;
 
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.FileChannelRandomAccessFile;
 import ucar.nc2.util.CancelTask;
 
 import java.util.*;
@@ -60,16 +61,24 @@ import java.io.IOException;
  * If you want to use, call init() and make sure you call exit() when exiting program.
  * All methods are thread safe.
  * Cleanup is done automatically in a background thread, using LRU.
+ * If shareChannels is set, each Raf is a FileChannelRandomAccessFile, so all Rafs open on the same
+ * file share one file descriptor.
  *
  * @author jcaron
  */
 public class FileCacheRaf {
   private FileCache cache;
   private FileFactory factory;
+  private boolean shareChannels;
 
   public FileCacheRaf(int minElementsInMemory, int maxElementsInMemory, int period) {
+    this(minElementsInMemory, maxElementsInMemory, period, false);
+  }
+
+  public FileCacheRaf(int minElementsInMemory, int maxElementsInMemory, int period, boolean shareChannels) {
     cache = new FileCache("FileCacheRaf", minElementsInMemory, maxElementsInMemory, -1, period);
     factory = new RafFactory();
+    this.shareChannels = shareChannels;
   }
 
   public void clearCache(boolean force) {
@@ -80,6 +89,10 @@ public class FileCacheRaf {
     return cache.getCache().values();
   }
 
+  public void showStats(Formatter format) {
+    cache.showStats(format);
+  }
+
 
   static public void shutdown() {
     FileCache.shutdown();
@@ -103,7 +116,7 @@ public class FileCacheRaf {
     private ucar.unidata.io.RandomAccessFile raf;
 
     Raf(String location) throws IOException {
-      this.raf = new RandomAccessFile( location, "r");
+      this.raf = shareChannels ? new FileChannelRandomAccessFile(location) : new RandomAccessFile( location, "r");
     }
 
     public String getLocation() {
@@ -120,6 +133,10 @@ public class FileCacheRaf {
       return false;
     }
 
+    public long getCacheWeight() {
+      return 0;
+    }
+
     public void setFileCache(FileCache fileCache) {
     }
   }
@@ -64,6 +64,13 @@ public interface FileCacheable {
    */
   public boolean sync() throws IOException;
 
+  /**
+   * An estimate of the memory held by the FileCacheable, such as Variable data it has cached.
+   * The FileCache measures this each time the FileCacheable is released, and uses it to stay under its max weight.
+   * @return number of bytes, or 0 if not known
+   */
+  public long getCacheWeight();
+
   /**
    * If the FileCache is set, the FileCacheable object must store it and call FileCache.release() on FileCacheable.close():
    * <pre>
@@ -0,0 +1,285 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.io;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only RandomAccessFile that reads with positional FileChannel reads.
+ * All instances open on the same file share a single FileChannel, so many concurrent readers
+ * only use one file descriptor. Each instance still has its own buffer and file position, so an
+ * instance must not be used by more than one thread at a time; open one per reader instead, which is cheap.
+ * The channel is closed when the last instance on that file is closed.
+ * <p/>
+ * A thread that is interrupted while reading closes the channel for all the instances sharing it.
+ * When that happens the channel is reopened: the interrupted reader still gets its ClosedByInterruptException,
+ * the other readers retry on the new channel.
+ *
+ * @author caron
+ */
+@NotThreadSafe
+public class FileChannelRandomAccessFile extends RandomAccessFile {
+
+  // canonical path -> open channel; guarded by itself
+  static private final Map<String, SharedChannel> channels = new HashMap<String, SharedChannel>();
+
+  static private final int maxReopen = 3; // give up if the channel keeps getting closed under us
+
+  // file, channel and refCount are guarded by channels
+  static private class SharedChannel {
+    final String path;
+    java.io.RandomAccessFile file;
+    FileChannel channel;
+    int refCount = 0;
+
+    SharedChannel(String path) throws IOException {
+      this.path = path;
+      open();
+    }
+
+    void open() throws IOException {
+      this.file = new java.io.RandomAccessFile(path, "r");
+      this.channel = file.getChannel();
+    }
+  }
+
+  static private SharedChannel acquireChannel(String location) throws IOException {
+    File f = new File(location);
+    if (!f.exists())
+      throw new FileNotFoundException(location);
+    String path = f.getCanonicalPath();
+
+    synchronized (channels) {
+      SharedChannel sc = channels.get(path);
+      if (sc == null) {
+        sc = new SharedChannel(path);
+        channels.put(path, sc);
+      } else if (!sc.channel.isOpen()) {
+        reopen(sc, sc.channel);
+      }
+      sc.refCount++;
+      return sc;
+    }
+  }
+
+  static private void releaseChannel(SharedChannel sc) throws IOException {
+    java.io.RandomAccessFile file;
+    synchronized (channels) {
+      sc.refCount--;
+      if (sc.refCount > 0) return;
+      channels.remove(sc.path);
+      file = sc.file;
+    }
+    file.close(); // also closes the channel
+  }
+
+  // replace the dead channel, unless another sharer already did
+  static private FileChannel reopen(SharedChannel sc, FileChannel dead) throws IOException {
+    synchronized (channels) {
+      if (sc.channel == dead) {
+        try {
+          sc.file.close();
+        } catch (IOException e) {
+          // already closed
+        }
+        sc.open();
+      }
+      return sc.channel;
+    }
+  }
+
+  /**
+   * Debugging, do not use.
+   *
+   * @return number of shared channels currently open.
+   */
+  static public int getNumberOpenChannels() {
+    synchronized (channels) {
+      return channels.size();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////
+
+  private SharedChannel shared;
+
+  /**
+   * Open for reading, default buffer size.
+   *
+   * @param location location of the file
+   * @throws IOException on open error
+   */
+  public FileChannelRandomAccessFile(String location) throws IOException {
+    this(location, defaultBufferSize);
+  }
+
+  /**
+   * Open for reading.
+   *
+   * @param location   location of the file
+   * @param bufferSize size of read buffer
+   * @throws IOException on open error
+   */
+  public FileChannelRandomAccessFile(String location, int bufferSize) throws IOException {
+    super(bufferSize);
+    this.location = location;
+    this.shared = acquireChannel(location);
+    synchronized (channels) {
+      this.fileChannel = shared.channel;
+    }
+
+    if (debugLeaks) {
+      allFiles.add(location);
+      openFiles.add(location);
+      if (showOpen) System.out.println("  open " + location);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (shared == null) return;
+
+    if (debugLeaks) {
+      openFiles.remove(location);
+      if (showOpen) System.out.println("  close " + location);
+    }
+
+    SharedChannel sc = shared;
+    shared = null;
+    fileChannel = null;
+    releaseChannel(sc);
+  }
+
+  @Override
+  public long length() throws IOException {
+    long fileLength;
+    for (int tries = 0; ; tries++) {
+      try {
+        fileLength = fileChannel.size();
+        break;
+      } catch (ClosedChannelException e) {
+        recover(e, tries);
+      }
+    }
+    return (fileLength < dataEnd) ? dataEnd : fileLength;
+  }
+
+  // The shared channel was closed, because this or another thread was interrupted during a read.
+  // Reopen it for all the sharers; rethrow if it was this thread, otherwise let the caller retry.
+  private void recover(ClosedChannelException e, int tries) throws IOException {
+    if ((shared == null) || fileChannel.isOpen()) throw e; // this instance was closed, or its some other channel
+    fileChannel = reopen(shared, fileChannel);
+    if ((e instanceof ClosedByInterruptException) || (tries >= maxReopen)) throw e;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    // read only, nothing to write
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    throw new IOException("FileChannelRandomAccessFile is read only: " + location);
+  }
+
+  @Override
+  public void writeBytes(byte b[], int off, int len) throws IOException {
+    throw new IOException("FileChannelRandomAccessFile is read only: " + location);
+  }
+
+  /**
+   * Read directly from the shared channel, without going through the buffer.
+   * Uses positional reads, so does not disturb other users of the channel.
+   *
+   * @param pos    start here in the file
+   * @param b      put data into this buffer
+   * @param offset buffer offset
+   * @param len    this number of bytes
+   * @return actual number of bytes read, or -1 if pos is at or past the end of file
+   * @throws IOException on io error
+   */
+  @Override
+  protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+    ByteBuffer bb = ByteBuffer.wrap(b, offset, len);
+    int n = 0;
+    int tries = 0;
+    while (n < len) {
+      int count;
+      try {
+        count = fileChannel.read(bb, pos + n);
+      } catch (ClosedChannelException e) {
+        recover(e, tries++);
+        continue;
+      }
+      if (count < 0) break;
+      n += count;
+    }
+    if (debugAccess) {
+      if (showRead) System.out.println(" **read_ " + location + " = " + len + " bytes at " + pos + "; block = " + (pos / buffer.length));
+    }
+
+    if (extendMode && (n < len)) n = len;
+    return (n == 0 && len > 0) ? -1 : n;
+  }
+
+  @Override
+  public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
+    long need = nbytes;
+    int tries = 0;
+    while (need > 0) {
+      long count;
+      try {
+        count = fileChannel.transferTo(offset, need, dest);
+      } catch (ClosedChannelException e) {
+        recover(e, tries++);
+        continue;
+      }
+      if (count <= 0) break;
+      need -= count;
+      offset += count;
+    }
+    return nbytes - need;
+  }
+
+}
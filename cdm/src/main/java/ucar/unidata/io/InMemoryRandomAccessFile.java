@@ -84,6 +84,11 @@ public class InMemoryRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
     return len;
   }
 
+  @Override
+  protected Object getBlockCacheKey() {
+    return null; // already in memory
+  }
+
   @Override
   public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
     return dest.write(ByteBuffer.wrap(buffer, (int) offset, (int) nbytes));
@@ -33,98 +33,210 @@
 package ucar.unidata.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Use NIO MappedByteBuffer to implement a RandomAccessFile.
- * Limited to 2G size. Not currently used - NOT UP TO DATE DO NOT USE
+ * Use NIO MappedByteBuffer to implement a read-only RandomAccessFile.
+ * The file is mapped in segments of at most segmentSize bytes, so there is no 2G file size limit.
+ * Reads are copied out of the mapped segments, without a system call; primitive array reads that fall
+ * inside one segment are decoded directly from the mapped memory, and readToByteChannel writes the mapped
+ * segments directly. If the file grows, the new part is mapped when first read.
+ * The file size is only checked again when a read starts at or past the end of the mapped part;
+ * a read that runs past it returns the bytes that are mapped, so reads near the end of the file dont need a system call.
+ * <p/>
+ * The JDK has no way to unmap a MappedByteBuffer: close() drops the mappings, but the address space
+ * (and on Windows, a lock on the file) is only released when they are garbage collected.
+ * Buffers returned by readBulk() stay valid after close() for the same reason.
+ *
  * @author john
  */
-class MMapRandomAccessFile extends RandomAccessFile {
+public class MMapRandomAccessFile extends RandomAccessFile {
+
+  /**
+   * The default segment size: 1 Gbyte.
+   */
+  static public final int defaultSegmentSize = 1 << 30;
+
+  /**
+   * Replace a RandomAccessFile on a local file, opened read only, with a MMapRandomAccessFile.
+   * The original is closed. Any other RandomAccessFile is returned unchanged.
+   *
+   * @param raf the open file
+   * @return MMapRandomAccessFile on the same file, positioned at the start, with the same byte order; or raf
+   * @throws IOException on error
+   */
+  static public RandomAccessFile map(RandomAccessFile raf) throws IOException {
+    if (!raf.readonly) return raf;
+    if ((raf.getClass() != RandomAccessFile.class) && !(raf instanceof FileChannelRandomAccessFile)) return raf;
+
+    MMapRandomAccessFile mraf = new MMapRandomAccessFile(raf.getLocation(), raf.getBufferSize());
+    mraf.bigEndian = raf.bigEndian;
+    raf.close();
+    return mraf;
+  }
 
-  private MappedByteBuffer source;
+  private final int segmentSize;
+  private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+  private long mappedLength = 0;
 
   /**
-    * Constructor for in-memory "files"
-    * @param location used as a name
-    * @param mode the open mode
-    * @throws java.io.IOException on error
-    */
-  MMapRandomAccessFile(String location, String mode ) throws IOException {
-    super(location, mode, 1);
-    FileChannel channel = file.getChannel();
-    source = channel.map( readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, (long) 0, channel.size());
-    channel.close();
-
-    bufferStart = 0;
-	  dataSize = (int) channel.size();
-	  dataEnd = channel.size();
-    filePosition = 0;
-    buffer = null;
-    endOfFile = false;
+   * Open and map a file read only, default buffer and segment size.
+   *
+   * @param location location of the file
+   * @throws java.io.IOException on error
+   */
+  public MMapRandomAccessFile(String location) throws IOException {
+    this(location, defaultBufferSize, defaultSegmentSize);
   }
 
+  /**
+   * Open and map a file read only, default segment size.
+   *
+   * @param location   location of the file
+   * @param bufferSize size of the read buffer, used for the scalar reads
+   * @throws java.io.IOException on error
+   */
+  public MMapRandomAccessFile(String location, int bufferSize) throws IOException {
+    this(location, bufferSize, defaultSegmentSize);
+  }
+
+  /**
+   * Open and map a file read only.
+   *
+   * @param location    location of the file
+   * @param bufferSize  size of the read buffer, used for the scalar reads
+   * @param segmentSize map the file in segments of this many bytes, must be > 0
+   * @throws java.io.IOException on error
+   */
+  public MMapRandomAccessFile(String location, int bufferSize, int segmentSize) throws IOException {
+    super(location, "r", bufferSize);
+    if (segmentSize <= 0)
+      throw new IllegalArgumentException("segmentSize must be > 0");
+    this.segmentSize = segmentSize;
+    fileChannel = file.getChannel();
+    map(fileChannel.size());
+  }
 
-  public void flush() throws IOException {
-    if (bufferModified) {
-      source.force();
-      bufferModified = false;
+  // map through end, or through the end of the file if smaller
+  private void map(long end) throws IOException {
+    long size = fileChannel.size();
+    if (end > size) end = size;
+    if (end <= mappedLength) return;
+
+    // the last segment may be partial, so remap it
+    int first = (int) (mappedLength / segmentSize);
+    while (segments.size() > first)
+      segments.remove(segments.size() - 1);
+
+    for (int i = first; (long) i * segmentSize < size; i++) {
+      long start = (long) i * segmentSize;
+      long len = Math.min(segmentSize, size - start);
+      segments.add(fileChannel.map(FileChannel.MapMode.READ_ONLY, start, len));
     }
+    mappedLength = size;
   }
 
+  // a view of nbytes starting at pos, or null if it is not all inside one segment
+  private ByteBuffer slice(long pos, int nbytes) throws IOException {
+    if (pos >= mappedLength) map(pos + nbytes);
+    if (pos + nbytes > mappedLength) return null; // read_() will get what there is, and check for more
+
+    int segno = (int) (pos / segmentSize);
+    int segPos = (int) (pos - (long) segno * segmentSize);
+    ByteBuffer seg = segments.get(segno);
+    if (segPos + nbytes > seg.limit()) return null;
+
+    ByteBuffer bb = seg.duplicate();
+    bb.position(segPos);
+    bb.limit(segPos + nbytes);
+    return bb.slice();
+  }
+
+  @Override
   public void close() throws IOException {
-    if (!readonly) flush();
-    source = null;
+    segments.clear(); // the mappings are released when garbage collected, see class javadoc
+    mappedLength = 0;
+    super.close();
   }
 
-  public long length( ) {
-    return dataEnd;
+  @Override
+  public void write(int b) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read only: " + location);
   }
 
-  public void seek( long pos ) {
-    filePosition = pos;
-    if( filePosition < dataEnd )
-      source.position((int) filePosition);
-    else
-      endOfFile = true;
+  @Override
+  public void writeBytes(byte b[], int off, int len) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read only: " + location);
   }
 
-   public void unread( ) {
-     seek( filePosition-1);
-   }
+  /**
+   * Copy directly from the mapped segments, without going through the buffer.
+   *
+   * @param pos    start here in the file
+   * @param b      put data into this buffer
+   * @param offset buffer offset
+   * @param len    this number of bytes
+   * @return actual number of bytes read, or -1 if pos is at or past the end of file
+   * @throws IOException on io error
+   */
+  @Override
+  protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+    if (pos >= mappedLength) map(pos + len); // only look for a bigger file when theres nothing left to read
+
+    int n = 0;
+    while ((n < len) && (pos < mappedLength)) {
+      int segno = (int) (pos / segmentSize);
+      int segPos = (int) (pos - (long) segno * segmentSize);
+      ByteBuffer seg = segments.get(segno).duplicate();
+      int count = Math.min(len - n, seg.limit() - segPos);
+      seg.position(segPos);
+      seg.get(b, offset + n, count);
+      n += count;
+      pos += count;
+    }
 
-  public int read() throws IOException {
-    // If the file position is within the data, return the byte...
-    if( filePosition < dataEnd ) {
-      filePosition++;
-      return source.get() & 0xff;
+    if (extendMode && (n < len)) n = len;
+    return (n == 0 && len > 0) ? -1 : n;
+  }
 
-    } else {
-       return -1;
-    }
+  @Override
+  protected Object getBlockCacheKey() {
+    return null; // the mapping already uses the OS page cache
   }
 
-   protected int readBytes( byte dst[], int offset, int length ) throws IOException {
-     if( endOfFile ) return -1;
-
-     length = (int) Math.min( length, dataEnd - filePosition);
-     if (length > 0) {
-       source.get(dst, offset, length);
-       filePosition += length;
-     }
-     return length;
-   }
-
-  public void write( int b ) throws IOException {
-     source.put( (byte)b);
-     filePosition++;
-     bufferModified = true;
+  @Override
+  protected ByteBuffer readBulk(int nbytes) throws IOException {
+    ByteBuffer bb = slice(filePosition, nbytes);
+    if (bb == null)
+      return super.readBulk(nbytes);
+
+    filePosition += nbytes;
+    return bb.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
   }
 
-  public void writeBytes( byte dst[], int offset, int length ) throws IOException {
-    source.put(dst, offset, length);
-    filePosition += length;
+  @Override
+  public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
+    if (offset >= mappedLength) map(offset + nbytes);
+
+    long done = 0;
+    while ((done < nbytes) && (offset + done < mappedLength)) {
+      long pos = offset + done;
+      int segno = (int) (pos / segmentSize);
+      int segPos = (int) (pos - (long) segno * segmentSize);
+      int count = (int) Math.min(nbytes - done, segments.get(segno).limit() - segPos);
+
+      ByteBuffer bb = slice(pos, count);
+      while (bb.hasRemaining())
+        dest.write(bb);
+      done += count;
+    }
+    return done;
   }
 
-}
\ No newline at end of file
+}
@@ -42,12 +42,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.WritableByteChannel;
 import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Gives access to files over HTTP, using jakarta commons HttpClient library.
  * This version uses a single instance of HttpClient, following performance guidelines at
  * http://jakarta.apache.org/commons/httpclient/performance.html
  * Plus other improvements.
+ * <p/>
+ * To cut down on round trips, each open file keeps up to cacheSize bytes of what it has fetched.
+ * Sequential reads fetch ahead, doubling the request size each time up to maxReadAhead, and a seek
+ * starts over. Callers that know what they will read next can prefetch() it, which fetches nearby ranges
+ * together and makes the requests in parallel.
  *
  * @author John Caron, based on work by Donald Denbo
  */
@@ -55,13 +62,65 @@ import java.nio.ByteBuffer;
 public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
   static public int defaultHTTPBufferSize = 20000;
 
+  /**
+   * Largest request made when reading sequentially.
+   */
+  static public int maxReadAhead = 1000 * 1000;
+
+  /**
+   * Bytes of fetched data kept by each open file. 0 turns off read-ahead and prefetching.
+   */
+  static public int cacheSize = 4 * 1000 * 1000;
+
+  /**
+   * Prefetched ranges closer together than this are fetched in one request, along with the bytes between them.
+   */
+  static public int coalesceGap = 32 * 1000;
+
+  static private int nthreads = 4; // if <= 1, prefetch in the calling thread
+  static private ExecutorService executor;
+
+  /**
+   * Set the number of threads used to prefetch. Default is 4.
+   * @param n number of threads; if <= 1, ranges are prefetched one at a time in the calling thread.
+   */
+  static public synchronized void setPrefetchThreads(int n) {
+    if (n == nthreads) return;
+    nthreads = n;
+    if (executor != null) executor.shutdown();
+    executor = null;
+  }
+
+  static private synchronized ExecutorService getExecutor() {
+    if (nthreads <= 1) return null;
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "HTTPRandomAccessFile");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////
 
   private String url;
   private HTTPSession session = null;
   private long total_length = 0;
+  private String lastModified = null; // Last-Modified header, if sent
   private boolean debug = false, debugDetails = false;
 
+  // fetched data keyed by file position, least recently used first; guarded by itself
+  private final LinkedHashMap<Long, byte[]> segments = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+  private final TreeMap<Long, byte[]> segmentsByPos = new TreeMap<Long, byte[]>(); // same segments, guarded by segments
+  private long segmentBytes = 0; // guarded by segments
+  private long lastEnd = -1; // end of the last read, to recognize sequential reads
+  private int readAhead = 0;
+  private int nrequests = 0;
+
   public HTTPRandomAccessFile(String url) throws IOException {
     this(url, defaultHTTPBufferSize);
     location = url;
@@ -107,6 +166,10 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
         throw new IOException("Server has malformed Content-Length header");
       }
 
+      head = method.getResponseHeader("Last-Modified");
+      if (head != null)
+        lastModified = head.getValue();
+
     } finally {
       if (method != null) method.close();
     }
@@ -125,6 +188,11 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
       session.close();
       session = null;
     }
+    synchronized (segments) {
+      segments.clear();
+      segmentsByPos.clear();
+      segmentBytes = 0;
+    }
   }
 
   private boolean rangeOk(String url) {
@@ -189,11 +257,204 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
    */
   @Override
   protected int read_(long pos, byte[] buff, int offset, int len) throws IOException {
+    if (pos >= total_length) return -1;
+    len = (int) Math.min(len, total_length - pos);
+
+    int done = readCached(pos, buff, offset, len);
+    if (done < len) {
+      long start = pos + done;
+      int want = len - done;
+
+      // read further ahead each time the reads are sequential, start over on a seek
+      if ((cacheSize > 0) && (pos == lastEnd))
+        readAhead = Math.min(Math.max(2 * readAhead, want), maxReadAhead);
+      else
+        readAhead = 0;
+
+      int fetch = (int) Math.min(Math.max(want, readAhead), total_length - start);
+      if (fetch <= getMaxSegmentSize()) {
+        byte[] seg = fetch(start, fetch);
+        addSegment(start, seg);
+        int n = Math.min(want, seg.length);
+        System.arraycopy(seg, 0, buff, offset + done, n);
+        done += n;
+      } else {
+        done += fetch(start, buff, offset + done, want);
+      }
+    }
+
+    lastEnd = pos + done;
+    return done;
+  }
+
+  /**
+   * Fetch these ranges of the file ahead of time, because they will be read soon.
+   * Ranges already fetched are skipped, nearby ranges are fetched together, and the requests are made in parallel.
+   * At most half of cacheSize bytes are fetched; anything more is read when it is asked for.
+   *
+   * @param pos  start of each range
+   * @param size length of each range
+   * @throws IOException on io error
+   */
+  public void prefetch(long[] pos, int[] size) throws IOException {
+    if (cacheSize <= 0) return;
+
+    List<long[]> ranges = new ArrayList<long[]>(pos.length); // {start, end} exclusive
+    for (int i = 0; i < pos.length; i++) {
+      long end = Math.min(pos[i] + size[i], total_length);
+      if ((pos[i] < end) && !isCached(pos[i], end))
+        ranges.add(new long[]{pos[i], end});
+    }
+    Collections.sort(ranges, new Comparator<long[]>() {
+      public int compare(long[] r1, long[] r2) {
+        return (r1[0] < r2[0]) ? -1 : (r1[0] == r2[0]) ? 0 : 1;
+      }
+    });
+
+    // coalesce nearby ranges, as long as they fit in one segment
+    int maxSegment = getMaxSegmentSize();
+    long budget = cacheSize / 2;
+    List<long[]> fetches = new ArrayList<long[]>();
+    long[] current = null;
+    for (long[] r : ranges) {
+      if ((current != null) && (r[0] - current[1] <= coalesceGap) && (Math.max(r[1], current[1]) - current[0] <= maxSegment)) {
+        budget -= Math.max(r[1] - current[1], 0);
+        current[1] = Math.max(r[1], current[1]);
+        continue;
+      }
+      if ((r[1] - r[0] > maxSegment) || (r[1] - r[0] > budget)) continue;
+      current = new long[]{r[0], r[1]};
+      fetches.add(current);
+      budget -= r[1] - r[0];
+    }
+    if (debug) System.out.println(" HTTPRandomAccessFile prefetch " + ranges.size() + " ranges in " + fetches.size() + " requests");
+
+    ExecutorService exec = getExecutor();
+    if ((exec == null) || (fetches.size() < 2)) {
+      for (long[] f : fetches)
+        addSegment(f[0], fetch(f[0], (int) (f[1] - f[0])));
+      return;
+    }
+
+    List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(fetches.size());
+    for (final long[] f : fetches) {
+      futures.add(exec.submit(new Callable<byte[]>() {
+        public byte[] call() throws IOException {
+          return fetch(f[0], (int) (f[1] - f[0]));
+        }
+      }));
+    }
+
+    IOException failure = null;
+    for (int i = 0; i < fetches.size(); i++) {
+      try {
+        addSegment(fetches.get(i)[0], futures.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("HTTPRandomAccessFile prefetch interrupted");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (failure == null)
+          failure = (cause instanceof IOException) ? (IOException) cause : new IOException(cause.getMessage());
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * @return number of HTTP range requests made so far to read data.
+   */
+  public int getRequestCount() {
+    synchronized (segments) {
+      return nrequests;
+    }
+  }
+
+  private int getMaxSegmentSize() {
+    return Math.max(cacheSize / 4, 0);
+  }
+
+  // copy as much of the start of the range as is cached
+  private int readCached(long pos, byte[] buff, int offset, int len) {
+    int done = 0;
+    synchronized (segments) {
+      while (done < len) {
+        Long key = findSegment(pos + done);
+        if (key == null) break;
+        byte[] seg = segments.get(key); // makes it the most recently used
+        int from = (int) (pos + done - key);
+        int n = Math.min(len - done, seg.length - from);
+        System.arraycopy(seg, from, buff, offset + done, n);
+        done += n;
+      }
+    }
+    return done;
+  }
+
+  private boolean isCached(long start, long end) {
+    synchronized (segments) {
+      long pos = start;
+      while (pos < end) {
+        Long key = findSegment(pos);
+        if (key == null) return false;
+        pos = key + segments.get(key).length;
+      }
+      return true;
+    }
+  }
+
+  // segments may overlap, but none is longer than getMaxSegmentSize(), so only the ones starting that close need a look
+  private Long findSegment(long pos) {
+    Map.Entry<Long, byte[]> entry = segmentsByPos.floorEntry(pos);
+    while (entry != null) {
+      long start = entry.getKey();
+      if (pos < start + entry.getValue().length)
+        return start;
+      if (pos - start >= getMaxSegmentSize())
+        return null;
+      entry = segmentsByPos.lowerEntry(start);
+    }
+    return null;
+  }
+
+  private void addSegment(long start, byte[] seg) {
+    if ((seg.length == 0) || (seg.length > getMaxSegmentSize())) return;
+    synchronized (segments) {
+      byte[] old = segments.put(start, seg);
+      segmentsByPos.put(start, seg);
+      if (old != null) segmentBytes -= old.length;
+      segmentBytes += seg.length;
+
+      Iterator<Map.Entry<Long, byte[]>> iter = segments.entrySet().iterator();
+      while ((segmentBytes > cacheSize) && iter.hasNext()) {
+        Map.Entry<Long, byte[]> eldest = iter.next();
+        segmentBytes -= eldest.getValue().length;
+        segmentsByPos.remove(eldest.getKey());
+        iter.remove();
+      }
+    }
+  }
+
+  private byte[] fetch(long start, int len) throws IOException {
+    byte[] seg = new byte[len];
+    int n = fetch(start, seg, 0, len);
+    if (n == len) return seg;
+    byte[] result = new byte[n];
+    System.arraycopy(seg, 0, result, 0, n);
+    return result;
+  }
+
+  // one range request
+  private int fetch(long pos, byte[] buff, int offset, int len) throws IOException {
     long end = pos + len - 1;
     if (end >= total_length)
       end = total_length - 1;
 
     if (debug) System.out.println(" HTTPRandomAccessFile bytes=" + pos + "-" + end + ": ");
+    synchronized (segments) {
+      nrequests++;
+    }
 
     HTTPMethod method = null;
     try {
@@ -242,6 +503,17 @@ public class HTTPRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
     return done;
   }
 
+  /**
+   * Cache blocks only if the server tells us when the file was last modified.
+   *
+   * @return url, Last-Modified and Content-Length, or null
+   */
+  @Override
+  protected Object getBlockCacheKey() {
+    if (lastModified == null) return null;
+    return url + "@" + lastModified + "@" + total_length;
+  }
+
   // override selected RandomAccessFile public methods
 
   @Override
@@ -0,0 +1,101 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2;
+
+import junit.framework.TestCase;
+import ucar.nc2.util.CompareNetcdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test copying data with FileWriter, in slabs, with and without the read pipeline.
+ *
+ * @author caron
+ */
+public class TestFileWriterCopy extends TestCase {
+
+  public TestFileWriterCopy(String name) {
+    super(name);
+  }
+
+  public void testCopy() throws IOException {
+    String[] files = {"example1.nc", "testWrite.nc", "testWriteRecord.nc"};
+    try {
+      for (String filename : files) {
+        for (long slabSize : new long[] {100, 1000 * 1000}) {
+          FileWriter.setSlabSize(slabSize);
+          FileWriter.setPipeline(true);
+          doOne(filename);
+          FileWriter.setPipeline(false);
+          doOne(filename);
+        }
+      }
+    } finally {
+      FileWriter.setSlabSize(50 * 1000 * 1000);
+      FileWriter.setPipeline(true);
+    }
+  }
+
+  private void doOne(String filename) throws IOException {
+    final List<FileWriter.FileWriterProgressEvent> events = new ArrayList<FileWriter.FileWriterProgressEvent>();
+    List<FileWriter.FileWriterProgressListener> listeners = new ArrayList<FileWriter.FileWriterProgressListener>();
+    listeners.add(new FileWriter.FileWriterProgressListener() {
+      public void writeProgress(FileWriter.FileWriterProgressEvent event) {
+        events.add(event);
+      }
+      public void writeStatus(FileWriter.FileWriterProgressEvent event) {
+      }
+    });
+
+    NetcdfFile ncfileIn = NetcdfFile.open(TestLocal.cdmTestDataDir + filename);
+    NetcdfFile ncfileOut = FileWriter.writeToFile(ncfileIn, TestLocal.temporaryDataDir + "copy_" + filename, false, false, listeners);
+
+    for (Variable v : ncfileIn.getVariables()) {
+      if (v instanceof Structure) continue;
+      Variable copy = ncfileOut.findVariable(v.getName());
+      assert copy != null : v.getName();
+      CompareNetcdf.compareData(v.read(), copy.read());
+    }
+    ncfileIn.close();
+    ncfileOut.close();
+
+    assert events.size() > 0;
+    FileWriter.FileWriterProgressEvent last = events.get(events.size() - 1);
+    assert last.getBytesWritten() == last.getBytesToWrite() : last.getBytesWritten() + " != " + last.getBytesToWrite();
+    assert last.getProgressPercent() == 100.0;
+    assert last.getBytesPerSecond() >= 0.0;
+  }
+
+}
@@ -66,6 +66,9 @@ public class TestIosp {
     suite.addTest( new TestSuite( ucar.nc2.iosp.dorade.TestDorade.class));
 
     suite.addTest( new TestSuite( ucar.nc2.iosp.grib.TestIntervalsTimeCoords.class));
+    suite.addTest( new TestSuite( ucar.nc2.iosp.grib.TestGridReadData.class));
+    suite.addTest( new TestSuite( ucar.nc2.iosp.grib.TestGribCollectionIndex.class));
+    suite.addTest( new TestSuite( ucar.nc2.iosp.grib.TestGribIndexingService.class));
     suite.addTest( new TestSuite( ucar.nc2.iosp.gempak.TestReadingGempak.class));
     suite.addTest( new TestSuite( ucar.nc2.iosp.TestMiscIosp.class));
     //suite.addTest( new TestSuite( ucar.nc2.iosp.bufr.TestBufrRead.class));
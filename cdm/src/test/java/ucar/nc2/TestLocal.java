@@ -81,6 +81,7 @@ public class TestLocal {
     suite.addTest( ucar.nc2.units.TestUnitsAll.suite());
 
     suite.addTest(new TestSuite(ucar.nc2.util.TestDatasetURL.class));
+    suite.addTest(new TestSuite(ucar.unidata.io.http.TestHTTPRandomAccessFile.class));
 
 
     TestSetup wrapper = new TestSetup(suite) {
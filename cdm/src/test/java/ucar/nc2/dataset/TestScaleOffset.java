@@ -130,6 +130,138 @@ public class TestScaleOffset extends TestCase {
     }
   }
 
+  // check float and lazy unpacking give the same values as the default
+  public void testUnpackModes() throws Exception {
+    String packedFile = TestAll.temporaryLocalDataDir + "unpackModes.nc";
+    NetcdfFileWriteable ncfile = NetcdfFileWriteable.createNew(packedFile);
+    ncfile.addDimension("lat", 50);
+    ncfile.addDimension("lon", 40);
+
+    ncfile.addVariable("sdata", DataType.SHORT, "lat lon");
+    ncfile.addVariableAttribute("sdata", "scale_factor", 0.01);
+    ncfile.addVariableAttribute("sdata", "add_offset", 273.15);
+    ncfile.addVariableAttribute("sdata", "missing_value", (short) -32767);
+
+    ncfile.addVariable("udata", DataType.BYTE, "lat lon");
+    ncfile.addVariableAttribute("udata", "_Unsigned", "true");
+    ncfile.addVariableAttribute("udata", "scale_factor", 0.5);
+    ncfile.addVariableAttribute("udata", "add_offset", -10.0);
+    ncfile.create();
+
+    ArrayShort.D2 sdata = new ArrayShort.D2(50, 40);
+    ArrayByte.D2 udata = new ArrayByte.D2(50, 40);
+    for (int i = 0; i < 50; i++)
+      for (int j = 0; j < 40; j++) {
+        sdata.set(i, j, (short) ((i == j) ? -32767 : i * 1000 - j * 37));
+        udata.set(i, j, (byte) (i * 5 + j));
+      }
+    ncfile.write("sdata", sdata);
+    ncfile.write("udata", udata);
+    ncfile.close();
+
+    NetcdfDataset ncd = NetcdfDataset.openDataset(packedFile);
+    Array sWant = ncd.findVariable("sdata").read();
+    Array uWant = ncd.findVariable("udata").read();
+    assert sWant.getElementType() == double.class;
+    assert Double.isNaN(sWant.getDouble(sWant.getIndex().set(3, 3)));
+    assertEquals(-10.0 + 0.5 * 255, uWant.getDouble(uWant.getIndex().set(49, 10)), 1.0e-9);
+    ncd.close();
+
+    try {
+      NetcdfDataset.setUnpackToFloat(true);
+      ncd = NetcdfDataset.openDataset(packedFile);
+      Variable vs = ncd.findVariable("sdata");
+      assert vs.getDataType() == DataType.FLOAT;
+      checkSame(sWant, vs.read(), 0.005);
+      checkSame(uWant, ncd.findVariable("udata").read(), 1.0e-5);
+      ncd.close();
+      NetcdfDataset.setUnpackToFloat(false);
+
+      NetcdfDataset.setLazyUnpack(true);
+      ncd = NetcdfDataset.openDataset(packedFile);
+      Array lazy = ncd.findVariable("sdata").read();
+      assert lazy instanceof ArrayUnpacked;
+      checkSame(sWant, lazy, 1.0e-9);
+      assert Double.isNaN(lazy.getDouble(lazy.getIndex().set(3, 3)));
+      checkSame(uWant, ncd.findVariable("udata").read(), 1.0e-9);
+
+      Section s = new Section("10:20:2,5:30:5");
+      checkSame(sWant.section(s.getRanges()), lazy.section(s.getRanges()), 1.0e-9);
+      checkSame(sWant, lazy.copy(), 1.0e-9);
+      ncd.close();
+
+    } finally {
+      NetcdfDataset.setUnpackToFloat(false);
+      NetcdfDataset.setLazyUnpack(false);
+    }
+  }
+
+  // missing values found through packed units are the same as testing each unpacked value
+  public void testPackedMissing() throws Exception {
+    String packedFile = TestAll.temporaryLocalDataDir + "packedMissing.nc";
+    NetcdfFileWriteable ncfile = NetcdfFileWriteable.createNew(packedFile);
+    ncfile.addDimension("lat", 200);
+    ncfile.addDimension("lon", 300);
+    ncfile.addVariable("vdata", DataType.SHORT, "lat lon");
+    ncfile.addVariableAttribute("vdata", "scale_factor", 0.02);
+    ncfile.addVariableAttribute("vdata", "add_offset", 100.0);
+    ncfile.addVariableAttribute("vdata", "missing_value", (short) -5);
+    ncfile.addVariableAttribute("vdata", "_FillValue", (short) 30000);
+    Array range = Array.factory(DataType.SHORT, new int[]{2}, new short[]{-20000, 20000});
+    ncfile.addVariableAttribute("vdata", new Attribute("valid_range", range));
+    ncfile.create();
+
+    ArrayShort.D2 vdata = new ArrayShort.D2(200, 300);
+    for (int i = 0; i < 200; i++)
+      for (int j = 0; j < 300; j++)
+        vdata.set(i, j, (short) ((i * 300 + j) * 11 - 32768));
+    vdata.set(7, 7, (short) -5);
+    vdata.set(8, 8, (short) 30000);
+    vdata.set(9, 9, (short) -20000);
+    vdata.set(9, 10, (short) 20000);
+    ncfile.write("vdata", vdata);
+    ncfile.close();
+
+    NetcdfDataset ncd = NetcdfDataset.openDataset(packedFile);
+    try {
+      VariableDS v = (VariableDS) ncd.findVariable("vdata");
+      Array want = Array.factory(DataType.DOUBLE, vdata.getShape());
+      IndexIterator iterp = vdata.getIndexIterator();
+      IndexIterator iterw = want.getIndexIterator();
+      int nmissing = 0;
+      while (iterp.hasNext()) {
+        double val = v.convertScaleOffsetMissing(iterp.getShortNext());
+        if (Double.isNaN(val)) nmissing++;
+        iterw.setDoubleNext(val);
+      }
+      assert nmissing > 2 && nmissing < want.getSize() : nmissing;
+      checkSame(want, v.read(), 1.0e-9);
+
+      NetcdfDataset.setLazyUnpack(true);
+      NetcdfDataset lazy = NetcdfDataset.openDataset(packedFile);
+      checkSame(want, lazy.findVariable("vdata").read(), 1.0e-9);
+      lazy.close();
+
+    } finally {
+      NetcdfDataset.setLazyUnpack(false);
+      ncd.close();
+    }
+  }
+
+  private void checkSame(Array want, Array got, double close) {
+    assertEquals(want.getSize(), got.getSize());
+    IndexIterator iterw = want.getIndexIterator();
+    IndexIterator iterg = got.getIndexIterator();
+    while (iterw.hasNext()) {
+      double w = iterw.getDoubleNext();
+      double g = iterg.getDoubleNext();
+      if (Double.isNaN(w))
+        assert Double.isNaN(g) : g + " should be NaN, index=" + iterw;
+      else
+        assert Math.abs(w - g) < close : w + " != " + g + " index=" + iterw;
+    }
+  }
+
   // check section of scale/offset only applies it once
   public void testSubset() throws IOException, InvalidRangeException {
     // read the packed form, enhance using scale/offset, compare to original
@@ -33,10 +33,16 @@
 package ucar.nc2.dt.grid;
 
 import junit.framework.TestCase;
+import ucar.nc2.NetcdfFile;
 import ucar.nc2.TestAll;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.netcdf3.N3channelWriter;
+import ucar.nc2.util.CompareNetcdf;
 import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.geoloc.LatLonPointImpl;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -78,4 +84,42 @@ public class TestCFWriter extends TestCase {
 
   }
 
+  // the streamed file must hold the same data as the one written to disk
+  public void testStream() throws Exception {
+    testStream(TestAll.cdmLocalTestDataDir + "example1.nc", "rh", 100); // record variables
+    testStream(TestAll.cdmLocalTestDataDir + "example1.nc", "T", 1000 * 1000);
+    testStream(TestAll.cdmLocalTestDataDir + "permuteTest.nc", "tzyx", 64);
+    testStream(TestAll.cdmLocalTestDataDir + "permuteTest.nc", "tzyx", 1000 * 1000);
+  }
+
+  private void testStream(String fileIn, String varName, long slabSize) throws Exception {
+    String fileOut = TestAll.temporaryLocalDataDir + "testCFstream.nc";
+    List<String> gridList = new ArrayList<String>();
+    gridList.add(varName);
+
+    ucar.nc2.dt.grid.GridDataset gds = GridDataset.open(fileIn);
+    NetcdfCFWriter writer = new NetcdfCFWriter();
+    writer.makeFile(fileOut, gds, gridList, null, null, false, 1, 1, 1);
+
+    N3channelWriter streamWriter = writer.makeStream(gds, gridList, null, null, false, 1, 1, 1);
+    assert streamWriter != null;
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    long n = streamWriter.writeFile(Channels.newChannel(bos), slabSize);
+    gds.close();
+
+    assert n == bos.size();
+    assert streamWriter.getLength() == bos.size() : streamWriter.getLength() + " != " + bos.size();
+
+    NetcdfFile disk = NetcdfFile.open(fileOut);
+    NetcdfFile stream = NetcdfFile.openInMemory(fileIn, bos.toByteArray());
+    assert disk.getVariables().size() == stream.getVariables().size();
+    for (Variable v : disk.getVariables()) {
+      Variable sv = stream.findVariable(v.getName());
+      assert sv != null : v.getName();
+      CompareNetcdf.compareData(v.read(), sv.read());
+    }
+    disk.close();
+    stream.close();
+  }
+
 }
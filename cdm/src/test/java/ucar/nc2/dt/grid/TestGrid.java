@@ -61,6 +61,7 @@ public class TestGrid {
     suite.addTest(new TestSuite(TestVerticalTransforms.class));
     
     suite.addTest(new TestSuite(TestCFWriter.class));
+    suite.addTest(new TestSuite(TestGridCoordinate2D.class));
 
     return suite;
   }
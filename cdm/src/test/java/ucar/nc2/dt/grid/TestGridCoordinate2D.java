@@ -0,0 +1,153 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.dt.grid;
+
+import junit.framework.TestCase;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.nc2.Dimension;
+import ucar.nc2.dataset.CoordinateAxis2D;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+
+import java.util.Random;
+
+/**
+ * Test finding points in a curvilinear grid with GridCoordinate2D.
+ *
+ * @author caron
+ */
+public class TestGridCoordinate2D extends TestCase {
+  private int ny = 60, nx = 80;
+  private ArrayDouble.D2 lat, lon;
+  private GridCoordinate2D g2d;
+
+  public TestGridCoordinate2D(String name) {
+    super(name);
+  }
+
+  // a rotated and sheared grid, a bit like an ocean model's
+  protected void setUp() {
+    NetcdfDataset ds = new NetcdfDataset();
+    ds.addDimension(null, new Dimension("y", ny));
+    ds.addDimension(null, new Dimension("x", nx));
+
+    lat = new ArrayDouble.D2(ny, nx);
+    lon = new ArrayDouble.D2(ny, nx);
+    for (int j = 0; j < ny; j++) {
+      for (int i = 0; i < nx; i++) {
+        lat.set(j, i, 10.0 + 0.1 * j + 0.03 * i + 0.0002 * i * i);
+        lon.set(j, i, -100.0 + 0.1 * i - 0.04 * j + 0.0003 * j * j);
+      }
+    }
+
+    g2d = new GridCoordinate2D(makeAxis(ds, "lat", lat, "degrees_north"), makeAxis(ds, "lon", lon, "degrees_east"));
+  }
+
+  private CoordinateAxis2D makeAxis(NetcdfDataset ds, String name, ArrayDouble.D2 data, String units) {
+    VariableDS vds = new VariableDS(ds, null, null, name, DataType.DOUBLE, "y x", units, name);
+    vds.setCachedData(data, false);
+    CoordinateAxis2D axis = new CoordinateAxis2D(ds, vds);
+    axis.setCachedData(data, false);
+    return axis;
+  }
+
+  // each cell contains its own midpoint
+  public void testMidpoints() {
+    int[] rectIndex = new int[2];
+    for (int j = 0; j < ny; j++) {
+      for (int i = 0; i < nx; i++) {
+        assert g2d.findCoordElement(lat.get(j, i), lon.get(j, i), rectIndex) : j + " " + i;
+        assert (rectIndex[0] == j) && (rectIndex[1] == i) : "(" + j + "," + i + ") found (" + rectIndex[0] + "," + rectIndex[1] + ")";
+      }
+    }
+
+    assert !g2d.findCoordElement(0.0, 0.0, rectIndex);
+    assert !g2d.findCoordElementForce(0.0, 0.0, rectIndex);
+  }
+
+  // batch lookup agrees with one at a time, and both agree with testing every cell
+  public void testBatch() {
+    Random random = new Random(12345);
+    int n = 2000;
+    double[] wantLat = new double[n];
+    double[] wantLon = new double[n];
+    for (int k = 0; k < n; k++) {
+      wantLat[k] = 9.0 + 10.0 * random.nextDouble();
+      wantLon[k] = -104.0 + 12.0 * random.nextDouble();
+    }
+
+    int[] rows = new int[n];
+    int[] cols = new int[n];
+    int count = g2d.findCoordElements(wantLat, wantLon, rows, cols);
+
+    ArrayDouble.D2 latEdge = CoordinateAxis2D.makeYEdges(lat);
+    ArrayDouble.D2 lonEdge = CoordinateAxis2D.makeXEdges(lon);
+    int[] rectIndex = new int[2];
+    int found = 0;
+    for (int k = 0; k < n; k++) {
+      boolean inGrid = false;
+      for (int j = 0; j < ny && !inGrid; j++)
+        for (int i = 0; i < nx && !inGrid; i++)
+          inGrid = contains(latEdge, lonEdge, j, i, wantLat[k], wantLon[k]);
+
+      if (g2d.findCoordElementForce(wantLat[k], wantLon[k], rectIndex)) {
+        found++;
+        assert inGrid : k;
+        assert contains(latEdge, lonEdge, rectIndex[0], rectIndex[1], wantLat[k], wantLon[k]) : k;
+        assert (rows[k] == rectIndex[0]) && (cols[k] == rectIndex[1]) : k;
+      } else {
+        assert !inGrid : k;
+        assert (rows[k] == -1) && (cols[k] == -1) : k;
+      }
+    }
+    assert found == count;
+    assert count > 0 && count < n : count;
+  }
+
+  // is the point inside the cell's quadrilateral: on the same side of all four edges
+  private boolean contains(ArrayDouble.D2 latEdge, ArrayDouble.D2 lonEdge, int row, int col, double wantLat, double wantLon) {
+    int[][] corners = {{row, col}, {row, col + 1}, {row + 1, col + 1}, {row + 1, col}};
+    int positive = 0;
+    for (int c = 0; c < 4; c++) {
+      int[] p0 = corners[c];
+      int[] p1 = corners[(c + 1) % 4];
+      double x0 = lonEdge.get(p0[0], p0[1]), y0 = latEdge.get(p0[0], p0[1]);
+      double x1 = lonEdge.get(p1[0], p1[1]), y1 = latEdge.get(p1[0], p1[1]);
+      double cross = (x1 - x0) * (wantLat - y0) - (y1 - y0) * (wantLon - x0);
+      if (cross > 0) positive++;
+    }
+    return (positive == 0) || (positive == 4);
+  }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import junit.framework.TestCase;
+import thredds.inventory.DatasetCollectionManager;
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.TestAll;
+import ucar.nc2.Variable;
+import ucar.nc2.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Formatter;
+
+/**
+ * A GribCollectionIndex of several files reads the same data as the files themselves, and is updated when files arrive.
+ *
+ * @author caron
+ */
+public class TestGribCollectionIndex extends TestCase {
+
+  public TestGribCollectionIndex(String name) {
+    super(name);
+  }
+
+  static private final String[] parts = {"times1-8", "times9-12", "times13-18", "times19-21"};
+  private File dir, indexFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = new File(TestAll.temporaryLocalDataDir, "TestGribCollectionIndex");
+    dir.mkdirs();
+    indexFile = new File(dir, "collection.gbxc");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  private File addPart(int i) throws IOException {
+    File f = new File(dir, "part" + i + ".grib1");
+    IO.copyFile(TestAll.cdmLocalTestDataDir + "ucar/nc2/iosp/grib/indexUpdating/GFS_CONUS_191km_20090331_1800.grib1." + parts[i],
+        f.getPath());
+    return f;
+  }
+
+  private DatasetCollectionManager scan() throws IOException {
+    Formatter errlog = new Formatter();
+    DatasetCollectionManager dcm = DatasetCollectionManager.open(dir.getPath() + "/.*\\.grib1$", null, errlog);
+    assertNotNull(errlog.toString(), dcm);
+    dcm.scan(null);
+    return dcm;
+  }
+
+  // a collection of one file is the same dataset as the file
+  public void testOneFile() throws IOException, InvalidRangeException {
+    File part = addPart(0);
+    assertTrue(new GribCollectionIndexer(scan(), indexFile).update());
+
+    NetcdfFile expected = NetcdfFile.open(part.getPath());
+    NetcdfFile coll = NetcdfFile.open(indexFile.getPath());
+    try {
+      assertEquals("GRIB1", coll.getFileTypeId());
+      int count = 0;
+      for (Variable v : expected.getVariables()) {
+        Variable cv = coll.findVariable(v.getName());
+        assertNotNull(v.getName(), cv);
+        compare(v.getName(), v.read(), cv.read());
+        count++;
+      }
+      assertTrue(count > 0);
+    } finally {
+      expected.close();
+      coll.close();
+    }
+  }
+
+  // the files are joined along time, the last file gives the last times
+  public void testUpdate() throws IOException, InvalidRangeException {
+    for (int i = 0; i < parts.length - 1; i++) addPart(i);
+    DatasetCollectionManager dcm = scan();
+    GribCollectionIndexer indexer = new GribCollectionIndexer(dcm, indexFile);
+    dcm.addEventListener(indexer);
+    assertTrue(indexer.update());
+    assertFalse(indexer.update()); // nothing changed
+
+    NetcdfFile coll = NetcdfFile.open(indexFile.getPath());
+    try {
+      int ntimes = coll.findDimension("time").getLength();
+      assertTrue(ntimes > 0);
+
+      File last = addPart(parts.length - 1);
+      assertTrue(indexFile.setLastModified(indexFile.lastModified() - 10 * 1000)); // so sync sees the new one
+      assertTrue(dcm.rescan()); // the indexer is called
+      assertTrue(coll.sync());
+      Dimension time = coll.findDimension("time");
+      assertTrue(time.getLength() > ntimes);
+
+      NetcdfFile lastFile = NetcdfFile.open(last.getPath());
+      try {
+        int nlast = lastFile.findDimension("time").getLength();
+        int count = 0;
+        for (Variable v : lastFile.getVariables()) {
+          if ((v.getRank() < 3) || (v.getDimension(0).getLength() != nlast)) continue;
+          Variable cv = coll.findVariable(v.getName());
+          int n = cv.getDimension(0).getLength();
+          int[] origin = new int[v.getRank()];
+          origin[0] = n - nlast;
+          int[] shape = v.getShape();
+          compare(v.getName(), v.read(), cv.read(origin, shape));
+          count++;
+        }
+        assertTrue(count > 0);
+      } finally {
+        lastFile.close();
+      }
+
+    } finally {
+      coll.close();
+    }
+  }
+
+  // with one data file open at a time, reads that go back and forth between files get the same data
+  public void testMaxOpenFiles() throws IOException, InvalidRangeException {
+    for (int i = 0; i < parts.length; i++) addPart(i);
+    assertTrue(new GribCollectionIndexer(scan(), indexFile).update());
+
+    NetcdfFile expected = NetcdfFile.open(indexFile.getPath());
+    GribCollectionServiceProvider.setMaxOpenFiles(1);
+    NetcdfFile coll = NetcdfFile.open(indexFile.getPath());
+    try {
+      int count = 0;
+      for (Variable v : expected.getVariables()) {
+        if (v.getRank() < 3) continue;
+        Variable cv = coll.findVariable(v.getName());
+        int[] shape = v.getShape();
+        shape[0] = 1;
+        int[] origin = new int[v.getRank()];
+        origin[0] = v.getDimension(0).getLength() - 1;
+        compare(v.getName(), v.read(origin, shape), cv.read(origin, shape)); // last file
+        compare(v.getName(), v.read(), cv.read()); // all of them
+        count++;
+      }
+      assertTrue(count > 0);
+    } finally {
+      GribCollectionServiceProvider.setMaxOpenFiles(10);
+      expected.close();
+      coll.close();
+    }
+  }
+
+  private void compare(String name, Array expected, Array got) {
+    assertEquals(name, expected.getSize(), got.getSize());
+    IndexIterator ei = expected.getIndexIterator();
+    IndexIterator gi = got.getIndexIterator();
+    while (ei.hasNext()) {
+      Object e = ei.next(), g = gi.next();
+      if ((e instanceof Float) && ((Float) e).isNaN()) continue;
+      assertEquals(name, e, g);
+    }
+  }
+
+}
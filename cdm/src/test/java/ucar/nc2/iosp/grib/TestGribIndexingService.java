@@ -0,0 +1,176 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import junit.framework.TestCase;
+import ucar.grib.GribIndexReader;
+import ucar.grid.GridIndex;
+import ucar.nc2.TestAll;
+import ucar.nc2.util.IO;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * GribIndexingService writes indexes, extends them when the file grows, and leaves current ones alone.
+ *
+ * @author caron
+ */
+public class TestGribIndexingService extends TestCase {
+
+  public TestGribIndexingService(String name) {
+    super(name);
+  }
+
+  static private final String dataDir = TestAll.cdmLocalTestDataDir + "ucar/nc2/iosp/grib/indexUpdating/";
+  static private final String[] parts = {"times1-8", "times9-12", "times13-18", "times19-21"};
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = new File(TestAll.temporaryLocalDataDir, "TestGribIndexingService");
+    dir.mkdirs();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    GribIndexingService.setThreads(Runtime.getRuntime().availableProcessors());
+    for (File f : dir.listFiles()) f.delete();
+    dir.delete();
+  }
+
+  private File part(int i) {
+    return new File(dataDir + "GFS_CONUS_191km_20090331_1800.grib1." + parts[i]);
+  }
+
+  private void append(File from, File to) throws IOException {
+    OutputStream out = new FileOutputStream(to, true);
+    try {
+      IO.copyFile(from.getPath(), out);
+    } finally {
+      out.close();
+    }
+  }
+
+  private int countRecords(File grib) throws IOException {
+    GridIndex index = new GribIndexReader().open(GribGridServiceProvider.getIndexFile(grib.getPath()).getPath());
+    return index.getGridRecords().size();
+  }
+
+  // a growing file has its new records added to its index, which ends up the same as the index of the whole file
+  public void testExtend() throws IOException {
+    File grow = new File(dir, "grow.grib1");
+    File whole = new File(dir, "whole.grib1");
+    for (int i = 0; i < 2; i++) append(part(i), whole);
+    assertEquals(GribIndexingService.Action.write, GribIndexingService.indexFile(whole));
+
+    append(part(0), grow);
+    assertEquals(GribIndexingService.Action.write, GribIndexingService.indexFile(grow));
+    assertEquals(GribIndexingService.Action.none, GribIndexingService.indexFile(grow));
+    int n0 = countRecords(grow);
+
+    append(part(1), grow);
+    assertEquals(GribIndexingService.Action.extend, GribIndexingService.indexFile(grow));
+    assertTrue(countRecords(grow) > n0);
+    assertEquals(countRecords(whole), countRecords(grow));
+    assertEquals(GribIndexingService.Action.none, GribIndexingService.indexFile(grow));
+
+    for (File f : dir.listFiles())
+      assertFalse(f.getName(), f.getName().endsWith(".tmp"));
+  }
+
+  // several files at once give the same indexes as one at a time
+  public void testParallel() throws IOException {
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < parts.length; i++) {
+      File f = new File(dir, "part" + i + ".grib1");
+      IO.copyFile(part(i).getPath(), f.getPath());
+      files.add(f);
+    }
+    File notGrib = new File(dir, "notGrib.txt");
+    IO.writeToFile("not a GRIB file", notGrib.getPath());
+    files.add(notGrib);
+
+    GribIndexingService.setThreads(4);
+    List<GribIndexingService.Action> actions = GribIndexingService.indexFiles(files);
+    assertEquals(files.size(), actions.size());
+    for (int i = 0; i < parts.length; i++)
+      assertEquals(GribIndexingService.Action.write, actions.get(i));
+    assertEquals(GribIndexingService.Action.notGrib, actions.get(parts.length));
+
+    int[] counts = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      counts[i] = countRecords(files.get(i));
+      GribGridServiceProvider.getIndexFile(files.get(i).getPath()).delete();
+    }
+
+    GribIndexingService.setThreads(1);
+    GribIndexingService service = new GribIndexingService(Arrays.asList(dir));
+    assertEquals(parts.length, service.scan());
+    for (int i = 0; i < parts.length; i++)
+      assertEquals(counts[i], countRecords(files.get(i)));
+    assertEquals(0, service.scan()); // all current
+  }
+
+  // a file asked for twice at once is indexed once, and neither call returns before the index is written
+  public void testSameFile() throws Exception {
+    final File f = new File(dir, "part0.grib1");
+    IO.copyFile(part(0).getPath(), f.getPath());
+    final File gbx = GribGridServiceProvider.getIndexFile(f.getPath());
+    Callable<GribIndexingService.Action> task = new Callable<GribIndexingService.Action>() {
+      public GribIndexingService.Action call() throws IOException {
+        GribIndexingService.Action action = GribIndexingService.indexFile(f);
+        return gbx.exists() ? action : GribIndexingService.Action.failed;
+      }
+    };
+
+    ExecutorService exec = Executors.newFixedThreadPool(2);
+    try {
+      Future<GribIndexingService.Action> f1 = exec.submit(task);
+      Future<GribIndexingService.Action> f2 = exec.submit(task);
+      Set<GribIndexingService.Action> actions = EnumSet.of(f1.get(), f2.get());
+      assertEquals(EnumSet.of(GribIndexingService.Action.write, GribIndexingService.Action.none), actions);
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.nc2.iosp.grib;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.TestAll;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.grid.GridServiceProvider;
+import ucar.nc2.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reading records in parallel and through the GridRecordCache gives the same data as reading them one at a time.
+ *
+ * @author caron
+ */
+public class TestGridReadData extends TestCase {
+
+  public TestGridReadData(String name) {
+    super(name);
+  }
+
+  private File dataFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    File dir = new File(TestAll.temporaryLocalDataDir);
+    dir.mkdirs();
+    dataFile = new File(dir, "TestGridReadData.grib1");
+    IO.copyFile(TestAll.cdmLocalTestDataDir + "ucar/nc2/iosp/grib/indexUpdating/GFS_CONUS_191km_20090331_1800.grib1.times1-8",
+        dataFile.getPath());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    GridServiceProvider.setReadThreads(Runtime.getRuntime().availableProcessors());
+    GridServiceProvider.setRecordCacheSize(0);
+    for (File f : dataFile.getParentFile().listFiles())
+      if (f.getName().startsWith(dataFile.getName())) f.delete();
+  }
+
+  public void testParallelAndCached() throws IOException, InvalidRangeException {
+    GridServiceProvider.setReadThreads(1);
+    GridServiceProvider.setRecordCacheSize(0);
+    List<Array> expected = readAll();
+
+    GridServiceProvider.setReadThreads(4);
+    compare(expected, readAll());
+
+    GridServiceProvider.setRecordCacheSize(50 * 1000 * 1000);
+    compare(expected, readAll());
+    compare(expected, readAll()); // all from the cache
+    assertTrue(GridServiceProvider.getRecordCache().getHits() > 0);
+
+    GridServiceProvider.setReadThreads(1);
+    compare(expected, readAll());
+  }
+
+  // a time series at a point, a row and a small box only read the values they need; compare to reading everything
+  public void testPointReads() throws IOException, InvalidRangeException {
+    GridServiceProvider.setRecordCacheSize(0);
+    NetcdfFile ncfile = NetcdfFile.open(dataFile.getPath());
+    try {
+      int count = 0;
+      for (Variable v : ncfile.getVariables()) {
+        if (v.getRank() < 3) continue;
+        int rank = v.getRank();
+        int[] shape = v.getShape();
+        int ny = shape[rank - 2];
+        int nx = shape[rank - 1];
+        Array all = v.read();
+
+        int[][] yx = {{ny / 2, ny / 2, nx / 3, nx / 3, 1}, // point
+            {ny - 1, ny - 1, 0, nx - 1, 1}, // row
+            {1, 3, nx - 5, nx - 1, 2}}; // box
+        for (int[] want : yx) {
+          int[] origin = new int[rank];
+          int[] size = v.getShape();
+          origin[rank - 2] = want[0];
+          size[rank - 2] = want[1] - want[0] + 1;
+          origin[rank - 1] = want[2];
+          size[rank - 1] = want[3] - want[2] + 1;
+          Section s = new Section(origin, size);
+          if (want[4] > 1) {
+            List<Range> ranges = new ArrayList<Range>(s.getRanges());
+            ranges.set(rank - 1, new Range(want[2], want[3], want[4]));
+            s = new Section(ranges);
+          }
+          Array sub = v.read(s);
+          Array expect = all.section(s.getRanges());
+          compare(Collections.singletonList(expect), Collections.singletonList(sub));
+          count++;
+        }
+      }
+      assertTrue(count > 0);
+    } finally {
+      ncfile.close();
+    }
+  }
+
+  // read all the grids, and a strided subset of each
+  private List<Array> readAll() throws IOException, InvalidRangeException {
+    List<Array> result = new ArrayList<Array>();
+    NetcdfFile ncfile = NetcdfFile.open(dataFile.getPath());
+    try {
+      for (Variable v : ncfile.getVariables()) {
+        if (v.getRank() < 3) continue;
+        result.add(v.read());
+
+        int rank = v.getRank();
+        int[] shape = v.getShape();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rank; i++) {
+          if (i > 0) sb.append(",");
+          if (i < rank - 2)
+            sb.append(":");
+          else
+            sb.append("1:").append(shape[i] - 1).append(":3");
+        }
+        result.add(v.read(sb.toString()));
+      }
+    } finally {
+      ncfile.close();
+    }
+    assertTrue(result.size() > 0);
+    return result;
+  }
+
+  private void compare(List<Array> expected, List<Array> got) {
+    assertEquals(expected.size(), got.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Array e = expected.get(i);
+      Array g = got.get(i);
+      assertEquals(e.getSize(), g.getSize());
+      IndexIterator ei = e.getIndexIterator();
+      IndexIterator gi = g.getIndexIterator();
+      while (ei.hasNext())
+        assertEquals(Float.floatToIntBits(ei.getFloatNext()), Float.floatToIntBits(gi.getFloatNext()));
+    }
+  }
+
+}
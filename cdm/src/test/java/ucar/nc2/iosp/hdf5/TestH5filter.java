@@ -35,12 +35,17 @@ package ucar.nc2.iosp.hdf5;
 
 import junit.framework.TestCase;
 import ucar.nc2.TestAll;
+import ucar.nc2.TestLocal;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.ma2.Array;
 import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class Description.
@@ -115,5 +120,102 @@ public class TestH5filter extends TestCase {
     assert shape[1] == 145;
   }
 
+  // shuffle + deflate, 10 x 12 chunks; value = y * 1000 + x * 7 - 50000
+  public void testChunkThreads() throws IOException, InvalidRangeException {
+    try {
+      for (String nthreads : new String[] {"1", "4"}) {
+        NetcdfFile.setProperty("chunkThreads", nthreads);
+        NetcdfFile ncfile = NetcdfFile.open(TestLocal.cdmTestDataDir + "deflateShuffle.h5");
+        Variable v = ncfile.findVariable("data");
+        assert v != null;
+        checkDeflateShuffle(v, new Section("0:99,0:59"));
+        checkDeflateShuffle(v, new Section("5:94:3,7:48"));
+        checkDeflateShuffle(v, new Section("37,11:12"));
+        ncfile.close();
+      }
+    } finally {
+      NetcdfFile.setProperty("chunkThreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    }
+  }
+
+  public void testChunkCache() throws IOException, InvalidRangeException {
+    NetcdfFile.setProperty("chunkCacheSize", "100000");
+    try {
+      H5chunkCache cache = H5iosp.getChunkCache();
+      NetcdfFile ncfile = NetcdfFile.open(TestLocal.cdmTestDataDir + "deflateShuffle.h5");
+      Variable v = ncfile.findVariable("data");
+      checkDeflateShuffle(v, new Section("0:99,0:59"));
+      assert cache.getHits() == 0;
+      assert cache.getMisses() == 50 : cache.getMisses();
+
+      // time series through the same chunks
+      for (int i = 0; i < 10; i++)
+        checkDeflateShuffle(v, new Section(i + ":" + (i + 80) + ":10,33"));
+      assert cache.getMisses() == 50 : cache.getMisses();
+      assert cache.getHits() == 90 : cache.getHits();
+      ncfile.close();
+
+    } finally {
+      NetcdfFile.setProperty("chunkCacheSize", "0");
+    }
+  }
+
+  // a damaged chunk is reported as an IOException, in the calling thread or from the pool
+  public void testChunkError() throws IOException, InvalidRangeException {
+    java.io.File copy = java.io.File.createTempFile("TestH5filter", ".h5");
+    copy.deleteOnExit();
+    java.io.RandomAccessFile in = new java.io.RandomAccessFile(TestLocal.cdmTestDataDir + "deflateShuffle.h5", "r");
+    byte[] bytes = new byte[(int) in.length()];
+    in.readFully(bytes);
+    in.close();
+    for (int i = bytes.length / 2; i < bytes.length; i += 7) bytes[i] ^= 0x5a; // scramble the later chunks
+    java.io.FileOutputStream out = new java.io.FileOutputStream(copy);
+    out.write(bytes);
+    out.close();
+
+    try {
+      for (String nthreads : new String[] {"1", "4"}) {
+        NetcdfFile.setProperty("chunkThreads", nthreads);
+        NetcdfFile ncfile = NetcdfFile.open(copy.getPath());
+        try {
+          ncfile.findVariable("data").read();
+          fail("expected IOException");
+        } catch (IOException e) {
+          // ok
+        } finally {
+          ncfile.close();
+        }
+      }
+    } finally {
+      NetcdfFile.setProperty("chunkThreads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    }
+  }
+
+  // a chunk is counted by its backing array, not the slice that wraps it
+  public void testChunkCacheSize() {
+    H5chunkCache cache = new H5chunkCache(1000);
+    ByteBuffer small = ByteBuffer.wrap(new byte[2000], 0, 100).slice();
+    assert !cache.put("file", 0, small);
+    assert cache.put("file", 0, ByteBuffer.wrap(new byte[600]));
+    assert cache.put("file", 1, ByteBuffer.wrap(new byte[600]));
+    assert cache.getEvictions() == 1;
+    assert cache.get("file", 0) == null;
+    assert cache.get("file", 1) != null;
+  }
+
+  private void checkDeflateShuffle(Variable v, Section s) throws IOException, InvalidRangeException {
+    Array data = v.read(s);
+    Index ima = data.getIndex();
+    Range yr = s.getRange(0);
+    Range xr = s.getRange(1);
+    for (int i = 0; i < yr.length(); i++)
+      for (int j = 0; j < xr.length(); j++) {
+        int y = yr.element(i);
+        int x = xr.element(j);
+        int val = data.getInt(ima.set(i, j));
+        assert val == y * 1000 + x * 7 - 50000 : s + " " + y + "," + x + " = " + val;
+      }
+  }
+
 
 }
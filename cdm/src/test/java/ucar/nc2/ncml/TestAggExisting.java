@@ -39,6 +39,8 @@ import ucar.nc2.*;
 import ucar.nc2.dataset.NetcdfDataset;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** Test TestNcml - AggExisting  in the JUnit framework. */
 
@@ -77,6 +79,24 @@ public class TestAggExisting extends TestCase {
     ncfile.close();
   }
 
+  public void testNcmlParallelRead() throws IOException, InvalidRangeException {
+    String filename = "file:./"+TestNcML.topDir + "aggExisting.xml";
+
+    ExecutorService exec = Executors.newFixedThreadPool(3);
+    Aggregation.setExecutor(exec, 2);
+    try {
+      NetcdfFile ncfile = NetcdfDataset.openDataset( filename, true, null);
+      testAggCoordVar(ncfile);
+      testReadData(ncfile);
+      testReadSlice(ncfile);
+      ncfile.close();
+
+    } finally {
+      Aggregation.setExecutor(null);
+      exec.shutdown();
+    }
+  }
+
   public void testNcmlDatasetWcoords() throws IOException, InvalidRangeException {
     String filename = "file:./"+TestNcML.topDir + "aggExistingWcoords.xml";
 
@@ -0,0 +1,71 @@
+package ucar.nc2.stream;
+
+import junit.framework.TestCase;
+import ucar.ma2.Array;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.TestLocal;
+import ucar.nc2.Variable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Round trip deflated data messages through NcStreamWriter / NcStreamReader.
+ *
+ * @author caron
+ */
+public class TestNcStreamDeflate extends TestCase {
+
+  public TestNcStreamDeflate(String name) {
+    super(name);
+  }
+
+  public void testDeflate() throws Exception {
+    NetcdfFile ncfile = NetcdfFile.open(TestLocal.cdmTestDataDir + "testWrite.nc");
+    try {
+      Variable v = ncfile.findVariable("temperature");
+      long rawSize = v.getSize() * v.getElementSize();
+
+      long plain = roundTrip(ncfile, v, v.getShapeAsSection(), 0, false);
+      long deflate = roundTrip(ncfile, v, v.getShapeAsSection(), 5, false);
+      long shuffle = roundTrip(ncfile, v, v.getShapeAsSection(), 5, true);
+      System.out.printf("testDeflate raw=%d plain=%d deflate=%d shuffle=%d%n", rawSize, plain, deflate, shuffle);
+      assertTrue(plain > rawSize);
+      assertTrue(deflate < plain);
+      assertTrue(shuffle < plain);
+
+      // strided subset, and one too small to bother compressing
+      roundTrip(ncfile, v, new Section("1:63:2,3:127:3"), 9, true);
+      roundTrip(ncfile, v, new Section("10:12,0:99"), 9, true);
+    } finally {
+      ncfile.close();
+    }
+  }
+
+  private long roundTrip(NetcdfFile ncfile, Variable v, Section section, int level, boolean shuffle) throws Exception {
+    NcStreamWriter writer = new NcStreamWriter(ncfile, null);
+    writer.setCompression(level, shuffle);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WritableByteChannel wbc = Channels.newChannel(bos);
+    long size = writer.sendData(v, section, wbc);
+    assertEquals(size, bos.size());
+
+    NcStreamReader reader = new NcStreamReader();
+    NcStreamReader.DataResult result = reader.readData(new ByteArrayInputStream(bos.toByteArray()), ncfile);
+    assertEquals(v.getName(), result.varName);
+
+    Array want = v.read(section);
+    assertEquals(want.getSize(), result.data.getSize());
+    IndexIterator wantIter = want.getIndexIterator();
+    IndexIterator gotIter = result.data.getIndexIterator();
+    while (wantIter.hasNext())
+      assertEquals(wantIter.getDoubleNext(), gotIter.getDoubleNext());
+    return size;
+  }
+
+}
@@ -229,6 +229,90 @@ public class TestNetcdfFileCache extends TestCase {
   }
 
 
+  /////////////////////////////////////////////////////////////////////////////////
+
+  // a scan over many files seen only once should not push the frequently used files out of the cache
+  public void testScanResistance() throws IOException {
+    FileCache cache = new FileCache(4, 5, 60 * 60);
+    FileFactory stubFactory = new StubFileFactory();
+
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 4; j++)
+        cache.acquire(stubFactory, "hot" + j, null).close();
+    }
+
+    for (int j = 0; j < 20; j++)
+      cache.acquire(stubFactory, "scan" + j, null).close();
+    cache.cleanup(5);
+
+    Formatter format = new Formatter(System.out);
+    cache.showCache(format);
+    cache.showStats(format);
+
+    Map<Object, FileCache.CacheElement> map = cache.getCache();
+    assert map.size() <= 5 : map.size();
+    for (int j = 0; j < 4; j++)
+      assert map.containsKey("hot" + j) : "hot" + j;
+
+    cache.clearCache(true);
+    assert cache.getCache().size() == 0;
+  }
+
+  // cleanup closes files until the total weight is under the max
+  public void testMaxWeight() throws IOException {
+    FileCache cache = new FileCache(10, 100, 60 * 60); // not over the count limits
+    cache.setMaxWeight(2500);
+    FileFactory stubFactory = new StubFileFactory();
+
+    for (int j = 0; j < 5; j++)
+      cache.acquire(stubFactory, "heavy" + j, null).close();
+    cache.acquire(stubFactory, "light", null).close();
+    cache.cleanup(100);
+
+    Map<Object, FileCache.CacheElement> map = cache.getCache();
+    int nheavy = 0;
+    for (Object key : map.keySet())
+      if (key.toString().startsWith("heavy")) nheavy++;
+    assert nheavy == 2 : nheavy;
+
+    cache.clearCache(true);
+  }
+
+  class StubFileFactory implements FileFactory {
+    public FileCacheable open(String location, int buffer_size, CancelTask cancelTask, Object iospMessage) throws IOException {
+      return new StubFile(location);
+    }
+  }
+
+  class StubFile implements FileCacheable {
+    String location;
+    FileCache fileCache;
+
+    StubFile(String location) {
+      this.location = location;
+    }
+
+    public String getLocation() {
+      return location;
+    }
+
+    public void close() throws IOException {
+      if (fileCache != null) fileCache.release(this);
+    }
+
+    public boolean sync() throws IOException {
+      return false;
+    }
+
+    public long getCacheWeight() {
+      return location.startsWith("heavy") ? 1000 : 0;
+    }
+
+    public void setFileCache(FileCache fileCache) {
+      this.fileCache = fileCache;
+    }
+  }
+
   //////////////////////////////////////////////////////////////////////////////////
   int N = 10000;
   int PROD_THREAD = 10;
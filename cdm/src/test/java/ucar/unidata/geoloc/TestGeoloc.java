@@ -46,6 +46,7 @@ public class TestGeoloc {
     suite.addTest(new TestSuite(TestBasic.class));
     suite.addTest(new TestSuite(TestProjections.class));
     suite.addTest(new TestSuite(TestLatLonProjection.class)); // */
+    suite.addTest(new TestSuite(TestStationIndex.class));
 
     suite.addTest(new TestSuite(TestVertical.class));
     //suite.addTest(new TestSuite(TestBB.class));
@@ -0,0 +1,172 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.geoloc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * compare StationIndex against a linear scan of the stations
+ *
+ * @author caron
+ */
+public class TestStationIndex extends TestCase {
+
+  public TestStationIndex(String name) {
+    super(name);
+  }
+
+  private List<Station> makeStations(int n, long seed) {
+    Random r = new Random(seed);
+    List<Station> result = new ArrayList<Station>(n);
+    for (int i = 0; i < n; i++) {
+      double lat = 180 * r.nextDouble() - 90;
+      double lon = 360 * r.nextDouble() - 180;
+      if (i % 7 == 0) lon += 360; // some stations use 0 - 360
+      result.add(new StationImpl("stn" + i, null, null, lat, lon, 0.0));
+    }
+    // stations on the seam and at the poles
+    result.add(new StationImpl("east", null, null, 10.0, 180.0, 0.0));
+    result.add(new StationImpl("west", null, null, 10.0, -180.0, 0.0));
+    result.add(new StationImpl("north", null, null, 90.0, 0.0, 0.0));
+    result.add(new StationImpl("south", null, null, -90.0, 0.0, 0.0));
+    return result;
+  }
+
+  private List<Station> scan(List<Station> stations, LatLonRect bb) {
+    LatLonPointImpl latlonPt = new LatLonPointImpl();
+    List<Station> result = new ArrayList<Station>();
+    for (Station s : stations) {
+      latlonPt.set(s.getLatitude(), s.getLongitude());
+      if (bb.contains(latlonPt))
+        result.add(s);
+    }
+    return result;
+  }
+
+  private Station scanClosest(List<Station> stations, double lat, double lon) {
+    double cos = Math.cos(Math.toRadians(lat));
+    Station min_station = null;
+    double min_dist = Double.MAX_VALUE;
+    for (Station s : stations) {
+      double lon1 = LatLonPointImpl.lonNormal(s.getLongitude(), lon);
+      double dy = Math.toRadians(lat - s.getLatitude());
+      double dx = cos * Math.toRadians(lon - lon1);
+      double dist = dy * dy + dx * dx;
+      if (dist < min_dist) {
+        min_dist = dist;
+        min_station = s;
+      }
+    }
+    return min_station;
+  }
+
+  public void testBoundingBox() {
+    List<Station> stations = makeStations(5000, 17);
+    StationIndex index = new StationIndex(stations);
+
+    double[][] boxes = {
+        {-10, 0, 20, 30},
+        {30, 170, 20, 20},    // crosses the dateline
+        {-50, -185, 40, 15},  // crosses the dateline going west
+        {0, 175, 20, 5},      // ends at the dateline
+        {-90, -180, 180, 360}, // everything
+        {80, -30, 10, 300},
+        {10, 180, 1, 1},
+        {5, 5, 0, 0},
+    };
+    for (double[] box : boxes) {
+      LatLonRect bb = new LatLonRect(new LatLonPointImpl(box[0], box[1]), box[2], box[3]);
+      assertEquals(bb.toString2(), scan(stations, bb), index.getStations(bb));
+    }
+
+    Random r = new Random(3);
+    for (int i = 0; i < 500; i++) {
+      LatLonPointImpl p = new LatLonPointImpl(180 * r.nextDouble() - 90, 360 * r.nextDouble() - 180);
+      LatLonRect bb = new LatLonRect(p, 40 * r.nextDouble(), 100 * r.nextDouble());
+      assertEquals(bb.toString2(), scan(stations, bb), index.getStations(bb));
+    }
+  }
+
+  public void testClosest() {
+    List<Station> stations = makeStations(3000, 5);
+    StationIndex index = new StationIndex(stations);
+
+    double[][] pts = {{10, 179.9}, {10, -179.9}, {10, 539.0}, {89.9, 45}, {-89.9, -100}, {0, 0}};
+    for (double[] pt : pts)
+      assertEquals(pt[0] + " " + pt[1], scanClosest(stations, pt[0], pt[1]), index.findClosest(pt[0], pt[1]));
+
+    Random r = new Random(11);
+    for (int i = 0; i < 2000; i++) {
+      double lat = 180 * r.nextDouble() - 90;
+      double lon = 360 * r.nextDouble() - 180;
+      assertEquals(lat + " " + lon, scanClosest(stations, lat, lon), index.findClosest(lat, lon));
+    }
+  }
+
+  public void testNearestK() {
+    List<Station> stations = makeStations(1000, 23);
+    StationIndex index = new StationIndex(stations);
+
+    Random r = new Random(7);
+    for (int i = 0; i < 200; i++) {
+      double lat = 180 * r.nextDouble() - 90;
+      double lon = 360 * r.nextDouble() - 180;
+      List<Station> near = index.findClosest(lat, lon, 5);
+      assertEquals(5, near.size());
+
+      // each one is the closest of those that remain
+      List<Station> remain = new ArrayList<Station>(stations);
+      for (Station s : near) {
+        assertEquals(scanClosest(remain, lat, lon), s);
+        remain.remove(s);
+      }
+    }
+  }
+
+  public void testSparse() {
+    List<Station> stations = new ArrayList<Station>();
+    stations.add(new StationImpl("a", null, null, 40.0, -105.0, 0.0));
+    stations.add(new StationImpl("b", null, null, -40.0, 175.0, 0.0));
+    stations.add(new StationImpl("missing", null, null, Double.NaN, 0.0, 0.0));
+    StationIndex index = new StationIndex(stations);
+    assertEquals(2, index.getStations(new LatLonRect(new LatLonPointImpl(-90.0, -180.0), 180.0, 360.0)).size());
+    assertEquals(stations.get(1), index.findClosest(-30.0, -170.0));
+    assertEquals(stations.subList(0, 2), index.findClosest(0.0, 0.0, 10));
+    assertEquals(0, new StationIndex(new ArrayList<Station>()).findClosest(0.0, 0.0, 3).size());
+  }
+
+}
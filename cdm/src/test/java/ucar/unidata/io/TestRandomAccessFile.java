@@ -0,0 +1,311 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.unidata.io;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compare the primitive array reads against the scalar reads, both in and across buffer boundaries.
+ *
+ * @author caron
+ */
+public class TestRandomAccessFile extends TestCase {
+
+  public TestRandomAccessFile(String name) {
+    super(name);
+  }
+
+  private File makeFile(int nbytes) throws IOException {
+    File file = File.createTempFile("TestRandomAccessFile", ".bin");
+    file.deleteOnExit();
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "rw");
+    for (int i = 0; i < nbytes; i++)
+      raf.write(i * 31 + 7);
+    raf.close();
+    return file;
+  }
+
+  public void testArrayReads() throws IOException {
+    int n = 50 * 1000; // bigger than bulkBlockSize and the default buffer
+    File file = makeFile(8 * n + 3);
+
+    for (int endian : new int[]{RandomAccessFile.BIG_ENDIAN, RandomAccessFile.LITTLE_ENDIAN}) {
+      RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+      raf.order(endian);
+
+      raf.seek(3);
+      short[] sa = new short[n];
+      raf.readShort(sa, 0, n);
+      raf.seek(3);
+      for (int i = 0; i < n; i++) assertEquals(raf.readShort(), sa[i]);
+
+      raf.seek(1);
+      int[] ia = new int[n];
+      raf.readInt(ia, 0, n);
+      raf.seek(1);
+      for (int i = 0; i < n; i++) assertEquals(raf.readInt(), ia[i]);
+
+      raf.seek(2);
+      float[] fa = new float[n];
+      raf.readFloat(fa, 0, n);
+      raf.seek(2);
+      for (int i = 0; i < n; i++) assertEquals(Float.floatToRawIntBits(raf.readFloat()), Float.floatToRawIntBits(fa[i]));
+
+      raf.seek(0);
+      long[] la = new long[n];
+      raf.readLong(la, 0, n);
+      assertEquals(8 * n, raf.getFilePointer());
+      raf.seek(0);
+      for (int i = 0; i < n; i++) assertEquals(raf.readLong(), la[i]);
+
+      raf.seek(3);
+      double[] da = new double[n];
+      raf.readDouble(da, 1, n - 1);
+      raf.seek(3);
+      for (int i = 1; i < n; i++) assertEquals(Double.doubleToRawLongBits(raf.readDouble()), Double.doubleToRawLongBits(da[i]));
+
+      raf.close();
+    }
+  }
+
+  public void testInMemory() throws IOException {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+    RandomAccessFile raf = new InMemoryRandomAccessFile("test", data);
+    raf.order(RandomAccessFile.BIG_ENDIAN);
+
+    int[] ia = new int[250];
+    raf.readInt(ia, 0, ia.length);
+    assertEquals(0x00010203, ia[0]);
+    assertEquals(1000, raf.getFilePointer());
+    raf.close();
+  }
+
+  public void testEOF() throws IOException {
+    RandomAccessFile raf = new InMemoryRandomAccessFile("test", new byte[10]);
+    try {
+      raf.readInt(new int[3], 0, 3);
+      fail("expected EOFException");
+    } catch (java.io.EOFException e) {
+      // ok
+    }
+    raf.close();
+  }
+
+  public void testSharedChannel() throws IOException {
+    File file = makeFile(100 * 1000);
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+    RandomAccessFile raf1 = new FileChannelRandomAccessFile(file.getPath());
+    RandomAccessFile raf2 = new FileChannelRandomAccessFile(file.getPath(), 1000);
+    assertEquals(1, FileChannelRandomAccessFile.getNumberOpenChannels());
+    assertEquals(raf.length(), raf1.length());
+
+    // interleave reads on the two handles
+    byte[] want = new byte[3000];
+    byte[] got1 = new byte[3000];
+    byte[] got2 = new byte[3000];
+    for (int pos = 0; pos < 90 * 1000; pos += 7777) {
+      raf.seek(pos);
+      raf.readFully(want);
+      raf1.seek(pos);
+      raf2.seek(90 * 1000 - pos);
+      raf1.readFully(got1, 0, 1500);
+      raf2.readFully(got2);
+      raf1.readFully(got1, 1500, 1500);
+      assertTrue(java.util.Arrays.equals(want, got1));
+    }
+
+    raf1.seek(raf1.length() - 1);
+    raf1.read();
+    assertEquals(-1, raf1.read());
+
+    raf1.close();
+    assertEquals(1, FileChannelRandomAccessFile.getNumberOpenChannels());
+    raf2.close();
+    assertEquals(0, FileChannelRandomAccessFile.getNumberOpenChannels());
+    raf.close();
+  }
+
+  // an interrupted reader closes the shared channel; the other sharers and later opens must still work
+  public void testSharedChannelInterrupt() throws Exception {
+    File file = makeFile(100 * 1000);
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+    final RandomAccessFile raf1 = new FileChannelRandomAccessFile(file.getPath(), 1000);
+    RandomAccessFile raf2 = new FileChannelRandomAccessFile(file.getPath(), 1000);
+
+    final Exception[] failed = new Exception[1];
+    Thread t = new Thread() {
+      public void run() {
+        interrupt();
+        try {
+          raf1.seek(50 * 1000);
+          raf1.read();
+        } catch (Exception e) {
+          failed[0] = e;
+        }
+      }
+    };
+    t.start();
+    t.join();
+    assertTrue(String.valueOf(failed[0]), failed[0] instanceof java.nio.channels.ClosedByInterruptException);
+
+    byte[] want = new byte[3000];
+    byte[] got = new byte[3000];
+    raf.seek(20 * 1000);
+    raf.readFully(want);
+    raf2.seek(20 * 1000);
+    raf2.readFully(got);
+    assertTrue(java.util.Arrays.equals(want, got));
+
+    RandomAccessFile raf3 = new FileChannelRandomAccessFile(file.getPath(), 1000);
+    assertEquals(1, FileChannelRandomAccessFile.getNumberOpenChannels());
+    raf3.seek(20 * 1000);
+    raf3.readFully(got);
+    assertTrue(java.util.Arrays.equals(want, got));
+
+    raf1.seek(20 * 1000); // the interrupted one recovers too
+    raf1.readFully(got);
+    assertTrue(java.util.Arrays.equals(want, got));
+
+    raf1.close();
+    raf2.close();
+    raf3.close();
+    assertEquals(0, FileChannelRandomAccessFile.getNumberOpenChannels());
+    raf.close();
+  }
+
+  public void testMMap() throws IOException {
+    int n = 25 * 1000;
+    File file = makeFile(4 * n + 3);
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+    RandomAccessFile mraf = new MMapRandomAccessFile(file.getPath(), 1000, 10 * 1000); // force many segments
+    assertEquals(raf.length(), mraf.length());
+
+    for (int endian : new int[]{RandomAccessFile.BIG_ENDIAN, RandomAccessFile.LITTLE_ENDIAN}) {
+      raf.order(endian);
+      mraf.order(endian);
+      raf.seek(3);
+      mraf.seek(3);
+      int[] want = new int[n];
+      int[] got = new int[n];
+      raf.readInt(want, 0, n);
+      mraf.readInt(got, 0, n);
+      assertTrue(java.util.Arrays.equals(want, got));
+
+      mraf.seek(9999);
+      raf.seek(9999);
+      for (int i = 0; i < 100; i++) assertEquals(raf.readShort(), mraf.readShort());
+    }
+
+    java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+    assertEquals(25000, mraf.readToByteChannel(java.nio.channels.Channels.newChannel(bos), 5000, 25000));
+    byte[] want = new byte[25000];
+    raf.seek(5000);
+    raf.readFully(want);
+    assertTrue(java.util.Arrays.equals(want, bos.toByteArray()));
+
+    mraf.seek(mraf.length());
+    assertEquals(-1, mraf.read());
+
+    RandomAccessFile mapped = MMapRandomAccessFile.map(raf);
+    assertTrue(mapped instanceof MMapRandomAccessFile);
+    mapped.close();
+    mraf.close();
+  }
+
+  // the part of the file added after it was opened is read when asked for
+  public void testMMapGrow() throws IOException {
+    File file = makeFile(5000);
+    RandomAccessFile mraf = new MMapRandomAccessFile(file.getPath(), 1000, 3000);
+    mraf.seek(4990);
+    mraf.readFully(new byte[10]);
+    assertEquals(-1, mraf.read());
+
+    java.io.RandomAccessFile out = new java.io.RandomAccessFile(file, "rw");
+    out.seek(5000);
+    for (int i = 0; i < 2000; i++) out.write(i * 31 + 7);
+    out.close();
+
+    mraf.seek(4000);
+    byte[] got = new byte[3000];
+    mraf.readFully(got);
+    for (int i = 0; i < 1000; i++) assertEquals((byte) ((4000 + i) * 31 + 7), got[i]);
+    for (int i = 1000; i < 3000; i++) assertEquals((byte) ((i - 1000) * 31 + 7), got[i]);
+    assertEquals(-1, mraf.read());
+    mraf.close();
+  }
+
+  public void testBlockCache() throws IOException {
+    File file = makeFile(100 * 1000 + 17);
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+    byte[] want = new byte[(int) raf.length()];
+    raf.readFully(want);
+    raf.close();
+
+    BlockCache cache = new BlockCache(1000, 50 * 1000);
+    RandomAccessFile.setGlobalBlockCache(cache);
+    try {
+      for (int pass = 0; pass < 2; pass++) {
+        raf = new RandomAccessFile(file.getPath(), "r");
+        raf.setBufferSize(2500);
+        byte[] got = new byte[300];
+        for (int pos = 0; pos < want.length; pos += 1234) {
+          raf.seek(pos);
+          int n = raf.read(got);
+          assertTrue(n > 0);
+          for (int i = 0; i < n; i++) assertEquals(want[pos + i], got[i]);
+        }
+        raf.close();
+      }
+      assertTrue(cache.getHits() > 0);
+      assertTrue(cache.getEvictions() > 0);
+
+      // tail of the file is not cached, but is read correctly
+      raf = new RandomAccessFile(file.getPath(), "r");
+      raf.seek(want.length - 5);
+      byte[] got = new byte[5];
+      raf.readFully(got);
+      for (int i = 0; i < 5; i++) assertEquals(want[want.length - 5 + i], got[i]);
+      assertEquals(-1, raf.read());
+      raf.close();
+
+    } finally {
+      RandomAccessFile.setGlobalBlockCache(null);
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package ucar.unidata.io.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import ucar.ma2.Array;
+import ucar.ma2.MAMath;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.util.IO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-ahead, caching and prefetching in HTTPRandomAccessFile, against a small local server.
+ *
+ * @author caron
+ */
+public class TestHTTPRandomAccessFile extends TestCase {
+
+  public TestHTTPRandomAccessFile(String name) {
+    super(name);
+  }
+
+  private static final int SIZE = 3 * 1000 * 1000;
+
+  private HttpServer server;
+  private volatile byte[] content;
+  private final AtomicInteger ngets = new AtomicInteger();
+  private String url;
+
+  @Override
+  protected void setUp() throws Exception {
+    content = new byte[SIZE];
+    for (int i = 0; i < SIZE; i++) content[i] = (byte) (i * 31 + 7);
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/data.bin", new HttpHandler() {
+      public void handle(HttpExchange ex) throws IOException {
+        ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (ex.getRequestMethod().equals("HEAD")) {
+          ex.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+          ex.sendResponseHeaders(200, -1);
+          ex.close();
+          return;
+        }
+        ngets.incrementAndGet();
+        String range = ex.getRequestHeaders().getFirst("Range"); // bytes=a-b
+        int dash = range.indexOf('-');
+        int first = Integer.parseInt(range.substring(range.indexOf('=') + 1, dash));
+        int last = Math.min(Integer.parseInt(range.substring(dash + 1)), content.length - 1);
+        ex.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+        ex.sendResponseHeaders(206, last - first + 1);
+        OutputStream out = ex.getResponseBody();
+        out.write(content, first, last - first + 1);
+        out.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/data.bin";
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop(0);
+  }
+
+  public void testSequential() throws IOException {
+    HTTPRandomAccessFile raf = new HTTPRandomAccessFile(url);
+    try {
+      assertEquals(SIZE, raf.length());
+      byte[] b = new byte[1000];
+      for (int pos = 0; pos < SIZE; pos += b.length) {
+        raf.readFully(b);
+        for (int i = 0; i < b.length; i++)
+          assertEquals(content[pos + i], b[i]);
+      }
+      // one request per 20000 byte buffer without read-ahead
+      int n = raf.getRequestCount();
+      assertTrue("requests = " + n, n < 20);
+      assertEquals(n, ngets.get());
+
+      // rereading the end comes from the cache
+      raf.seek(SIZE - 5000);
+      raf.readFully(b);
+      assertEquals(n, raf.getRequestCount());
+    } finally {
+      raf.close();
+    }
+  }
+
+  public void testRandom() throws IOException {
+    HTTPRandomAccessFile raf = new HTTPRandomAccessFile(url);
+    try {
+      java.util.Random r = new java.util.Random(1);
+      byte[] b = new byte[777];
+      for (int k = 0; k < 200; k++) {
+        int pos = r.nextInt(SIZE - b.length);
+        raf.seek(pos);
+        raf.readFully(b);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, pos, pos + b.length), b));
+      }
+      // reads past the end are short
+      raf.seek(SIZE - 10);
+      assertEquals(10, raf.read(b));
+    } finally {
+      raf.close();
+    }
+  }
+
+  public void testPrefetch() throws IOException {
+    HTTPRandomAccessFile raf = new HTTPRandomAccessFile(url);
+    try {
+      // two groups of 20 chunks of 10000 bytes, 5000 apart: each group is fetched in one request
+      long[] pos = new long[40];
+      int[] size = new int[40];
+      for (int i = 0; i < pos.length; i++) {
+        int j = pos.length - 1 - i; // out of order
+        pos[i] = (j < 20) ? 100000 + j * 15000 : 2000000 + (j - 20) * 15000;
+        size[i] = 10000;
+      }
+      raf.prefetch(pos, size);
+      int n = raf.getRequestCount();
+      assertEquals(2, n);
+
+      byte[] b = new byte[10000];
+      for (int i = 0; i < pos.length; i++) {
+        raf.seek(pos[i]);
+        raf.readFully(b);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, (int) pos[i], (int) pos[i] + b.length), b));
+      }
+      // only filling the buffer past the end of the last chunk of each group needs a request
+      n += 2;
+      assertEquals(n, raf.getRequestCount());
+
+      // already cached, so nothing to do
+      raf.prefetch(pos, size);
+      assertEquals(n, raf.getRequestCount());
+    } finally {
+      raf.close();
+    }
+  }
+
+  // chunked variables are prefetched
+  public void testHdf5() throws IOException {
+    for (String name : new String[]{"chunked.h5", "deflateShuffle.h5"}) {
+      File file = new File("src/test/data/" + name);
+      content = IO.readFileToByteArray(file.getPath());
+      NetcdfFile local = NetcdfFile.open(file.getPath());
+      NetcdfFile remote = NetcdfFile.open(url);
+      try {
+        for (Variable v : local.getVariables()) {
+          Array want = v.read();
+          Array got = remote.findVariable(v.getName()).read();
+          assertTrue(v.getName(), MAMath.isEqual(want, got));
+        }
+      } finally {
+        local.close();
+        remote.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.geoloc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A spatial index over a fixed list of stations, for bounding box and nearest station queries.
+ * The globe is divided into a grid of equal size lat/lon buckets, each holding the stations that fall in it.
+ * Longitudes are normalized, so boxes and searches that cross the dateline are handled.
+ * <p/>
+ * The index is immutable and thread safe; build it once per station list and reuse it.
+ * Results are the same as a linear scan over the list, and are returned in list order.
+ */
+public class StationIndex {
+  private final List<? extends Station> stations;
+  private final double[] lats, lons; // normalized lon
+  private final int ncols, nrows;
+  private final double cell; // bucket size in degrees
+  private final int[] bucketStart; // stations in bucket b are bucketStns[bucketStart[b] .. bucketStart[b+1]-1]
+  private final int[] bucketStns;
+
+  /**
+   * Constructor. Stations with missing lat or lon are not indexed, and are never returned.
+   *
+   * @param stations index these stations; the list must not be modified afterwards.
+   */
+  public StationIndex(List<? extends Station> stations) {
+    this.stations = stations;
+    int n = stations.size();
+    lats = new double[n];
+    lons = new double[n];
+
+    // aim for a couple of stations per bucket if they were evenly spread
+    double size = Math.sqrt(360.0 * 180.0 * 2 / Math.max(n, 1));
+    size = Math.max(0.5, Math.min(10.0, size));
+    int nc = (int) Math.ceil(360.0 / size);
+    if (nc % 2 != 0) nc++;
+    ncols = nc;
+    nrows = nc / 2;
+    cell = 360.0 / ncols;
+
+    int[] bucket = new int[n];
+    bucketStart = new int[ncols * nrows + 1];
+    for (int i = 0; i < n; i++) {
+      Station s = stations.get(i);
+      lats[i] = s.getLatitude();
+      lons[i] = LatLonPointImpl.lonNormal(s.getLongitude());
+      if (Double.isNaN(lats[i]) || Double.isNaN(lons[i])) {
+        bucket[i] = -1;
+        continue;
+      }
+      bucket[i] = row(lats[i]) * ncols + col(lons[i]);
+      bucketStart[bucket[i] + 1]++;
+    }
+    for (int b = 0; b < ncols * nrows; b++)
+      bucketStart[b + 1] += bucketStart[b];
+
+    bucketStns = new int[bucketStart[ncols * nrows]];
+    int[] next = new int[ncols * nrows];
+    System.arraycopy(bucketStart, 0, next, 0, next.length);
+    for (int i = 0; i < n; i++) // stations in each bucket stay in list order
+      if (bucket[i] >= 0)
+        bucketStns[next[bucket[i]]++] = i;
+  }
+
+  private int row(double lat) {
+    int r = (int) Math.floor((lat + 90.0) / cell);
+    return Math.max(0, Math.min(nrows - 1, r));
+  }
+
+  private int col(double lon) {
+    int c = (int) Math.floor((lon + 180.0) / cell) % ncols;
+    return (c < 0) ? c + ncols : c;
+  }
+
+  /**
+   * The stations that were indexed.
+   *
+   * @return the list passed to the constructor
+   */
+  public List<? extends Station> getStations() {
+    return stations;
+  }
+
+  /**
+   * Get the stations contained in the bounding box, same as testing each one with boundingBox.contains().
+   *
+   * @param boundingBox lat/lon bounding box
+   * @return stations inside the box, in list order
+   */
+  public List<Station> getStations(LatLonRect boundingBox) {
+    int[] found = new int[16];
+    int count = 0;
+
+    int row0 = row(boundingBox.getLatMin() - 1.0e-6);
+    int row1 = row(boundingBox.getLatMax() + 1.0e-6);
+    int col0 = col(boundingBox.getLowerLeftPoint().getLongitude());
+    int ncand = (boundingBox.getWidth() >= 360.0) ? ncols : Math.min(ncols, (int) (boundingBox.getWidth() / cell) + 2);
+
+    for (int r = row0; r <= row1; r++) {
+      for (int k = 0; k < ncand; k++) {
+        int b = r * ncols + (col0 + k) % ncols;
+        for (int j = bucketStart[b]; j < bucketStart[b + 1]; j++) {
+          int i = bucketStns[j];
+          if (boundingBox.contains(lats[i], lons[i])) {
+            if (count == found.length)
+              found = Arrays.copyOf(found, 2 * count);
+            found[count++] = i;
+          }
+        }
+      }
+    }
+
+    Arrays.sort(found, 0, count);
+    List<Station> result = new ArrayList<Station>(count);
+    for (int j = 0; j < count; j++)
+      result.add(stations.get(found[j]));
+    return result;
+  }
+
+  /**
+   * Find the station closest to the specified point.
+   * The metric is (lat-lat0)**2 + (cos(lat0)*(lon-lon0))**2, ties go to the first station in the list.
+   *
+   * @param lat latitude value
+   * @param lon longitude value
+   * @return closest station, or null if there are no stations with a location
+   */
+  public Station findClosest(double lat, double lon) {
+    List<Station> result = findClosest(lat, lon, 1);
+    return result.isEmpty() ? null : result.get(0);
+  }
+
+  /**
+   * Find the k stations closest to the specified point, using the same metric as findClosest(lat, lon).
+   *
+   * @param lat latitude value
+   * @param lon longitude value
+   * @param k   number of stations wanted
+   * @return up to k stations, closest first
+   */
+  public List<Station> findClosest(double lat, double lon, int k) {
+    List<Station> result = new ArrayList<Station>();
+    if (k <= 0 || Double.isNaN(lat) || Double.isNaN(lon) || bucketStns.length == 0)
+      return result;
+
+    double cos = Math.cos(Math.toRadians(lat));
+    lon = LatLonPointImpl.lonNormal(lon);
+    int qrow = row(lat);
+    int qcol = col(lon);
+    int lo = -ncols / 2, hi = ncols - 1 - ncols / 2; // each column is visited once
+
+    Nearest best = new Nearest(k);
+    for (int r = 0; ; r++) {
+      for (int dr = -r; dr <= r; dr++) {
+        int row = qrow + dr;
+        if (row < 0 || row >= nrows) continue;
+        if ((dr == -r) || (dr == r)) { // top and bottom of the ring
+          for (int dc = Math.max(-r, lo); dc <= Math.min(r, hi); dc++)
+            best.search(row * ncols + (qcol + dc + ncols) % ncols, lat, lon, cos);
+        } else { // sides
+          if (-r >= lo) best.search(row * ncols + (qcol - r + ncols) % ncols, lat, lon, cos);
+          if (r <= hi) best.search(row * ncols + (qcol + r) % ncols, lat, lon, cos);
+        }
+      }
+
+      boolean allCols = (-r <= lo) && (r >= hi);
+      boolean allRows = (qrow - r <= 0) && (qrow + r >= nrows - 1);
+      if (allCols && allRows) break;
+
+      // any station not yet visited is more than r buckets away in lat, or (until all columns are done) in lon
+      double bound = Math.toRadians(r * cell);
+      bound = allCols ? bound * bound : (cos * bound) * (cos * bound);
+      if (best.isFull() && best.worst() < bound) break;
+    }
+
+    for (int j = 0; j < best.count; j++)
+      result.add(stations.get(best.index[j]));
+    return result;
+  }
+
+  // the k best so far, sorted by distance then list index
+  private class Nearest {
+    int[] index;
+    double[] dist;
+    int count;
+
+    Nearest(int k) {
+      index = new int[k];
+      dist = new double[k];
+    }
+
+    void search(int b, double lat, double lon, double cos) {
+      for (int j = bucketStart[b]; j < bucketStart[b + 1]; j++) {
+        int i = bucketStns[j];
+        double lon1 = LatLonPointImpl.lonNormal(lons[i], lon);
+        double dy = Math.toRadians(lat - lats[i]);
+        double dx = cos * Math.toRadians(lon - lon1);
+        add(i, dy * dy + dx * dx);
+      }
+    }
+
+    boolean isFull() {
+      return count == index.length;
+    }
+
+    double worst() {
+      return dist[count - 1];
+    }
+
+    void add(int i, double d) {
+      if (isFull() && !before(d, i, count - 1)) return;
+      int pos = isFull() ? count - 1 : count++;
+      while (pos > 0 && before(d, i, pos - 1)) {
+        index[pos] = index[pos - 1];
+        dist[pos] = dist[pos - 1];
+        pos--;
+      }
+      index[pos] = i;
+      dist[pos] = d;
+    }
+
+    private boolean before(double d, int i, int pos) {
+      return (d < dist[pos]) || (d == dist[pos] && i < index[pos]);
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.io;
+
+import net.jcip.annotations.ThreadSafe;
+import ucar.unidata.util.LruCache;
+
+import java.io.IOException;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of file blocks, shared by all RandomAccessFile instances, so that reopening a file
+ * or rereading its headers does not need a system call or an HTTP range request.
+ * Blocks are keyed by (file location, last modified, block number), so a changed file is never served stale data.
+ * Only read-only files are cached, and only whole blocks; the partial block at the end of the file is always reread.
+ * Eviction is LRU, keeping the total size of cached blocks under maxBytes.
+ * <pre>
+ * RandomAccessFile.setGlobalBlockCache(new BlockCache(64 * 1024, 100 * 1000 * 1000)); // on application startup
+ * </pre>
+ * All methods are thread safe.
+ *
+ * @author caron
+ */
+@ThreadSafe
+public class BlockCache {
+
+  private final int blockSize;
+  private final LruCache<LruCache.FilePosKey, byte[]> blocks;
+  private final AtomicLong reads = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param blockSize size of a cache block in bytes
+   * @param maxBytes  keep the total size of the cached blocks under this number of bytes
+   */
+  public BlockCache(int blockSize, long maxBytes) {
+    if (blockSize <= 0)
+      throw new IllegalArgumentException("blockSize must be > 0");
+    this.blockSize = blockSize;
+    this.blocks = new LruCache<LruCache.FilePosKey, byte[]>("BlockCache", maxBytes);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public long getMaxBytes() {
+    return blocks.getMaxBytes();
+  }
+
+  /**
+   * Read len bytes starting at pos, using cached blocks where possible.
+   * Consecutive missing blocks are read from the file in a single call to raf.read_().
+   *
+   * @param raf     read missing blocks from here
+   * @param fileKey identifies the file contents, see RandomAccessFile.getBlockCacheKey()
+   * @param pos     start here in the file
+   * @param b       put data into this buffer
+   * @param offset  buffer offset
+   * @param len     this number of bytes
+   * @return actual number of bytes read, or -1 if pos is at or past the end of file
+   * @throws IOException on read error
+   */
+  public int read(RandomAccessFile raf, Object fileKey, long pos, byte[] b, int offset, int len) throws IOException {
+    if (len <= 0) return 0;
+    long firstBlock = pos / blockSize;
+    long lastBlock = (pos + len - 1) / blockSize;
+    int nblocks = (int) (lastBlock - firstBlock + 1);
+
+    byte[][] want = new byte[nblocks][];
+    int firstMissing = -1, lastMissing = -1;
+    for (int i = 0; i < nblocks; i++) {
+      want[i] = blocks.get(new LruCache.FilePosKey(fileKey, firstBlock + i));
+      if (want[i] == null) {
+        if (firstMissing < 0) firstMissing = i;
+        lastMissing = i;
+      }
+    }
+
+    if (firstMissing >= 0) {
+      int nmissing = lastMissing - firstMissing + 1;
+      byte[] tmp = new byte[nmissing * blockSize];
+      int n = raf.read_((firstBlock + firstMissing) * blockSize, tmp, 0, tmp.length);
+      reads.incrementAndGet();
+
+      for (int i = firstMissing; i <= lastMissing; i++) {
+        if (want[i] != null) continue; // already had it
+        int start = (i - firstMissing) * blockSize;
+        if (start + blockSize <= n) {
+          want[i] = new byte[blockSize];
+          System.arraycopy(tmp, start, want[i], 0, blockSize);
+          blocks.put(new LruCache.FilePosKey(fileKey, firstBlock + i), want[i], blockSize);
+        } else { // end of file: partial block, not cached
+          int have = Math.max(0, n - start);
+          want[i] = new byte[have];
+          System.arraycopy(tmp, start, want[i], 0, have);
+        }
+      }
+    }
+
+    // copy out
+    int done = 0;
+    for (int i = 0; i < nblocks; i++) {
+      byte[] block = want[i];
+      long blockStart = (firstBlock + i) * blockSize;
+      int from = (int) Math.max(0, pos - blockStart);
+      int count = Math.min(block.length - from, len - done);
+      if (count <= 0) break;
+      System.arraycopy(block, from, b, offset + done, count);
+      done += count;
+      if (block.length < blockSize) break; // end of file
+    }
+    return (done == 0) ? -1 : done;
+  }
+
+  /**
+   * Remove all blocks from the cache.
+   */
+  public void clearCache() {
+    blocks.clearCache();
+  }
+
+  public long getHits() {
+    return blocks.getHits();
+  }
+
+  public long getMisses() {
+    return blocks.getMisses();
+  }
+
+  public long getEvictions() {
+    return blocks.getEvictions();
+  }
+
+  /**
+   * Add stat report (hits, misses, etc) to formatter.
+   *
+   * @param format add to this
+   */
+  public void showStats(Formatter format) {
+    blocks.showStats(format);
+    format.format("  blockSize= %d reads= %d%n", blockSize, reads.get());
+  }
+
+}
@@ -41,6 +41,8 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
 
 
@@ -147,11 +149,36 @@ public class RandomAccessFile implements DataInput, DataOutput {
   static protected boolean showOpen = false;
   static protected boolean showRead = false;
 
+  static private BlockCache blockCache = null;
+
+  /**
+   * Use a process-wide block cache underneath all read-only RandomAccessFiles.
+   *
+   * @param cache the cache, or null to turn off block caching (default)
+   */
+  static public void setGlobalBlockCache(BlockCache cache) {
+    blockCache = cache;
+  }
+
+  /**
+   * Get the process-wide block cache.
+   *
+   * @return the cache, or null if not in use
+   */
+  static public BlockCache getGlobalBlockCache() {
+    return blockCache;
+  }
+
   /**
    * The default buffer size, in bytes.
    */
   protected static final int defaultBufferSize = 8092;
 
+  /**
+   * The maximum number of bytes decoded at a time by the primitive array reads.
+   */
+  protected static final int bulkBlockSize = 64 * 1024;
+
   /////////////////////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -225,6 +252,17 @@ public class RandomAccessFile implements DataInput, DataOutput {
    */
   boolean extendMode = false;
 
+  /**
+   * scratch space for the primitive array reads, when the data is not all in the buffer; allocated on first use
+   */
+  private byte[] bulkBuffer;
+
+  /**
+   * key for the block cache, computed on first use; NO_KEY if this file isnt cached
+   */
+  private Object blockCacheKey;
+  static private final Object NO_KEY = new Object();
+
   /**
    * Constructor, for subclasses
    *
@@ -387,7 +425,12 @@ public class RandomAccessFile implements DataInput, DataOutput {
     bufferStart = pos;
     filePosition = pos;
 
-    dataSize = read_(pos, buffer, 0, buffer.length);
+    BlockCache cache = blockCache;
+    Object key = (cache == null) ? null : getCachedKey();
+    if (key != null)
+      dataSize = cache.read(this, key, pos, buffer, 0, buffer.length);
+    else
+      dataSize = read_(pos, buffer, 0, buffer.length);
 
     if (dataSize <= 0) {
       dataSize = 0;
@@ -400,6 +443,30 @@ public class RandomAccessFile implements DataInput, DataOutput {
     dataEnd = bufferStart + dataSize;
   }
 
+  private Object getCachedKey() throws IOException {
+    if (blockCacheKey == null) {
+      Object key = (readonly && !extendMode) ? getBlockCacheKey() : null;
+      blockCacheKey = (key == null) ? NO_KEY : key;
+    }
+    return (blockCacheKey == NO_KEY) ? null : blockCacheKey;
+  }
+
+  /**
+   * Identify the contents of this file in the global block cache.
+   * The key must change whenever the file contents change.
+   * This implementation uses the location and last modified time of a local file.
+   * Subclasses override, returning null if their data should not be cached.
+   *
+   * @return key for the global block cache, or null to not use the block cache.
+   * @throws IOException on error
+   */
+  protected Object getBlockCacheKey() throws IOException {
+    if (location == null) return null;
+    File f = new File(location);
+    if (!f.exists()) return null;
+    return f.getCanonicalPath() + "@" + f.lastModified();
+  }
+
   /**
    * Returns the current position in the file, where the next read or
    * write will occur.
@@ -493,6 +560,7 @@ public class RandomAccessFile implements DataInput, DataOutput {
    */
   public void setExtendMode() {
     this.extendMode = true;
+    this.blockCacheKey = null;
   }
 
   //////////////////////////////////////////////////////////////////////////////////////////////
@@ -1000,8 +1068,12 @@ public class RandomAccessFile implements DataInput, DataOutput {
    * @throws IOException on read error
    */
   public final void readShort(short[] pa, int start, int n) throws IOException {
-    for (int i = 0; i < n; i++) {
-      pa[start + i] = readShort();
+    int blockElems = bulkBlockSize / 2;
+    while (n > 0) {
+      int nelems = Math.min(n, blockElems);
+      readBulk(2 * nelems).asShortBuffer().get(pa, start, nelems);
+      start += nelems;
+      n -= nelems;
     }
   }
 
@@ -1153,8 +1225,12 @@ public class RandomAccessFile implements DataInput, DataOutput {
    * @throws IOException on read error
    */
   public final void readInt(int[] pa, int start, int n) throws IOException {
-    for (int i = 0; i < n; i++) {
-      pa[start + i] = readInt();
+    int blockElems = bulkBlockSize / 4;
+    while (n > 0) {
+      int nelems = Math.min(n, blockElems);
+      readBulk(4 * nelems).asIntBuffer().get(pa, start, nelems);
+      start += nelems;
+      n -= nelems;
     }
   }
 
@@ -1219,8 +1295,12 @@ public class RandomAccessFile implements DataInput, DataOutput {
    * @throws IOException on read error
    */
   public final void readLong(long[] pa, int start, int n) throws IOException {
-    for (int i = 0; i < n; i++) {
-      pa[start + i] = readLong();
+    int blockElems = bulkBlockSize / 8;
+    while (n > 0) {
+      int nelems = Math.min(n, blockElems);
+      readBulk(8 * nelems).asLongBuffer().get(pa, start, nelems);
+      start += nelems;
+      n -= nelems;
     }
   }
 
@@ -1256,8 +1336,12 @@ public class RandomAccessFile implements DataInput, DataOutput {
    * @throws IOException on read error
    */
   public final void readFloat(float[] pa, int start, int n) throws IOException {
-    for (int i = 0; i < n; i++) {
-      pa[start + i] = Float.intBitsToFloat(readInt());
+    int blockElems = bulkBlockSize / 4;
+    while (n > 0) {
+      int nelems = Math.min(n, blockElems);
+      readBulk(4 * nelems).asFloatBuffer().get(pa, start, nelems);
+      start += nelems;
+      n -= nelems;
     }
   }
 
@@ -1293,9 +1377,37 @@ public class RandomAccessFile implements DataInput, DataOutput {
    * @throws IOException on read error
    */
   public final void readDouble(double[] pa, int start, int n) throws IOException {
-    for (int i = 0; i < n; i++) {
-        pa[start + i] = Double.longBitsToDouble(readLong());
+    int blockElems = bulkBlockSize / 8;
+    while (n > 0) {
+      int nelems = Math.min(n, blockElems);
+      readBulk(8 * nelems).asDoubleBuffer().get(pa, start, nelems);
+      start += nelems;
+      n -= nelems;
+    }
+  }
+
+  /**
+   * Read nbytes for the primitive array reads, and return them as a ByteBuffer in the current byte order.
+   * If the bytes are already in the buffer, they are decoded from there without copying,
+   * otherwise they are read into a scratch array. The file position is advanced by nbytes.
+   * Subclasses that can expose the file bytes directly may override.
+   *
+   * @param nbytes number of bytes, no more than bulkBlockSize
+   * @return ByteBuffer positioned at the first byte, with nbytes remaining
+   * @throws IOException on read error, EOFException if not enough bytes are left in the file
+   */
+  protected ByteBuffer readBulk(int nbytes) throws IOException {
+    ByteBuffer bb;
+    if ((buffer != null) && (filePosition >= bufferStart) && (filePosition + nbytes <= dataEnd)) {
+      bb = ByteBuffer.wrap(buffer, (int) (filePosition - bufferStart), nbytes);
+      filePosition += nbytes;
+    } else {
+      if (bulkBuffer == null)
+        bulkBuffer = new byte[bulkBlockSize];
+      readFully(bulkBuffer, 0, nbytes);
+      bb = ByteBuffer.wrap(bulkBuffer, 0, nbytes);
     }
+    return bb.slice().order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
   }
 
   /**
@@ -0,0 +1,210 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.unidata.util;
+
+import net.jcip.annotations.ThreadSafe;
+import net.jcip.annotations.GuardedBy;
+
+import java.util.Formatter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache, bounded by the total size of its values rather than their number.
+ * The caller gives the size of each value when it is added; it should count all the heap the value retains.
+ * Keeps hit, miss and eviction counts.
+ * All methods are thread safe.
+ *
+ * @author caron
+ */
+@ThreadSafe
+public class LruCache<K, V> {
+
+  private final String name;
+  private final long maxBytes;
+
+  @GuardedBy("this")
+  private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(100, .75f, true);
+  @GuardedBy("this")
+  private long nbytes = 0;
+
+  // stats
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong miss = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param name     name of the cache, used in showStats()
+   * @param maxBytes keep the total size of the cached values under this number of bytes
+   */
+  public LruCache(String name, long maxBytes) {
+    this.name = name;
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Get a value from the cache, and make it the most recently used.
+   *
+   * @param key look for this key
+   * @return the cached value, or null if not in the cache
+   */
+  public V get(K key) {
+    Entry<V> e;
+    synchronized (this) {
+      e = map.get(key);
+    }
+    if (e == null) {
+      miss.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return e.value;
+  }
+
+  /**
+   * Put a value into the cache, removing the least recently used values until the total size is under maxBytes.
+   *
+   * @param key   key of the value
+   * @param value the value
+   * @param size  number of bytes of heap held by the value
+   * @return true if it was added, false if its too big for the cache
+   */
+  public boolean put(K key, V value, long size) {
+    if (size > maxBytes) return false;
+
+    synchronized (this) {
+      Entry<V> old = map.put(key, new Entry<V>(value, size));
+      if (old != null) nbytes -= old.size;
+      nbytes += size;
+
+      // remove least recently used
+      Iterator<Entry<V>> iter = map.values().iterator();
+      while ((nbytes > maxBytes) && iter.hasNext()) {
+        Entry<V> oldest = iter.next();
+        iter.remove();
+        nbytes -= oldest.size;
+        evictions.incrementAndGet();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove all values from the cache.
+   */
+  public synchronized void clearCache() {
+    map.clear();
+    nbytes = 0;
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public synchronized long getBytes() {
+    return nbytes;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return miss.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Add stat report (hits, misses, etc) to formatter.
+   *
+   * @param format add to this
+   */
+  public void showStats(Formatter format) {
+    int n;
+    long size;
+    synchronized (this) {
+      n = map.size();
+      size = nbytes;
+    }
+    format.format("  %s maxBytes= %d%n", name, maxBytes);
+    format.format("  hits= %d miss= %d evictions= %d n= %d nbytes= %d%n",
+        hits.get(), miss.get(), evictions.get(), n, size);
+  }
+
+  static private class Entry<V> {
+    final V value;
+    final long size;
+
+    Entry(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A key made of an object identifying a file's contents and a position in the file.
+   */
+  static public class FilePosKey {
+    private final Object fileKey;
+    private final long pos;
+
+    public FilePosKey(Object fileKey, long pos) {
+      this.fileKey = fileKey;
+      this.pos = pos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof FilePosKey)) return false;
+      FilePosKey other = (FilePosKey) o;
+      return (pos == other.pos) && fileKey.equals(other.fileKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * fileKey.hashCode() + (int) (pos ^ (pos >>> 32));
+    }
+  }
+
+}
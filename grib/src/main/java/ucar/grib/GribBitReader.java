@@ -0,0 +1,349 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.grib;
+
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Unpacks the n-bit integers of a GRIB data section.
+ * The section is read into memory once, and the values are then extracted from the byte array
+ * through a 64 bit accumulator, refilled a 32 bit word at a time, instead of one raf.read() per byte.
+ * Byte aligned widths of 8, 16, 24 and 32 bits are extracted directly.
+ * Bits are consumed most significant first; bytes past the end of the buffer read as 0.
+ *
+ * @author caron
+ */
+public final class GribBitReader {
+  static private final int maxGapBits = 8 * 8 * 1024; // readPoints() reads through gaps of up to 8K bytes
+
+  private final byte[] buf;
+  private final int start; // first valid byte
+  private final int end;   // one past the last valid byte
+  private int bytePos;     // next byte to load into the accumulator
+  private long acc;        // bits not yet consumed are the low accBits bits
+  private int accBits;
+
+  /**
+   * Read nbytes from the current position of raf, and unpack bits from them.
+   * Fewer bytes are read if the file is shorter.
+   *
+   * @param raf    read from here, starting at the current file pointer
+   * @param nbytes number of bytes in the packed data
+   * @throws IOException on read error
+   */
+  public GribBitReader(RandomAccessFile raf, int nbytes) throws IOException {
+    long avail = raf.length() - raf.getFilePointer();
+    int n = (int) Math.max(0, Math.min(nbytes, avail));
+    this.buf = new byte[n];
+    raf.readFully(buf);
+    this.start = 0;
+    this.end = n;
+  }
+
+  /**
+   * Unpack bits from a byte array.
+   *
+   * @param buf    packed data
+   * @param offset start here
+   * @param length number of valid bytes
+   */
+  public GribBitReader(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.start = offset;
+    this.bytePos = offset;
+    this.end = offset + length;
+  }
+
+  /**
+   * Number of bytes needed to hold n values of nb bits.
+   *
+   * @param nb number of bits per value
+   * @param n  number of values
+   * @return number of bytes
+   */
+  public static int packedSize(int nb, int n) {
+    return (int) (((long) nb * n + 7) / 8);
+  }
+
+  /**
+   * Position the reader at the given bit, counting from the start of the data.
+   *
+   * @param bitPos bit offset from the start
+   */
+  public void seekBit(long bitPos) {
+    bytePos = (int) (start + bitPos / 8);
+    acc = 0;
+    accBits = 0;
+    bits2UInt((int) (bitPos % 8));
+  }
+
+  /**
+   * Skip the unused bits of a partially consumed byte, so the next value starts on a byte boundary.
+   * The GRIB2 group arrays (X1, NB, L, X2) each start on a byte boundary.
+   */
+  public void alignToByte() {
+    accBits -= accBits % 8;
+  }
+
+  /**
+   * Read one unsigned integer of nb bits.
+   *
+   * @param nb number of bits, 0 returns 0 without consuming anything
+   * @return the value; the low 32 bits if nb > 32
+   */
+  public int bits2UInt(int nb) {
+    if (nb > 32) {
+      skipBits(nb - 32);
+      nb = 32;
+    }
+    while (accBits < nb) {
+      acc = (acc << 8) | nextByte();
+      accBits += 8;
+    }
+    accBits -= nb;
+    return (int) ((acc >>> accBits) & ((1L << nb) - 1));
+  }
+
+  /**
+   * Read n unsigned integers of nb bits.
+   *
+   * @param nb   number of bits per value
+   * @param n    number of values
+   * @param dest put values here
+   * @param pos  starting at this index
+   */
+  public void unpack(int nb, int n, int[] dest, int pos) {
+    if (nb == 0) {
+      for (int i = 0; i < n; i++) dest[pos + i] = 0;
+      return;
+    }
+    if ((accBits == 0) && ((nb & 7) == 0) && (nb <= 32) && (bytePos + n * (nb >> 3) <= end)) {
+      final byte[] b = buf;
+      int p = bytePos;
+      switch (nb) {
+        case 8:
+          for (int i = 0; i < n; i++)
+            dest[pos + i] = b[p++] & 0xff;
+          break;
+        case 16:
+          for (int i = 0; i < n; i++, p += 2)
+            dest[pos + i] = ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+          break;
+        case 24:
+          for (int i = 0; i < n; i++, p += 3)
+            dest[pos + i] = ((b[p] & 0xff) << 16) | ((b[p + 1] & 0xff) << 8) | (b[p + 2] & 0xff);
+          break;
+        default:
+          for (int i = 0; i < n; i++, p += 4)
+            dest[pos + i] = ((b[p] & 0xff) << 24) | ((b[p + 1] & 0xff) << 16) | ((b[p + 2] & 0xff) << 8) | (b[p + 3] & 0xff);
+      }
+      bytePos = p;
+      return;
+    }
+    if (nb > 32) {
+      for (int i = 0; i < n; i++) dest[pos + i] = bits2UInt(nb);
+      return;
+    }
+
+    // general case: refill the accumulator a 32 bit word at a time, extract a value at a time
+    final byte[] b = buf;
+    final long mask = (1L << nb) - 1;
+    final int wordEnd = end - 4;
+    long a = acc;
+    int bits = accBits;
+    int p = bytePos;
+    for (int i = 0; i < n; i++) {
+      if (bits < nb) {
+        if (p <= wordEnd) {
+          a = (a << 32) | ((b[p] & 0xffL) << 24) | ((b[p + 1] & 0xff) << 16) | ((b[p + 2] & 0xff) << 8) | (b[p + 3] & 0xff);
+          p += 4;
+          bits += 32;
+        } else {
+          while (bits < nb) {
+            a = (a << 8) | ((p < end) ? (b[p] & 0xff) : 0);
+            p++;
+            bits += 8;
+          }
+        }
+      }
+      bits -= nb;
+      dest[pos + i] = (int) ((a >>> bits) & mask);
+    }
+    acc = a;
+    accBits = bits;
+    bytePos = p;
+  }
+
+  /**
+   * Read n unsigned integers X of nb bits, and scale them in the same pass: (R + X * EE) / DD.
+   * This is the GRIB2 simple packing formula Y * 10^D = R + X * 2^E, with EE = 2^E and DD = 10^D.
+   *
+   * @param nb   number of bits per value
+   * @param n    number of values
+   * @param R    reference value
+   * @param EE   binary scale, 2^E
+   * @param DD   decimal scale, 10^D
+   * @param dest put values here
+   * @param pos  starting at this index
+   */
+  public void unpackScaled(int nb, int n, float R, float EE, float DD, float[] dest, int pos) {
+    int[] chunk = new int[Math.min(n, 8192)];
+    int done = 0;
+    while (done < n) {
+      int len = Math.min(chunk.length, n - done);
+      unpack(nb, len, chunk, 0);
+      for (int i = 0; i < len; i++)
+        dest[pos + done + i] = (R + chunk[i] * EE) / DD;
+      done += len;
+    }
+  }
+
+  /**
+   * Read n unsigned integers X of nb bits, and scale them in the same pass: ref + scale * X.
+   * This is the GRIB1 simple packing formula.
+   *
+   * @param nb    number of bits per value
+   * @param n     number of values
+   * @param ref   reference value, already decimal scaled
+   * @param scale combined binary and decimal scale
+   * @param dest  put values here
+   * @param pos   starting at this index
+   */
+  public void unpackLinear(int nb, int n, float ref, float scale, float[] dest, int pos) {
+    int[] chunk = new int[Math.min(n, 8192)];
+    int done = 0;
+    while (done < n) {
+      int len = Math.min(chunk.length, n - done);
+      unpack(nb, len, chunk, 0);
+      for (int i = 0; i < len; i++)
+        dest[pos + done + i] = ref + scale * chunk[i];
+      done += len;
+    }
+  }
+
+  /**
+   * Read the values with the given indices from packed data in a file, reading only the bytes that hold them.
+   * The indices are read in increasing order, and indices that are close together are read with one read.
+   *
+   * @param raf       read from this file
+   * @param dataStart file position of the first packed value
+   * @param nb        number of bits per value
+   * @param index     the indices of the wanted values, in any order
+   * @param dest      the values go here, dest[i] is the value at index[i]
+   * @throws IOException on read error
+   */
+  public static void readPoints(RandomAccessFile raf, long dataStart, int nb, int[] index, int[] dest) throws IOException {
+    int n = index.length;
+    if (nb == 0) {
+      Arrays.fill(dest, 0, n, 0);
+      return;
+    }
+
+    // sort the indices, keeping track of where they came from
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++)
+      order[i] = ((long) index[i] << 32) | i;
+    Arrays.sort(order);
+
+    byte[] buf = new byte[0];
+    int k = 0;
+    while (k < n) {
+      // extend the run while the gap to the next value is small
+      long firstBit = (order[k] >>> 32) * nb;
+      int last = k;
+      while ((last + 1 < n) && ((order[last + 1] >>> 32) * nb - (order[last] >>> 32) * nb <= maxGapBits))
+        last++;
+      long endBit = (order[last] >>> 32) * nb + nb;
+
+      long firstByte = firstBit / 8;
+      int nbytes = (int) ((endBit + 7) / 8 - firstByte);
+      if (buf.length < nbytes) buf = new byte[nbytes];
+      raf.seek(dataStart + firstByte);
+      int nread = (int) Math.max(0, Math.min(nbytes, raf.length() - raf.getFilePointer()));
+      raf.readFully(buf, 0, nread);
+      GribBitReader reader = new GribBitReader(buf, 0, nread);
+
+      for (int j = k; j <= last; j++) {
+        reader.seekBit((order[j] >>> 32) * nb - firstByte * 8);
+        dest[(int) order[j]] = reader.bits2UInt(nb);
+      }
+      k = last + 1;
+    }
+  }
+
+  /**
+   * Spread the first count values of data out to the positions where bitmap is true, working from the end
+   * so it can be done in place. Positions where bitmap is false get missingValue.
+   *
+   * @param data         packed values in data[0..count), expanded values on return
+   * @param bitmap       true where there is a value
+   * @param count        number of packed values
+   * @param missingValue value where bitmap is false
+   */
+  public static void expandBitmap(float[] data, boolean[] bitmap, int count, float missingValue) {
+    int idx = count;
+    for (int i = Math.min(bitmap.length, data.length) - 1; i >= 0; i--) {
+      data[i] = bitmap[i] ? data[--idx] : missingValue;
+    }
+  }
+
+  /**
+   * Count the true values of bitmap.
+   *
+   * @param bitmap the bitmap
+   * @return number of true values
+   */
+  public static int countBits(boolean[] bitmap) {
+    int count = 0;
+    for (boolean b : bitmap)
+      if (b) count++;
+    return count;
+  }
+
+  private void skipBits(int nbits) {
+    while (nbits > 0) {
+      int n = Math.min(nbits, 32);
+      bits2UInt(n);
+      nbits -= n;
+    }
+  }
+
+  private int nextByte() {
+    if (bytePos >= end) return 0;
+    return buf[bytePos++] & 0xff;
+  }
+
+}
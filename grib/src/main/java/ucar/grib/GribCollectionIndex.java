@@ -0,0 +1,539 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.grib;
+
+import ucar.grid.GridIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * One index for a collection of GRIB files, so the collection opens without reading the index of each file.
+ * It is made from the per-file indexes (.gbx8), and can be rebuilt incrementally: files that have not
+ * changed are copied from the previous collection index, only new or changed files have their index read.
+ * <p/>
+ * Layout, big endian:
+ * <pre>
+ * "GribColl", int version, int edition
+ * int nfiles, each: UTF path, long lastModified, long length, UTF attributes of its index, int first record, int nrecords
+ * int ngds, each: int gdsKey, int size, raw GDS (size 4: the key of a predefined GRIB1 grid)
+ * int npds, npds * (int offset, int size) into the PDS heap; int heap size, PDS heap
+ * int nrecords, nrecords * 40 bytes:
+ *   int file, int discipline, long refTime, int gdsKey, long gdsOffset, long pdsOffset, int pds
+ * </pre>
+ * Identical GDSs and PDSs are stored once. The PDS and record tables are memory mapped, so opening the index
+ * takes time and heap proportional to the number of files and GDSs, and the per-file indexes are never read.
+ * Records are made from the tables on demand; note that makeGridIndex() makes all of them, since the
+ * netcdf objects are built from the complete list of records.
+ *
+ * @author caron
+ */
+public class GribCollectionIndex {
+  static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GribCollectionIndex.class);
+
+  static public final String MAGIC = "GribColl";
+  static public final String SUFFIX = ".gbxc";
+  static private final int version = 1;
+  static private final int recordSize = 40;
+
+  /**
+   * Is this a collection index?
+   *
+   * @param raf check this file
+   * @return true if it starts with the collection index magic
+   * @throws IOException on read error
+   */
+  static public boolean isValidFile(ucar.unidata.io.RandomAccessFile raf) throws IOException {
+    if (raf.length() < MAGIC.length()) return false;
+    raf.seek(0);
+    byte[] b = new byte[MAGIC.length()];
+    raf.readFully(b);
+    return new String(b, "US-ASCII").equals(MAGIC);
+  }
+
+  /**
+   * Open a collection index.
+   *
+   * @param location the index file
+   * @return the index
+   * @throws IOException if not a collection index, or on read error
+   */
+  static public GribCollectionIndex open(String location) throws IOException {
+    java.io.RandomAccessFile raf = new java.io.RandomAccessFile(location, "r");
+    try {
+      return new GribCollectionIndex(location, raf);
+    } finally {
+      raf.close(); // the mapping stays valid
+    }
+  }
+
+  /**
+   * One file of the collection
+   */
+  static public class FileEntry {
+    private final String path, attributes;
+    private final long lastModified, length;
+    private final int first, nrecords;
+    private final Map<String, String> atts = new HashMap<String, String>();
+
+    FileEntry(String path, long lastModified, long length, String attributes, int first, int nrecords) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.attributes = attributes;
+      this.first = first;
+      this.nrecords = nrecords;
+      String[] split = attributes.split("\\s");
+      for (int i = 0; i + 1 < split.length; i += 2)
+        atts.put(split[i], split[i + 1]);
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public int getRecordCount() {
+      return nrecords;
+    }
+
+    /**
+     * The global attributes of the file's own index
+     *
+     * @return attributes, by name
+     */
+    public Map<String, String> getAttributes() {
+      return Collections.unmodifiableMap(atts);
+    }
+
+    /**
+     * Is the entry still good for this file, ie has the file not changed since it was indexed?
+     *
+     * @param lastModified file's last modified time
+     * @param length       file's length
+     * @return true if unchanged
+     */
+    public boolean isCurrent(long lastModified, long length) {
+      return (this.lastModified == lastModified) && (this.length == length);
+    }
+
+    private int getInt(String name) {
+      String s = atts.get(name);
+      return (s == null) ? 0 : Integer.parseInt(s);
+    }
+  }
+
+  private final String location;
+  private final int edition;
+  private final List<FileEntry> files = new ArrayList<FileEntry>();
+  private final Map<String, FileEntry> fileMap = new HashMap<String, FileEntry>(); // by path
+  private final Map<Integer, byte[]> gdsMap = new LinkedHashMap<Integer, byte[]>();
+  private final ByteBuffer pdsTable, pdsHeap, recordTable;
+  private final int npds, nrecords;
+
+  private GribCollectionIndex(String location, java.io.RandomAccessFile raf) throws IOException {
+    this.location = location;
+
+    byte[] magic = new byte[MAGIC.length()];
+    raf.readFully(magic);
+    if (!new String(magic, "US-ASCII").equals(MAGIC))
+      throw new IOException("Not a GRIB collection index: " + location);
+    int v = raf.readInt();
+    if (v != version)
+      throw new IOException("GRIB collection index " + location + " has version " + v + ", need " + version);
+    edition = raf.readInt();
+
+    int nfiles = raf.readInt();
+    for (int i = 0; i < nfiles; i++) {
+      String path = raf.readUTF();
+      long lastModified = raf.readLong();
+      long length = raf.readLong();
+      String attributes = raf.readUTF();
+      int first = raf.readInt();
+      int n = raf.readInt();
+      FileEntry fe = new FileEntry(path, lastModified, length, attributes, first, n);
+      files.add(fe);
+      fileMap.put(path, fe);
+    }
+
+    int ngds = raf.readInt();
+    for (int i = 0; i < ngds; i++) {
+      int key = raf.readInt();
+      byte[] gds = new byte[raf.readInt()];
+      raf.readFully(gds);
+      gdsMap.put(key, gds);
+    }
+
+    npds = raf.readInt();
+    long pdsTablePos = raf.getFilePointer();
+    raf.seek(pdsTablePos + 8L * npds);
+    int heapSize = raf.readInt();
+    long heapPos = raf.getFilePointer();
+    raf.seek(heapPos + heapSize);
+    nrecords = raf.readInt();
+    long recordPos = raf.getFilePointer();
+    if (recordPos + (long) recordSize * nrecords > raf.length())
+      throw new IOException("GRIB collection index " + location + " is truncated");
+
+    ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    pdsTable = slice(mapped, pdsTablePos, 8L * npds);
+    pdsHeap = slice(mapped, heapPos, heapSize);
+    recordTable = slice(mapped, recordPos, (long) recordSize * nrecords);
+  }
+
+  static private ByteBuffer slice(ByteBuffer bb, long pos, long size) {
+    ByteBuffer dup = bb.duplicate();
+    dup.position((int) pos);
+    dup.limit((int) (pos + size));
+    return dup.slice();
+  }
+
+  public String getLocation() {
+    return location;
+  }
+
+  /**
+   * @return GRIB edition of all the files in the collection
+   */
+  public int getEdition() {
+    return edition;
+  }
+
+  public List<FileEntry> getFiles() {
+    return Collections.unmodifiableList(files);
+  }
+
+  /**
+   * Find a file of the collection.
+   *
+   * @param path path of the file, as it was added
+   * @return the file's entry, or null if not in the collection
+   */
+  public FileEntry findFile(String path) {
+    return fileMap.get(path);
+  }
+
+  public int getRecordCount() {
+    return nrecords;
+  }
+
+  /**
+   * Which file a record is in.
+   *
+   * @param recno record number, 0 to getRecordCount()-1
+   * @return index into getFiles()
+   */
+  public int getFileIndex(int recno) {
+    return recordTable.getInt(recno * recordSize);
+  }
+
+  private byte[] getPds(int pdsno) {
+    int offset = pdsTable.getInt(pdsno * 8);
+    int size = pdsTable.getInt(pdsno * 8 + 4);
+    byte[] pds = new byte[size];
+    for (int i = 0; i < size; i++)
+      pds[i] = pdsHeap.get(offset + i);
+    return pds;
+  }
+
+  /**
+   * Make one record. Not thread safe, since the reader keeps a Calendar.
+   *
+   * @param recno  record number
+   * @param reader makes the records
+   * @return the record, with getFileIndex() set; null if its PDS is not supported
+   * @throws IOException on bad PDS
+   */
+  public GribGridRecord getRecord(int recno, GribIndexReader reader) throws IOException {
+    int pos = recno * recordSize;
+    int fileno = recordTable.getInt(pos);
+    FileEntry fe = files.get(fileno);
+    GribGridRecord ggr = reader.makeGridRecord(edition == 1, recordTable.getInt(pos + 4), recordTable.getLong(pos + 8),
+        recordTable.getInt(pos + 16), recordTable.getLong(pos + 20), recordTable.getLong(pos + 28),
+        getPds(recordTable.getInt(pos + 36)),
+        fe.getInt("center"), fe.getInt("sub_center"), fe.getInt("table_version"));
+    if (ggr != null)
+      ggr.fileIndex = fileno;
+    return ggr;
+  }
+
+  /**
+   * Make a GridIndex of the whole collection, as if the files were one file.
+   * The records know which file they are in, see GribGridRecord.getFileIndex().
+   * All records are made, so this takes time and heap proportional to getRecordCount().
+   *
+   * @return GridIndex with all the records and GDSs
+   * @throws IOException on bad PDS
+   */
+  public GridIndex makeGridIndex() throws IOException {
+    GridIndex index = new GridIndex(location);
+    if (files.size() > 0) {
+      for (Map.Entry<String, String> att : files.get(0).atts.entrySet())
+        index.addGlobalAttribute(att.getKey(), att.getValue());
+    }
+    index.addGlobalAttribute("location", location.replaceAll(" ", "%20"));
+    index.addGlobalAttribute("grid_edition", Integer.toString(edition));
+    index.addGlobalAttribute("collection_files", Integer.toString(files.size()));
+
+    GribIndexReader reader = new GribIndexReader();
+    for (int i = 0; i < nrecords; i++) {
+      GribGridRecord ggr = getRecord(i, reader);
+      if (ggr != null) index.addGridRecord(ggr);
+    }
+    for (Map.Entry<Integer, byte[]> gds : gdsMap.entrySet())
+      index.addHorizCoordSys(reader.makeGridDefRecord(edition == 1, gds.getValue(), gds.getKey()));
+    return index;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Makes a collection index from per-file indexes, and from the entries of a previous collection index.
+   * Files are added in the order they are to be in the collection.
+   */
+  static public class Builder {
+    private int edition = 0;
+    private final List<FileEntry> files = new ArrayList<FileEntry>();
+    private final Map<Integer, byte[]> gdsMap = new LinkedHashMap<Integer, byte[]>();
+    private final Map<PdsKey, Integer> pdsMap = new HashMap<PdsKey, Integer>();
+    private final List<byte[]> pdsList = new ArrayList<byte[]>();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream records = new DataOutputStream(recordBytes);
+    private int nrecords = 0;
+
+    /**
+     * Add a file from its own index.
+     *
+     * @param path         path of the GRIB file
+     * @param lastModified last modified time of the GRIB file when it was indexed
+     * @param length       length of the GRIB file when it was indexed
+     * @param gbxFile      the file's index
+     * @return false if not added: an old index version, or a different GRIB edition than the files already added
+     * @throws IOException on read error
+     */
+    public boolean addFile(String path, long lastModified, long length, File gbxFile) throws IOException {
+      DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(gbxFile)));
+      try {
+        dis.readLong(); // lastModified of the GRIB file
+        String attributes = dis.readUTF();
+        FileEntry fe = new FileEntry(path, lastModified, length, attributes, nrecords, 0);
+        String indexVersion = fe.atts.get("index_version");
+        if ((indexVersion == null) || indexVersion.startsWith("7")) {
+          log.warn("GribCollectionIndex: index " + gbxFile.getPath() + " is version " + indexVersion + ", not added");
+          return false;
+        }
+        int fileEdition = fe.getInt("grid_edition");
+        if (!setEdition(fileEdition, path)) return false;
+        boolean grid_edition_1 = (fileEdition == 1);
+
+        int fileno = files.size();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) {
+          records.writeInt(fileno);
+          records.writeInt(dis.readInt()); // discipline
+          records.writeLong(dis.readLong()); // refTime
+          records.writeInt(dis.readInt()); // gdsKey
+          records.writeLong(dis.readLong()); // gdsOffset
+          records.writeLong(dis.readLong()); // pdsOffset
+          byte[] pds = new byte[dis.readInt()];
+          dis.readFully(pds);
+          records.writeInt(internPds(pds));
+        }
+
+        int ngds = dis.readInt();
+        for (int i = 0; i < ngds; i++) {
+          byte[] gds = new byte[dis.readInt()];
+          dis.readFully(gds);
+          int key = GribIndexReader.gdsKey(grid_edition_1, indexVersion, gds);
+          if (!gdsMap.containsKey(key)) gdsMap.put(key, gds);
+        }
+
+        files.add(new FileEntry(path, lastModified, length, attributes, nrecords, n));
+        nrecords += n;
+        return true;
+
+      } finally {
+        dis.close();
+      }
+    }
+
+    /**
+     * Add a file from a previous collection index, without reading its own index.
+     *
+     * @param from previous collection index
+     * @param fe   one of its files
+     * @return false if not added: a different GRIB edition than the files already added
+     * @throws IOException on write error
+     */
+    public boolean addFile(GribCollectionIndex from, FileEntry fe) throws IOException {
+      if (!setEdition(from.edition, fe.path)) return false;
+      int fileno = files.size();
+      Set<Integer> gdsKeys = new HashSet<Integer>();
+      for (int i = fe.first; i < fe.first + fe.nrecords; i++) {
+        int pos = i * recordSize;
+        int gdsKey = from.recordTable.getInt(pos + 16);
+        gdsKeys.add(gdsKey);
+        records.writeInt(fileno);
+        records.writeInt(from.recordTable.getInt(pos + 4));
+        records.writeLong(from.recordTable.getLong(pos + 8));
+        records.writeInt(gdsKey);
+        records.writeLong(from.recordTable.getLong(pos + 20));
+        records.writeLong(from.recordTable.getLong(pos + 28));
+        records.writeInt(internPds(from.getPds(from.recordTable.getInt(pos + 36))));
+      }
+      for (int key : gdsKeys) {
+        byte[] gds = from.gdsMap.get(key);
+        if ((gds != null) && !gdsMap.containsKey(key)) gdsMap.put(key, gds);
+      }
+      files.add(new FileEntry(fe.path, fe.lastModified, fe.length, fe.attributes, nrecords, fe.nrecords));
+      nrecords += fe.nrecords;
+      return true;
+    }
+
+    private boolean setEdition(int fileEdition, String path) {
+      if (edition == 0) edition = fileEdition;
+      if (fileEdition != edition) {
+        log.warn("GribCollectionIndex: " + path + " is GRIB" + fileEdition + ", collection is GRIB" + edition + ", not added");
+        return false;
+      }
+      return true;
+    }
+
+    private int internPds(byte[] pds) {
+      PdsKey key = new PdsKey(pds);
+      Integer pdsno = pdsMap.get(key);
+      if (pdsno == null) {
+        pdsno = pdsList.size();
+        pdsList.add(pds);
+        pdsMap.put(key, pdsno);
+      }
+      return pdsno;
+    }
+
+    public int getFileCount() {
+      return files.size();
+    }
+
+    public int getRecordCount() {
+      return nrecords;
+    }
+
+    /**
+     * Write the collection index. It is written to a temporary file that then replaces indexFile,
+     * so readers never see a partly written index.
+     *
+     * @param indexFile write to this file
+     * @throws IOException on write error
+     */
+    public void write(File indexFile) throws IOException {
+      File tmp = new File(indexFile.getPath() + ".tmp");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1000));
+      try {
+        out.write(MAGIC.getBytes("US-ASCII"));
+        out.writeInt(version);
+        out.writeInt(edition);
+
+        out.writeInt(files.size());
+        for (FileEntry fe : files) {
+          out.writeUTF(fe.path);
+          out.writeLong(fe.lastModified);
+          out.writeLong(fe.length);
+          out.writeUTF(fe.attributes);
+          out.writeInt(fe.first);
+          out.writeInt(fe.nrecords);
+        }
+
+        out.writeInt(gdsMap.size());
+        for (Map.Entry<Integer, byte[]> gds : gdsMap.entrySet()) {
+          out.writeInt(gds.getKey());
+          out.writeInt(gds.getValue().length);
+          out.write(gds.getValue());
+        }
+
+        out.writeInt(pdsList.size());
+        int offset = 0;
+        for (byte[] pds : pdsList) {
+          out.writeInt(offset);
+          out.writeInt(pds.length);
+          offset += pds.length;
+        }
+        out.writeInt(offset);
+        for (byte[] pds : pdsList)
+          out.write(pds);
+
+        out.writeInt(nrecords);
+        records.flush();
+        recordBytes.writeTo(out);
+      } finally {
+        out.close();
+      }
+
+      if (!tmp.renameTo(indexFile)) { // some systems wont rename over an existing file
+        indexFile.delete();
+        if (!tmp.renameTo(indexFile))
+          throw new IOException("Cant rename " + tmp.getPath() + " to " + indexFile.getPath());
+      }
+    }
+  }
+
+  // PDS bytes as a map key
+  static private class PdsKey {
+    private final byte[] pds;
+    private final int hash;
+
+    PdsKey(byte[] pds) {
+      this.pds = pds;
+      this.hash = Arrays.hashCode(pds);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof PdsKey) && Arrays.equals(pds, ((PdsKey) o).pds);
+    }
+  }
+
+}
@@ -88,6 +88,11 @@ public final class GribGridRecord implements GridRecord {
    */
   long pdsOffset;
 
+  /**
+   * which file of a GribCollectionIndex the record is in, 0 when read from the index of one file.
+   */
+  int fileIndex;
+
   private String paramDesc;
 
   /**
@@ -136,6 +141,10 @@ public final class GribGridRecord implements GridRecord {
     return gdsKey;
   }
 
+  public int getFileIndex() {
+    return fileIndex;
+  }
+
   public boolean isBmsExists() {
     return bmsExists;
   }
@@ -168,72 +168,20 @@ public class GribIndexReader {
 
         // section 2 -- grib records
         for (int i = 0; i < number; i++) {
-          GribGridRecord ggr = new GribGridRecord();
-
-          /*
-          if (index_version.equals("7.0")) {
-            ggr.productTemplate = dis.readInt();
-            ggr.discipline = dis.readInt();
-            ggr.category = dis.readInt();
-            ggr.paramNumber = dis.readInt();
-            ggr.typeGenProcess = dis.readInt();
-            ggr.levelType1 = dis.readInt();
-            ggr.levelValue1 = dis.readFloat();
-            ggr.levelType2 = dis.readInt();
-            ggr.levelValue2 = dis.readFloat();
-            long refTime = dis.readLong();
-            calendar.setTimeInMillis(refTime);
-            ggr.refTime = calendar.getTime();
-            ggr.forecastTime = dis.readInt();
-            // setValidTime
-            calendar.add(Calendar.HOUR, ggr.forecastTime);
-            ggr.setValidTime(calendar.getTime());
-
-            ggr.gdsKey = dis.readInt();
-            ggr.offset1 = dis.readLong();
-            ggr.offset2 = dis.readLong();
-            if (grid_edition_1) {
-              ggr.decimalScale = dis.readInt();
-              ggr.bmsExists = dis.readBoolean();
-              ggr.center = dis.readInt();
-              ggr.subCenter = dis.readInt();
-              ggr.table = dis.readInt();
-            }
-          } else { // index version 8.0 or higher
-
-          */  // only support index version 8.0 or higher
-          ggr.edition = grid_edition_1 ? 1 : 2;
-          ggr.discipline = dis.readInt();
+          int discipline = dis.readInt();
           long refTime = dis.readLong();
-          calendar.setTimeInMillis(refTime);
-          ggr.refTime = refTime; 
-          ggr.refTimeAsDate = calendar.getTime(); // ??
-          ggr.gdsKey = dis.readInt();
-          ggr.gdsOffset = dis.readLong();
-          ggr.pdsOffset = dis.readLong();
+          int gdsKey = dis.readInt();
+          long gdsOffset = dis.readLong();
+          long pdsOffset = dis.readLong();
 
           // read PDS as raw bytes
           int pdsSize = dis.readInt();
           byte[] pdsData = new byte[pdsSize];
           dis.readFully(pdsData);
 
-          GribPds pdsv = GribPds.factory(ggr.edition, pdsData, refTime, calendar);
-          if (pdsv == null) continue;
-          ggr.setPds(pdsv);
-
-          if (grid_edition_1) {
-            Grib1Pds pds1 = (Grib1Pds) pdsv;
-            ggr.bmsExists = pds1.bmsExists();
-            ggr.center = pds1.getCenter();
-            ggr.subCenter = pds1.getSubCenter();
-            ggr.tableVersion = pds1.getParameterTableVersion();
-
-          } else {
-            ggr.center = center;
-            ggr.subCenter = sub_center;
-            ggr.tableVersion = table_version;
-
-          }
+          GribGridRecord ggr = makeGridRecord(grid_edition_1, discipline, refTime, gdsKey, gdsOffset, pdsOffset,
+              pdsData, center, sub_center, table_version);
+          if (ggr == null) continue;
 
           /* if (grid_edition_1) {
       GribPds pdsv = GribPds.factory(1, pdsData, calendar);
@@ -408,34 +356,8 @@ public class GribIndexReader {
             // read GDS as raw bytes
             byte[] gdsData = new byte[gdsSize];
             dis.readFully(gdsData);
-            
-            int gdskey;
-            if (grid_edition_1) {
-              Grib1GDSVariables gdsv = new Grib1GDSVariables(gdsData);
-              GribGridDefRecord ggdr = new GribGridDefRecord(gdsv);
-              if (index_version.startsWith("8.0")) {
-                gdskey = gdsv.get80TypeGdsKey();
-              } else {
-                gdskey = gdsv.getGdsKey();
-              }
-              populateGDS1(ggdr, gdsv, gdskey);
-              gridIndex.addHorizCoordSys(ggdr);
-              //System.out.println("GDS length =" + gdsv.getLength());
-              //System.out.println("GDS GdsKey =" + gdsv.getOldTypeGdsKey());
-            } else {
-              Grib2GDSVariables gdsv = new Grib2GDSVariables(gdsData);
-              GribGridDefRecord ggdr = new GribGridDefRecord(gdsv);
-              if (index_version.startsWith("8.0")) {
-                gdskey = gdsv.get80TypeGdsKey();
-              } else {
-                gdskey = gdsv.getGdsKey(); // version higher than 8.0
-              }
-              populateGDS2(ggdr, gdsv, gdskey);
-              gridIndex.addHorizCoordSys(ggdr);
-              //System.out.println("GDS length =" + gdsv.getLength());
-              //System.out.println("GDS GdsKey =" + gdsv.getGdsKey());
-            }
-
+            int gdskey = gdsKey(grid_edition_1, index_version, gdsData);
+            gridIndex.addHorizCoordSys(makeGridDefRecord(grid_edition_1, gdsData, gdskey));
           }
           //gridIndex.finish();
         //}
@@ -478,6 +400,101 @@ public class GribIndexReader {
 
   }
 
+  /**
+   * Make a GribGridRecord from the fields of one record in an index.
+   *
+   * @param grid_edition_1 true for GRIB1
+   * @param discipline     GRIB2 discipline
+   * @param refTime        reference time, msecs
+   * @param gdsKey         key of the record's GDS
+   * @param gdsOffset      offset of the GDS in the GRIB file
+   * @param pdsOffset      offset of the PDS in the GRIB file
+   * @param pdsData        raw bytes of the PDS
+   * @param center         center of GRIB2 records, from the index attributes
+   * @param sub_center     sub center of GRIB2 records
+   * @param table_version  table version of GRIB2 records
+   * @return the record, or null if the PDS is not supported
+   * @throws IOException on bad PDS
+   */
+  public GribGridRecord makeGridRecord(boolean grid_edition_1, int discipline, long refTime, int gdsKey,
+                                       long gdsOffset, long pdsOffset, byte[] pdsData,
+                                       int center, int sub_center, int table_version) throws IOException {
+    GribGridRecord ggr = new GribGridRecord();
+    ggr.edition = grid_edition_1 ? 1 : 2;
+    ggr.discipline = discipline;
+    calendar.setTimeInMillis(refTime);
+    ggr.refTime = refTime;
+    ggr.refTimeAsDate = calendar.getTime(); // ??
+    ggr.gdsKey = gdsKey;
+    ggr.gdsOffset = gdsOffset;
+    ggr.pdsOffset = pdsOffset;
+
+    GribPds pdsv = GribPds.factory(ggr.edition, pdsData, refTime, calendar);
+    if (pdsv == null) return null;
+    ggr.setPds(pdsv);
+
+    if (grid_edition_1) {
+      Grib1Pds pds1 = (Grib1Pds) pdsv;
+      ggr.bmsExists = pds1.bmsExists();
+      ggr.center = pds1.getCenter();
+      ggr.subCenter = pds1.getSubCenter();
+      ggr.tableVersion = pds1.getParameterTableVersion();
+
+    } else {
+      ggr.center = center;
+      ggr.subCenter = sub_center;
+      ggr.tableVersion = table_version;
+    }
+    return ggr;
+  }
+
+  /**
+   * The key of a GDS, as the records of an index refer to it.
+   *
+   * @param grid_edition_1 true for GRIB1
+   * @param index_version  version of the index
+   * @param gdsData        raw bytes of the GDS, or the key itself for GRIB1 records with no GDS
+   * @return the key
+   * @throws IOException on bad GDS
+   */
+  static public int gdsKey(boolean grid_edition_1, String index_version, byte[] gdsData) throws IOException {
+    if (gdsData.length == 4) // for Grib1 records with no GDS
+      return ((gdsData[0] & 0xff) << 24) | ((gdsData[1] & 0xff) << 16) | ((gdsData[2] & 0xff) << 8) | (gdsData[3] & 0xff);
+    if (grid_edition_1) {
+      Grib1GDSVariables gdsv = new Grib1GDSVariables(gdsData);
+      return index_version.startsWith("8.0") ? gdsv.get80TypeGdsKey() : gdsv.getGdsKey();
+    } else {
+      Grib2GDSVariables gdsv = new Grib2GDSVariables(gdsData);
+      return index_version.startsWith("8.0") ? gdsv.get80TypeGdsKey() : gdsv.getGdsKey(); // version higher than 8.0
+    }
+  }
+
+  /**
+   * Make the GridDefRecord of a GDS in an index.
+   *
+   * @param grid_edition_1 true for GRIB1
+   * @param gdsData        raw bytes of the GDS, or the key itself for GRIB1 records with no GDS
+   * @param gdskey         key for this gds, see gdsKey()
+   * @return the GridDefRecord
+   * @throws IOException on bad GDS
+   */
+  public GribGridDefRecord makeGridDefRecord(boolean grid_edition_1, byte[] gdsData, int gdskey) throws IOException {
+    GribGridDefRecord ggdr;
+    if (gdsData.length == 4) { // for Grib1 records with no GDS
+      ggdr = new GribGridDefRecord();
+      Grib1Grid.populateGDS(ggdr, gdskey);
+    } else if (grid_edition_1) {
+      Grib1GDSVariables gdsv = new Grib1GDSVariables(gdsData);
+      ggdr = new GribGridDefRecord(gdsv);
+      populateGDS1(ggdr, gdsv, gdskey);
+    } else {
+      Grib2GDSVariables gdsv = new Grib2GDSVariables(gdsData);
+      ggdr = new GribGridDefRecord(gdsv);
+      populateGDS2(ggdr, gdsv, gdskey);
+    }
+    return ggdr;
+  }
+
   /**
    * Populates a GridDefRecord according to Projection.
    *
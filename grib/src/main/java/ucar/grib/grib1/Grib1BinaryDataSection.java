@@ -66,16 +66,6 @@ public final class Grib1BinaryDataSection {
    */
   private int length;
 
-  /**
-   * Buffer for one byte which will be processed bit by bit.
-   */
-  private int bitBuf = 0;
-
-  /**
-   * Current bit position in <tt>bitBuf</tt>.
-   */
-  private int bitPos = 0;
-
   /**
    * Array of grid values.
    */
@@ -162,17 +152,15 @@ public final class Grib1BinaryDataSection {
       boolean[] bitmap = bms.getBitmap();
 
       values = new float[bitmap.length];
-      for (int i = 0; i < bitmap.length; i++) {
-        if (bitmap[i]) {
-          if (!isConstant) {
-            values[i] = ref + scale * bits2UInt(numbits, raf);
-          } else {  // rdg - added this to handle a constant valued parameter
-            values[i] = ref;
-          }
-        } else {
-          values[i] = Grib1BinaryDataSection.UNDEFINED;
-        }
+      int nvalues = GribBitReader.countBits(bitmap);
+      if (!isConstant) {
+        GribBitReader reader = new GribBitReader(raf, dataLength(length, numbits, nvalues));
+        reader.unpackLinear(numbits, nvalues, ref, scale, values, 0);
+      } else {  // rdg - added this to handle a constant valued parameter
+        for (int i = 0; i < nvalues; i++)
+          values[i] = ref;
       }
+      GribBitReader.expandBitmap(values, bitmap, nvalues, Grib1BinaryDataSection.UNDEFINED);
       scanningModeCheck(scanMode, Xlength);
     } else {  // bms is null
       if (!isConstant) {
@@ -181,9 +169,8 @@ public final class Grib1BinaryDataSection {
         } else {
           values = new float[((length - 11) * 8 - unusedbits) / numbits];
         }
-        for (int i = 0; i < values.length; i++) {
-          values[i] = ref + scale * bits2UInt(numbits, raf);
-        }
+        GribBitReader reader = new GribBitReader(raf, dataLength(length, numbits, values.length));
+        reader.unpackLinear(numbits, values.length, ref, scale, values, 0);
         scanningModeCheck(scanMode, Xlength);
       } else {                     // constant valued - same min and max
         //System.out.println( "BDS constant valued - same min and max" );
@@ -220,6 +207,49 @@ public final class Grib1BinaryDataSection {
     }
   }  // end Grib1BinaryDataSection
 
+  /**
+   * Read only the values at the given grid points, without unpacking the rest of the field.
+   * Each value is at a known bit offset, since there is no bit map.
+   *
+   * @param raf          raf positioned at the start of the BDS
+   * @param decimalscale the exponent of the decimal scale
+   * @param scanMode     scan mode from the GDS
+   * @param Xlength      number of points along a row
+   * @param points       grid indices (y * nx + x) of the wanted values, in the order the full field is returned
+   * @return the values at the points, or null if not simple grid point packing
+   * @throws IOException on read error
+   */
+  public static float[] readPoints(RandomAccessFile raf, int decimalscale, int scanMode, int Xlength, int[] points)
+      throws IOException {
+    raf.skipBytes(3); // octets 1-3 (section length)
+    int flag = raf.read();
+    if ((flag & 192) != 0) // not grid point data and simple packing
+      return null;
+    int binscale = GribNumbers.int2(raf);
+    float refvalue = GribNumbers.float4(raf);
+    int numbits = raf.read();
+    long dataStart = raf.getFilePointer();
+
+    float ref = (float) (Math.pow(10.0, -decimalscale) * refvalue);
+    float scale = (float) (Math.pow(10.0, -decimalscale)
+        * Math.pow(2.0, binscale));
+
+    // undo scanningModeCheck()
+    boolean reversed = (Xlength > 0) && ((scanMode == 128) || (scanMode == 192));
+    int[] index = new int[points.length];
+    for (int i = 0; i < points.length; i++) {
+      int p = points[i];
+      index[i] = reversed ? (p / Xlength) * Xlength + (Xlength - (p % Xlength) - 1) : p;
+    }
+
+    int[] X = new int[points.length];
+    GribBitReader.readPoints(raf, dataStart, numbits, index, X);
+    float[] values = new float[points.length];
+    for (int i = 0; i < points.length; i++)
+      values[i] = ref + scale * X[i];
+    return values;
+  }
+
   /**
    * Rearrange the data array using the scanning mode.
    */
@@ -253,43 +283,17 @@ public final class Grib1BinaryDataSection {
   }                            // end of scanningModeCheck
 
   /**
-   * Convert bits (nb) to Unsigned Int .
+   * Number of packed data bytes to read.
+   * The section length is not reliable for very large records, so read at least enough for the values.
    *
-   * @param nb
-   * @param raf
-   * @return int of BinaryDataSection section
-   * @throws IOException
+   * @param length  BDS length
+   * @param numbits number of bits per value
+   * @param n       number of values
+   * @return number of bytes following the 11 byte header
    */
-  private int bits2UInt(int nb, RandomAccessFile raf) throws IOException {
-    int bitsLeft = nb;
-    int result = 0;
-
-    if (bitPos == 0) {
-      bitBuf = raf.read();
-      bitPos = 8;
-    }
-
-    while (true) {
-      int shift = bitsLeft - bitPos;
-      if (shift > 0) {
-        // Consume the entire buffer
-        result |= bitBuf << shift;
-        bitsLeft -= bitPos;
-
-        // Get the next byte from the RandomAccessFile
-        bitBuf = raf.read();
-        bitPos = 8;
-      } else {
-        // Consume a portion of the buffer
-        result |= bitBuf >> -shift;
-        bitPos -= bitsLeft;
-        bitBuf &= 0xff >> (8 - bitPos);  // mask off consumed bits
-
-        return result;
-      }
-    }                                        // end while
-  }                                            // end bits2Int
-
+  private static int dataLength(int length, int numbits, int n) {
+    return Math.max(length - 11, GribBitReader.packedSize(numbits, n));
+  }
   /**
    * Grid values as an array of float.
    *
@@ -130,6 +130,38 @@ public final class Grib1Data {
     }
   }  // end getData
 
+  /**
+   * Reads only the values at the given grid points of the Grib data, when the packing allows it.
+   * Only the bytes holding the wanted values are read, so this is much faster than getData() for a few points.
+   *
+   * @param gdsOffset GDS offset into file.
+   * @param dataOffset BMS or BDS offset into file.
+   * @param decimalScale the exponent of the decimal scale
+   * @param bmsExists if there is a bit map
+   * @param points grid indices (y * nx + x) of the wanted values, as in the array returned by getData()
+   * @return float[] the values at the points, or null if the record must be read with getData()
+   * @throws IOException on read error
+   */
+  public final float[] getData(long gdsOffset, long dataOffset, int decimalScale, boolean bmsExists, int[] points)
+      throws IOException {
+    if (bmsExists || (gdsOffset == -1))
+      return null;
+
+    Grib1GDSVariables gdsv;
+    try {
+      raf.seek(gdsOffset);
+      gdsv = new Grib1GridDefinitionSection(raf).getGdsVars();
+    } catch (NoValidGribException nvge) {
+      return null;
+    }
+    int PVorPL = gdsv.getPVorPL();
+    int NV = gdsv.getNV();
+    if (PVorPL != 255 && (NV == 0 || NV == 255) ) // thin grid
+      return null;
+
+    raf.seek(dataOffset);
+    return Grib1BinaryDataSection.readPoints(raf, decimalScale, gdsv.getScanMode(), gdsv.getNx(), points);
+  }
   
   /**
    * Reads the Grib data
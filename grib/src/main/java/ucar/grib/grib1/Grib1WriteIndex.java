@@ -61,6 +61,11 @@ public class Grib1WriteIndex {
   private static Grib2WriteIndex.pdsLogType logPDS = Grib2WriteIndex.pdsLogType.logger;
 
   private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger( getClass() );
+
+  /*
+   * buffer size while indexing, when not the default Grib2WriteIndex.indexRafBufferSize
+   */
+  private int indexBufferSize = 0;
   ////////////////////////////////////////////////////////////////////
   public Grib1WriteIndex() {
   }
@@ -152,7 +157,7 @@ public class Grib1WriteIndex {
     int count = 0;
     // set buffer size for performance
     int rafBufferSize = inputRaf.getBufferSize();
-    inputRaf.setBufferSize( Grib2WriteIndex.indexRafBufferSize );
+    inputRaf.setBufferSize( getIndexBufferSize() );
 
     try {
       inputRaf.seek(0);
@@ -397,7 +402,7 @@ public class Grib1WriteIndex {
     int count = 0;
     // set buffer size for performance
     int rafBufferSize = inputRaf.getBufferSize();
-    inputRaf.setBufferSize( Grib2WriteIndex.indexRafBufferSize );
+    inputRaf.setBufferSize( getIndexBufferSize() );
 
     try {
       // get oldIndex in raw format, Grib2 and Grib1 raw format are the same
@@ -724,6 +729,19 @@ public class Grib1WriteIndex {
     verbose = flag;
   }
 
+  /**
+   * Set the buffer size of the GRIB file while indexing, see Grib2WriteIndex.setIndexBufferSize()
+   *
+   * @param size buffer size in bytes, 0 for Grib2WriteIndex.indexRafBufferSize
+   */
+  public void setIndexBufferSize( int size ) {
+    indexBufferSize = size;
+  }
+
+  private int getIndexBufferSize() {
+    return (indexBufferSize > 0) ? indexBufferSize : Grib2WriteIndex.indexRafBufferSize;
+  }
+
   /**
    * Dumps usage of the class.
    *
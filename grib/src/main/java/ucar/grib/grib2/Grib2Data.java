@@ -116,6 +116,33 @@ public final class Grib2Data {
       return qr.getData();
     }
   }  // end getData
+
+  /**
+   * Reads only the values at the given grid points of the Grib data, when the packing allows it.
+   * Only the bytes holding the wanted values are read, so this is much faster than getData() for a few points.
+   *
+   * @param gdsOffset position in record where GDS starts
+   * @param pdsOffset position in record where PDS starts
+   * @param refTime reference time in msecs
+   * @param points grid indices (y * nx + x) of the wanted values, as in the array returned by getData()
+   * @return float[] the values at the points, or null if the record must be read with getData()
+   * @throws IOException if raf does not contain a valid GRIB record.
+   */
+  public final float[] getData(long gdsOffset, long pdsOffset, long refTime, int[] points) throws IOException {
+    raf.seek(gdsOffset);
+    Grib2GridDefinitionSection gds = new Grib2GridDefinitionSection(raf, false);  // Section 3 no checksum
+    if (gds.getGdsVars().getOlon() != 0) // quasi grids are expanded
+      return null;
+
+    raf.seek(pdsOffset);
+    new Grib2ProductDefinitionSection(raf, refTime);  // Section 4
+    Grib2DataRepresentationSection drs = new Grib2DataRepresentationSection(raf);  // Section 5
+    Grib2BitMapSection bms = new Grib2BitMapSection(false, raf, gds);  // Section 6
+    if (bms.getBitmapIndicator() != 255) // any bitmap
+      return null;
+
+    return Grib2DataSection.readPoints(raf, gds, drs, bms, points);  // Section 7
+  }
 }  // end Grib2Data
 
 
@@ -39,6 +39,7 @@ package ucar.grib.grib2;
 
 import ucar.jpeg.jj2000.j2k.decoder.Grib2JpegDecoder;
 
+import ucar.grib.GribBitReader;
 import ucar.grib.GribNumbers;
 
 import ucar.unidata.io.RandomAccessFile;
@@ -50,6 +51,9 @@ import ucar.unidata.io.RandomAccessFile;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 /**
@@ -82,6 +86,12 @@ public final class Grib2DataSection {
    */
   static private boolean staticMissingValueInUse = true;
 
+  /**
+   * Decoders for jpeg2000 packed data, reused across records. A decoder is taken by one thread
+   * for one record, so the pool holds as many decoders as records have been read at once.
+   */
+  static private final Queue<Grib2JpegDecoder> jpegDecoders = new ConcurrentLinkedQueue<Grib2JpegDecoder>();
+
   /**
    * Length in bytes of DataSection section.
    */
@@ -97,16 +107,6 @@ public final class Grib2DataSection {
    */
   private float[] data;
 
-  /**
-   * Buffer for one byte which will be processed bit by bit.
-   */
-  private int bitBuf = 0;
-
-  /**
-   * Current bit position in <tt>bitBuf</tt>.
-   */
-  private int bitPos = 0;
-
   /**
    * _more_
    */
@@ -178,6 +178,61 @@ public final class Grib2DataSection {
     }
   }                                                // end Grib2DataSection
 
+  /**
+   * Read only the values at the given grid points, without unpacking the rest of the field.
+   * Possible for simple packing without a bitmap, where each value is at a known bit offset.
+   *
+   * @param raf    RandomAccessFile of Grib file, positioned at the start of the DataSection
+   * @param gds    Grib2GridDefinitionSection
+   * @param drs    Grib2DataRepresentationSection
+   * @param bms    Grib2BitMapSection
+   * @param points grid indices (y * nx + x) of the wanted values, in the order the full field is returned
+   * @return the values at the points, or null if the packing needs a full decode
+   * @throws IOException on data reads
+   */
+  public static float[] readPoints(RandomAccessFile raf,
+                                   Grib2GridDefinitionSection gds,
+                                   Grib2DataRepresentationSection drs,
+                                   Grib2BitMapSection bms, int[] points)
+      throws IOException {
+    if ((drs.getDataTemplateNumber() != 0) || (bms.getBitmap() != null))
+      return null;
+
+    // octets 1-5 (Length of DS, section)
+    raf.skipBytes(5);
+    long dataStart = raf.getFilePointer();
+
+    int nb = drs.getNumberOfBits();
+    float DD = (float) java.lang.Math.pow((double) 10, (double) drs.getDecimalScaleFactor());
+    float R = drs.getReferenceValue();
+    float EE = (float) java.lang.Math.pow((double) 2.0, (double) drs.getBinaryScaleFactor());
+
+    int scanMode = gds.getGdsVars().getScanMode();
+    int nx = gds.getGdsVars().getNx();
+    int[] index = new int[points.length];
+    for (int i = 0; i < points.length; i++)
+      index[i] = packedIndex(points[i], scanMode, nx);
+
+    int[] X = new int[points.length];
+    GribBitReader.readPoints(raf, dataStart, nb, index, X);
+    float[] values = new float[points.length];
+    for (int i = 0; i < points.length; i++)
+      values[i] = (R + X[i] * EE) / DD;
+    return values;
+  }
+
+  /**
+   * Where the value at a grid index is in the packed data, ie undo scanningModeCheck().
+   */
+  private static int packedIndex(int index, int scanMode, int nx) {
+    if ((scanMode == 0) || (scanMode == 64))
+      return index;
+    int row = index / nx;
+    int col = index % nx;
+    boolean reversed = (scanMode == 128) || (scanMode == 192) || (row % 2 == 1);
+    return reversed ? row * nx + (nx - col - 1) : index;
+  }
+
   /**
    * simple Unpacking method for Grib2 data.
    *
@@ -238,22 +293,15 @@ public final class Grib2DataSection {
     //   X2 = scaled encoded value
     //   data[ i ] = (R + ( X1 + X2) * EE)/DD ;
 
+    GribBitReader reader = new GribBitReader(raf, length - 5);
     if (bitmap == null) {
-      for (int i = 0; i < numberPoints; i++) {
-        //data[ i ] = (R + ( X1 + X2) * EE)/DD ;
-        data[i] = (R + bits2UInt(nb, raf) * EE) / DD;
-      }
+      //data[ i ] = (R + ( X1 + X2) * EE)/DD ;
+      reader.unpackScaled(nb, numberPoints, R, EE, DD, data, 0);
     } else {
-      bitPos = 0;
-      bitBuf = 0;
-      for (int i = 0; i < bitmap.length; i++) {
-        if (bitmap[i]) {
-          data[i] = (R + bits2UInt(nb, raf) * EE) / DD;
-        } else {
-          data[i] = mv;   
-          //data[i] = R / DD;
-        }
-      }
+      // unpack the values that are present, then spread them out to the bitmap positions
+      int nvalues = GribBitReader.countBits(bitmap);
+      reader.unpackScaled(nb, nvalues, R, EE, DD, data, 0);
+      GribBitReader.expandBitmap(data, bitmap, nvalues, mv);
     }
     scanMode = gds.getGdsVars().getScanMode();
     Xlength = gds.getGdsVars().getNx();  // needs some smarts for different type Grids
@@ -309,20 +357,15 @@ public final class Grib2DataSection {
       }
       return;
     }
+    GribBitReader reader = new GribBitReader(raf, length - 5);
+
     // 6-xx  Get reference values for groups (X1's)
     int[] X1 = new int[NG];
     int nb = drs.getNumberOfBits();
     //System.out.println( "DS nb=" + nb );
     if( nb != 0 ) {
-      bitPos = 0;
-      bitBuf = 0;
-      for (int i = 0; i < NG; i++) {
-        X1[i] = bits2UInt(nb, raf);
-        //System.out.println( "DS X1[ i ]=" + X1[ i ] );
-      }
-    } else {
-      for (int i = 0; i < NG; i++)
-        X1[i] = 0;
+      reader.alignToByte();
+      reader.unpack(nb, NG, X1, 0);
     }
 
     // [xx +1 ]-yy Get number of bits used to encode each group
@@ -330,15 +373,8 @@ public final class Grib2DataSection {
     nb = drs.getBitsGroupWidths();
     //System.out.println( "DS nb=" + nb );
     if( nb != 0 ) {
-      bitPos = 0;
-      bitBuf = 0;
-      for (int i = 0; i < NG; i++) {
-        NB[i] = bits2UInt(nb, raf);
-        //System.out.println( "DS NB[ i ]=" + NB[ i ] );
-      }
-    } else {
-      for (int i = 0; i < NG; i++)
-        NB[i] = 0;
+      reader.alignToByte();
+      reader.unpack(nb, NG, NB, 0);
     }
 
     // [yy +1 ]-zz Get the scaled group lengths using formula
@@ -355,10 +391,10 @@ public final class Grib2DataSection {
     nb = drs.getBitsScaledGroupLength();
     //System.out.println( "DS nb=" + nb );
 
-    bitPos = 0;
-    bitBuf = 0;
+    reader.alignToByte();
+    reader.unpack(nb, NG, L, 0);
     for (int i = 0; i < NG; i++) {  // NG
-      L[i] = ref + (bits2UInt(nb, raf) * len_inc);
+      L[i] = ref + (L[i] * len_inc);
       //System.out.println( "DS L[ i ]=" + L[ i ] );
     }
     //enter Length of Last Group
@@ -393,12 +429,14 @@ public final class Grib2DataSection {
 //                     D = THE DECIMAL SCALE FACTOR
     count = 0;
     int X2;
-    bitPos = 0;
-    bitBuf = 0;
+    int[] groupX2 = new int[maxGroupLength(L)];
+    reader.alignToByte();
     for (int i = 0; i < NG; i++) {
       //System.out.println( "DS NB[ i ]=" + NB[ i ] );
       //System.out.println( "DS L[ i ]=" + L[ i ] );
       //System.out.println( "DS X1[ i ]=" + X1[ i ] );
+      if (NB[i] != 0)
+        reader.unpack(NB[i], L[i], groupX2, 0);
       for (int j = 0; j < L[i]; j++) {
         if (NB[i] == 0) {
           if (mvm == 0) {  // X2 = 0
@@ -407,7 +445,7 @@ public final class Grib2DataSection {
             data[count++] = mv;
           }
         } else {
-          X2 = bits2UInt(NB[i], raf);
+          X2 = groupX2[j];
           if (mvm == 0) {
             data[count++] = (R + (X1[i] + X2) * EE) / DD;
           } else { //if (mvm == 1) || (mvm == 2 )
@@ -492,26 +530,25 @@ public final class Grib2DataSection {
     int os = drs.getOrderSpatial();
     int nbitsd = drs.getDescriptorSpatial();
     //System.out.println( "DS os=" + os +" ds =" + ds );
-    bitPos = 0;
-    bitBuf = 0;
+    GribBitReader reader = new GribBitReader(raf, length - 5);
     int sign;
     // ds is number of bytes, convert to bits -1 for sign bit
     nbitsd = nbitsd * 8;
     if (nbitsd > 0 ) {         // first order spatial differencing g1 and gMin
-      sign = bits2UInt(1, raf);
-      ival1 = bits2UInt(nbitsd -1, raf);
+      sign = reader.bits2UInt(1);
+      ival1 = reader.bits2UInt(nbitsd -1);
       if (sign == 1) {
         ival1 = -ival1;
       }
       if (os == 2) {  //second order spatial differencing h1, h2, hMin
-        sign = bits2UInt(1, raf);
-        ival2 = bits2UInt(nbitsd -1, raf);
+        sign = reader.bits2UInt(1);
+        ival2 = reader.bits2UInt(nbitsd -1);
         if (sign == 1) {
           ival2 = -ival2;
         }
       }
-      sign = bits2UInt(1, raf);
-      minsd = bits2UInt(nbitsd -1, raf);
+      sign = reader.bits2UInt(1);
+      minsd = reader.bits2UInt(nbitsd -1);
       if (sign == 1) {
         minsd = -minsd;
       }
@@ -551,16 +588,8 @@ public final class Grib2DataSection {
     int nb = drs.getNumberOfBits();
     //System.out.println( "DS nb=" + nb );
     if ( nb != 0 ) {
-      bitPos = 0;
-      bitBuf = 0;
-      for (int i = 0; i < NG; i++) {
-        X1[i] = bits2UInt(nb, raf);
-        //System.out.println( "DS X1[ i ]=" + X1[ i ] );
-      }
-    } else {
-      for (int i = 0; i < NG; i++) {
-        X1[i] = 0;
-      }
+      reader.alignToByte();
+      reader.unpack(nb, NG, X1, 0);
     }
 
     // [xx +1 ]-yy Get number of bits used to encode each group
@@ -569,16 +598,8 @@ public final class Grib2DataSection {
     nb = drs.getBitsGroupWidths();
     //System.out.println( "DS nb=" + nb );
     if ( nb != 0 ) {
-      bitPos = 0;
-      bitBuf = 0;
-      for (int i = 0; i < NG; i++) {
-        NB[i] = bits2UInt(nb, raf);
-        //System.out.println( "DS X1[ i ]=" + X1[ i ] );
-      }
-    } else {
-      for (int i = 0; i < NG; i++) {
-        NB[i] = 0;
-      }
+      reader.alignToByte();
+      reader.unpack(nb, NG, NB, 0);
     }
 
     int referenceGroupWidths = drs.getReferenceGroupWidths();
@@ -600,17 +621,9 @@ public final class Grib2DataSection {
     //System.out.println( "DS nb=" + nb );
     int len_inc = drs.getLengthIncrement();
 
-    bitPos = 0;
-    bitBuf = 0;
-
+    reader.alignToByte();
     if (nb != 0) {
-      for (int i = 0; i < NG; i++) {   
-        L[i] = bits2UInt(nb, raf);
-
-      }
-    } else {
-      for (int i = 0; i < NG; i++)
-        L[i] = 0;
+      reader.unpack(nb, NG, L, 0);
     }
     int totalL = 0;
     //System.out.println( "DS NG=" + NG );
@@ -672,8 +685,8 @@ public final class Grib2DataSection {
 //                     E = THE BINARY SCALE FACTOR
 //                     D = THE DECIMAL SCALE FACTOR
     count = 0;
-    bitPos = 0;
-    bitBuf = 0;
+    reader.alignToByte();
+    int[] groupX2 = new int[maxGroupLength(L)];
     int dataSize = 0;
     boolean[] dataBitMap = null;
     if (mvm == 0) {
@@ -682,8 +695,9 @@ public final class Grib2DataSection {
       //System.out.println( "DS L[ i ]=" + L[ i ] );
       //System.out.println( "DS X1[ i ]=" + X1[ i ] );
         if (NB[i] != 0) {
+            reader.unpack(NB[i], L[i], groupX2, 0);
             for (int j = 0; j < L[i]; j++)
-              data[count++] = bits2UInt(NB[i], raf) +X1[i];
+              data[count++] = groupX2[j] +X1[i];
         } else {
             for (int j = 0; j < L[i]; j++)
               data[count++] = X1[i];
@@ -704,8 +718,9 @@ public final class Grib2DataSection {
         if (NB[i] != 0) {
             int msng1 = bitsmv1[ NB[i] ];
             int msng2 = msng1 -1;
+            reader.unpack(NB[i], L[i], groupX2, 0);
             for (int j = 0; j < L[i]; j++) {
-              data[count] = bits2UInt(NB[i], raf);
+              data[count] = groupX2[j];
               if ( data[count] == msng1 ) {
                 dataBitMap[ count ] = false;
               } else if ( mvm == 2 && data[count] == msng2 ) {
@@ -878,31 +893,10 @@ public final class Grib2DataSection {
     float EE = (float) java.lang.Math.pow((double) 2.0, (double) E);
     //System.out.println( "DS EE=" + EE );
 
-    Grib2JpegDecoder g2j = null;
-    int numberPoints = 0;
+    int numberPoints = gds.getGdsVars().getNumberPoints();
+    //System.out.println( "DS GDS NumberPoints=" +  gds.getNumberPoints() );
+    data = new float[numberPoints];
     try {
-      if (nb != 0) {  // there's data to decode
-        String[] argv = new String[4];
-        argv[0] = "-rate";
-        argv[1] = Integer.toString(nb);
-        argv[2] = "-verbose";
-        argv[3] = "off";
-        //argv[ 4 ] = "-debug" ;
-        //argv[ 2 ] = "-nocolorspace" ;
-        //argv[ 3 ] = "-Rno_roi" ;
-        //argv[ 4 ] = "-cdstr_info" ;
-        //argv[ 5 ] = "-verbose" ;
-        g2j = new Grib2JpegDecoder(argv);
-        // how jpeg2000.jar use to decode, used raf
-        //g2j.decode(raf, length - 5);
-        // jpeg-1.0.jar added method to have the data read first
-        byte[] buf = new byte[ length - 5 ];
-        raf.read( buf );
-        g2j.decode( buf );
-      }
-      numberPoints = gds.getGdsVars().getNumberPoints();
-      //System.out.println( "DS GDS NumberPoints=" +  gds.getNumberPoints() );
-      data = new float[numberPoints];
       boolean[] bitmap = bms.getBitmap();
 
       if (nb == 0) {  // no data to decoded, set to reference or  MissingValue
@@ -913,83 +907,93 @@ public final class Grib2DataSection {
           for (int i = 0; i < numberPoints; i++)
             data[i] = mv;
         }
-      } else if (bitmap == null) {
-        //System.out.println( "DS jpeg data length ="+ g2j.data.length );
-        if (g2j.data.length != numberPoints) {
-          data = null;
-          return;
+      } else {  // there's data to decode
+        byte[] buf = new byte[ length - 5 ];
+        int nread = Math.max(raf.read( buf ), 0);
+        // Y = (R + ( 0 + X2) * EE)/DD, decoded straight into data
+        Grib2JpegDecoder g2j = getJpegDecoder();
+        int n, decoded;
+        try {
+          n = g2j.decode(ByteBuffer.wrap(buf, 0, nread), nb, data, R, EE, DD);
+          decoded = g2j.getValueCount();
+        } finally {
+          jpegDecoders.offer(g2j);
         }
-        for (int i = 0; i < numberPoints; i++) {
-          //Y = (R + ( 0 + X2) * EE)/DD ;
-          data[i] = (R + g2j.data[i] * EE) / DD;
-          //System.out.println( "DS data[ " + i +"  ]=" + data[ i ] );
+        if (n < 0) {
+          if (decoded == 0) {  // no image came out of the decoder at rate nb
+            bitRateTooSmall(raf, nb, mv);
+          } else {  // the image does not fit the grid
+            logger.error("Grib2DataSection.jpeg2000Unpacking: decoded "+ decoded +
+              " values for "+ numberPoints +" points in file "+ raf.getLocation());
+            data = null;
+          }
+          return;
         }
-      } else {  // use bitmap
-        for (int i = 0, j = 0; i < bitmap.length; i++) {
-          if (bitmap[i]) {
-            data[i] = (R + g2j.data[j++] * EE) / DD;
-          } else {
-            data[i] = mv;
+
+        if (bitmap == null) {
+          //System.out.println( "DS jpeg data length ="+ n );
+          if (n != numberPoints) {
+            data = null;
+            return;
+          }
+        } else {  // use bitmap
+          int count = GribBitReader.countBits(bitmap);
+          if (n < count) {
+            data = null;
+            return;
           }
+          GribBitReader.expandBitmap(data, bitmap, count, mv);
         }
       }
     } catch (NullPointerException npe) {
-      logger.error("Grib2DataSection.jpeg2000Unpacking: bit rate too small nb ="+
-        nb +" for file"+ raf.getLocation());
-      if ( debug ) {
-        System.out.println("Grib2DataSection.jpeg2000Unpacking: bit rate too small nb ="+
-        nb +" for file"+ raf.getLocation());
-        long starting = raf.getFilePointer() - (long) length;
-        System.out.println("location =" + starting);
-      }  
-      for (int i = 0; i < numberPoints; i++) {
-        data[i] = mv;
-      }
+      bitRateTooSmall(raf, nb, mv);
       return;
     }
     scanMode = gds.getGdsVars().getScanMode();
     scanningModeCheck();
   }  // end jpeg2000Unpacking
 
-
   /**
-   * Convert bits (nb) to Unsigned Int .
-   *
-   * @param nb  the number of bits to convert to int
-   * @param raf file handle
-   * @return int of DataSections section
-   * @throws IOException   exception
+   * The jpeg2000 data could not be decoded, set the data to the missing value.
    */
-  private int bits2UInt(int nb, RandomAccessFile raf) throws IOException {
-    int bitsLeft = nb;
-    int result = 0;
-
-    if (bitPos == 0) {
-      bitBuf = raf.read();
-      bitPos = 8;
+  private void bitRateTooSmall(RandomAccessFile raf, int nb, float mv) throws IOException {
+    logger.error("Grib2DataSection.jpeg2000Unpacking: bit rate too small nb ="+
+      nb +" for file"+ raf.getLocation());
+    if ( debug ) {
+      System.out.println("Grib2DataSection.jpeg2000Unpacking: bit rate too small nb ="+
+      nb +" for file"+ raf.getLocation());
+      long starting = raf.getFilePointer() - (long) length;
+      System.out.println("location =" + starting);
     }
+    for (int i = 0; i < data.length; i++) {
+      data[i] = mv;
+    }
+  }
 
-    while (true) {
-      int shift = bitsLeft - bitPos;
-      if (shift > 0) {
-        // Consume the entire buffer
-        result |= bitBuf << shift;
-        bitsLeft -= bitPos;
-
-        // Get the next byte from the RandomAccessFile
-        bitBuf = raf.read();
-        bitPos = 8;
-      } else {
-        // Consume a portion of the buffer
-        result |= bitBuf >> -shift;
-        bitPos -= bitsLeft;
-        bitBuf &= 0xff >> (8 - bitPos);  // mask off consumed bits
+  /**
+   * Take a jpeg2000 decoder from the pool, or make a new one.
+   * Return it with jpegDecoders.offer() when done.
+   *
+   * @return decoder used by this thread only, until returned
+   */
+  static private Grib2JpegDecoder getJpegDecoder() {
+    Grib2JpegDecoder g2j = jpegDecoders.poll();
+    return (g2j != null) ? g2j : new Grib2JpegDecoder();
+  }
 
-        return result;
-      }
-    }                                        // end while
-  }                                            // end bits2UInt
 
+  /**
+   * Largest group length, for sizing the buffer that holds one group of X2 values.
+   *
+   * @param L group lengths
+   * @return largest length, at least 0
+   */
+  private static int maxGroupLength(int[] L) {
+    int max = 0;
+    for (int len : L)
+      max = Math.max(max, len);
+    return max;
+  }
   /**
    * Rearrange the data array using the scanning mode.
    */
@@ -77,6 +77,11 @@ public class Grib2WriteIndex {
    */
   public static int indexRafBufferSize = 300;
 
+  /*
+   * buffer size while indexing, when not the default indexRafBufferSize
+   */
+  private int indexBufferSize = 0;
+
   /**
    * Maintain index type, either text or binary on extend
    * when true cause double read of text index, so it's expensive
@@ -174,7 +179,7 @@ public class Grib2WriteIndex {
     int count = 0;
     // set buffer size for performance
     int rafBufferSize = inputRaf.getBufferSize();
-    inputRaf.setBufferSize(indexRafBufferSize);
+    inputRaf.setBufferSize(getIndexBufferSize());
 
     try {
       inputRaf.seek(0);
@@ -420,7 +425,7 @@ public class Grib2WriteIndex {
     int count = 0;
     // set buffer size for performance
     int rafBufferSize = inputRaf.getBufferSize();
-    inputRaf.setBufferSize(indexRafBufferSize);
+    inputRaf.setBufferSize(getIndexBufferSize());
 
     try {
       // get oldIndex in raw format
@@ -824,6 +829,20 @@ public class Grib2WriteIndex {
     verbose = flag;
   }
 
+  /**
+   * Set the buffer size of the GRIB file while indexing. The default indexRafBufferSize is small,
+   * so that the data sections are skipped; a large buffer reads the file sequentially.
+   *
+   * @param size buffer size in bytes, 0 for indexRafBufferSize
+   */
+  public void setIndexBufferSize(int size) {
+    indexBufferSize = size;
+  }
+
+  private int getIndexBufferSize() {
+    return (indexBufferSize > 0) ? indexBufferSize : indexRafBufferSize;
+  }
+
   /**
    * creates a Grib2 index for given Grib2 file.
    *
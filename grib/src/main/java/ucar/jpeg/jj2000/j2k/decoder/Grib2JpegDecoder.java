@@ -93,6 +93,18 @@ public class Grib2JpegDecoder {
     /** the decoded image data */
     public int[] data;
 
+    /** The number of values decoded by the last decode */
+    private int nvalues;
+
+    /** The work array for decodes into float values, kept between calls */
+    private int[] work;
+
+    /** True once the parameter list has been checked */
+    private boolean checked = false;
+
+    /** The default parameter list, shared by all decoders */
+    private static ParameterList defaults;
+
     /** Parses the inputstream to analyze the box structure of the JP2
      * file. */
     private ColorSpace csMap = null;
@@ -250,13 +262,7 @@ public class Grib2JpegDecoder {
 
         // Initialize default parameters
         //System.err.println("calling Grib2JpegDecoder with argv argument");
-        defpl = new ParameterList();
-        String[][] param = Grib2JpegDecoder.getAllParameters();
-
-        for (int i=param.length-1; i>=0; i--) {
-            if(param[i][3]!=null)
-                defpl.put(param[i][0],param[i][3]);
-        }
+        defpl = getDefaults();
 
         // Create parameter list using defaults
         pl = new ParameterList(defpl);
@@ -276,6 +282,36 @@ public class Grib2JpegDecoder {
         }
     } // end Grib2JpegDecoder constructor
 
+    /**
+     * Instantiates a decoder to be reused for many codestreams, with verbose
+     * output off. The decoding rate is given to each decode.
+     *
+     * @see #decode(java.nio.ByteBuffer,int,int[])
+     * */
+    public Grib2JpegDecoder() {
+        defpl = getDefaults();
+        pl = new ParameterList(defpl);
+        pl.put("verbose","off");
+    }
+
+    /**
+     * Returns the default parameters of all the decoding modules. They are
+     * collected once, and not modified afterwards.
+     * */
+    private static synchronized ParameterList getDefaults() {
+        if (defaults == null) {
+            ParameterList dpl = new ParameterList();
+            String[][] param = Grib2JpegDecoder.getAllParameters();
+
+            for (int i=param.length-1; i>=0; i--) {
+                if(param[i][3]!=null)
+                    dpl.put(param[i][0],param[i][3]);
+            }
+            defaults = dpl;
+        }
+        return defaults;
+    }
+
     /**
      * Returns the exit code of the class. This is only initialized after the
      * constructor and when the run method returns.
@@ -286,6 +322,16 @@ public class Grib2JpegDecoder {
         return exitCode;
     }
 
+    /**
+     * Returns the number of values in the last decoded image, or 0 if the
+     * decoding chain failed before an image was decoded.
+     *
+     * @return width*height of the last decoded image
+     * */
+    public int getValueCount() {
+        return nvalues;
+    }
+
     /**
      * Returns the parameters that are used in this class. It returns a 2D
      * String array. Each of the 1D arrays is for a different option, and they
@@ -308,10 +354,101 @@ public class Grib2JpegDecoder {
      * @see #getExitCode
      * */
     public void decode( byte buf[] ) {
-        int dataSize = buf.length;
+        data = decode(new ByteBufferRandomAccessIO(buf, 0, buf.length), null,
+                      true);
+    }
+
+    /**
+     * Decodes a codestream straight into the caller's array. The decoder can
+     * be reused for any number of codestreams, but by only one thread at a
+     * time: the parameters are parsed and checked once, only the decoding
+     * chain, which depends on the codestream headers, is built per call.
+     *
+     * @param buf the codestream, from its position to its limit; read in
+     * place, the position is not changed
+     *
+     * @param rate the decoding rate in bits per pixel, ie the number of bits
+     * of the packed GRIB2 values
+     *
+     * @param dest receives the decoded values in raster order, it must hold
+     * at least width*height values
+     *
+     * @return the number of values decoded, or -1 if decoding failed (see
+     * getExitCode())
+     * */
+    public int decode(java.nio.ByteBuffer buf, int rate, int dest[]) {
+        setRate(rate);
+        return (decode(new ByteBufferRandomAccessIO(buf), dest, false) == null) ?
+            -1 : nvalues;
+    }
+
+    /**
+     * Decodes a codestream and scales the values into the caller's array,
+     * dest[i] = (ref + value * scale) / div, as GRIB2 does. The integer
+     * values are decoded into a work array that is kept for the next call.
+     *
+     * @param buf the codestream, from its position to its limit
+     *
+     * @param rate the decoding rate in bits per pixel
+     *
+     * @param dest receives the scaled values in raster order, it must hold at
+     * least width*height values
+     *
+     * @param ref the reference value
+     *
+     * @param scale the binary scale, 2^E
+     *
+     * @param div the decimal scale, 10^D
+     *
+     * @return the number of values decoded, or -1 if decoding failed
+     *
+     * @see #decode(java.nio.ByteBuffer,int,int[])
+     * */
+    public int decode(java.nio.ByteBuffer buf, int rate, float dest[],
+                      float ref, float scale, float div) {
+        setRate(rate);
+        work = decode(new ByteBufferRandomAccessIO(buf), work, true);
+        if (work == null) {
+            return -1;
+        }
+        if (dest.length < nvalues) {
+            error("Decoded image of "+nvalues+" values is larger than the "+
+                  "array", 2);
+            return -1;
+        }
+        for (int i = 0; i < nvalues; i++) {
+            dest[i] = (ref + work[i] * scale) / div;
+        }
+        return nvalues;
+    }
+
+    /**
+     * Sets the decoding rate for the next decode.
+     * */
+    private void setRate(int rate) {
+        String r = Integer.toString(rate);
+        if (!r.equals(pl.getProperty("rate"))) {
+            pl.put("rate", r);
+        }
+    }
+
+    /**
+     * Runs the decoding chain on a codestream.
+     *
+     * @param in the codestream
+     *
+     * @param dest receives the decoded values of the image, may be null if
+     * grow is true
+     *
+     * @param grow if dest is null or too small, allocate a new array of
+     * exactly width*height values instead of failing
+     *
+     * @return dest or the new array, holding nvalues values, or null if
+     * decoding failed
+     * */
+    private int[] decode(RandomAccessIO in, int dest[], boolean grow) {
         boolean verbose;
 	int res; // resolution level to reconstruct
-        RandomAccessIO in;
         FileFormatReader ff;
         BitstreamReaderAgent breader;
         HeaderDecoder hd;
@@ -320,7 +457,6 @@ public class Grib2JpegDecoder {
         Dequantizer deq;
         InverseWT invWT;
         InvCompTransf ictransf;
-        ImgWriter imwriter[] = null;
 	ImgDataConverter converter;
         DecoderSpecs decSpec = null;
 	BlkImgDataSrc palettized;
@@ -332,6 +468,8 @@ public class Grib2JpegDecoder {
         float rate;
         int nbytes;
 
+        exitCode = 0;
+        nvalues = 0;
         try {
 
             // **** Usage and version ****
@@ -343,7 +481,7 @@ public class Grib2JpegDecoder {
                 // Do we print usage information?
                 if (pl.getParameter("u").equals("on")) {
                     printUsage();
-                    return; // When printing usage => exit
+                    return null; // When printing usage => exit
                 }
                 // Do we print info ?
                 verbose = pl.getBooleanParameter("verbose");
@@ -355,7 +493,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             } catch (NumberFormatException e) {
                 error("An error occured while parsing the arguments:\n"+
                       e.getMessage(),1);
@@ -364,30 +502,25 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
 
             // **** Check parameters ****
-            try {
-                pl.checkList(vprfxs,pl.toNameArray(pinfo));
-            } catch (IllegalArgumentException e) {
-                error(e.getMessage(),2);
-                if(pl.getParameter("debug").equals("on")) {
-                    e.printStackTrace();
-                } else {
-                    error("Use '-debug' option for more details",2);
+            // (only the rate changes between calls, so once is enough)
+            if (!checked) {
+                try {
+                    pl.checkList(vprfxs,pl.toNameArray(pinfo));
+                } catch (IllegalArgumentException e) {
+                    error(e.getMessage(),2);
+                    if(pl.getParameter("debug").equals("on")) {
+                        e.printStackTrace();
+                    } else {
+                        error("Use '-debug' option for more details",2);
+                    }
+                    return null;
                 }
-                return;
+                checked = true;
             }
-            
-            // create a byte buf from raf for ISRandomAccessIO
-            //System.out.println("raf processing Grib2JpegDecoder");
-
-            //byte buf[] = new byte[ dataSize ];
-            //raf.read( buf );
-	    ByteArrayInputStream bais = new ByteArrayInputStream(buf);
-
-            in = new ISRandomAccessIO(bais,dataSize,1,dataSize );
 
 
             // **** File Format ****
@@ -417,7 +550,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-		return;
+		return null;
 	    }
 
 	    int nCompCod = hd.getNumComps();
@@ -463,7 +596,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             } catch (IllegalArgumentException e) {
                 error("Cannot instantiate bit stream reader"+
                           ((e.getMessage() != null) ?
@@ -473,7 +606,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
 
             // **** Entropy decoder ****
@@ -488,7 +621,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
             
             // **** ROI de-scaler ****
@@ -503,7 +636,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
                 
             // **** Dequantizer ****
@@ -518,7 +651,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
 
             // **** Inverse wavelet transform ***
@@ -534,7 +667,7 @@ public class Grib2JpegDecoder {
                 } else {
                     error("Use '-debug' option for more details",2);
                 }
-                return;
+                return null;
             }
 
 	    res = breader.getImgRes();
@@ -568,12 +701,12 @@ public class Grib2JpegDecoder {
 		    error("Could not instantiate ICC profiler"+
 			  ((e.getMessage() != null) ?
 			   (":\n"+e.getMessage()) : ""),1,e);
-		    return; 
+		    return null; 
 		} catch (ColorSpaceException e) {
 		    error("error processing jp2 colorspace information"+
 			  ((e.getMessage() != null) ?
 			   (": "+e.getMessage()) : "    "),1,e);
-		    return; }
+		    return null; }
 	    } else { // Skip colorspace mapping
                  color = ictransf; 
 	    }
@@ -603,56 +736,60 @@ public class Grib2JpegDecoder {
 	    }
 
             // code to get data
-	    // **** Decode and write/display result ****
-		
-	    imwriter = new ImgWriter[nCompImg];
-		// Now write the image to the array (decodes as needed)
-		boolean isSigned = false;
-		for(i=0; i<imwriter.length; i++) {
-                        try {
-			    if(csMap!=null) {
-				isSigned = csMap.isOutputSigned(i);
-				imwriter[i] = new ImgWriterArray(decodedImage,i,
-						     csMap.isOutputSigned(i));
-                                //System.out.println( "csMap!=null" );
-			    } else {
-				isSigned = hd.isOriginalSigned(i);
-				imwriter[i] = new ImgWriterArray(decodedImage,i,
-						     hd.isOriginalSigned(i));
-                                //System.out.println( "csMap==null" );
-			    }
-                        } catch (IOException e) {
-                            if(pl.getParameter("debug").equals("on")) {
-                                e.printStackTrace();
-                            } else {
-                                error("Use '-debug' option for more "+
-                                      "details",2);
-                            }
-                            return;
-                        }
-		    try {
-			imwriter[i].writeAll(); // write data to array
-                        ImgWriterArray iwa = (ImgWriterArray) imwriter[i];
-			data = iwa.getGdata();
-			// unSigned data processing here
-                	//System.out.println("[INFO]: isSigned = " + isSigned);
-			if( ! isSigned ) {
-				float unSignIt = (float) java.lang.Math.pow( 
-				(double)2.0, 
-				(double)pl.getFloatParameter("rate") -1);	
-				for( int j = 0; j < data.length; j++ )
-					data[ j ] += unSignIt;
-			}
-			packBytes = iwa.getPackBytes();
-		    } catch (IOException e) {
-                        if(pl.getParameter("debug").equals("on")) {
-                            e.printStackTrace();
-                        } else {
-                            error("Use '-debug' option for more details",2);
-                        }
-			return;
+	    // **** Decode straight into the array ****
+	    // GRIB2 fields have a single component. The tiles are decoded one
+	    // after the other and each is copied to its place in the image.
+	    int c = 0;
+	    boolean isSigned = (csMap!=null) ? csMap.isOutputSigned(c) :
+		hd.isOriginalSigned(c);
+	    int bitDepth = decodedImage.getNomRangeBits(c);
+	    if((bitDepth<=0)||(bitDepth>31)) {
+		error("Array supports only bit-depth between 1 and 31",2);
+		return null;
+	    }
+	    packBytes = (bitDepth<=8) ? 1 : (bitDepth<=16) ? 2 : 4;
+
+	    int w = decodedImage.getCompImgWidth(c);
+	    int h = decodedImage.getCompImgHeight(c);
+	    if(grow && (dest==null || dest.length<w*h)) {
+		dest = new int[w*h];
+	    } else if(dest.length<w*h) {
+		error("Decoded image of "+(w*h)+" values is larger than the "+
+		      "array",2);
+		return null;
+	    }
+
+	    Coord nT = decodedImage.getNumTiles(null);
+	    for(int ty=0, y0=0; ty<nT.y; ty++) {
+		int th = 0;
+		for(int tx=0, x0=0; tx<nT.x; tx++) {
+		    decodedImage.setTile(tx,ty);
+		    int tIdx = decodedImage.getTileIdx();
+		    int tw = decodedImage.getTileCompWidth(tIdx,c);
+		    th = decodedImage.getTileCompHeight(tIdx,c);
+		    DataBlkInt db = new DataBlkInt(0,0,tw,th);
+		    // Request the data and make sure it is not progressive
+		    do {
+			db = (DataBlkInt) decodedImage.getInternCompData(db,c);
+		    } while (db.progressive);
+		    for(int row=0; row<th; row++) {
+			System.arraycopy(db.data,db.offset+row*db.scanw,
+					 dest,(y0+row)*w+x0,tw);
 		    }
-		} // end for(i=0; i<imwriter.length; i++)
+		    x0 += tw;
+		}
+		y0 += th;
+	    }
+
+	    // unSigned data processing here
+	    if( ! isSigned ) {
+		float unSignIt = (float) java.lang.Math.pow(
+			(double)2.0,
+			(double)pl.getFloatParameter("rate") -1);
+		for( int j = 0; j < w*h; j++ )
+		    dest[ j ] += unSignIt;
+	    }
+	    nvalues = w*h;
 
 	    // **** Print some resulting info ****
 	    if(verbose) {
@@ -674,12 +811,13 @@ public class Grib2JpegDecoder {
 			"Number of packet body bytes read = "+numBytes);
 		}
 	    }
+	    return dest;
 		
         } catch (IllegalArgumentException e) {
 	    error(e.getMessage(),2);
             if(pl.getParameter("debug").equals("on"))
                 e.printStackTrace();
-	    return;
+	    return null;
 	} catch (Error e) {
             if(e.getMessage()!=null) {
                 error(e.getMessage(),2);
@@ -692,7 +830,7 @@ public class Grib2JpegDecoder {
             } else {
                 error("Use '-debug' option for more details",2);
             }
-            return;
+            return null;
         } catch (RuntimeException e) {
             if(e.getMessage()!=null) {
                 error("An uncaught runtime exception has occurred:\n"+
@@ -705,7 +843,7 @@ public class Grib2JpegDecoder {
             } else {
                 error("Use '-debug' option for more details",2);
             }
-            return;
+            return null;
         } catch (Throwable e) {
             error("An uncaught exception has occurred.",2);
             if(pl.getParameter("debug").equals("on")) {
@@ -713,7 +851,7 @@ public class Grib2JpegDecoder {
             } else {
                 error("Use '-debug' option for more details",2);
             }
-            return;
+            return null;
         }
     } // end decode
 
@@ -0,0 +1,242 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.jpeg.jj2000.j2k.util;
+
+import ucar.jpeg.jj2000.j2k.io.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only RandomAccessIO over the remaining bytes of a ByteBuffer, heap or direct.
+ * Unlike ISRandomAccessIO nothing is copied: the codestream is read in place, so a GRIB2
+ * data section that is already in memory can be handed to the decoder as it is.
+ * The buffer's position and limit are not changed.
+ *
+ * <p>Multi-byte data is read in big-endian order.</p>
+ *
+ * @author caron
+ */
+public class ByteBufferRandomAccessIO implements RandomAccessIO {
+
+    /** The data, with position 0 at the buffer's position when wrapped */
+    private ByteBuffer buf;
+
+    /** The current position */
+    private int pos;
+
+    /** The length of the data */
+    private int len;
+
+    /**
+     * Wraps the remaining bytes of the buffer.
+     *
+     * @param bb the codestream, from its position to its limit
+     * */
+    public ByteBufferRandomAccessIO(ByteBuffer bb) {
+        buf = bb.slice();
+        len = buf.remaining();
+        pos = 0;
+    }
+
+    /**
+     * Wraps a section of a byte array.
+     *
+     * @param b the array
+     * @param off start of the codestream in b
+     * @param n length of the codestream
+     * */
+    public ByteBufferRandomAccessIO(byte b[], int off, int n) {
+        this(ByteBuffer.wrap(b, off, n));
+    }
+
+    /**
+     * Releases the reference to the buffer.
+     * */
+    public void close() throws IOException {
+        buf = null;
+    }
+
+    public int getPos() throws IOException {
+        return pos;
+    }
+
+    /**
+     * Moves the current position for the next read operation to offset.
+     *
+     * @exception EOFException If seeking beyond the end of the data.
+     * */
+    public void seek(int off) throws IOException {
+        if (off > len) {
+            throw new EOFException();
+        }
+        pos = off;
+    }
+
+    public int length() throws IOException {
+        return len;
+    }
+
+    public int read() throws IOException {
+        if (pos >= len) {
+            throw new EOFException();
+        }
+        return 0xFF & buf.get(pos++);
+    }
+
+    public void readFully(byte b[], int off, int n) throws IOException {
+        if (pos+n > len) {
+            throw new EOFException();
+        }
+        if (buf.hasArray()) {
+            System.arraycopy(buf.array(),buf.arrayOffset()+pos,b,off,n);
+        } else {
+            for (int i=0; i<n; i++) {
+                b[off+i] = buf.get(pos+i);
+            }
+        }
+        pos += n;
+    }
+
+    /**
+     * @return Always EndianType.BIG_ENDIAN.
+     * */
+    public int getByteOrdering() {
+        return EndianType.BIG_ENDIAN;
+    }
+
+    public byte readByte() throws IOException {
+        if (pos >= len) {
+            throw new EOFException();
+        }
+        return buf.get(pos++);
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return read();
+    }
+
+    public short readShort() throws IOException {
+        need(2);
+        short v = buf.getShort(pos);
+        pos += 2;
+        return v;
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return 0xFFFF & readShort();
+    }
+
+    public int readInt() throws IOException {
+        need(4);
+        int v = buf.getInt(pos);
+        pos += 4;
+        return v;
+    }
+
+    public long readUnsignedInt() throws IOException {
+        return 0xFFFFFFFFL & readInt();
+    }
+
+    public long readLong() throws IOException {
+        need(8);
+        long v = buf.getLong(pos);
+        pos += 8;
+        return v;
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Skips n bytes from the input.
+     *
+     * @exception EOFException If the end of the data was reached before all the
+     * bytes could be skipped.
+     * */
+    public int skipBytes(int n) throws IOException {
+        if (pos+n > len) {
+            throw new EOFException();
+        }
+        pos += n;
+        return n;
+    }
+
+    private void need(int n) throws EOFException {
+        if (pos+n > len) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * Does nothing since this class does not implement data output.
+     * */
+    public void flush() { /* no-op */
+    }
+
+    /**
+     * Throws an IOException since this class does not implement data output.
+     * */
+    public void write(int b) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeByte(int v) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeShort(int v) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeInt(int v) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeLong(long v) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeFloat(float v) throws IOException {
+        throw new IOException("read-only");
+    }
+
+    public void writeDouble(double v) throws IOException {
+        throw new IOException("read-only");
+    }
+}
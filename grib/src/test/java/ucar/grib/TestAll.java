@@ -133,6 +133,10 @@ public class TestAll {
     suite.addTest( ucar.grib.grib2.TestGrib2Indexer.suite());
     suite.addTest( ucar.grib.grib2.TestGrib2Data.suite()); // */
 
+    // bit unpacking
+    suite.addTest( new TestSuite(ucar.grib.TestGribBitReader.class));
+    suite.addTest( new TestSuite(ucar.grib.grib2.TestJpeg2000Decoder.class));
+
     // Test for record duplication in a Grib file
     suite.addTest(  ucar.grib.TestForDupsInGribIndex.suite() );
       
@@ -0,0 +1,222 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.grib;
+
+import junit.framework.TestCase;
+
+import ucar.unidata.io.RandomAccessFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compare GribBitReader against the original byte at a time bit reader.
+ *
+ * @author caron
+ */
+public class TestGribBitReader extends TestCase {
+
+  public TestGribBitReader(String name) {
+    super(name);
+  }
+
+  // the bit reader that used to be in Grib1BinaryDataSection and Grib2DataSection
+  private static class ByteAtATime {
+    byte[] buf;
+    int pos, bitBuf, bitPos;
+
+    ByteAtATime(byte[] buf) {
+      this.buf = buf;
+    }
+
+    int read() {
+      return (pos < buf.length) ? buf[pos++] & 0xff : 0;
+    }
+
+    void reset() {
+      bitPos = 0;
+      bitBuf = 0;
+    }
+
+    int bits2UInt(int nb) {
+      int bitsLeft = nb;
+      int result = 0;
+      if (bitPos == 0) {
+        bitBuf = read();
+        bitPos = 8;
+      }
+      while (true) {
+        int shift = bitsLeft - bitPos;
+        if (shift > 0) {
+          result |= bitBuf << shift;
+          bitsLeft -= bitPos;
+          bitBuf = read();
+          bitPos = 8;
+        } else {
+          result |= bitBuf >> -shift;
+          bitPos -= bitsLeft;
+          bitBuf &= 0xff >> (8 - bitPos);
+          return result;
+        }
+      }
+    }
+  }
+
+  private byte[] makeData(Random r, int n) {
+    byte[] b = new byte[n];
+    r.nextBytes(b);
+    return b;
+  }
+
+  public void testAllWidths() {
+    Random r = new Random(12345);
+    byte[] data = makeData(r, 10000);
+    for (int nb = 0; nb <= 32; nb++) {
+      for (int offset = 0; offset < 8; offset++) {
+        ByteAtATime old = new ByteAtATime(data);
+        GribBitReader reader = new GribBitReader(data, 0, data.length);
+        // start the run at an arbitrary bit offset
+        assertEquals(old.bits2UInt(offset), reader.bits2UInt(offset));
+
+        int n = (data.length * 8 - 8) / Math.max(nb, 1) - 1;
+        n = Math.min(n, 3000);
+        int[] result = new int[n];
+        reader.unpack(nb, n, result, 0);
+        for (int i = 0; i < n; i++)
+          assertEquals("nb=" + nb + " offset=" + offset + " i=" + i, old.bits2UInt(nb), result[i]);
+        assertEquals(old.bits2UInt(7), reader.bits2UInt(7));
+      }
+    }
+  }
+
+  public void testMixedGroups() {
+    Random r = new Random(999);
+    byte[] data = makeData(r, 50000);
+    ByteAtATime old = new ByteAtATime(data);
+    GribBitReader reader = new GribBitReader(data, 0, data.length);
+    int[] result = new int[100];
+    for (int group = 0; group < 1000; group++) {
+      if (r.nextInt(5) == 0) {
+        old.reset();
+        reader.alignToByte();
+      }
+      int nb = 1 + r.nextInt(32);  // the old reader loaded a byte on a 0 bit read, which a reset then skipped
+      int n = r.nextInt(result.length);
+      if (r.nextBoolean()) {
+        reader.unpack(nb, n, result, 0);
+        for (int i = 0; i < n; i++)
+          assertEquals(old.bits2UInt(nb), result[i]);
+      } else {
+        for (int i = 0; i < n; i++)
+          assertEquals(old.bits2UInt(nb), reader.bits2UInt(nb));
+      }
+    }
+  }
+
+  public void testScaled() {
+    Random r = new Random(42);
+    byte[] data = makeData(r, 100000);
+    float R = 273.15f, EE = (float) Math.pow(2.0, -3), DD = (float) Math.pow(10.0, 2);
+    for (int nb : new int[]{8, 11, 12, 16, 24}) {
+      int n = data.length * 8 / nb;
+      float[] result = new float[n];
+      new GribBitReader(data, 0, data.length).unpackScaled(nb, n, R, EE, DD, result, 0);
+      float[] linear = new float[n];
+      new GribBitReader(data, 0, data.length).unpackLinear(nb, n, R, EE, linear, 0);
+      ByteAtATime old = new ByteAtATime(data);
+      for (int i = 0; i < n; i++) {
+        int x = old.bits2UInt(nb);
+        assertEquals((R + x * EE) / DD, result[i]);
+        assertEquals(R + EE * x, linear[i]);
+      }
+    }
+  }
+
+  public void testReadPoints() throws IOException {
+    Random r = new Random(7);
+    byte[] data = makeData(r, 200000);
+    File file = File.createTempFile("TestGribBitReader", ".bin");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(new byte[123]); // data starts here
+    out.write(data);
+    out.close();
+
+    RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r");
+    try {
+      for (int nb : new int[]{0, 1, 7, 12, 16, 23, 32}) {
+        int n = (nb == 0) ? 1000 : data.length * 8 / nb;
+        int[] all = new int[n];
+        new GribBitReader(data, 0, data.length).unpack(nb, n, all, 0);
+
+        // scattered points, some close together, some far apart, unsorted
+        int[] index = new int[500];
+        for (int i = 0; i < index.length; i++)
+          index[i] = (i % 3 == 0) ? r.nextInt(n) : Math.min(n - 1, index[Math.max(0, i - 1)] + r.nextInt(5));
+        int[] result = new int[index.length];
+        GribBitReader.readPoints(raf, 123, nb, index, result);
+        for (int i = 0; i < index.length; i++)
+          assertEquals("nb=" + nb + " index=" + index[i], all[index[i]], result[i]);
+      }
+    } finally {
+      raf.close();
+      file.delete();
+    }
+  }
+
+  public void testBitmap() {
+    boolean[] bitmap = {true, false, false, true, true, false, true};
+    float[] data = new float[bitmap.length];
+    int n = GribBitReader.countBits(bitmap);
+    assertEquals(4, n);
+    for (int i = 0; i < n; i++) data[i] = i + 1;
+    GribBitReader.expandBitmap(data, bitmap, n, Float.NaN);
+    float[] expect = {1, Float.NaN, Float.NaN, 2, 3, Float.NaN, 4};
+    for (int i = 0; i < expect.length; i++)
+      assertEquals(expect[i], data[i]);
+  }
+
+  public void testPastEnd() {
+    byte[] data = {(byte) 0xff, (byte) 0xff, (byte) 0xff};
+    GribBitReader reader = new GribBitReader(data, 0, data.length);
+    int[] result = new int[4];
+    reader.unpack(16, 4, result, 0);
+    assertEquals(0xffff, result[0]);
+    assertEquals(0xff00, result[1]);
+    assertEquals(0, result[2]);
+    assertEquals(0, result[3]);
+  }
+
+}
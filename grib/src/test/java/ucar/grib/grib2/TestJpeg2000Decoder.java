@@ -0,0 +1,210 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package ucar.grib.grib2;
+
+import junit.framework.TestCase;
+
+import ucar.jpeg.jj2000.j2k.decoder.Grib2JpegDecoder;
+import ucar.jpeg.jj2000.j2k.encoder.Encoder;
+import ucar.jpeg.jj2000.j2k.util.ParameterList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Round trip fields through the jj2000 encoder, and check the reusable decoder
+ * against the original values and the one decoder per record path.
+ * main() times the two paths.
+ *
+ * @author caron
+ */
+public class TestJpeg2000Decoder extends TestCase {
+
+  public TestJpeg2000Decoder(String name) {
+    super(name);
+  }
+
+  // a smooth field with some noise, nb bits unsigned
+  static int[] makeField(int nx, int ny, int nb, long seed) {
+    Random r = new Random(seed);
+    int max = (1 << nb) - 1;
+    int[] v = new int[nx * ny];
+    for (int i = 0; i < v.length; i++) {
+      double s = Math.sin(i * 0.001) * Math.cos((i % nx) * 0.01);
+      v[i] = Math.min(max, (int) ((1 << (nb - 1)) + ((1 << (nb - 2)) - 1) * s) + r.nextInt(4));
+    }
+    return v;
+  }
+
+  // losslessly encode as a jpeg2000 codestream, tiles = "0 0" for no tiling
+  static byte[] encode(int[] v, int nx, int ny, int nb, String tiles) throws IOException {
+    File pgx = File.createTempFile("TestJpeg2000Decoder", ".pgx");
+    File j2k = File.createTempFile("TestJpeg2000Decoder", ".j2k");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pgx)));
+      out.writeBytes("PG ML + " + nb + " " + nx + " " + ny + "\n");
+      for (int x : v) {
+        if (nb <= 8) out.writeByte(x);
+        else if (nb <= 16) out.writeShort(x);
+        else out.writeInt(x);
+      }
+      out.close();
+
+      String[][] param = Encoder.getAllParameters();
+      ParameterList defpl = new ParameterList();
+      for (int i = param.length - 1; i >= 0; i--)
+        if (param[i][3] != null) defpl.put(param[i][0], param[i][3]);
+      ParameterList pl = new ParameterList(defpl);
+      pl.parseArgs(new String[]{"-i", pgx.getPath(), "-o", j2k.getPath(), "-lossless", "on",
+          "-file_format", "off", "-verbose", "off", "-tiles", tiles});
+      Encoder enc = new Encoder(pl);
+      enc.run();
+      assertEquals(0, enc.getExitCode());
+
+      byte[] buf = new byte[(int) j2k.length()];
+      DataInputStream in = new DataInputStream(new FileInputStream(j2k));
+      in.readFully(buf);
+      in.close();
+      return buf;
+    } finally {
+      pgx.delete();
+      j2k.delete();
+    }
+  }
+
+  // the way Grib2DataSection used to decode a record
+  static int[] decodeOld(byte[] buf, int nb) {
+    Grib2JpegDecoder g2j = new Grib2JpegDecoder(new String[]{"-rate", Integer.toString(nb), "-verbose", "off"});
+    g2j.decode(buf);
+    return g2j.data;
+  }
+
+  public void testReuse() throws IOException {
+    Grib2JpegDecoder g2j = new Grib2JpegDecoder();
+    int nx = 300, ny = 200;
+    for (int nb : new int[]{8, 12, 20, 12}) {
+      int[] v = makeField(nx, ny, nb, nb);
+      byte[] buf = encode(v, nx, ny, nb, "0 0");
+
+      int[] old = decodeOld(buf, nb);
+      assertEquals(v.length, old.length);
+      for (int i = 0; i < v.length; i++)
+        assertEquals(v[i], old[i]);
+
+      int[] ivals = new int[v.length];
+      assertEquals(v.length, g2j.decode(ByteBuffer.wrap(buf), nb, ivals));
+      for (int i = 0; i < v.length; i++)
+        assertEquals(v[i], ivals[i]);
+
+      float R = -3.5f, EE = 0.25f, DD = 10f;
+      float[] fvals = new float[v.length + 10];
+      assertEquals(v.length, g2j.decode(ByteBuffer.wrap(buf), nb, fvals, R, EE, DD));
+      for (int i = 0; i < v.length; i++)
+        assertEquals((R + old[i] * EE) / DD, fvals[i]);
+
+      // the codestream somewhere inside a larger, direct buffer
+      ByteBuffer bb = ByteBuffer.allocateDirect(buf.length + 20);
+      bb.position(7);
+      bb.put(buf);
+      bb.position(7);
+      bb.limit(7 + buf.length);
+      assertEquals(v.length, g2j.decode(bb, nb, ivals));
+      assertEquals(7, bb.position());
+      for (int i = 0; i < v.length; i++)
+        assertEquals(v[i], ivals[i]);
+    }
+  }
+
+  public void testTiles() throws IOException {
+    int nx = 300, ny = 200, nb = 14;
+    int[] v = makeField(nx, ny, nb, 3);
+    byte[] buf = encode(v, nx, ny, nb, "128 64");
+
+    int[] ivals = new int[v.length];
+    assertEquals(v.length, new Grib2JpegDecoder().decode(ByteBuffer.wrap(buf), nb, ivals));
+    for (int i = 0; i < v.length; i++)
+      assertEquals("index " + i, v[i], ivals[i]);
+  }
+
+  public void testErrors() throws IOException {
+    int nx = 50, ny = 40, nb = 10;
+    int[] v = makeField(nx, ny, nb, 5);
+    byte[] buf = encode(v, nx, ny, nb, "0 0");
+
+    Grib2JpegDecoder g2j = new Grib2JpegDecoder();
+    assertEquals(-1, g2j.decode(ByteBuffer.wrap(buf), nb, new int[v.length - 1]));
+    assertEquals(-1, g2j.decode(ByteBuffer.wrap(buf, 0, 10), nb, new int[v.length]));
+
+    // still usable afterwards
+    assertEquals(v.length, g2j.decode(ByteBuffer.wrap(buf), nb, new int[v.length]));
+    assertEquals(0, g2j.getExitCode());
+  }
+
+  /**
+   * Time decoding a field with a new decoder per record against a reused decoder.
+   *
+   * @param args [nx ny nb records]
+   * @throws IOException on encoding error
+   */
+  public static void main(String[] args) throws IOException {
+    int nx = (args.length > 0) ? Integer.parseInt(args[0]) : 720;
+    int ny = (args.length > 1) ? Integer.parseInt(args[1]) : 361;
+    int nb = (args.length > 2) ? Integer.parseInt(args[2]) : 12;
+    int n = (args.length > 3) ? Integer.parseInt(args[3]) : 50;
+    int[] v = makeField(nx, ny, nb, 1);
+    byte[] buf = encode(v, nx, ny, nb, "0 0");
+    float R = 200f, EE = 0.5f, DD = 10f;
+    float[] data = new float[v.length];
+    Grib2JpegDecoder g2j = new Grib2JpegDecoder();
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        int[] x = decodeOld(buf, nb);
+        float[] f = new float[x.length];
+        for (int j = 0; j < x.length; j++)
+          f[j] = (R + x[j] * EE) / DD;
+      }
+      long old = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < n; i++)
+        g2j.decode(ByteBuffer.wrap(buf), nb, data, R, EE, DD);
+      long reused = System.nanoTime() - start;
+
+      System.out.printf("%dx%d nb=%d %d bytes: new decoder per record %.2f ms/record, reused decoder %.2f ms/record%n",
+          nx, ny, nb, buf.length, old / 1e6 / n, reused / 1e6 / n);
+    }
+  }
+}
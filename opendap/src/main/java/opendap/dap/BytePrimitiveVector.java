@@ -40,6 +40,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * A vector of bytes.
@@ -169,18 +170,18 @@ public class BytePrimitiveVector extends PrimitiveVector
         // number of bytes to pad
         int pad = (modFour != 0) ? (4 - modFour) : 0;
 
-        for (int i = 0; i < vals.length; i++) {
-            vals[i] = source.readByte();
+        for (int i = 0; i < vals.length; ) {
+            int n = Math.min(vals.length - i, BLOCK_SIZE);
+            source.readFully(vals, i, n);
+            i += n;
             if (statusUI != null) {
-                statusUI.incrementByteCount(1);
+                statusUI.incrementByteCount(n);
                 if (statusUI.userCancelled())
                     throw new DataReadException("User cancelled");
             }
         }
         // pad out to a multiple of four bytes
-        byte unused;
-        for (int i = 0; i < pad; i++)
-            unused = source.readByte();
+        source.readFully(getBlock().array(), 0, pad);
         if (statusUI != null)
             statusUI.incrementByteCount(pad);
     }
@@ -199,9 +200,7 @@ public class BytePrimitiveVector extends PrimitiveVector
         // number of bytes to pad
         int pad = (modFour != 0) ? (4 - modFour) : 0;
 
-        for (int i = 0; i < vals.length; i++) {
-            sink.writeByte(vals[i]);
-        }
+        sink.write(vals);
         // pad out to a multiple of four bytes
         for (int i = 0; i < pad; i++)
             sink.writeByte(0);
@@ -218,9 +217,18 @@ public class BytePrimitiveVector extends PrimitiveVector
      */
     public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
         int count = 0;
-        for (int i = start; i <= stop; i += stride) {
-            sink.writeByte(vals[i]);
-            count++;
+        if (stride == 1) {
+            count = stop - start + 1;
+            sink.write(vals, start, count);
+        } else {
+            ByteBuffer block = getBlock();
+            for (int i = start; i <= stop; ) {
+                block.clear();
+                for (; i <= stop && block.hasRemaining(); i += stride)
+                    block.put(vals[i]);
+                sink.write(block.array(), 0, block.position());
+                count += block.position();
+            }
         }
 
         // pad out to a multiple of four bytes
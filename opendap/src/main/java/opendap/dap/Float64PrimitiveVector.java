@@ -41,6 +41,8 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 
 /**
  * A vector of doubles.
@@ -163,10 +165,16 @@ public class Float64PrimitiveVector extends PrimitiveVector
                                          ServerVersion sv,
                                          StatusUI statusUI)
             throws IOException, EOFException, DataReadException {
-        for (int i = 0; i < vals.length; i++) {
-            vals[i] = source.readDouble();
+        ByteBuffer block = getBlock();
+        DoubleBuffer view = block.asDoubleBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int n = Math.min(vals.length - i, view.capacity());
+            source.readFully(block.array(), 0, n * 8);
+            view.clear();
+            view.get(vals, i, n);
+            i += n;
             if (statusUI != null) {
-                statusUI.incrementByteCount(8);
+                statusUI.incrementByteCount(n * 8);
                 if (statusUI.userCancelled())
                     throw new DataReadException("User cancelled");
             }
@@ -183,9 +191,7 @@ public class Float64PrimitiveVector extends PrimitiveVector
      *                     exception.
      */
     public void externalize(DataOutputStream sink) throws IOException {
-        for (int i = 0; i < vals.length; i++) {
-            sink.writeDouble(vals[i]);
-        }
+        externalize(sink, 0, vals.length - 1, 1);
     }
 
     /**
@@ -198,8 +204,20 @@ public class Float64PrimitiveVector extends PrimitiveVector
      * @throws IOException thrown on any <code>OutputStream</code> exception.
      */
     public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-        for (int i = start; i <= stop; i += stride)
-            sink.writeDouble(vals[i]);
+        ByteBuffer block = getBlock();
+        DoubleBuffer view = block.asDoubleBuffer();
+        for (int i = start; i <= stop; ) {
+            view.clear();
+            if (stride == 1) {
+                int n = Math.min(stop - i + 1, view.remaining());
+                view.put(vals, i, n);
+                i += n;
+            } else {
+                for (; i <= stop && view.hasRemaining(); i += stride)
+                    view.put(vals[i]);
+            }
+            sink.write(block.array(), 0, view.position() * 8);
+        }
     }
 
     /**
@@ -42,6 +42,8 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 /**
  * A vector of shorts. (as in 16bit ints :)
@@ -163,10 +165,17 @@ public class Int16PrimitiveVector extends PrimitiveVector
                                          ServerVersion sv,
                                          StatusUI statusUI)
             throws IOException, EOFException, DataReadException {
-        for (int i = 0; i < vals.length; i++) {
-            vals[i] = (short) source.readInt();
+        ByteBuffer block = getBlock();
+        IntBuffer view = block.asIntBuffer();
+        for (int i = 0; i < vals.length; ) {
+            int n = Math.min(vals.length - i, view.capacity());
+            source.readFully(block.array(), 0, n * 4);
+            view.clear();
+            for (int j = 0; j < n; j++)
+                vals[i + j] = (short) view.get();
+            i += n;
             if (statusUI != null) {
-                statusUI.incrementByteCount(4);
+                statusUI.incrementByteCount(n * 4);
                 if (statusUI.userCancelled())
                     throw new DataReadException("User cancelled");
             }
@@ -183,9 +192,7 @@ public class Int16PrimitiveVector extends PrimitiveVector
      *                     exception.
      */
     public void externalize(DataOutputStream sink) throws IOException {
-        for (int i = 0; i < vals.length; i++) {
-            sink.writeInt((int) (vals[i]));
-        }
+        externalize(sink, 0, vals.length - 1, 1);
     }
 
     /**
@@ -198,8 +205,14 @@ public class Int16PrimitiveVector extends PrimitiveVector
      * @throws IOException thrown on any <code>OutputStream</code> exception.
      */
     public void externalize(DataOutputStream sink, int start, int stop, int stride) throws IOException {
-        for (int i = start; i <= stop; i += stride)
-            sink.writeInt((int) vals[i]);
+        ByteBuffer block = getBlock();
+        IntBuffer view = block.asIntBuffer();
+        for (int i = start; i <= stop; ) {
+            view.clear();
+            for (; i <= stop && view.hasRemaining(); i += stride)
+                view.put((int) vals[i]);
+            sink.write(block.array(), 0, view.position() * 4);
+        }
     }
 
     /**
@@ -41,6 +41,7 @@
 package opendap.dap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * A helper class for <code>DVector</code>.  It allows <code>DVector</code>,
@@ -64,6 +65,30 @@ abstract public class PrimitiveVector extends DAPNode implements ClientIO
      */
     private BaseType var;
 
+    /**
+     * Size in bytes of the blocks used to encode and decode values in bulk.
+     */
+    static protected final int BLOCK_SIZE = 16 * 1024;
+
+    static private final ThreadLocal<ByteBuffer> blocks = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BLOCK_SIZE); // big endian, as on the wire
+        }
+    };
+
+    /**
+     * Returns this thread's reusable block, cleared. Values are encoded into
+     * it through a typed view and written with one call, rather than one
+     * <code>DataOutputStream</code> call per value; decoding goes the other way.
+     *
+     * @return a big endian, array backed buffer of <code>BLOCK_SIZE</code> bytes.
+     */
+    static protected ByteBuffer getBlock() {
+        ByteBuffer block = blocks.get();
+        block.clear();
+        return block;
+    }
+
     /**
      * Constructs a new <code>PrimitiveVector</code>.
      *
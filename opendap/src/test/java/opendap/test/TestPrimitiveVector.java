@@ -0,0 +1,167 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package opendap.test;
+
+import junit.framework.TestCase;
+import opendap.dap.*;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check the bulk encoding of PrimitiveVectors against value-at-a-time DataOutputStream encoding.
+ *
+ * @author caron
+ */
+public class TestPrimitiveVector extends TestCase {
+  static final int N = 10003; // spans several blocks, and is not a multiple of 4
+
+  Random random = new Random(17);
+
+  public TestPrimitiveVector(String name) {
+    super(name);
+  }
+
+  public void testFloat32() throws IOException, DAP2Exception {
+    float[] vals = new float[N];
+    for (int i = 0; i < N; i++) vals[i] = random.nextFloat();
+    Float32PrimitiveVector pv = new Float32PrimitiveVector(new DFloat32("f"));
+    pv.setInternalStorage(vals);
+    for (int stride = 1; stride < 4; stride++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      for (int i = 1; i <= N - 2; i += stride) out.writeFloat(vals[i]);
+      assertTrue(Arrays.equals(bout.toByteArray(), externalize(pv, 1, N - 2, stride)));
+    }
+    Float32PrimitiveVector back = new Float32PrimitiveVector(new DFloat32("f"));
+    deserialize(back, externalize(pv, 0, N - 1, 1));
+    assertTrue(Arrays.equals(vals, (float[]) back.getInternalStorage()));
+  }
+
+  public void testFloat64() throws IOException, DAP2Exception {
+    double[] vals = new double[N];
+    for (int i = 0; i < N; i++) vals[i] = random.nextDouble();
+    Float64PrimitiveVector pv = new Float64PrimitiveVector(new DFloat64("d"));
+    pv.setInternalStorage(vals);
+    for (int stride = 1; stride < 4; stride++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      for (int i = 1; i <= N - 2; i += stride) out.writeDouble(vals[i]);
+      assertTrue(Arrays.equals(bout.toByteArray(), externalize(pv, 1, N - 2, stride)));
+    }
+    Float64PrimitiveVector back = new Float64PrimitiveVector(new DFloat64("d"));
+    deserialize(back, externalize(pv, 0, N - 1, 1));
+    assertTrue(Arrays.equals(vals, (double[]) back.getInternalStorage()));
+  }
+
+  public void testInt32() throws IOException, DAP2Exception {
+    int[] vals = new int[N];
+    for (int i = 0; i < N; i++) vals[i] = random.nextInt();
+    Int32PrimitiveVector pv = new UInt32PrimitiveVector(new DUInt32("i"));
+    pv.setInternalStorage(vals);
+    for (int stride = 1; stride < 4; stride++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      for (int i = 1; i <= N - 2; i += stride) out.writeInt(vals[i]);
+      assertTrue(Arrays.equals(bout.toByteArray(), externalize(pv, 1, N - 2, stride)));
+    }
+    Int32PrimitiveVector back = new Int32PrimitiveVector(new DInt32("i"));
+    deserialize(back, externalize(pv, 0, N - 1, 1));
+    assertTrue(Arrays.equals(vals, (int[]) back.getInternalStorage()));
+  }
+
+  public void testInt16() throws IOException, DAP2Exception {
+    short[] vals = new short[N];
+    for (int i = 0; i < N; i++) vals[i] = (short) random.nextInt();
+    Int16PrimitiveVector pv = new Int16PrimitiveVector(new DInt16("s"));
+    pv.setInternalStorage(vals);
+    for (int stride = 1; stride < 4; stride++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      for (int i = 1; i <= N - 2; i += stride) out.writeInt(vals[i]);
+      assertTrue(Arrays.equals(bout.toByteArray(), externalize(pv, 1, N - 2, stride)));
+    }
+    Int16PrimitiveVector back = new UInt16PrimitiveVector(new DUInt16("s"));
+    deserialize(back, externalize(pv, 0, N - 1, 1));
+    assertTrue(Arrays.equals(vals, (short[]) back.getInternalStorage()));
+  }
+
+  public void testByte() throws IOException, DAP2Exception {
+    byte[] vals = new byte[N];
+    random.nextBytes(vals);
+    BytePrimitiveVector pv = new BytePrimitiveVector(new DByte("b"));
+    pv.setInternalStorage(vals);
+    for (int stride = 1; stride < 4; stride++) {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bout);
+      int count = 0;
+      for (int i = 1; i <= N - 2; i += stride, count++) out.writeByte(vals[i]);
+      while (count++ % 4 != 0) out.writeByte(0);
+      assertTrue(Arrays.equals(bout.toByteArray(), externalize(pv, 1, N - 2, stride)));
+    }
+    BytePrimitiveVector back = new BytePrimitiveVector(new DByte("b"));
+    byte[] encoded = externalize(pv, 0, N - 1, 1);
+    assertEquals(0, encoded.length % 4);
+    deserialize(back, encoded);
+    assertTrue(Arrays.equals(vals, (byte[]) back.getInternalStorage()));
+  }
+
+  private byte[] externalize(PrimitiveVector pv, int start, int stop, int stride) throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bout);
+    if (stride == 1 && start == 0 && stop == pv.getLength() - 1)
+      pv.externalize(out);
+    else if (pv instanceof Float32PrimitiveVector)
+      ((Float32PrimitiveVector) pv).externalize(out, start, stop, stride);
+    else if (pv instanceof Float64PrimitiveVector)
+      ((Float64PrimitiveVector) pv).externalize(out, start, stop, stride);
+    else if (pv instanceof Int32PrimitiveVector)
+      ((Int32PrimitiveVector) pv).externalize(out, start, stop, stride);
+    else if (pv instanceof Int16PrimitiveVector)
+      ((Int16PrimitiveVector) pv).externalize(out, start, stop, stride);
+    else
+      ((BytePrimitiveVector) pv).externalize(out, start, stop, stride);
+    out.flush();
+    return bout.toByteArray();
+  }
+
+  private void deserialize(PrimitiveVector pv, byte[] encoded) throws IOException, DAP2Exception {
+    pv.setLength(N);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+    pv.deserialize(in, null, null);
+    assertEquals(-1, in.read());
+  }
+
+}
@@ -176,6 +176,7 @@ public class CdmRemoteController extends AbstractCommandController implements La
           size = 0;
           WritableByteChannel wbc = Channels.newChannel(out);
           NcStreamWriter ncWriter = new NcStreamWriter(ncfile, ServletUtil.getRequestBase(req));
+          ncWriter.setCompression(qb.getDeflateLevel(), qb.isShuffle());
           String query = qb.getVar() != null ? qb.getVar() : req.getQueryString();
           if ((query == null) || (query.length() == 0)) {
             log.info(UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_BAD_REQUEST, 0));
@@ -76,6 +76,10 @@ public class CdmRemoteQueryBean {
   private String variables; // (forms) all some
   private String var;
 
+  // compression of data responses
+  private String deflate, shuffle;
+  private int deflateLevel = 0;
+
   //// spatial selection
   private String spatial; // (forms) all, bb, point, stns
   private TemporalSelection temporalSelection;
@@ -180,9 +184,33 @@ public class CdmRemoteQueryBean {
       if ((spatialSelection == null) && (stn != null))
         spatialSelection = SpatialSelection.stns;
     }
+    parseCompression();
     return !fatal;
   }
 
+  private void parseCompression() {
+    if (deflate == null) return;
+    try {
+      deflateLevel = Integer.parseInt(deflate.trim());
+    } catch (NumberFormatException e) {
+      errs.format("Illegal param='deflate=%s' must be an integer 0-9%n", deflate);
+      fatal = true;
+      return;
+    }
+    if ((deflateLevel < 0) || (deflateLevel > 9)) {
+      errs.format("Illegal param='deflate=%s' must be an integer 0-9%n", deflate);
+      fatal = true;
+    }
+  }
+
+  int getDeflateLevel() {
+    return deflateLevel;
+  }
+
+  boolean isShuffle() {
+    return (shuffle != null) && shuffle.equalsIgnoreCase("true");
+  }
+
   private void parseVariablesForm() {  // from the form
     if (variables == null) {
       errs.format("form must have variables=(all|some)%n");
@@ -372,6 +400,14 @@ public class CdmRemoteQueryBean {
     return (var == null) ? null : var.split(",");
   }
 
+  public void setDeflate(String deflate) {
+    this.deflate = deflate;
+  }
+
+  public void setShuffle(String shuffle) {
+    this.shuffle = shuffle;
+  }
+
   //////// spatial
 
   public void setSpatial(String spatial) {
@@ -461,6 +497,9 @@ public class CdmRemoteQueryBean {
     if (var != null)
       f.format(" vars=%s", var);
 
+    if (deflateLevel > 0)
+      f.format(" deflate=%d shuffle=%s", deflateLevel, isShuffle());
+
     return f.toString();
   }
 }
@@ -40,15 +40,21 @@ import thredds.catalog.parser.jdom.InvCatalogFactory10;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.thredds.ThreddsDataFactory;
 import ucar.nc2.util.cache.FileCacheRaf;
+import ucar.unidata.io.BlockCache;
 import ucar.nc2.util.DiskCache2;
 import ucar.nc2.util.DiskCache;
 import ucar.nc2.ncml.Aggregation;
 import ucar.nc2.ncml.AggregationFmrc;
 import ucar.nc2.iosp.grid.GridServiceProvider;
+import ucar.nc2.iosp.grib.GribIndexingService;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.File;
 import java.io.IOException;
 
@@ -64,8 +70,10 @@ public class CdmInit {
 
   private DiskCache2 aggCache;
   private Timer timer;
+  private ExecutorService aggExecutor;
   private String fmrcDefinitionDirectory;
   private thredds.inventory.MController cacheManager;
+  private GribIndexingService gribIndexing;
 
   public void setFmrcDefinitionDirectory(String dir) {
     fmrcDefinitionDirectory = dir;
@@ -112,18 +120,36 @@ public class CdmInit {
     int min = ThreddsConfig.getInt("NetcdfFileCache.minFiles", 200);
     int max = ThreddsConfig.getInt("NetcdfFileCache.maxFiles", 400);
     int secs = ThreddsConfig.getSeconds("NetcdfFileCache.scour", 10 * 60);
+    long maxCachedData = ThreddsConfig.getBytes("NetcdfFileCache.maxCachedData", 0);
     if (max > 0) {
       NetcdfDataset.initNetcdfFileCache(min, max, secs);
-      startupLog.info("CdmInit: NetcdfDataset.initNetcdfFileCache= ["+min+","+max+"] scour = "+secs);
+      NetcdfDataset.getNetcdfFileCache().setMaxWeight(maxCachedData);
+      startupLog.info("CdmInit: NetcdfDataset.initNetcdfFileCache= ["+min+","+max+"] scour = "+secs+" maxCachedData = "+maxCachedData);
     }
 
     // HTTP file access : // allow 20 - 40 open datasets, cleanup every 10 minutes
     min = ThreddsConfig.getInt("HTTPFileCache.minFiles", 25);
     max = ThreddsConfig.getInt("HTTPFileCache.maxFiles", 40);
     secs = ThreddsConfig.getSeconds("HTTPFileCache.scour", 10 * 60);
+    boolean shareChannels = ThreddsConfig.getBoolean("HTTPFileCache.shareChannels", false);
     if (max > 0) {
-      ServletUtil.setFileCache( new FileCacheRaf(min, max, secs));
-      startupLog.info("CdmInit: HTTPFileCache.initCache= ["+min+","+max+"] scour = "+secs);
+      ServletUtil.setFileCache( new FileCacheRaf(min, max, secs, shareChannels));
+      startupLog.info("CdmInit: HTTPFileCache.initCache= ["+min+","+max+"] scour = "+secs+" shareChannels = "+shareChannels);
+    }
+
+    // shared block cache underneath all RandomAccessFiles : default is off
+    long blockCacheSize = ThreddsConfig.getBytes("BlockCache.maxSize", 0);
+    if (blockCacheSize > 0) {
+      int blockSize = (int) ThreddsConfig.getBytes("BlockCache.blockSize", 32 * 1024);
+      ucar.unidata.io.RandomAccessFile.setGlobalBlockCache( new BlockCache(blockSize, blockCacheSize));
+      startupLog.info("CdmInit: BlockCache maxSize= "+blockCacheSize+" blockSize = "+blockSize);
+    }
+
+    // decompressed HDF5 / netCDF-4 chunks : default is off
+    long chunkCacheSize = ThreddsConfig.getBytes("HDF5ChunkCache.maxSize", 0);
+    if (chunkCacheSize > 0) {
+      ucar.nc2.NetcdfFile.setProperty("chunkCacheSize", Long.toString(chunkCacheSize));
+      startupLog.info("CdmInit: HDF5ChunkCache maxSize= "+chunkCacheSize);
     }
 
     // for backwards compatibility - should be replaced by direct specifying of the IndexExtendMode
@@ -138,9 +164,35 @@ public class CdmInit {
     ucar.nc2.iosp.grid.GridServiceProvider.setIndexAlwaysInCache( alwaysUseCache );
     startupLog.info("CdmInit: GribIndexing.alwaysUseCache= "+alwaysUseCache);
 
+    // index new GRIB files, and the new records of growing ones, as they arrive in the watched directories
+    int indexThreads = ThreddsConfig.getInt("GribIndexing.threads", Runtime.getRuntime().availableProcessors());
+    GribIndexingService.setThreads(indexThreads);
+    String watchDirs = ThreddsConfig.get("GribIndexing.watchDirectories", null);
+    if (watchDirs != null) {
+      List<File> dirs = new ArrayList<File>();
+      for (String dirName : watchDirs.trim().split("[\\s,]+"))
+        dirs.add(new File(dirName));
+      int watchSecs = ThreddsConfig.getSeconds("GribIndexing.watchPeriod", 60);
+      gribIndexing = new GribIndexingService(dirs);
+      gribIndexing.start(watchSecs);
+      startupLog.info("CdmInit: GribIndexing.watchDirectories= "+dirs+" watchPeriod= "+watchSecs+" threads= "+indexThreads);
+    }
+
+    // decoding GRIB / grid records : default is one thread per processor, no cache of decoded records
+    int gridThreads = ThreddsConfig.getInt("GridReading.threads", Runtime.getRuntime().availableProcessors());
+    GridServiceProvider.setReadThreads(gridThreads);
+    long gridCacheSize = ThreddsConfig.getBytes("GridReading.cacheSize", 0);
+    GridServiceProvider.setRecordCacheSize(gridCacheSize);
+    startupLog.info("CdmInit: GridReading.threads= "+gridThreads+" cacheSize= "+gridCacheSize);
+
     // optimization: netcdf-3 files can only grow, not have metadata changes
     ucar.nc2.NetcdfFile.setProperty("syncExtendOnly", "true");
 
+    // share one file descriptor among all open NetcdfFiles on the same local file
+    boolean shareFileChannels = ThreddsConfig.getBoolean("NetcdfFileCache.shareFileChannels", false);
+    ucar.nc2.NetcdfFile.setProperty("shareFileChannels", Boolean.toString(shareFileChannels));
+    startupLog.info("CdmInit: NetcdfFileCache.shareFileChannels= "+shareFileChannels);
+
     // persist joinExisting aggregations. default every 24 hours, delete stuff older than 90 days
     String dir = ThreddsConfig.get("AggregationCache.dir", new File( tdsContext.getContentDirectory().getPath(), "/cache/agg/").getPath());
     int scourSecs = ThreddsConfig.getSeconds("AggregationCache.scour", 24 * 60 * 60);
@@ -154,6 +206,15 @@ public class CdmInit {
     Aggregation.setTypicalDatasetMode(typicalDataset);
     startupLog.info("CdmInit: Aggregation.setTypicalDatasetMode= "+typicalDataset);
 
+    // read nested datasets of an aggregation in parallel
+    int aggThreads = ThreddsConfig.getInt("Aggregation.readThreads", 0);
+    if (aggThreads > 0) {
+      int maxParallel = ThreddsConfig.getInt("Aggregation.maxParallelReads", 8);
+      aggExecutor = Executors.newFixedThreadPool(aggThreads);
+      Aggregation.setExecutor(aggExecutor, maxParallel);
+      startupLog.info("CdmInit: Aggregation.readThreads= "+aggThreads+" maxParallelReads= "+maxParallel);
+    }
+
     // Nj22 disk cache
     dir = ThreddsConfig.get("DiskCache.dir", new File( tdsContext.getContentDirectory(), "/cache/cdm/" ).getPath());
     boolean alwaysUse = ThreddsConfig.getBoolean("DiskCache.alwaysUse", false);
@@ -174,6 +235,11 @@ public class CdmInit {
   // should be called when tomcat exits
   public void destroy() throws Exception {
     if (timer != null) timer.cancel();
+    if (gribIndexing != null) gribIndexing.stop();
+    if (aggExecutor != null) {
+      Aggregation.setExecutor(null);
+      aggExecutor.shutdownNow();
+    }
     NetcdfDataset.shutdown();
     if (aggCache != null) aggCache.exit();
     if (cacheManager != null) cacheManager.close();
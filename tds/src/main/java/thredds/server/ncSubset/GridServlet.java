@@ -39,6 +39,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Random;
 
 import ucar.nc2.units.DateRange;
@@ -46,6 +48,7 @@ import ucar.nc2.util.DiskCache2;
 import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.grid.GridDatasetInfo;
 import ucar.nc2.dt.grid.NetcdfCFWriter;
+import ucar.nc2.iosp.netcdf3.N3channelWriter;
 import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.ma2.InvalidRangeException;
@@ -64,6 +67,8 @@ import org.jdom.transform.XSLTransformer;
 public class GridServlet extends AbstractServlet {
   private ucar.nc2.util.DiskCache2 diskCache = null;
   private boolean allow = false, debug = false;
+  private boolean stream = false; // stream netcdf files to the client, instead of writing them to the cache first
+  private long slabSize = 8 * 1000 * 1000;
 
   static private String context = "/thredds";
   static public void setContextPath( String c ) {
@@ -105,6 +110,8 @@ public class GridServlet extends AbstractServlet {
     <allow>true</allow>
     <dir>/temp/ncache/</dir>
     <maxFileDownloadSize>1 Gb</maxFileDownloadSize>
+    <stream>true</stream>
+    <slabSize>8 Mb</slabSize>
   </NetcdfSubsetService> */
 
     allow = ThreddsConfig.getBoolean("NetcdfSubsetService.allow", false);
@@ -130,6 +137,10 @@ public class GridServlet extends AbstractServlet {
     diskCache = new DiskCache2(cache, false, maxAgeSecs / 60, scourSecs / 60);
     logServerStartup.info(getClass().getName() + "Ncss.Cache= "+cache+" scour = "+scourSecs+" maxAgeSecs = "+maxAgeSecs);
 
+    stream = ThreddsConfig.getBoolean("NetcdfSubsetService.stream", false);
+    slabSize = ThreddsConfig.getBytes("NetcdfSubsetService.slabSize", 8 * 1000 * 1000);
+    logServerStartup.info(getClass().getName() + "Ncss.stream= "+stream+" slabSize = "+slabSize);
+
     logServerStartup.info( getClass().getName() + " initialization done -  " + UsageLog.closingMessageNonRequestContext() );
   }
 
@@ -493,6 +504,10 @@ public class GridServlet extends AbstractServlet {
     if (!filename.endsWith(".nc"))
       filename = filename + ".nc";
 
+    // files too large for the netcdf-3 classic format are still written to disk
+    if (stream && streamFile(res, gds, qp, useBB, addLatLon, filename))
+      return;
+
     Random random = new Random(System.currentTimeMillis());
     int randomInt = random.nextInt();
 
@@ -528,6 +543,61 @@ public class GridServlet extends AbstractServlet {
     ServletUtil.returnFile(this, req, res, new File(cacheFilename), "application/x-netcdf");
   }
 
+  // write the header, then the data one slab at a time, straight to the response; the file never exists on disk.
+  // return false if the file cant be streamed.
+  private boolean streamFile(HttpServletResponse res, GridDataset gds, QueryParams qp,
+          boolean useBB, boolean addLatLon, String filename) throws IOException {
+
+    N3channelWriter writer;
+    try {
+      NetcdfCFWriter cfWriter = new NetcdfCFWriter();
+      writer = cfWriter.makeStream(gds, qp.vars,
+              useBB ? qp.getBB() : null,
+              qp.hasDateRange ? qp.getDateRange() : null,
+              addLatLon, qp.horizStride, qp.vertStride, qp.timeStride);
+      if (writer == null) return false;
+
+    } catch (IllegalArgumentException e) { // file too big
+      log.info( UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_FORBIDDEN, 0));
+      res.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage());
+      return true;
+
+    } catch (Throwable ioe) {
+      log.error("Preparing to stream " + filename, ioe);
+      log.info( UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 0));
+      if (!res.isCommitted()) res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ioe.getMessage());
+      return true;
+    }
+
+    res.setContentType("application/x-netcdf");
+    res.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
+    res.setContentLength((int) writer.getLength());
+
+    try {
+      WritableByteChannel channel = Channels.newChannel(res.getOutputStream());
+      long size = writer.writeFile(channel, slabSize);
+      res.flushBuffer();
+      log.info( UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_OK, size));
+
+    } catch (IOException e) {
+      String eName = e.getClass().getName(); // dont want compile time dependency on ClientAbortException
+      if ((e instanceof java.net.SocketException) || eName.equals("org.apache.catalina.connector.ClientAbortException")) {
+        log.info("ClientAbortException while streaming " + filename + " " + e.getMessage());
+        log.info( UsageLog.closingMessageForRequestContext(ServletUtil.STATUS_CLIENT_ABORT, 0));
+        return true;
+      }
+      log.error("Streaming " + filename, e);
+      log.info( UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 0));
+      if (!res.isCommitted()) res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+
+    } catch (Throwable e) {
+      log.error("Streaming " + filename, e);
+      log.info( UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, 0));
+      if (!res.isCommitted()) res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+    return true;
+  }
+
   private void showForm(HttpServletResponse res, GridDataset gds, String path, boolean wantXml, boolean isPoint) throws IOException {
     String infoString;
     GridDatasetInfo writer = new GridDatasetInfo(gds, "path");
@@ -51,7 +51,7 @@ import ucar.nc2.units.DateFormatter;
 import ucar.nc2.units.DateRange;
 import ucar.nc2.units.DateType;
 import ucar.unidata.geoloc.LatLonRect;
-import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.StationIndex;
 
 import java.io.*;
 import java.util.*;
@@ -440,6 +440,7 @@ public class StationObsCollection {
   // station handling
   private List<Station> stationList;
   private HashMap<String, Station> stationMap;
+  private StationIndex stationIndex;
 
   /**
    * Determine if any of the given station names are actually in the dataset.
@@ -483,16 +484,9 @@ public class StationObsCollection {
    * @throws IOException if read error
    */
   public List<String> getStationNames(LatLonRect boundingBox) throws IOException {
-    LatLonPointImpl latlonPt = new LatLonPointImpl();
     ArrayList<String> result = new ArrayList<String>();
-    List<Station> stations = getStationList();
-    for (Station s : stations) {
-      latlonPt.set(s.getLatitude(), s.getLongitude());
-      if (boundingBox.contains(latlonPt)) {
-        result.add(s.getName());
-        // boundingBox.contains(latlonPt);   debugging
-      }
-    }
+    for (Station s : getStationIndex().getStations(boundingBox))
+      result.add(s.getName());
     return result;
   }
 
@@ -506,25 +500,20 @@ public class StationObsCollection {
    * @throws IOException if read error
    */
   public String findClosestStation(double lat, double lon) throws IOException {
-    double cos = Math.cos(Math.toRadians(lat));
-    List<Station> stations = getStationList();
-    Station min_station = stations.get(0);
-    double min_dist = Double.MAX_VALUE;
-
-    for (Station s : stations) {
-      double lat1 = s.getLatitude();
-      double lon1 = LatLonPointImpl.lonNormal(s.getLongitude(), lon);
-      double dy = Math.toRadians(lat - lat1);
-      double dx = cos * Math.toRadians(lon - lon1);
-      double dist = dy * dy + dx * dx;
-      if (dist < min_dist) {
-        min_dist = dist;
-        min_station = s;
-      }
-    }
+    Station min_station = getStationIndex().findClosest(lat, lon);
+    if (min_station == null)
+      min_station = getStationList().get(0);
     return min_station.getName();
   }
 
+  // built once for each station list, shared by all requests
+  private synchronized StationIndex getStationIndex() throws IOException {
+    List<Station> stations = getStationList();
+    if (null == stationIndex || stationIndex.getStations() != stations)
+      stationIndex = new StationIndex(stations);
+    return stationIndex;
+  }
+
   ////////////////////////////////////////////////////////
   // scanning
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.server.opendap;
+
+import net.jcip.annotations.ThreadSafe;
+import opendap.Server.ServerDDS;
+import opendap.dap.DAS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the DDS and DAS of datasets, along with their unconstrained DDS, DAS and DDX responses,
+ * so that metadata requests don't have to open the dataset. Entries are keyed by dataset path,
+ * and are only valid for the last modified time they were made with.
+ * <p/>
+ * The cached DDS refers to the Variables of a dataset that has since been closed, so it may only be used
+ * for printing and parsing constraints, never for reading data.
+ *
+ * @author caron
+ */
+@ThreadSafe
+public class MetadataCache {
+  private final int maxEntries;
+  private final Map<String, Entry> map;
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries keep at most this many datasets, discarding the least recently used.
+   */
+  public MetadataCache(final int maxEntries) {
+    this.maxEntries = maxEntries;
+    this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, MetadataCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Find the entry for a dataset.
+   *
+   * @param path         dataset path
+   * @param lastModified current last modified time of the dataset
+   * @return the entry, or null if none, or if it was made for a different last modified time.
+   */
+  public synchronized Entry get(String path, long lastModified) {
+    Entry entry = map.get(path);
+    if (entry == null) return null;
+    if (entry.lastModified != lastModified) {
+      map.remove(path);
+      return null;
+    }
+    return entry;
+  }
+
+  public synchronized void put(String path, Entry entry) {
+    map.put(path, entry);
+  }
+
+  public synchronized void clear() {
+    map.clear();
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /**
+   * The metadata of one version of a dataset. The responses are made the first time they are asked for.
+   */
+  @ThreadSafe
+  static public class Entry {
+    private final long lastModified;
+    private final ServerDDS dds;
+    private final DAS das;
+    private byte[] ddsResponse, dasResponse, ddxResponse;
+
+    /**
+     * Constructor.
+     *
+     * @param lastModified last modified time of the dataset
+     * @param dds          template DDS, not shared with anyone else
+     * @param das          template DAS, not shared with anyone else
+     */
+    public Entry(long lastModified, ServerDDS dds, DAS das) {
+      this.lastModified = lastModified;
+      this.dds = dds;
+      this.das = das;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return a clone of the DDS, which the caller may constrain.
+     */
+    public synchronized ServerDDS getDDS() {
+      return (ServerDDS) dds.clone();
+    }
+
+    /**
+     * @return a clone of the DAS.
+     */
+    public synchronized DAS getDAS() {
+      return (DAS) das.clone();
+    }
+
+    public synchronized byte[] getDDSResponse() {
+      if (ddsResponse == null) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(10000);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(bout));
+        dds.print(pw);
+        pw.flush();
+        ddsResponse = bout.toByteArray();
+      }
+      return ddsResponse;
+    }
+
+    public synchronized byte[] getDASResponse() {
+      if (dasResponse == null) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(10000);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(bout));
+        das.print(pw);
+        pw.flush();
+        dasResponse = bout.toByteArray();
+      }
+      return dasResponse;
+    }
+
+    public synchronized byte[] getDDXResponse() {
+      if (ddxResponse == null) {
+        ServerDDS ddx = getDDS();
+        ddx.ingestDAS(getDAS());
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(10000);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(bout));
+        ddx.printXML(pw);
+        pw.flush();
+        ddxResponse = bout.toByteArray();
+      }
+      return ddxResponse;
+    }
+  }
+
+}
@@ -39,7 +39,10 @@ import ucar.nc2.*;
 
 import opendap.Server.*;
 import opendap.dap.BaseType;
+import opendap.dap.BaseTypePrimitiveVector;
+import opendap.dap.BytePrimitiveVector;
 import opendap.dap.DArrayDimension;
+import opendap.dap.NoSuchVariableException;
 import opendap.dap.PrimitiveVector;
 
 import java.io.IOException;
@@ -58,6 +61,18 @@ import java.util.List;
 public class NcSDArray extends SDArray implements HasNetcdfVariable {
   static private org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(NcSDArray.class);
 
+  static private long slabSize = 8 * 1000 * 1000;
+
+  /**
+   * Set the most data that is read at once when sending a .dods response.
+   * Larger requests are read and sent in slabs of about this size, so they dont have to fit in memory.
+   *
+   * @param bytes slab size in bytes
+   */
+  static public void setSlabSize(long bytes) {
+    slabSize = bytes;
+  }
+
   private boolean debug = false, debugRead = false;
   private Variable ncVar = null;
   //ignore protected BaseType elemType;
@@ -106,10 +121,7 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
         log.debug(getRequestedRange());
 
       // set up the netcdf read
-      int n = numDimensions();
-      List<Range> ranges = new ArrayList<Range>(n);
-      for (int i = 0; i < n; i++)
-        ranges.add(new Range(getStart(i), getStop(i), getStride(i)));
+      List<Range> ranges = getRanges();
 
       try {
         a = ncVar.read(ranges);
@@ -144,6 +156,129 @@ public class NcSDArray extends SDArray implements HasNetcdfVariable {
     return (false);
   }
 
+  // the requested section
+  private List<Range> getRanges() throws InvalidDimensionException, InvalidRangeException {
+    int n = numDimensions();
+    List<Range> ranges = new ArrayList<Range>(n);
+    for (int i = 0; i < n; i++)
+      ranges.add(new Range(getStart(i), getStop(i), getStride(i)));
+    return ranges;
+  }
+
+  /**
+   * Whether serialize() will read the data in slabs, rather than all at once with read().
+   * True for requests larger than the slab size, of numbers or structures.
+   *
+   * @return true if the data will be streamed
+   */
+  public boolean isStreamed() {
+    if (isRead()) return false;
+    DataType dt = ncVar.getDataType();
+    if ((dt == DataType.STRING) || (dt == DataType.CHAR)) return false;
+    try {
+      return new Section(getRanges()).computeSize() * ncVar.getElementSize() > slabSize;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void serialize(String dataset, DataOutputStream sink, CEEvaluator ce, Object specialO)
+          throws NoSuchVariableException, DAP2ServerSideException, IOException {
+    if (!isStreamed()) {
+      super.serialize(dataset, sink, ce, specialO);
+      return;
+    }
+    if (!ce.evalClauses(specialO)) return;
+
+    long tstart = System.currentTimeMillis();
+    try {
+      stream(dataset, sink, ce, specialO);
+    } catch (InvalidDimensionException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray InvalidDimensionException=" + e.getMessage());
+    } catch (InvalidRangeException e) {
+      log.error(getRequestedRange(), e);
+      throw new IllegalStateException("NcSDArray InvalidRangeException=" + e.getMessage());
+    }
+
+    if (log.isDebugEnabled()) {
+      long tookTime = System.currentTimeMillis() - tstart;
+      log.debug("NcSDArray stream: " + tookTime * .001 + " seconds");
+    }
+  }
+
+  /*
+   * Read and send the requested section a slab at a time, in the same format as SDArray.serialize().
+   * A slab is a run of indices along one dimension, with all of the dimensions inside of it,
+   * and single indices of the dimensions outside of it.
+   */
+  private void stream(String dataset, DataOutputStream sink, CEEvaluator ce, Object specialO)
+          throws IOException, InvalidDimensionException, InvalidRangeException, NoSuchVariableException, DAP2ServerSideException {
+    List<Range> ranges = getRanges();
+    int rank = ranges.size();
+    PrimitiveVector pv = getPrimitiveVector();
+    boolean isStructure = pv instanceof BaseTypePrimitiveVector;
+    boolean isByte = pv instanceof BytePrimitiveVector;
+
+    int length = (int) new Section(ranges).computeSize();
+    sink.writeInt(length);
+    if (!isStructure) // primitive arrays have the length twice, see SDArray.serialize()
+      sink.writeInt(length);
+
+    // split along the outermost dimension whose inner part fits in a slab
+    long innerBytes = ncVar.getElementSize();
+    int splitDim = rank - 1;
+    while ((splitDim > 0) && (innerBytes * ranges.get(splitDim).length() <= slabSize)) {
+      innerBytes *= ranges.get(splitDim).length();
+      splitDim--;
+    }
+    Range split = ranges.get(splitDim);
+    int perSlab = (int) Math.max(1, slabSize / innerBytes);
+
+    List<Range> slab = new ArrayList<Range>(ranges);
+    int[] outer = new int[splitDim]; // index into each range outside the split dimension
+    while (true) {
+      for (int i = 0; i < splitDim; i++) {
+        int idx = ranges.get(i).element(outer[i]);
+        slab.set(i, new Range(idx, idx));
+      }
+      for (int first = 0; first < split.length(); first += perSlab) {
+        int last = Math.min(first + perSlab, split.length()) - 1;
+        slab.set(splitDim, new Range(split.element(first), split.element(last), split.stride()));
+        Array data = ncVar.read(slab);
+
+        if (isByte) {
+          sink.write((byte[]) data.get1DJavaArray(byte.class));
+        } else if (isStructure) {
+          setData(data);
+          BaseTypePrimitiveVector btpv = (BaseTypePrimitiveVector) getPrimitiveVector();
+          for (int i = 0; i < btpv.getLength(); i++)
+            ((ServerMethods) btpv.getValue(i)).serialize(dataset, sink, ce, specialO);
+        } else {
+          setData(data);
+          getPrimitiveVector().externalize(sink);
+        }
+      }
+
+      // next index outside the split dimension
+      int dim = splitDim - 1;
+      while (dim >= 0) {
+        if (++outer[dim] < ranges.get(dim).length()) break;
+        outer[dim] = 0;
+        dim--;
+      }
+      if (dim < 0) break;
+    }
+
+    if (isByte) { // pad out to a multiple of four bytes, see BytePrimitiveVector.externalize()
+      int modFour = length % 4;
+      for (int i = 0; (modFour != 0) && (i < 4 - modFour); i++)
+        sink.writeByte(0);
+    }
+    setRead(false); // only the last slab is held
+  }
+
   private String getRequestedRange() {
     try {
       StringBuilder sbuff = new StringBuilder();
@@ -69,6 +69,8 @@ public class NcSDGrid extends SDGrid {
     java.util.Enumeration vars = getVariables();
     while (vars.hasMoreElements()) {
       SDArray bt = (SDArray) vars.nextElement();
+      if ((bt instanceof NcSDArray) && ((NcSDArray) bt).isStreamed())
+        continue; // serialize() reads it a slab at a time
       bt.read( datasetName, specialO);
     }
 
@@ -37,6 +37,7 @@ import opendap.servlet.*;
 import opendap.dap.DAP2Exception;
 import opendap.dap.DAS;
 import opendap.dap.BaseType;
+import opendap.dap.NoSuchVariableException;
 import opendap.Server.*;
 import opendap.dap.parsers.ParseException;
 
@@ -82,6 +83,8 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
   private boolean debugSession = false;
 
+  private MetadataCache metadataCache = null;
+
   public void init() throws javax.servlet.ServletException {
     super.init();
 
@@ -90,9 +93,14 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
     this.ascLimit = ThreddsConfig.getInt( "Opendap.ascLimit", ascLimit);
     this.binLimit = ThreddsConfig.getInt( "Opendap.binLimit", binLimit);
+    long slabSize = ThreddsConfig.getBytes( "Opendap.slabSize", 8 * 1000 * 1000);
+    NcSDArray.setSlabSize(slabSize);
+    int metadataCacheSize = ThreddsConfig.getInt( "Opendap.metadataCacheSize", 100);
+    if (metadataCacheSize > 0)
+      metadataCache = new MetadataCache(metadataCacheSize);
 
     this.odapVersionString = ThreddsConfig.get( "Opendap.serverVersion", odapVersionString);
-    logServerStartup.info(getClass().getName() + " version= "+odapVersionString+" ascLimit = "+ascLimit+" binLimit = "+binLimit);
+    logServerStartup.info(getClass().getName() + " version= "+odapVersionString+" ascLimit = "+ascLimit+" binLimit = "+binLimit+" slabSize = "+slabSize+" metadataCacheSize = "+metadataCacheSize);
 
     // debugging actions
     makeDebugActions();
@@ -137,6 +145,11 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
     // if (null != DatasetHandler.findResourceControl( path)) return -1; // LOOK weird Firefox beahviour?
 
+    return getDatasetLastModified(path);
+  }
+
+  // last modified time of the file underlying the dataset, or -1 if its not a file
+  private long getDatasetLastModified(String path) {
     File file = DataRootHandler.getInstance().getCrawlableDatasetAsFile(path);
     if ((file != null) && file.exists())
       return file.lastModified();
@@ -334,6 +347,19 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
   private void doGetDAS(HttpServletRequest request, HttpServletResponse response, ReqState rs) throws Exception {
 
+    long lastModified = getDatasetLastModified(rs.getDataSet());
+    if ((metadataCache != null) && (lastModified > 0)) {
+      MetadataCache.Entry entry = getMetadata(request, response, rs, lastModified);
+      if (entry == null) return;
+      if (isNotModified(request, response, rs, lastModified)) return;
+
+      response.setContentType("text/plain");
+      response.setHeader("XDODS-Server", getServerVersion());
+      response.setHeader("Content-Description", "dods-das");
+      sendResponse(response, entry.getDASResponse());
+      return;
+    }
+
     GuardedDataset ds = null;
     try {
       ds = getDataset(rs);
@@ -356,6 +382,29 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
   private void doGetDDS(HttpServletRequest request, HttpServletResponse response, ReqState rs) throws Exception {
 
+    long lastModified = getDatasetLastModified(rs.getDataSet());
+    if ((metadataCache != null) && (lastModified > 0)) {
+      MetadataCache.Entry entry = getMetadata(request, response, rs, lastModified);
+      if (entry == null) return;
+      if (isNotModified(request, response, rs, lastModified)) return;
+
+      response.setContentType("text/plain");
+      response.setHeader("XDODS-Server", getServerVersion());
+      response.setHeader("Content-Description", "dods-dds");
+
+      if (rs.getConstraintExpression().equals("")) {
+        sendResponse(response, entry.getDDSResponse());
+      } else {
+        ServerDDS myDDS = entry.getDDS();
+        CEEvaluator ce = new CEEvaluator(myDDS);
+        ce.parseConstraint(rs.getConstraintExpression());
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(response.getOutputStream())));
+        myDDS.printConstrained(pw);
+        pw.flush();
+      }
+      return;
+    }
+
     GuardedDataset ds = null;
     try {
       ds = getDataset(rs);
@@ -393,6 +442,30 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
 
   private void doGetDDX(HttpServletRequest request, HttpServletResponse response, ReqState rs) throws Exception {
 
+    long lastModified = getDatasetLastModified(rs.getDataSet());
+    if ((metadataCache != null) && (lastModified > 0)) {
+      MetadataCache.Entry entry = getMetadata(request, response, rs, lastModified);
+      if (entry == null) return;
+      if (isNotModified(request, response, rs, lastModified)) return;
+
+      response.setContentType("text/plain");
+      response.setHeader("XDODS-Server", getServerVersion());
+      response.setHeader("Content-Description", "dods-ddx");
+
+      if (rs.getConstraintExpression().equals("")) {
+        sendResponse(response, entry.getDDXResponse());
+      } else {
+        ServerDDS myDDS = entry.getDDS();
+        myDDS.ingestDAS(entry.getDAS());
+        CEEvaluator ce = new CEEvaluator(myDDS);
+        ce.parseConstraint(rs.getConstraintExpression());
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(response.getOutputStream())));
+        myDDS.printConstrainedXML(pw);
+        pw.flush();
+      }
+      return;
+    }
+
     GuardedDataset ds = null;
     try {
       ds = getDataset(rs);
@@ -725,6 +798,7 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
   ///////////////////////////////////////////////////////
   // utils
 
+  // binary responses stream large arrays a slab at a time (see NcSDArray.isStreamed()), so these dont count against binLimit
   private void checkSize(ServerDDS dds, boolean isAscii) throws Exception {
     //try {
 
@@ -734,7 +808,10 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
         BaseType bt = (BaseType) vars.nextElement();
         if (((ServerMethods) bt).isProject()) {
 
-          if (bt instanceof SDArray) {
+          if (!isAscii && isStreamed(bt)) {
+            continue;
+
+          } else if (bt instanceof SDArray) {
             SDArray da = (SDArray) bt;
             BaseType base = da.getPrimitiveVector().getTemplate();
             DataType dtype = DODSNetcdfFile.convertToNCType(base);
@@ -782,6 +859,14 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
     }   */
   }
 
+  private boolean isStreamed(BaseType bt) throws NoSuchVariableException {
+    if (bt instanceof NcSDArray)
+      return ((NcSDArray) bt).isStreamed();
+    if (bt instanceof SDGrid) // only the data array is counted, see below
+      return isStreamed(((SDGrid) bt).getVar(0));
+    return false;
+  }
+
   /*
    * *********************** dataset caching ***********************************************
    */
@@ -837,6 +922,67 @@ public class OpendapServlet extends javax.servlet.http.HttpServlet {
     return gdataset;
   }
 
+  /*
+   * *********************** metadata caching ***********************************************
+   */
+
+  // Get the cached metadata for the dataset, opening it if its not cached or has changed since.
+  // Return null if access is denied or the dataset is not found, in which case the response has been sent.
+  private MetadataCache.Entry getMetadata(HttpServletRequest req, HttpServletResponse res, ReqState rs, long lastModified) throws Exception {
+    String reqPath = rs.getDataSet();
+    if (!DatasetHandler.resourceControlOk(req, res, reqPath))
+      return null;
+
+    MetadataCache.Entry entry = metadataCache.get(reqPath, lastModified);
+    if (entry != null) return entry;
+
+    GuardedDataset ds = null;
+    try {
+      ds = getDataset(rs);
+      if (ds == null) return null;
+      entry = new MetadataCache.Entry(lastModified, ds.getDDS(), ds.getDAS());
+      metadataCache.put(reqPath, entry);
+      return entry;
+
+    } finally { // release lock if needed
+      if (ds != null) ds.release();
+    }
+  }
+
+  // Set the validators for a metadata response, and send 304 if the client already has it.
+  // The ETag depends on the constraint, since that changes the response.
+  private boolean isNotModified(HttpServletRequest req, HttpServletResponse res, ReqState rs, long lastModified) {
+    String tag = rs.getRequestSuffix() + "?" + rs.getConstraintExpression();
+    String etag = "\"" + Long.toHexString(lastModified) + "-" + Integer.toHexString(tag.hashCode()) + "\"";
+    res.setHeader("ETag", etag);
+    res.setDateHeader("Last-Modified", lastModified);
+
+    boolean notModified;
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      notModified = ifNoneMatch.trim().equals("*") || (ifNoneMatch.indexOf(etag) >= 0);
+    } else {
+      long ifModifiedSince;
+      try {
+        ifModifiedSince = req.getDateHeader("If-Modified-Since");
+      } catch (IllegalArgumentException e) {
+        ifModifiedSince = -1;
+      }
+      notModified = (ifModifiedSince >= 0) && (lastModified / 1000 <= ifModifiedSince / 1000);
+    }
+
+    if (notModified)
+      res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    return notModified;
+  }
+
+  private void sendResponse(HttpServletResponse res, byte[] content) throws IOException {
+    res.setContentLength(content.length);
+    OutputStream out = res.getOutputStream();
+    out.write(content);
+    out.flush();
+  }
+
   //////////////////////////////////////////////////////////////////////////////
 
   private void parseExceptionHandler(ParseException pe, HttpServletResponse response) throws IOException {
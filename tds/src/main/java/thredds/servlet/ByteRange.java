@@ -0,0 +1,195 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.servlet;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a file, from an HTTP Range header (RFC 7233):
+ * <pre>
+ *   bytes=0-499         first 500 bytes
+ *   bytes=9500-         from byte 9500 to the end
+ *   bytes=-500          last 500 bytes
+ *   bytes=0-0,-1        first and last bytes
+ * </pre>
+ *
+ * @author caron
+ */
+@Immutable
+public class ByteRange {
+  /**
+   * Ignore Range headers with more than this many ranges, and send the whole file.
+   */
+  static public final int MAX_RANGES = 200;
+
+  /**
+   * Parse a Range header. The ranges are sorted, and overlapping or adjacent ranges are merged, so each byte
+   * is sent at most once. If the requested ranges add up to more than the file, the header is ignored,
+   * since it is cheaper to send the whole file once than many overlapping parts of it.
+   *
+   * @param header   value of the Range header
+   * @param fileSize size of the file
+   * @return the satisfiable ranges, sorted and merged; empty if there are none;
+   *         null if the header is malformed, not in bytes, or asks for more than the file, and so should be ignored.
+   */
+  static public List<ByteRange> parse(String header, long fileSize) {
+    int pos = header.indexOf('=');
+    if ((pos < 0) || !header.substring(0, pos).trim().equalsIgnoreCase("bytes"))
+      return null;
+
+    List<ByteRange> result = new ArrayList<ByteRange>();
+    int count = 0;
+    long total = 0;
+    for (String spec : header.substring(pos + 1).split(",")) {
+      spec = spec.trim();
+      if (spec.length() == 0) continue;
+      if (++count > MAX_RANGES) return null;
+
+      int dash = spec.indexOf('-');
+      if (dash < 0) return null;
+      String firstS = spec.substring(0, dash).trim();
+      String lastS = spec.substring(dash + 1).trim();
+
+      try {
+        if (firstS.length() == 0) { // suffix range
+          if (lastS.length() == 0) return null;
+          long suffix = Long.parseLong(lastS);
+          if (suffix < 0) return null;
+          if ((suffix > 0) && (fileSize > 0)) {
+            ByteRange range = new ByteRange(Math.max(0, fileSize - suffix), fileSize - 1);
+            result.add(range);
+            total += range.getLength();
+          }
+
+        } else {
+          long first = Long.parseLong(firstS);
+          long last = (lastS.length() == 0) ? Long.MAX_VALUE : Long.parseLong(lastS);
+          if ((first < 0) || (last < first)) return null;
+          if (first < fileSize) {
+            ByteRange range = new ByteRange(first, Math.min(last, fileSize - 1));
+            result.add(range);
+            total += range.getLength();
+          }
+        }
+
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    if ((count == 0) || (total > fileSize)) return null;
+    return merge(result);
+  }
+
+  // sort, and merge ranges that overlap or touch
+  static private List<ByteRange> merge(List<ByteRange> ranges) {
+    if (ranges.size() < 2) return ranges;
+    Collections.sort(ranges, new Comparator<ByteRange>() {
+      public int compare(ByteRange r1, ByteRange r2) {
+        return (r1.first < r2.first) ? -1 : ((r1.first == r2.first) ? 0 : 1);
+      }
+    });
+
+    List<ByteRange> result = new ArrayList<ByteRange>(ranges.size());
+    ByteRange current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      ByteRange next = ranges.get(i);
+      if (next.first <= current.last + 1) {
+        if (next.last > current.last)
+          current = new ByteRange(current.first, next.last);
+      } else {
+        result.add(current);
+        current = next;
+      }
+    }
+    result.add(current);
+    return result;
+  }
+
+  private final long first, last;
+
+  /**
+   * Constructor.
+   *
+   * @param first first byte
+   * @param last  last byte, inclusive
+   */
+  public ByteRange(long first, long last) {
+    this.first = first;
+    this.last = last;
+  }
+
+  public long getFirst() {
+    return first;
+  }
+
+  public long getLast() {
+    return last;
+  }
+
+  public long getLength() {
+    return last - first + 1;
+  }
+
+  /**
+   * @param fileSize size of the file
+   * @return value of the Content-Range header for this range.
+   */
+  public String getContentRange(long fileSize) {
+    return "bytes " + first + "-" + last + "/" + fileSize;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof ByteRange)) return false;
+    ByteRange that = (ByteRange) o;
+    return (first == that.first) && (last == that.last);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (int) (first ^ (first >>> 32)) + (int) (last ^ (last >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return first + "-" + last;
+  }
+}
@@ -38,6 +38,12 @@ import thredds.server.config.TdsContext;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.util.IO;
 import ucar.nc2.util.cache.FileCacheRaf;
+import ucar.unidata.io.BlockCache;
+import ucar.nc2.iosp.hdf5.H5chunkCache;
+import ucar.nc2.iosp.hdf5.H5iosp;
+import ucar.nc2.iosp.grid.GridRecordCache;
+import ucar.nc2.iosp.grid.GridServiceProvider;
+import ucar.unidata.io.RandomAccessFile;
 
 import java.util.*;
 import java.io.PrintStream;
@@ -69,11 +75,31 @@ public class DebugCommands {
         Formatter f = new Formatter(e.pw);
         f.format("NetcdfFileCache contents\n");
         NetcdfDataset.getNetcdfFileCache().showCache(f);
+        NetcdfDataset.getNetcdfFileCache().showStats(f);
 
         FileCacheRaf fileCacheRaf = ServletUtil.getFileCache();
         f.format("\nRAF Cache contents\n");
         for (Object cacheElement : fileCacheRaf.getCache())
           f.format(" %s\n",cacheElement);
+        fileCacheRaf.showStats(f);
+
+        BlockCache blockCache = RandomAccessFile.getGlobalBlockCache();
+        if (blockCache != null) {
+          f.format("\nRAF BlockCache\n");
+          blockCache.showStats(f);
+        }
+
+        H5chunkCache chunkCache = H5iosp.getChunkCache();
+        if (chunkCache != null) {
+          f.format("\nHDF5 ChunkCache\n");
+          chunkCache.showStats(f);
+        }
+
+        GridRecordCache recordCache = GridServiceProvider.getRecordCache();
+        if (recordCache != null) {
+          f.format("\nGrid RecordCache\n");
+          recordCache.showStats(f);
+        }
         e.pw.flush();
       }
     };
@@ -83,6 +109,12 @@ public class DebugCommands {
       public void doAction(DebugHandler.Event e) {
         NetcdfDataset.getNetcdfFileCache().clearCache(false);
         ServletUtil.getFileCache().clearCache(false);
+        BlockCache blockCache = RandomAccessFile.getGlobalBlockCache();
+        if (blockCache != null) blockCache.clearCache();
+        H5chunkCache chunkCache = H5iosp.getChunkCache();
+        if (chunkCache != null) chunkCache.clearCache();
+        GridRecordCache recordCache = GridServiceProvider.getRecordCache();
+        if (recordCache != null) recordCache.clearCache();
         e.pw.println("  ClearCache ok");
       }
     };
@@ -557,7 +557,9 @@ public class ServletUtil {
   }
 
   /**
-   * Write a file to the response stream. Handles Range requests.
+   * Write a file to the response stream. Handles conditional requests, and single or multiple Range requests.
+   * When the container supports it (Tomcat's sendfile), a single range or the whole file is sent straight
+   * from the file to the socket, without passing through the JVM heap.
    *
    * @param req request
    * @param res response
@@ -566,62 +568,97 @@ public class ServletUtil {
    * @throws IOException or error
    */
   public static void returnFile(HttpServletRequest req, HttpServletResponse res, File file, String contentType) throws IOException {
-    res.setContentType(contentType);
+    String filename = file.getPath();
+    long fileSize = file.length();
+    long lastModified = file.lastModified();
+    String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(fileSize) + "\"";
 
-    // see if its a Range Request
-    boolean isRangeRequest = false;
-    long startPos = 0, endPos = Long.MAX_VALUE;
-    String rangeRequest = req.getHeader("Range");
-    if (rangeRequest != null) { // bytes=12-34 or bytes=12-
-      int pos = rangeRequest.indexOf("=");
-      if (pos > 0) {
-        int pos2 = rangeRequest.indexOf("-");
-        if (pos2 > 0) {
-          String startString = rangeRequest.substring(pos + 1, pos2);
-          String endString = rangeRequest.substring(pos2 + 1);
-          startPos = Long.parseLong(startString);
-          if (endString.length() > 0)
-            endPos = Long.parseLong(endString) + 1;
-          isRangeRequest = true;
-        }
-      }
+    // indicate we allow Range Requests
+    res.setHeader("Accept-Ranges", "bytes");
+    res.setHeader("ETag", etag);
+    res.setDateHeader("Last-Modified", lastModified);
+
+    if (isNotModified(req, etag, lastModified)) {
+      res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_NOT_MODIFIED, 0));
+      return;
     }
 
-    // set content length
-    long fileSize = file.length();
-    long contentLength = fileSize;
-    if (isRangeRequest) {
-      endPos = Math.min(endPos, fileSize);
-      contentLength = endPos - startPos;
+    // see if its a Range Request; If-Range says to send the whole file if it has changed
+    List<ByteRange> ranges = null;
+    String rangeRequest = req.getHeader("Range");
+    if ((rangeRequest != null) && isIfRangeOk(req, etag, lastModified))
+      ranges = ByteRange.parse(rangeRequest, fileSize);
+
+    if ((ranges != null) && ranges.isEmpty()) {
+      res.setHeader("Content-Range", "bytes */" + fileSize);
+      log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, 0));
+      res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
     }
 
-    res.addHeader("Content-Length", Long.toString(contentLength));
-    // res.setContentLength( (int) contentLength);
+    boolean isRangeRequest = (ranges != null);
+    boolean isMultipart = isRangeRequest && (ranges.size() > 1);
+    String boundary = isMultipart ? "THREDDS_" + Long.toHexString(System.nanoTime()) : null;
+
+    // set content type and length
+    long contentLength;
+    if (isMultipart) {
+      res.setContentType("multipart/byteranges; boundary=" + boundary);
+      contentLength = 0;
+      for (ByteRange range : ranges)
+        contentLength += getPartHeader(boundary, contentType, range, fileSize).length() + range.getLength();
+      contentLength += getPartsEnd(boundary).length();
+    } else {
+      res.setContentType(contentType);
+      contentLength = isRangeRequest ? ranges.get(0).getLength() : fileSize;
+    }
+    res.setHeader("Content-Length", Long.toString(contentLength));
 
-    String filename = file.getPath();
     boolean debugRequest = Debug.isSet("returnFile");
     if (debugRequest) log.debug("returnFile(): filename = " + filename + " contentType = " + contentType +
-        " contentLength = " + contentLength);
+        " contentLength = " + contentLength + " ranges = " + ranges);
 
-    // indicate we allow Range Requests
-    res.addHeader("Accept-Ranges", "bytes");
+    // set before content is sent
+    if (isRangeRequest) {
+      if (!isMultipart)
+        res.setHeader("Content-Range", ranges.get(0).getContentRange(fileSize));
+      res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    }
+    int status = isRangeRequest ? HttpServletResponse.SC_PARTIAL_CONTENT : HttpServletResponse.SC_OK;
 
     if (req.getMethod().equals("HEAD")) {
-      log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_OK, 0));
+      log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(status, 0));
       return;
     }
 
     try {
 
-      if (isRangeRequest) {
-        // set before content is sent
-        res.addHeader("Content-Range", "bytes " + startPos + "-" + (endPos - 1) + "/" + fileSize);
-        res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      // let the container send it
+      if (!isMultipart && Boolean.TRUE.equals(req.getAttribute("org.apache.tomcat.sendfile.support"))) {
+        long start = isRangeRequest ? ranges.get(0).getFirst() : 0;
+        req.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+        req.setAttribute("org.apache.tomcat.sendfile.start", start);
+        req.setAttribute("org.apache.tomcat.sendfile.end", start + contentLength);
+        if (debugRequest) log.debug("returnFile(): sendfile = " + filename);
+        log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(status, contentLength));
+        return;
+      }
 
+      ServletOutputStream out = res.getOutputStream();
+      if (isRangeRequest) {
         FileCacheRaf.Raf craf = null;
         try {
           craf = fileCacheRaf.acquire(filename);
-          IO.copyRafB(craf.getRaf(), startPos, contentLength, res.getOutputStream(), new byte[60000]);
+          byte[] buffer = new byte[60000];
+          for (ByteRange range : ranges) {
+            if (isMultipart)
+              out.write(getPartHeader(boundary, contentType, range, fileSize).getBytes("US-ASCII"));
+            IO.copyRafB(craf.getRaf(), range.getFirst(), range.getLength(), out, buffer);
+          }
+          if (isMultipart)
+            out.write(getPartsEnd(boundary).getBytes("US-ASCII"));
+          out.flush();
           log.info( "returnFile(): " + UsageLog.closingMessageForRequestContext(HttpServletResponse.SC_PARTIAL_CONTENT, contentLength));
           return;
         } finally {
@@ -630,7 +667,6 @@ public class ServletUtil {
       }
 
       // Return the file
-      ServletOutputStream out = res.getOutputStream();
       IO.copyFileB(file, out, 60000);
       res.flushBuffer();
       out.close();
@@ -664,6 +700,45 @@ public class ServletUtil {
     }
   }
 
+  // If-None-Match takes precedence over If-Modified-Since
+  static boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null)
+      return ifNoneMatch.trim().equals("*") || (ifNoneMatch.indexOf(etag) >= 0);
+
+    long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+    return (ifModifiedSince >= 0) && (lastModified / 1000 <= ifModifiedSince / 1000);
+  }
+
+  // If-Range is either an entity tag or a date; the Range applies only if it still matches
+  static boolean isIfRangeOk(HttpServletRequest req, String etag, long lastModified) {
+    String ifRange = req.getHeader("If-Range");
+    if (ifRange == null) return true;
+    ifRange = ifRange.trim();
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+      return ifRange.equals(etag);
+
+    long date = getDateHeader(req, "If-Range");
+    return (date >= 0) && (lastModified / 1000 == date / 1000);
+  }
+
+  static private long getDateHeader(HttpServletRequest req, String name) {
+    try {
+      return req.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  static String getPartHeader(String boundary, String contentType, ByteRange range, long fileSize) {
+    return "\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " +
+        range.getContentRange(fileSize) + "\r\n\r\n";
+  }
+
+  static String getPartsEnd(String boundary) {
+    return "\r\n--" + boundary + "--\r\n";
+  }
+
   /**
    * Send given content string as the HTTP response.
    *
@@ -40,6 +40,8 @@ import java.util.Properties;
 import junit.framework.JUnit4TestAdapter;
 import junit.framework.TestSuite;
 import thredds.server.opendap.TestCEEvaluator;
+import thredds.server.opendap.TestNcSDArrayStreaming;
+import thredds.server.opendap.TestMetadataCache;
 
 /**
  * TestSuite that runs all TDS unit tests.
@@ -51,6 +53,7 @@ public class TestAll
   {
     TestSuite suite = new TestSuite();
     suite.addTestSuite( thredds.servlet.TestDataRootHandler.class );
+    suite.addTestSuite( thredds.servlet.TestReturnFile.class );
     suite.addTest( new JUnit4TestAdapter( thredds.servlet.StaticViewerTest.class ));
     // suite.addTest( new JUnit4TestAdapter( thredds.server.catalogservice.LocalCatalogServiceControllerTest.class ) );
     suite.addTestSuite( thredds.server.catalogservice.TestLocalCatalogRequest.class );
@@ -61,6 +64,8 @@ public class TestAll
     suite.addTest( thredds.util.filesource.TestAll.suite() );
 
     suite.addTest(new TestSuite(TestCEEvaluator.class));    
+    suite.addTest(new TestSuite(TestNcSDArrayStreaming.class));
+    suite.addTest(new TestSuite(TestMetadataCache.class));
 
     return suite;
   }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.server.opendap;
+
+import junit.framework.TestCase;
+import opendap.Server.CEEvaluator;
+import opendap.Server.ServerDDS;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriteable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * The cached metadata responses are the same as ones made from the opened dataset.
+ *
+ * @author caron
+ */
+public class TestMetadataCache extends TestCase {
+
+  public TestMetadataCache(String name) {
+    super(name);
+  }
+
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("TestMetadataCache", ".nc");
+    NetcdfFileWriteable ncfile = NetcdfFileWriteable.createNew(file.getPath(), false);
+    ncfile.addDimension("time", 3);
+    ncfile.addDimension("lat", 4);
+    ncfile.addVariable("temp", DataType.FLOAT, "time lat");
+    ncfile.addVariableAttribute("temp", new Attribute("units", "K"));
+    ncfile.addVariable("lat", DataType.FLOAT, "lat");
+    ncfile.addGlobalAttribute("title", "metadata cache test");
+    ncfile.create();
+    ncfile.close();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testResponses() throws Exception {
+    GuardedDatasetCacheAndClone ds = open();
+    MetadataCache.Entry entry = new MetadataCache.Entry(file.lastModified(), ds.getDDS(), ds.getDAS());
+    ds.close();
+
+    ds = open();
+    try {
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      ds.getDDS().print(bout);
+      assertTrue(Arrays.equals(bout.toByteArray(), entry.getDDSResponse()));
+
+      bout = new ByteArrayOutputStream();
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(bout));
+      ds.getDAS().print(pw);
+      pw.flush();
+      assertTrue(Arrays.equals(bout.toByteArray(), entry.getDASResponse()));
+      assertTrue(new String(entry.getDASResponse()).contains("metadata cache test"));
+
+      ServerDDS ddx = ds.getDDS();
+      ddx.ingestDAS(ds.getDAS());
+      bout = new ByteArrayOutputStream();
+      pw = new PrintWriter(new OutputStreamWriter(bout));
+      ddx.printXML(pw);
+      pw.flush();
+      assertTrue(Arrays.equals(bout.toByteArray(), entry.getDDXResponse()));
+
+      assertEquals(constrained(ds.getDDS(), "temp[0:1][2]"), constrained(entry.getDDS(), "temp[0:1][2]"));
+      // the template is not changed by a constraint
+      assertTrue(Arrays.equals(bout.toByteArray(), entry.getDDXResponse()));
+      assertEquals(constrained(ds.getDDS(), "lat"), constrained(entry.getDDS(), "lat"));
+
+    } finally {
+      ds.close();
+    }
+  }
+
+  public void testCache() throws Exception {
+    MetadataCache cache = new MetadataCache(2);
+    GuardedDatasetCacheAndClone ds = open();
+    try {
+      for (int i = 0; i < 3; i++)
+        cache.put("path" + i, new MetadataCache.Entry(100, ds.getDDS(), ds.getDAS()));
+    } finally {
+      ds.close();
+    }
+    assertEquals(2, cache.size());
+    assertNull(cache.get("path0", 100));
+    assertNotNull(cache.get("path1", 100));
+    assertNull(cache.get("path2", 101)); // changed since
+    assertEquals(1, cache.size());
+    assertNotNull(cache.get("path1", 100));
+  }
+
+  private GuardedDatasetCacheAndClone open() throws Exception {
+    return new GuardedDatasetCacheAndClone(file.getPath(), NetcdfFile.open(file.getPath()), false);
+  }
+
+  private String constrained(ServerDDS dds, String constraint) throws Exception {
+    CEEvaluator ce = new CEEvaluator(dds);
+    ce.parseConstraint(constraint);
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    PrintWriter pw = new PrintWriter(new OutputStreamWriter(bout));
+    dds.printConstrained(pw);
+    pw.flush();
+    return bout.toString();
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package thredds.server.opendap;
+
+import junit.framework.TestCase;
+import opendap.Server.CEEvaluator;
+import opendap.Server.ServerDDS;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriteable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * A .dods response sent a slab at a time is the same as one read all at once.
+ *
+ * @author caron
+ */
+public class TestNcSDArrayStreaming extends TestCase {
+
+  public TestNcSDArrayStreaming(String name) {
+    super(name);
+  }
+
+  static private final String[] constraints = {"b", "s", "f", "d", "b,s,f,d", "b[1:3][0:2:6][5]", "s[0:2:4][1:5][0:8]",
+      "f[1][0:6][0:9]", "f[0:2:4][3:2:6][1:3:9]", "d[2:4]"};
+
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("TestNcSDArrayStreaming", ".nc");
+    NetcdfFileWriteable ncfile = NetcdfFileWriteable.createNew(file.getPath(), false);
+    ncfile.addDimension("t", 5);
+    ncfile.addDimension("y", 7); // odd, so bytes need padding
+    ncfile.addDimension("x", 11);
+    String[] names = {"b", "s", "f", "d"};
+    DataType[] types = {DataType.BYTE, DataType.SHORT, DataType.FLOAT, DataType.DOUBLE};
+    for (int i = 0; i < names.length; i++)
+      ncfile.addVariable(names[i], types[i], (i == 3) ? "t" : "t y x");
+    ncfile.create();
+    for (int i = 0; i < names.length; i++) {
+      Array data = Array.factory(types[i], (i == 3) ? new int[]{5} : new int[]{5, 7, 11});
+      IndexIterator ii = data.getIndexIterator();
+      int count = 0;
+      while (ii.hasNext())
+        ii.setDoubleNext(count++ * 1.5 - 100);
+      ncfile.write(names[i], data);
+    }
+    ncfile.close();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    NcSDArray.setSlabSize(8 * 1000 * 1000);
+    file.delete();
+  }
+
+  public void testSlabs() throws Exception {
+    for (String constraint : constraints) {
+      byte[] expected = send(constraint, 1000 * 1000);
+      for (long slabSize : new long[]{1, 8, 30, 100})
+        assertTrue(constraint + " slab " + slabSize, Arrays.equals(expected, send(constraint, slabSize)));
+    }
+  }
+
+  private byte[] send(String constraint, long slabSize) throws Exception {
+    NcSDArray.setSlabSize(slabSize);
+    NetcdfFile ncfile = NetcdfFile.open(file.getPath());
+    GuardedDatasetCacheAndClone ds = new GuardedDatasetCacheAndClone(file.getPath(), ncfile, false);
+    try {
+      ServerDDS dds = ds.getDDS();
+      CEEvaluator ce = new CEEvaluator(dds);
+      ce.parseConstraint(constraint);
+      NcSDArray f = (NcSDArray) dds.getVariable("f");
+      if (slabSize == 1 && f.isProject()) assertTrue(f.isStreamed());
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      DataOutputStream sink = new DataOutputStream(bout);
+      ce.send(dds.getName(), sink, ds);
+      sink.flush();
+      assertTrue(bout.size() > 0);
+      return bout.toByteArray();
+    } finally {
+      ds.close();
+    }
+  }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 1998-2009 University Corporation for Atmospheric Research/Unidata
+ *
+ * Portions of this software were developed by the Unidata Program at the
+ * University Corporation for Atmospheric Research.
+ *
+ * Access and use of this software shall impose the following obligations
+ * and understandings on the user. The user is granted the right, without
+ * any fee or cost, to use, copy, modify, alter, enhance and distribute
+ * this software, and any derivative works thereof, and its supporting
+ * documentation for any purpose whatsoever, provided that this entire
+ * notice appears in all copies of the software, derivative works and
+ * supporting documentation.  Further, UCAR requests that the user credit
+ * UCAR/Unidata in any publications that result from the use of this
+ * software or in any product that includes this software. The names UCAR
+ * and/or Unidata, however, may not be used in any advertising or publicity
+ * to endorse or promote any products or commercial entity unless specific
+ * written permission is obtained from UCAR/Unidata. The user also
+ * understands that UCAR/Unidata is not obligated to provide the user with
+ * any support, consulting, training or assistance of any kind with regard
+ * to the use, operation and performance of this software nor to provide
+ * the user with any updates, revisions, new versions or "bug fixes."
+ *
+ * THIS SOFTWARE IS PROVIDED BY UCAR/UNIDATA "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL UCAR/UNIDATA BE LIABLE FOR ANY SPECIAL,
+ * INDIRECT OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES WHATSOEVER RESULTING
+ * FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN ACTION OF CONTRACT,
+ * NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR IN CONNECTION
+ * WITH THE ACCESS, USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package thredds.servlet;
+
+import junit.framework.TestCase;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import ucar.nc2.util.cache.FileCacheRaf;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Range and conditional requests in ServletUtil.returnFile.
+ *
+ * @author caron
+ */
+public class TestReturnFile extends TestCase {
+
+  public TestReturnFile(String name) {
+    super(name);
+  }
+
+  private File file;
+  private byte[] content;
+
+  @Override
+  protected void setUp() throws Exception {
+    content = new byte[10000];
+    for (int i = 0; i < content.length; i++) content[i] = (byte) (i * 7);
+    file = File.createTempFile("TestReturnFile", ".bin");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content);
+    out.close();
+    if (ServletUtil.getFileCache() == null)
+      ServletUtil.setFileCache(new FileCacheRaf(1, 10, 0));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testParse() {
+    assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", 10000));
+    assertEquals(Arrays.asList(new ByteRange(9500, 9999)), ByteRange.parse("bytes=9500-", 10000));
+    assertEquals(Arrays.asList(new ByteRange(9500, 9999)), ByteRange.parse("bytes=-500", 10000));
+    assertEquals(Arrays.asList(new ByteRange(0, 9999)), ByteRange.parse("bytes=-20000", 10000));
+    assertEquals(Arrays.asList(new ByteRange(9000, 9999)), ByteRange.parse("bytes=9000-20000", 10000));
+    assertEquals(Arrays.asList(new ByteRange(0, 0), new ByteRange(9999, 9999)), ByteRange.parse("bytes=0-0, -1", 10000));
+    assertEquals(Arrays.asList(new ByteRange(5, 9)), ByteRange.parse("bytes=10000-, 5-9,", 10000));
+    assertTrue(ByteRange.parse("bytes=10000-", 10000).isEmpty());
+    assertTrue(ByteRange.parse("bytes=-0", 10000).isEmpty());
+    assertNull(ByteRange.parse("bytes=5-4", 10000));
+    assertNull(ByteRange.parse("bytes=a-4", 10000));
+    assertNull(ByteRange.parse("bytes=5", 10000));
+    assertNull(ByteRange.parse("bytes=", 10000));
+    assertNull(ByteRange.parse("items=0-5", 10000));
+  }
+
+  // ranges are sorted and merged, and overlapping ranges adding up to more than the file are ignored
+  public void testParseMerge() {
+    assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 599)), ByteRange.parse("bytes=500-599,0-99,100-199", 10000));
+    assertEquals(Arrays.asList(new ByteRange(0, 14)), ByteRange.parse("bytes=0-9,5-14", 10000));
+    assertEquals(Arrays.asList(new ByteRange(0, 99), new ByteRange(9900, 9999)), ByteRange.parse("bytes=-100,0-99,9950-", 10000));
+    assertNull(ByteRange.parse("bytes=0-,0-", 10000));
+
+    StringBuilder sbuff = new StringBuilder("bytes=0-100");
+    for (int i = 1; i < 150; i++) sbuff.append(",").append(i).append("-").append(i + 100);
+    assertNull(ByteRange.parse(sbuff.toString(), 10000));
+  }
+
+  public void testWholeFile() throws Exception {
+    MockHttpServletResponse res = send(request());
+    assertEquals(HttpServletResponse.SC_OK, res.getStatus());
+    assertTrue(Arrays.equals(content, res.getContentAsByteArray()));
+    assertEquals("bytes", res.getHeader("Accept-Ranges"));
+    assertNotNull(res.getHeader("ETag"));
+  }
+
+  public void testSingleRange() throws Exception {
+    MockHttpServletRequest req = request();
+    req.addHeader("Range", "bytes=-100");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus());
+    assertEquals("bytes 9900-9999/10000", res.getHeader("Content-Range"));
+    assertEquals("100", res.getHeader("Content-Length"));
+    assertTrue(Arrays.equals(Arrays.copyOfRange(content, 9900, 10000), res.getContentAsByteArray()));
+  }
+
+  public void testMultipleRanges() throws Exception {
+    MockHttpServletRequest req = request();
+    req.addHeader("Range", "bytes=10-19,5000-5009,-3");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus());
+    String contentType = res.getContentType();
+    assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+    String boundary = contentType.substring(contentType.indexOf('=') + 1);
+
+    byte[] body = res.getContentAsByteArray();
+    assertEquals(Integer.toString(body.length), res.getHeader("Content-Length"));
+    String text = new String(body, "ISO-8859-1");
+    List<ByteRange> ranges = ByteRange.parse("bytes=10-19,5000-5009,-3", 10000);
+    int pos = 0;
+    for (ByteRange range : ranges) {
+      String header = ServletUtil.getPartHeader(boundary, "application/octet-stream", range, 10000);
+      assertEquals(pos, text.indexOf(header, pos));
+      pos += header.length();
+      byte[] part = Arrays.copyOfRange(body, pos, pos + (int) range.getLength());
+      assertTrue(range.toString(), Arrays.equals(Arrays.copyOfRange(content, (int) range.getFirst(), (int) range.getLast() + 1), part));
+      pos += part.length;
+    }
+    assertEquals(ServletUtil.getPartsEnd(boundary), text.substring(pos));
+  }
+
+  public void testOverlappingRanges() throws Exception {
+    MockHttpServletRequest req = request();
+    req.addHeader("Range", "bytes=0-,1-,2-");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_OK, res.getStatus());
+    assertTrue(Arrays.equals(content, res.getContentAsByteArray()));
+  }
+
+  public void testUnsatisfiable() throws Exception {
+    MockHttpServletRequest req = request();
+    req.addHeader("Range", "bytes=20000-");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, res.getStatus());
+    assertEquals("bytes */10000", res.getHeader("Content-Range"));
+  }
+
+  public void testConditional() throws Exception {
+    String etag = (String) send(request()).getHeader("ETag");
+
+    MockHttpServletRequest req = request();
+    req.addHeader("If-None-Match", etag);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(req).getStatus());
+
+    req = request();
+    req.addHeader("If-None-Match", "\"other\"");
+    assertEquals(HttpServletResponse.SC_OK, send(req).getStatus());
+
+    req = request();
+    req.addHeader("If-Modified-Since", file.lastModified() + 1000);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(req).getStatus());
+
+    // If-Range that matches sends the range, otherwise the whole file
+    req = request();
+    req.addHeader("Range", "bytes=0-9");
+    req.addHeader("If-Range", etag);
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, send(req).getStatus());
+
+    req = request();
+    req.addHeader("Range", "bytes=0-9");
+    req.addHeader("If-Range", "\"other\"");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_OK, res.getStatus());
+    assertEquals(content.length, res.getContentAsByteArray().length);
+  }
+
+  public void testSendfile() throws Exception {
+    MockHttpServletRequest req = request();
+    req.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+    req.addHeader("Range", "bytes=100-199");
+    MockHttpServletResponse res = send(req);
+    assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, res.getStatus());
+    assertEquals(0, res.getContentAsByteArray().length);
+    assertEquals(file.getCanonicalPath(), req.getAttribute("org.apache.tomcat.sendfile.filename"));
+    assertEquals(100L, req.getAttribute("org.apache.tomcat.sendfile.start"));
+    assertEquals(200L, req.getAttribute("org.apache.tomcat.sendfile.end"));
+  }
+
+  private MockHttpServletRequest request() {
+    return new MockHttpServletRequest("GET", "/thredds/fileServer/test.bin");
+  }
+
+  private MockHttpServletResponse send(MockHttpServletRequest req) throws Exception {
+    MockHttpServletResponse res = new MockHttpServletResponse();
+    UsageLog.setupRequestContext(req);
+    ServletUtil.returnFile(req, res, file, "application/octet-stream");
+    return res;
+  }
+
+}